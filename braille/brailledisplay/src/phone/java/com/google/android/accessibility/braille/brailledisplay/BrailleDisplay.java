@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.accessibility.braille.brailledisplay;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.view.accessibility.AccessibilityEvent;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import com.google.android.accessibility.braille.common.BrailleUserPreferences;
+import com.google.android.accessibility.braille.common.translate.BrailleLanguages.Code;
+import com.google.android.accessibility.braille.interfaces.BrailleCharacter;
+import com.google.android.accessibility.braille.interfaces.BrailleDisplayForBrailleIme;
+import com.google.android.accessibility.braille.interfaces.BrailleDisplayForTalkBack;
+import com.google.android.accessibility.braille.interfaces.BrailleImeForBrailleDisplay;
+import com.google.android.accessibility.braille.interfaces.TalkBackForBrailleDisplay;
+import com.google.android.accessibility.braille.interfaces.TalkBackForBrailleDisplay.ScreenReaderAction;
+import com.google.android.accessibility.braille.translate.BrailleTranslator;
+import com.google.android.accessibility.braille.translate.TranslationResult;
+import com.google.android.accessibility.braille.translate.TranslatorService;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Shows the accessibility focused node on a braille display, and performs the commands given on
+ * the display.
+ *
+ * <p>The text of the focused node, or the editing text while BrailleIme shows it, is translated to
+ * braille and shown one display width at a time, breaking between words where possible. Panning
+ * past either end of the text moves to the next or previous item. Only the cells that changed are
+ * written to the display, see {@link CellWriter}.
+ *
+ * <p>Text is translated on the thread of the shared {@link TranslatorService}, after the input of
+ * the braille keyboard, and shown when its translation arrives on the main thread. Text replaced
+ * before its translation started is not translated, so that bursts of content changes are
+ * translated once.
+ *
+ * <p>The display is reached through a {@link DisplayTransport}. Without a transport the display
+ * stays idle, as the stub for builds without braille display did.
+ */
+public class BrailleDisplay implements BrailleDisplayForTalkBack {
+
+  private static final int MASK_EVENTS_FOCUS = AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED;
+
+  private static final int MASK_EVENTS_REFRESH =
+      AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+          | AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED
+          | AccessibilityEvent.TYPE_VIEW_TEXT_SELECTION_CHANGED;
+
+  /** Number of cells of the virtual display, like a common 40 cell display. */
+  private static final int VIRTUAL_DISPLAY_CELL_COUNT = 40;
+
+  /** Where to pan to when the translation of new text arrives. */
+  private static final int PAN_TO_START = 0;
+
+  private static final int PAN_TO_END = 1;
+  /** Keeps showing the same part of the text, if the text is still as long. */
+  private static final int PAN_KEEP = 2;
+  /** Shows the part of the text with the cursor. */
+  private static final int PAN_TO_CURSOR = 3;
+
+  /** Dots 7 and 8, which mark the cursor in editing text. */
+  private static final byte DOTS_CURSOR = (byte) 0b11000000;
+
+  private static final TranslationResult EMPTY_TRANSLATION =
+      new TranslationResult(new byte[0], new int[0], new int[0], /* cursorPosition= */ -1);
+
+  private final TalkBackForBrailleDisplay talkBackForBrailleDisplay;
+  @Nullable private final DisplayTransport transport;
+  @Nullable private final BrailleTranslator translator;
+  @Nullable private final CellWriter cellWriter;
+  private final TranslatorService translatorService;
+  private final Executor mainExecutor;
+
+  private boolean started = false;
+  private boolean connected = false;
+  /** Whether BrailleIme took over the display in favor of its on-screen keyboard. */
+  private boolean suspended = false;
+
+  /** The text shown, or being translated to be shown. */
+  private CharSequence text = "";
+  private TranslationResult translation = EMPTY_TRANSLATION;
+  @Nullable private Future<TranslationResult> pendingTranslation;
+  /** Number of texts set, so that translations of replaced text are discarded. */
+  private int textCount = 0;
+  /** Whether the text is the editing text from BrailleIme, rather than the focused node's. */
+  private boolean showingEditingText = false;
+  /** The first cell of the translation that is shown. */
+  private int panPosition = 0;
+  /** Whether to show the end of the next focused node, after panning left past the start. */
+  private boolean showEndOfNextFocus = false;
+
+  private long focusChangeCount = 0;
+  private long focusChangeCellsWritten = 0;
+  private long translationCount = 0;
+  private long skippedTranslationCount = 0;
+
+  public BrailleDisplay(Context context, TalkBackForBrailleDisplay talkBackForBrailleDisplay) {
+    this(talkBackForBrailleDisplay, /* transport= */ null, /* translator= */ null);
+  }
+
+  /**
+   * Creates a display that shows braille from {@code translator} on the display reached by {@code
+   * transport}. The display stays idle if either is null.
+   */
+  public BrailleDisplay(
+      TalkBackForBrailleDisplay talkBackForBrailleDisplay,
+      @Nullable DisplayTransport transport,
+      @Nullable BrailleTranslator translator) {
+    this(
+        talkBackForBrailleDisplay,
+        transport,
+        translator,
+        TranslatorService.getInstance(),
+        new Handler(Looper.getMainLooper())::post);
+  }
+
+  /**
+   * Creates a display that shows braille in the user's braille code on a {@link
+   * VirtualDisplayTransport}, to run the display without a device. The cells shown are logged.
+   */
+  public static BrailleDisplay createWithVirtualDisplay(
+      Context context, TalkBackForBrailleDisplay talkBackForBrailleDisplay) {
+    Code code = BrailleUserPreferences.readCurrentActiveInputCodeAndCorrect(context);
+    BrailleTranslator translator =
+        BrailleUserPreferences.readTranslatorFactory().create(context, code.name());
+    return new BrailleDisplay(
+        talkBackForBrailleDisplay,
+        new VirtualDisplayTransport(VIRTUAL_DISPLAY_CELL_COUNT),
+        translator);
+  }
+
+  @VisibleForTesting
+  BrailleDisplay(
+      TalkBackForBrailleDisplay talkBackForBrailleDisplay,
+      @Nullable DisplayTransport transport,
+      @Nullable BrailleTranslator translator,
+      TranslatorService translatorService,
+      Executor mainExecutor) {
+    this.talkBackForBrailleDisplay = talkBackForBrailleDisplay;
+    boolean usable = (transport != null) && (translator != null);
+    this.transport = usable ? transport : null;
+    this.translator = usable ? translator : null;
+    this.cellWriter = usable ? new CellWriter(transport) : null;
+    this.translatorService = translatorService;
+    this.mainExecutor = mainExecutor;
+  }
+
+  @Override
+  public void start() {
+    if (started || transport == null) {
+      return;
+    }
+    started = true;
+    transport.connect(transportCallback);
+  }
+
+  @Override
+  public void stop() {
+    if (!started) {
+      return;
+    }
+    started = false;
+    transport.disconnect();
+    if (connected) {
+      onDisconnected();
+    }
+  }
+
+  @Override
+  public void onAccessibilityEvent(AccessibilityEvent accessibilityEvent) {
+    if (!connected) {
+      return;
+    }
+    int eventType = accessibilityEvent.getEventType();
+    if ((eventType & MASK_EVENTS_FOCUS) != 0) {
+      suspended = false;
+      showingEditingText = false;
+      showFocusedNode(/* focusChanged= */ true);
+    } else if ((eventType & MASK_EVENTS_REFRESH) != 0 && !suspended && !showingEditingText) {
+      showFocusedNode(/* focusChanged= */ false);
+    }
+  }
+
+  @Override
+  public BrailleDisplayForBrailleIme getBrailleDisplayForBrailleIme() {
+    return brailleDisplayForBrailleIme;
+  }
+
+  /**
+   * Returns the average number of cells written to show a newly focused node. Cells that the
+   * previous node left unchanged are not written.
+   */
+  public double getCellsWrittenPerFocusChange() {
+    return (focusChangeCount == 0) ? 0 : ((double) focusChangeCellsWritten / focusChangeCount);
+  }
+
+  /** Returns the number of texts translated. */
+  public long getTranslationCount() {
+    return translationCount;
+  }
+
+  /** Returns the number of texts replaced before they were translated. */
+  public long getSkippedTranslationCount() {
+    return skippedTranslationCount;
+  }
+
+  private final DisplayTransport.Callback transportCallback =
+      new DisplayTransport.Callback() {
+        @Override
+        public void onConnected(int cellCount) {
+          if (!started) {
+            return;
+          }
+          connected = true;
+          cellWriter.reset(cellCount);
+          showFocusedNode(/* focusChanged= */ true);
+          @Nullable BrailleImeForBrailleDisplay brailleIme = getBrailleIme();
+          if (brailleIme != null) {
+            brailleIme.onBrailleDisplayConnected();
+          }
+        }
+
+        @Override
+        public void onDisconnected() {
+          if (connected) {
+            BrailleDisplay.this.onDisconnected();
+          }
+        }
+
+        @Override
+        public void onCommand(DisplayCommand command, int argument) {
+          if (connected && !suspended) {
+            performCommand(command, argument);
+          }
+        }
+      };
+
+  private final BrailleDisplayForBrailleIme brailleDisplayForBrailleIme =
+      new BrailleDisplayForBrailleIme() {
+        @Override
+        public void showOnDisplay(ResultForDisplay result) {
+          if (connected && !suspended) {
+            showEditingText(result.onScreenText(), result.textSelectionRange().getUpper());
+          }
+        }
+
+        @Override
+        public boolean isBrailleDisplayConnectedAndNotSuspended() {
+          return connected && !suspended;
+        }
+
+        @Override
+        public void suspendInFavorOfBrailleKeyboard() {
+          suspended = true;
+        }
+      };
+
+  private void onDisconnected() {
+    connected = false;
+    suspended = false;
+    showingEditingText = false;
+    cancelPendingTranslation();
+    text = "";
+    translation = EMPTY_TRANSLATION;
+    panPosition = 0;
+    @Nullable BrailleImeForBrailleDisplay brailleIme = getBrailleIme();
+    if (brailleIme != null) {
+      brailleIme.onBrailleDisplayDisconnected();
+    }
+  }
+
+  private void performCommand(DisplayCommand command, int argument) {
+    switch (command) {
+      case PAN_LEFT:
+        panLeft();
+        break;
+      case PAN_RIGHT:
+        panRight();
+        break;
+      case ROUTE:
+        route(argument);
+        break;
+      case DOTS:
+        @Nullable BrailleImeForBrailleDisplay brailleIme = getBrailleIme();
+        if (brailleIme != null) {
+          brailleIme.sendBrailleDots(BrailleCharacter.valueOf((byte) argument));
+        }
+        break;
+      default:
+        @Nullable ScreenReaderAction action = command.getScreenReaderAction();
+        if (action != null) {
+          talkBackForBrailleDisplay.performAction(action);
+        }
+        break;
+    }
+  }
+
+  private void panLeft() {
+    if (panPosition > 0) {
+      panPosition = getPreviousWindowStart(panPosition);
+      refresh();
+    } else if (!showingEditingText) {
+      showEndOfNextFocus = true;
+      if (!talkBackForBrailleDisplay.performAction(ScreenReaderAction.PREVIOUS_ITEM)) {
+        showEndOfNextFocus = false;
+      }
+    }
+  }
+
+  private void panRight() {
+    int next = getNextWindowStart(panPosition);
+    if (next < translation.getCells().length) {
+      panPosition = next;
+      refresh();
+    } else if (!showingEditingText) {
+      talkBackForBrailleDisplay.performAction(ScreenReaderAction.NEXT_ITEM);
+    }
+  }
+
+  /**
+   * Moves the text cursor to the routed cell in editing text, or activates the focused node. The
+   * cell after the end of editing text, where the cursor is drawn at the end, moves the text
+   * cursor to the end.
+   */
+  private void route(int cell) {
+    int index = panPosition + cell;
+    boolean inWindow = cell >= 0 && index < getWindowEnd(panPosition);
+    if (showingEditingText) {
+      int textPosition;
+      if (inWindow) {
+        textPosition = translation.getBrailleToTextPositions()[index];
+      } else if (cell >= 0
+          && cell < cellWriter.getCellCount()
+          && index == translation.getCells().length) {
+        textPosition = translation.getTextToBraillePositions().length;
+      } else {
+        return;
+      }
+      @Nullable BrailleImeForBrailleDisplay brailleIme = getBrailleIme();
+      if (brailleIme != null) {
+        brailleIme.moveTextFieldCursor(textPosition);
+      }
+    } else if (inWindow) {
+      talkBackForBrailleDisplay.performAction(ScreenReaderAction.ACTIVATE_CURRENT);
+    }
+  }
+
+  private void showFocusedNode(boolean focusChanged) {
+    CharSequence nodeText = "";
+    @Nullable
+    AccessibilityNodeInfoCompat node =
+        talkBackForBrailleDisplay.getAccessibilityFocusNode(/* fallbackOnRoot= */ false);
+    if (node != null) {
+      nodeText = getNodeText(node);
+      node.recycle();
+    }
+
+    if (focusChanged) {
+      setText(
+          nodeText,
+          /* cursorPosition= */ -1,
+          showEndOfNextFocus ? PAN_TO_END : PAN_TO_START,
+          /* focusChanged= */ true);
+      showEndOfNextFocus = false;
+    } else if (!TextUtils.equals(nodeText, text)) {
+      setText(nodeText, /* cursorPosition= */ -1, PAN_KEEP, /* focusChanged= */ false);
+    }
+  }
+
+  private void showEditingText(CharSequence editingText, int textCursorPosition) {
+    showingEditingText = true;
+    setText(editingText, Math.max(textCursorPosition, 0), PAN_TO_CURSOR, /* focusChanged= */ false);
+  }
+
+  private CharSequence getNodeText(AccessibilityNodeInfoCompat node) {
+    CharSequence label = talkBackForBrailleDisplay.getCustomLabelText(node);
+    if (!TextUtils.isEmpty(label)) {
+      return label;
+    }
+    if (!TextUtils.isEmpty(node.getContentDescription())) {
+      return node.getContentDescription();
+    }
+    return TextUtils.isEmpty(node.getText()) ? "" : node.getText();
+  }
+
+  /**
+   * Shows {@code text} once it is translated, replacing text that is still being translated.
+   *
+   * @param panTarget Where to pan to in the translation, one of the {@code PAN_*} constants
+   * @param focusChanged Whether the text is shown for a newly focused node
+   */
+  private void setText(CharSequence text, int cursorPosition, int panTarget, boolean focusChanged) {
+    this.text = text;
+    cancelPendingTranslation();
+    int count = ++textCount;
+    String string = text.toString();
+    if (string.isEmpty()) {
+      showTranslation(EMPTY_TRANSLATION, panTarget, focusChanged);
+      return;
+    }
+    pendingTranslation =
+        translatorService.translate(
+            translator,
+            string,
+            cursorPosition,
+            /* computerBrailleAtCursor= */ false,
+            result ->
+                mainExecutor.execute(
+                    () -> {
+                      if (count != textCount || !connected) {
+                        // Replaced by newer text, or the display is gone.
+                        return;
+                      }
+                      pendingTranslation = null;
+                      translationCount++;
+                      showTranslation(
+                          (result == null)
+                              ? TranslationResult.createUnknown(string, cursorPosition)
+                              : result,
+                          panTarget,
+                          focusChanged);
+                    }));
+  }
+
+  private void cancelPendingTranslation() {
+    if (pendingTranslation != null) {
+      if (pendingTranslation.cancel(/* mayInterruptIfRunning= */ false)) {
+        skippedTranslationCount++;
+      }
+      pendingTranslation = null;
+    }
+  }
+
+  private void showTranslation(TranslationResult translation, int panTarget, boolean focusChanged) {
+    this.translation = translation;
+    switch (panTarget) {
+      case PAN_TO_END:
+        panPosition = getLastWindowStart();
+        break;
+      case PAN_KEEP:
+        panPosition = Math.min(panPosition, getLastWindowStart());
+        break;
+      case PAN_TO_CURSOR:
+        int cursor = translation.getCursorPosition();
+        panPosition = 0;
+        for (int next = getNextWindowStart(0);
+            next <= cursor && next < translation.getCells().length;
+            next = getNextWindowStart(next)) {
+          panPosition = next;
+        }
+        break;
+      case PAN_TO_START:
+      default:
+        panPosition = 0;
+        break;
+    }
+
+    int written = refresh();
+    if (focusChanged) {
+      focusChangeCount++;
+      focusChangeCellsWritten += written;
+    }
+  }
+
+  /** Writes the shown part of the translation to the display, returning the cells written. */
+  private int refresh() {
+    int end = getWindowEnd(panPosition);
+    byte[] window = Arrays.copyOfRange(translation.getCells(), panPosition, end);
+    int cursor = translation.getCursorPosition() - panPosition;
+    if (showingEditingText && cursor >= 0 && cursor < cellWriter.getCellCount()) {
+      if (cursor >= window.length) {
+        window = Arrays.copyOf(window, cursor + 1);
+      }
+      window[cursor] |= DOTS_CURSOR;
+    }
+    return cellWriter.write(window);
+  }
+
+  /**
+   * Returns the end of the part of the translation shown from {@code start}. The part ends after
+   * a blank cell in its second half if it would otherwise split a word.
+   */
+  private int getWindowEnd(int start) {
+    byte[] cells = translation.getCells();
+    int cellCount = Math.max(1, cellWriter.getCellCount());
+    int end = start + cellCount;
+    if (end >= cells.length) {
+      return cells.length;
+    }
+    if (cells[end] == 0) {
+      return end;
+    }
+    for (int i = end - 1; i > start + cellCount / 2; i--) {
+      if (cells[i] == 0) {
+        return i + 1;
+      }
+    }
+    return end;
+  }
+
+  /** Returns the start of the part shown after the one from {@code start}, skipping blanks. */
+  private int getNextWindowStart(int start) {
+    byte[] cells = translation.getCells();
+    int next = getWindowEnd(start);
+    while (next < cells.length && cells[next] == 0) {
+      next++;
+    }
+    return next;
+  }
+
+  private int getPreviousWindowStart(int start) {
+    int previous = 0;
+    for (int next = getNextWindowStart(0); next < start; next = getNextWindowStart(next)) {
+      previous = next;
+    }
+    return previous;
+  }
+
+  private int getLastWindowStart() {
+    return getPreviousWindowStart(translation.getCells().length);
+  }
+
+  @Nullable
+  private BrailleImeForBrailleDisplay getBrailleIme() {
+    return talkBackForBrailleDisplay.getBrailleImeForBrailleDisplay();
+  }
+
+  @Override
+  public String toString() {
+    return "BrailleDisplay{connected="
+        + connected
+        + ", suspended="
+        + suspended
+        + ", focusChanges="
+        + focusChangeCount
+        + ", cellsWrittenPerFocusChange="
+        + getCellsWrittenPerFocusChange()
+        + ", translations="
+        + translationCount
+        + ", skippedTranslations="
+        + skippedTranslationCount
+        + ", writer="
+        + cellWriter
+        + "}";
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.accessibility.braille.brailledisplay;
+
+import java.util.Arrays;
+
+/**
+ * Writes cells to a display through its transport, sending only the ranges of cells that differ
+ * from what the display shows.
+ *
+ * <p>Changed cells separated by a few unchanged cells are sent as one range, since a write has a
+ * cost of its own on most transports.
+ */
+class CellWriter {
+
+  /** Largest number of unchanged cells that are sent to join two changed ranges. */
+  private static final int MAX_JOINED_GAP = 3;
+
+  private final DisplayTransport transport;
+
+  /** The cells the display shows. */
+  private byte[] displayed = new byte[0];
+
+  /** Whether {@link #displayed} is unknown, as when the display was just connected. */
+  private boolean stale = true;
+
+  private long writeCount = 0;
+  private long cellsWritten = 0;
+
+  CellWriter(DisplayTransport transport) {
+    this.transport = transport;
+  }
+
+  /** Sets the size of the display, whose cells are unknown until they are written. */
+  void reset(int cellCount) {
+    displayed = new byte[cellCount];
+    stale = true;
+  }
+
+  /** Returns the number of cells of the display. */
+  int getCellCount() {
+    return displayed.length;
+  }
+
+  /**
+   * Shows the cells, which are padded with blank cells or cut to the size of the display.
+   *
+   * @return the number of cells written
+   */
+  int write(byte[] cells) {
+    byte[] wanted = Arrays.copyOf(cells, displayed.length);
+    if (stale) {
+      stale = false;
+      return send(wanted, 0, wanted.length);
+    }
+
+    int written = 0;
+    int index = 0;
+    while (index < wanted.length) {
+      if (wanted[index] == displayed[index]) {
+        index++;
+        continue;
+      }
+      int start = index;
+      int end = index + 1;
+      // Extend the range over changed cells, and over short runs of unchanged cells between them.
+      for (int next = end; next < wanted.length && next - end <= MAX_JOINED_GAP; next++) {
+        if (wanted[next] != displayed[next]) {
+          end = next + 1;
+        }
+      }
+      written += send(wanted, start, end);
+      index = end;
+    }
+    return written;
+  }
+
+  private int send(byte[] wanted, int start, int end) {
+    int length = end - start;
+    if (length <= 0) {
+      return 0;
+    }
+    transport.writeCells(start, wanted, start, length);
+    System.arraycopy(wanted, start, displayed, start, length);
+    writeCount++;
+    cellsWritten += length;
+    return length;
+  }
+
+  @Override
+  public String toString() {
+    return "CellWriter{cells="
+        + displayed.length
+        + ", writes="
+        + writeCount
+        + ", cellsWritten="
+        + cellsWritten
+        + "}";
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.accessibility.braille.brailledisplay;
+
+import androidx.annotation.Nullable;
+import com.google.android.accessibility.braille.interfaces.TalkBackForBrailleDisplay.ScreenReaderAction;
+
+/**
+ * A command given on a braille display, as reported by its {@link DisplayTransport}. Commands that
+ * navigate map to the {@link ScreenReaderAction} TalkBack performs for them.
+ */
+public enum DisplayCommand {
+  /** Shows the previous part of the content, or the previous item at its start. */
+  PAN_LEFT,
+  /** Shows the next part of the content, or the next item at its end. */
+  PAN_RIGHT,
+  /** A routing key was pressed. The argument is the index of the cell above the key. */
+  ROUTE,
+  /** Braille was typed. The argument holds the dots, as by {@code BrailleCharacter.toByte()}. */
+  DOTS,
+  NEXT_ITEM(ScreenReaderAction.NEXT_ITEM),
+  PREVIOUS_ITEM(ScreenReaderAction.PREVIOUS_ITEM),
+  NEXT_LINE(ScreenReaderAction.NEXT_LINE),
+  PREVIOUS_LINE(ScreenReaderAction.PREVIOUS_LINE),
+  SCROLL_FORWARD(ScreenReaderAction.SCROLL_FORWARD),
+  SCROLL_BACKWARD(ScreenReaderAction.SCROLL_BACKWARD),
+  NAVIGATE_TO_TOP(ScreenReaderAction.NAVIGATE_TO_TOP),
+  NAVIGATE_TO_BOTTOM(ScreenReaderAction.NAVIGATE_TO_BOTTOM),
+  ACTIVATE_CURRENT(ScreenReaderAction.ACTIVATE_CURRENT),
+  GLOBAL_HOME(ScreenReaderAction.GLOBAL_HOME),
+  GLOBAL_BACK(ScreenReaderAction.GLOBAL_BACK),
+  GLOBAL_RECENTS(ScreenReaderAction.GLOBAL_RECENTS),
+  GLOBAL_NOTIFICATIONS(ScreenReaderAction.GLOBAL_NOTIFICATIONS),
+  OPEN_TALKBACK_MENU(ScreenReaderAction.OPEN_TALKBACK_MENU);
+
+  @Nullable private final ScreenReaderAction action;
+
+  DisplayCommand() {
+    this(null);
+  }
+
+  DisplayCommand(@Nullable ScreenReaderAction action) {
+    this.action = action;
+  }
+
+  /** Returns the action TalkBack performs for the command, or null if the display handles it. */
+  @Nullable
+  public ScreenReaderAction getScreenReaderAction() {
+    return action;
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.accessibility.braille.brailledisplay;
+
+/**
+ * Connects {@link BrailleDisplay} to a braille display device, over Bluetooth, USB or, for tests
+ * and development, memory as by {@link VirtualDisplayTransport}.
+ *
+ * <p>Methods are called on the main thread, and callbacks must be delivered on the main thread.
+ */
+public interface DisplayTransport {
+
+  /** Receives the state and the input of the display. */
+  interface Callback {
+    /** Called when the display is connected, with the number of cells it shows. */
+    void onConnected(int cellCount);
+
+    /** Called when the display is disconnected. */
+    void onDisconnected();
+
+    /** Called when a command is given on the display, with its argument or 0. */
+    void onCommand(DisplayCommand command, int argument);
+  }
+
+  /** Starts connecting to the display, which reports through the callback. */
+  void connect(Callback callback);
+
+  /** Disconnects from the display. The callback is not called afterwards. */
+  void disconnect();
+
+  /**
+   * Writes {@code length} cells from {@code cells}, starting at {@code offset}, to the display,
+   * starting at cell {@code start}. The other cells of the display are left as they are.
+   */
+  void writeCells(int start, byte[] cells, int offset, int length);
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.accessibility.braille.brailledisplay;
+
+import androidx.annotation.Nullable;
+import com.google.android.accessibility.braille.interfaces.BrailleCharacter;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
+
+/**
+ * A braille display kept in memory, to run {@link BrailleDisplay} without a device. It connects
+ * immediately, shows the cells written to it, takes commands through {@link #press}, and counts
+ * the writes and cells it receives.
+ */
+public class VirtualDisplayTransport implements DisplayTransport {
+  private static final String TAG = "VirtualDisplayTransport";
+
+  private final byte[] cells;
+  @Nullable private Callback callback;
+
+  private long writeCount = 0;
+  private long cellsWritten = 0;
+
+  /** Creates a display with {@code cellCount} cells. */
+  public VirtualDisplayTransport(int cellCount) {
+    cells = new byte[cellCount];
+  }
+
+  @Override
+  public void connect(Callback callback) {
+    this.callback = callback;
+    callback.onConnected(cells.length);
+  }
+
+  @Override
+  public void disconnect() {
+    callback = null;
+  }
+
+  @Override
+  public void writeCells(int start, byte[] cells, int offset, int length) {
+    System.arraycopy(cells, offset, this.cells, start, length);
+    writeCount++;
+    cellsWritten += length;
+    LogUtils.v(TAG, "Shows %s", this);
+  }
+
+  /** Gives a command on the display, as if its keys were pressed. */
+  public void press(DisplayCommand command, int argument) {
+    if (callback != null) {
+      callback.onCommand(command, argument);
+    }
+  }
+
+  /** Disconnects the display, as if it was unplugged. */
+  public void unplug() {
+    Callback disconnected = callback;
+    callback = null;
+    if (disconnected != null) {
+      disconnected.onDisconnected();
+    }
+  }
+
+  /** Returns a copy of the cells the display shows. */
+  public byte[] getCells() {
+    return cells.clone();
+  }
+
+  /** Returns the number of writes received. */
+  public long getWriteCount() {
+    return writeCount;
+  }
+
+  /** Returns the number of cells written, over all writes. */
+  public long getCellsWritten() {
+    return cellsWritten;
+  }
+
+  /** Returns the cells the display shows as braille unicode. */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(cells.length);
+    for (byte cell : cells) {
+      sb.append(BrailleCharacter.valueOf(cell).asUnicodeChar());
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.android.accessibility.braille.brailledisplay;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import android.util.Range;
+import android.view.accessibility.AccessibilityEvent;
+import androidx.annotation.Nullable;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import com.google.android.accessibility.braille.interfaces.BrailleCharacter;
+import com.google.android.accessibility.braille.interfaces.BrailleDisplayForBrailleIme.ResultForDisplay;
+import com.google.android.accessibility.braille.interfaces.BrailleDisplayForBrailleIme.ResultForDisplay.HoldingsInfo;
+import com.google.android.accessibility.braille.interfaces.BrailleImeForBrailleDisplay;
+import com.google.android.accessibility.braille.interfaces.BrailleWord;
+import com.google.android.accessibility.braille.interfaces.TalkBackForBrailleDisplay;
+import com.google.android.accessibility.braille.interfaces.TalkBackForBrailleDisplay.ScreenReaderAction;
+import com.google.android.accessibility.braille.translate.BrailleTranslator;
+import com.google.android.accessibility.braille.translate.TranslationResult;
+import com.google.android.accessibility.braille.translate.TranslatorService;
+import com.google.android.accessibility.utils.FocusFinder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Runs {@link BrailleDisplay} headless, on a {@link VirtualDisplayTransport}. */
+@RunWith(RobolectricTestRunner.class)
+public class BrailleDisplayTest {
+  private static final int CELL_COUNT = 10;
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final byte DOTS_CURSOR = (byte) 0b11000000;
+
+  private final VirtualDisplayTransport transport = new VirtualDisplayTransport(CELL_COUNT);
+  private final FakeTalkBack talkBack = new FakeTalkBack();
+  private final BlockingQueue<Runnable> mainTasks = new LinkedBlockingQueue<>();
+  private BrailleDisplay display;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    talkBack.setFocusText("hello");
+    display =
+        new BrailleDisplay(
+            talkBack,
+            transport,
+            new LetterTranslator(),
+            TranslatorService.getInstance(),
+            mainTasks::add);
+    display.start();
+    runTranslatedTask();
+  }
+
+  @After
+  public void tearDown() {
+    display.stop();
+  }
+
+  @Test
+  public void start_showsFocusedNode() {
+    assertThat(transport.getCells()).isEqualTo(cells("hello", CELL_COUNT));
+  }
+
+  @Test
+  public void focusChange_writesOnlyChangedCells() throws InterruptedException {
+    long cellsWritten = transport.getCellsWritten();
+
+    talkBack.setFocusText("help");
+    display.onAccessibilityEvent(
+        AccessibilityEvent.obtain(AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED));
+    runTranslatedTask();
+
+    assertThat(transport.getCells()).isEqualTo(cells("help", CELL_COUNT));
+    // "hel" is unchanged, "p" replaces "l", and "o" is cleared.
+    assertThat(transport.getCellsWritten() - cellsWritten).isEqualTo(2);
+  }
+
+  @Test
+  public void panRight_showsNextWordsThenMovesToNextItem() throws InterruptedException {
+    talkBack.setFocusText("braille display engine");
+    display.onAccessibilityEvent(
+        AccessibilityEvent.obtain(AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED));
+    runTranslatedTask();
+    assertThat(transport.getCells()).isEqualTo(cells("braille ", CELL_COUNT));
+
+    transport.press(DisplayCommand.PAN_RIGHT, 0);
+    assertThat(transport.getCells()).isEqualTo(cells("display ", CELL_COUNT));
+
+    transport.press(DisplayCommand.PAN_RIGHT, 0);
+    assertThat(transport.getCells()).isEqualTo(cells("engine", CELL_COUNT));
+
+    transport.press(DisplayCommand.PAN_RIGHT, 0);
+    assertThat(talkBack.actions).containsExactly(ScreenReaderAction.NEXT_ITEM);
+  }
+
+  @Test
+  public void contentChanges_whileTranslating_areTranslatedOnce() throws InterruptedException {
+    CountDownLatch release = blockTranslatorService();
+    long translations = display.getTranslationCount();
+    for (int i = 0; i < 5; i++) {
+      talkBack.setFocusText("count " + i);
+      display.onAccessibilityEvent(
+          AccessibilityEvent.obtain(AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED));
+    }
+
+    release.countDown();
+    runTranslatedTask();
+
+    assertThat(transport.getCells()).isEqualTo(cells("count 4", CELL_COUNT));
+    assertThat(display.getTranslationCount() - translations).isEqualTo(1);
+    assertThat(display.getSkippedTranslationCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void route_cursorCellAfterEditingText_movesTextCursorToEnd()
+      throws InterruptedException {
+    showEditingText("abc", /* cursor= */ 3);
+    byte[] expected = cells("abc", CELL_COUNT);
+    expected[3] = DOTS_CURSOR;
+    assertThat(transport.getCells()).isEqualTo(expected);
+
+    transport.press(DisplayCommand.ROUTE, 3);
+
+    assertThat(talkBack.brailleIme.textCursorMoves).containsExactly(3);
+  }
+
+  @Test
+  public void route_editingTextCell_movesTextCursorToCharacter() throws InterruptedException {
+    showEditingText("abc", /* cursor= */ 0);
+
+    transport.press(DisplayCommand.ROUTE, 1);
+    transport.press(DisplayCommand.ROUTE, 5);
+
+    assertThat(talkBack.brailleIme.textCursorMoves).containsExactly(1);
+  }
+
+  private void showEditingText(String text, int cursor) throws InterruptedException {
+    display
+        .getBrailleDisplayForBrailleIme()
+        .showOnDisplay(
+            ResultForDisplay.builder()
+                .setOnScreenText(text)
+                .setTextSelectionRange(new Range<>(cursor, cursor))
+                .setHoldingsInfo(HoldingsInfo.create(ByteBuffer.allocate(0), 0))
+                .setIsMultiLine(false)
+                .setHint("")
+                .setAction("")
+                .build());
+    runTranslatedTask();
+  }
+
+  /** Runs the task which shows the next translation, waiting for the translation to finish. */
+  private void runTranslatedTask() throws InterruptedException {
+    Runnable task = mainTasks.poll(TIMEOUT_SECONDS, SECONDS);
+    assertThat(task).isNotNull();
+    task.run();
+  }
+
+  /** Holds the translation thread in a translation until the returned latch is released. */
+  private static CountDownLatch blockTranslatorService() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    TranslatorService.getInstance()
+        .translate(
+            new LetterTranslator() {
+              @Override
+              public TranslationResult translate(
+                  String text, int cursorPosition, boolean computerBrailleAtCursor) {
+                started.countDown();
+                try {
+                  release.await(TIMEOUT_SECONDS, SECONDS);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+                return super.translate(text, cursorPosition, computerBrailleAtCursor);
+              }
+            },
+            "blocking",
+            /* cursorPosition= */ -1,
+            /* computerBrailleAtCursor= */ false,
+            result -> {});
+    assertThat(started.await(TIMEOUT_SECONDS, SECONDS)).isTrue();
+    return release;
+  }
+
+  private static byte[] cells(String text, int cellCount) {
+    return Arrays.copyOf(LetterTranslator.toCells(text), cellCount);
+  }
+
+  /** Translates each letter to one cell, and spaces to blank cells. */
+  private static class LetterTranslator implements BrailleTranslator {
+    static byte[] toCells(String text) {
+      byte[] cells = new byte[text.length()];
+      for (int i = 0; i < text.length(); i++) {
+        cells[i] = (text.charAt(i) == ' ') ? 0 : (byte) (text.charAt(i) & 0x3F);
+      }
+      return cells;
+    }
+
+    @Override
+    public String translateToPrint(BrailleWord brailleWord) {
+      return "";
+    }
+
+    @Override
+    public String translateToPrintPartial(BrailleWord brailleWord) {
+      return "";
+    }
+
+    @Override
+    public TranslationResult translate(
+        String text, int cursorPosition, boolean computerBrailleAtCursor) {
+      int[] positions = new int[text.length()];
+      for (int i = 0; i < positions.length; i++) {
+        positions[i] = i;
+      }
+      return new TranslationResult(toCells(text), positions, positions.clone(), cursorPosition);
+    }
+  }
+
+  private static class FakeTalkBack implements TalkBackForBrailleDisplay {
+    final List<ScreenReaderAction> actions = new ArrayList<>();
+    final FakeBrailleIme brailleIme = new FakeBrailleIme();
+    private String focusText = "";
+
+    void setFocusText(String focusText) {
+      this.focusText = focusText;
+    }
+
+    @Override
+    public boolean performAction(ScreenReaderAction action) {
+      actions.add(action);
+      return true;
+    }
+
+    @Override
+    public AccessibilityNodeInfoCompat getAccessibilityFocusNode(boolean fallbackOnRoot) {
+      AccessibilityNodeInfoCompat node = AccessibilityNodeInfoCompat.obtain();
+      node.setText(focusText);
+      return node;
+    }
+
+    @Override
+    public FocusFinder createFocusFinder() {
+      return null;
+    }
+
+    @Override
+    public boolean showLabelDialog(CustomLabelAction action, AccessibilityNodeInfoCompat node) {
+      return false;
+    }
+
+    @Override
+    public CharSequence getCustomLabelText(AccessibilityNodeInfoCompat node) {
+      return null;
+    }
+
+    @Override
+    public boolean needsLabel(AccessibilityNodeInfoCompat node) {
+      return false;
+    }
+
+    @Nullable
+    @Override
+    public BrailleImeForBrailleDisplay getBrailleImeForBrailleDisplay() {
+      return brailleIme;
+    }
+  }
+
+  private static class FakeBrailleIme implements BrailleImeForBrailleDisplay {
+    final List<Integer> textCursorMoves = new ArrayList<>();
+
+    @Override
+    public void onBrailleDisplayConnected() {}
+
+    @Override
+    public void onBrailleDisplayDisconnected() {}
+
+    @Override
+    public boolean sendBrailleDots(BrailleCharacter dots) {
+      return true;
+    }
+
+    @Override
+    public boolean moveCursorForwardByLine() {
+      return true;
+    }
+
+    @Override
+    public boolean moveCursorBackwardByLine() {
+      return true;
+    }
+
+    @Override
+    public boolean moveTextFieldCursor(int toIndex) {
+      textCursorMoves.add(toIndex);
+      return true;
+    }
+
+    @Override
+    public boolean moveHoldingsCursor(int toIndex) {
+      return true;
+    }
+
+    @Override
+    public boolean deleteBackward() {
+      return true;
+    }
+
+    @Override
+    public boolean deleteForward() {
+      return true;
+    }
+
+    @Override
+    public boolean submit() {
+      return true;
+    }
+
+    @Override
+    public boolean performEnterKeyAction() {
+      return true;
+    }
+
+    @Override
+    public void hideKeyboard() {}
+
+    @Override
+    public void updateResultForDisplay() {}
+  }
+}
@@ -26,6 +26,11 @@ public class BrailleDisplay implements BrailleDisplayForTalkBack {
 
   public BrailleDisplay(Context context, TalkBackForBrailleDisplay talkBackForBrailleDisplay) {}
 
+  public static BrailleDisplay createWithVirtualDisplay(
+      Context context, TalkBackForBrailleDisplay talkBackForBrailleDisplay) {
+    return new BrailleDisplay(context, talkBackForBrailleDisplay);
+  }
+
   @Override
   public void start() {}
 
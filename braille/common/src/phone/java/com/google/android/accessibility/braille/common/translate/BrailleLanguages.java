@@ -22,6 +22,7 @@ import com.google.android.accessibility.braille.common.R;
 import com.google.android.accessibility.braille.common.TalkBackSpeaker;
 import com.google.android.accessibility.braille.translate.BrailleTranslator;
 import com.google.android.accessibility.braille.translate.TranslatorFactory;
+import com.google.android.accessibility.braille.translate.TranslatorService;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,11 +37,14 @@ public class BrailleLanguages {
 
   /**
    * Finds and produces a {@link EditBuffer} based on {@code code}, {@code translatorFactory}, and
-   * {@code contractedMode}.
+   * {@code contractedMode}. The edit buffer translates through the shared {@link
+   * TranslatorService}, so that its input is not translated at the same time as the braille
+   * display's text.
    */
   public static EditBuffer createEditBuffer(
       Context context, TalkBackSpeaker talkBack, Code code, TranslatorFactory translatorFactory) {
-    BrailleTranslator translator = translatorFactory.create(context, code.name());
+    BrailleTranslator translator =
+        TranslatorService.getInstance().wrap(translatorFactory.create(context, code.name()));
     return code.createEditBuffer(context, talkBack, translator);
   }
 
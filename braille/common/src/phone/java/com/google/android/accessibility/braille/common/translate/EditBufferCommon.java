@@ -23,6 +23,7 @@ import android.content.res.Resources;
 import android.text.TextUtils;
 import android.view.KeyEvent;
 import android.view.inputmethod.InputConnection;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.accessibility.braille.common.BrailleCommonUtils;
 import com.google.android.accessibility.braille.common.ImeConnection;
@@ -69,6 +70,8 @@ public abstract class EditBufferCommon implements EditBuffer {
   private final BrailleWord holdings = new BrailleWord();
   private final Context context;
   private int lastCommitIndexOfHoldings = NO_CURSOR;
+  /** Back-translation of {@link #holdings}, or null if it changed since it was translated. */
+  @Nullable private String holdingsTranslation;
 
   protected EditBufferCommon(
       Context context, BrailleTranslator ueb1Translator, TalkBackSpeaker talkBack) {
@@ -80,9 +83,10 @@ public abstract class EditBufferCommon implements EditBuffer {
   @Override
   public String appendBraille(ImeConnection imeConnection, BrailleCharacter brailleCharacter) {
     String result = "";
-    String previousTranslation = translator.translateToPrint(holdings);
+    String previousTranslation = translateHoldings();
     holdings.add(brailleCharacter);
-    String currentTranslation = translator.translateToPrint(holdings);
+    holdingsTranslation = null;
+    String currentTranslation = translateHoldings();
     if (currentTranslation.startsWith(previousTranslation)) {
       result = currentTranslation.substring(previousTranslation.length());
     }
@@ -141,13 +145,14 @@ public abstract class EditBufferCommon implements EditBuffer {
 
   @Override
   public void deleteWord(ImeConnection imeConnection) {
-    // Delete all terminal prefixes from holdings, if any.
+    // Delete all terminal prefixes from holdings, if any. Removing a prefix does not change the
+    // translation of the holdings.
     while (holdingsEndsWithPrefix()) {
       holdings.remove(holdings.size() - 1);
     }
     // If there is any holdings left, clear it out; otherwise delete at the Editor level.
     if (holdings.size() > 0) {
-      holdings.clear();
+      clearHoldings();
       lastCommitIndexOfHoldings = NO_CURSOR;
       imeConnection.inputConnection.setComposingText("", 0);
     } else {
@@ -222,32 +227,53 @@ public abstract class EditBufferCommon implements EditBuffer {
   }
 
   private void clearHoldingsAndFinishComposing(InputConnection inputConnection) {
+    clearHoldings();
+    inputConnection.finishComposingText();
+  }
+
+  private void clearHoldings() {
     holdings.clear();
+    holdingsTranslation = null;
     lastCommitIndexOfHoldings = NO_CURSOR;
-    inputConnection.finishComposingText();
+  }
+
+  /**
+   * Returns the back-translation of the holdings, translating them only if they changed since they
+   * were last translated, so that each edit back-translates the holdings once.
+   */
+  private String translateHoldings() {
+    if (holdingsTranslation == null) {
+      holdingsTranslation = translator.translateToPrint(holdings);
+    }
+    return holdingsTranslation;
   }
 
   private boolean holdingsEndsWithPrefix() {
     return !holdings.isEmpty()
-        && translator
-            .translateToPrint(holdings)
+        && translateHoldings()
             .equals(translator.translateToPrint(holdings.subword(0, holdings.size() - 1)));
   }
 
   private void deleteCharacter(InputConnection inputConnection, int keyCode) {
-    // Delete a single terminal prefix from holdings, if any. In that case, stop.
-    if (holdingsEndsWithPrefix()) {
+    // Delete a single terminal prefix from holdings, if any. In that case, stop. Removing a prefix
+    // does not change the translation of the holdings.
+    if (!holdings.isEmpty()) {
+      // Whether the last cell is a prefix or a root, the holdings left translate to this.
+      String remainingTranslation =
+          translator.translateToPrint(holdings.subword(0, holdings.size() - 1));
+      boolean endsWithPrefix = translateHoldings().equals(remainingTranslation);
       BrailleCharacter brailleCharacter = holdings.remove(holdings.size() - 1);
-      String text = BrailleTranslateUtils.getDotsText(context.getResources(), brailleCharacter);
-      EditBufferUtils.speakDelete(context, talkBack, text);
-    } else {
-      // Otherwise, remove the terminal root, and forward a deletion press to the Editor.
-      if (!holdings.isEmpty()) {
-        holdings.remove(holdings.size() - 1);
+      holdingsTranslation = remainingTranslation;
+      if (endsWithPrefix) {
+        String text = BrailleTranslateUtils.getDotsText(context.getResources(), brailleCharacter);
+        EditBufferUtils.speakDelete(context, talkBack, text);
+        lastCommitIndexOfHoldings = holdings.size();
+        return;
       }
-      inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
-      inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyCode));
     }
+    // Otherwise, the terminal root was removed, so forward a deletion press to the Editor.
+    inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+    inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyCode));
     lastCommitIndexOfHoldings = holdings.size();
   }
 
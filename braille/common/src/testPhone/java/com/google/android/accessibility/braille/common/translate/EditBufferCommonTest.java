@@ -0,0 +1,151 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.accessibility.braille.common.translate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.view.View;
+import android.view.inputmethod.BaseInputConnection;
+import android.view.inputmethod.EditorInfo;
+import com.google.android.accessibility.braille.common.ImeConnection;
+import com.google.android.accessibility.braille.common.ImeConnection.AnnounceType;
+import com.google.android.accessibility.braille.interfaces.BrailleCharacter;
+import com.google.android.accessibility.braille.interfaces.BrailleWord;
+import com.google.android.accessibility.braille.translate.BrailleTranslator;
+import com.google.android.accessibility.braille.translate.TranslationResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Counts the back-translations of the holdings of {@link EditBufferCommon} per edit. */
+@RunWith(RobolectricTestRunner.class)
+public class EditBufferCommonTest {
+  private static final BrailleCharacter CAPITALIZE = new BrailleCharacter(6);
+  private static final BrailleCharacter LETTER_A = new BrailleCharacter(1);
+  private static final int CELLS = 8;
+  private static final int EDIT_ROUNDS = 4;
+
+  private final CountingTranslator translator = new CountingTranslator();
+  private EditBufferCommon editBuffer;
+  private ImeConnection imeConnection;
+
+  @Before
+  public void setUp() {
+    Context context = RuntimeEnvironment.getApplication();
+    editBuffer =
+        new EditBufferUeb1(context, translator, (text, delayMs, queueMode, runnable) -> {});
+    imeConnection =
+        new ImeConnection(
+            new BaseInputConnection(new View(context), /* fullEditor= */ true),
+            new EditorInfo(),
+            AnnounceType.SILENCE);
+  }
+
+  @Test
+  public void typing_backTranslatesHoldingsOncePerCell() {
+    for (int i = 0; i < CELLS; i++) {
+      editBuffer.appendBraille(imeConnection, LETTER_A);
+    }
+
+    // The empty holdings are translated before the first cell.
+    assertThat(translator.backTranslationCount).isEqualTo(CELLS + 1);
+  }
+
+  @Test
+  public void deleteCharacter_removesPrefixThenRoot() {
+    editBuffer.appendBraille(imeConnection, LETTER_A);
+    editBuffer.appendBraille(imeConnection, CAPITALIZE);
+
+    editBuffer.deleteCharacterBackward(imeConnection);
+    assertThat(editBuffer.testing_holdingsMatches(new BrailleWord(LETTER_A))).isTrue();
+
+    editBuffer.appendBraille(imeConnection, LETTER_A);
+    assertThat(editBuffer.testing_holdingsMatches(new BrailleWord(LETTER_A, LETTER_A))).isTrue();
+
+    editBuffer.deleteCharacterBackward(imeConnection);
+    assertThat(editBuffer.testing_holdingsMatches(new BrailleWord(LETTER_A))).isTrue();
+  }
+
+  @Test
+  public void deleteWord_removesPrefixesAndClearsHoldings() {
+    editBuffer.appendBraille(imeConnection, LETTER_A);
+    editBuffer.appendBraille(imeConnection, CAPITALIZE);
+    editBuffer.appendBraille(imeConnection, CAPITALIZE);
+
+    editBuffer.deleteWord(imeConnection);
+
+    assertThat(editBuffer.testing_holdingsMatches(new BrailleWord())).isTrue();
+  }
+
+  @Test
+  public void holdings_returnSharedCharacters() {
+    BrailleWord holdings = new BrailleWord(LETTER_A, CAPITALIZE);
+
+    assertThat(holdings.get(0)).isSameInstanceAs(BrailleCharacter.valueOf(LETTER_A.toByte()));
+    assertThat(holdings.remove(1)).isSameInstanceAs(BrailleCharacter.valueOf(CAPITALIZE.toByte()));
+  }
+
+  @Test
+  public void edits_backTranslateHoldingsAtMostOncePerEdit() {
+    for (int i = 0; i < EDIT_ROUNDS; i++) {
+      for (int j = 0; j < CELLS; j++) {
+        editBuffer.appendBraille(imeConnection, LETTER_A);
+      }
+      for (int j = 0; j < CELLS; j++) {
+        editBuffer.deleteCharacterBackward(imeConnection);
+      }
+    }
+
+    // The empty holdings are translated before the first cell.
+    assertThat(translator.backTranslationCount).isAtMost(EDIT_ROUNDS * 2 * CELLS + 1);
+  }
+
+  /**
+   * A translator which runs in the JVM, translating dot 6 alone into nothing, like a
+   * capitalization prefix, and any other cell into one letter. Back-translations are counted.
+   */
+  private static final class CountingTranslator implements BrailleTranslator {
+    int backTranslationCount;
+
+    @Override
+    public String translateToPrint(BrailleWord brailleWord) {
+      backTranslationCount++;
+      StringBuilder print = new StringBuilder();
+      for (int i = 0; i < brailleWord.size(); i++) {
+        byte cell = brailleWord.getByte(i);
+        if (cell != CAPITALIZE.toByte()) {
+          print.append((char) ('a' + (cell & 0x3F) - 1));
+        }
+      }
+      return print.toString();
+    }
+
+    @Override
+    public String translateToPrintPartial(BrailleWord brailleWord) {
+      return translateToPrint(brailleWord);
+    }
+
+    @Override
+    public TranslationResult translate(
+        String text, int cursorPosition, boolean computerBrailleAtCursor) {
+      return new TranslationResult(new byte[0], new int[0], new int[0], cursorPosition);
+    }
+  }
+}
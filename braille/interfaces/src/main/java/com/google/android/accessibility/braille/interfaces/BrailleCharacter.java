@@ -21,7 +21,6 @@ import static com.google.common.base.Preconditions.checkArgument;
 import android.util.Range;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 
@@ -30,13 +29,23 @@ import java.util.List;
  * (raised).
  *
  * <p>There are 256 distinguishable {@link BrailleCharacter} objects, because there are 8 dots -
- * each of which can be on or off (raised or unraised).
+ * each of which can be on or off (raised or unraised). They are kept by {@link #valueOf(byte)},
+ * which returns the same object for the same dots instead of allocating one.
  */
 public class BrailleCharacter {
 
   private static final Range<Integer> DOT_RANGE = new Range<>(1, 8);
 
-  private final BitSet dotNumbers;
+  private static final BrailleCharacter[] CHARACTERS = new BrailleCharacter[256];
+
+  static {
+    for (int i = 0; i < CHARACTERS.length; i++) {
+      CHARACTERS[i] = new BrailleCharacter((byte) i);
+    }
+  }
+
+  /** The dots, where bit 0 to 7 is on if dot 1 to 8 is on. */
+  private final byte dots;
 
   /**
    * Creates a {@link BrailleCharacter} from a collection of dot numbers.
@@ -45,12 +54,13 @@ public class BrailleCharacter {
    * thrown.
    */
   public BrailleCharacter(Collection<Integer> dotNumbers) {
-    this.dotNumbers = new BitSet();
+    int dots = 0;
     for (Integer dotNumber : dotNumbers) {
       checkArgument(DOT_RANGE.contains(dotNumber), "dot %s out of range %s", dotNumber, DOT_RANGE);
       // Maps dot number (1 to 8) to bit (0 to 7).
-      this.dotNumbers.set(dotNumber - 1);
+      dots |= 1 << (dotNumber - 1);
     }
+    this.dots = (byte) dots;
   }
 
   /**
@@ -69,17 +79,22 @@ public class BrailleCharacter {
    * <p>The bits map to the dot numbers.
    */
   public BrailleCharacter(byte b) {
-    this.dotNumbers = BitSet.valueOf(new byte[] {b});
+    this.dots = b;
+  }
+
+  /** Returns the {@link BrailleCharacter} whose dots map to the bits, without allocating it. */
+  public static BrailleCharacter valueOf(byte b) {
+    return CHARACTERS[b & 0xFF];
   }
 
   /** Returns the number of on dots. */
   public int getOnCount() {
-    return dotNumbers.cardinality();
+    return Integer.bitCount(dots & 0xFF);
   }
 
   /** Returns {@code true} if the character is empty (has zero on dots). */
   public boolean isEmpty() {
-    return dotNumbers.isEmpty();
+    return dots == 0;
   }
 
   /**
@@ -88,10 +103,7 @@ public class BrailleCharacter {
    * <p>For example, the character with dots 1 and 3 raised results in {@code 0b101}, or {@code 5}.
    */
   public byte toByte() {
-    if (isEmpty()) {
-      return 0;
-    }
-    return dotNumbers.toByteArray()[0];
+    return dots;
   }
 
   /**
@@ -110,17 +122,17 @@ public class BrailleCharacter {
    */
   public List<Integer> toDotNumbers() {
     List<Integer> dotNumberList = new ArrayList<>();
-    for (int index = dotNumbers.nextSetBit(0);
-        index != -1;
-        index = dotNumbers.nextSetBit(index + 1)) {
-      dotNumberList.add(index + 1);
+    for (int bitIndex = 0; bitIndex < 8; bitIndex++) {
+      if ((dots & (1 << bitIndex)) != 0) {
+        dotNumberList.add(bitIndex + 1);
+      }
     }
     return dotNumberList;
   }
 
   /** Returns whether the given dot number is on. */
   public boolean isDotNumberOn(int dotNumber) {
-    return dotNumbers.get(dotNumber - 1);
+    return DOT_RANGE.contains(dotNumber) && (dots & (1 << (dotNumber - 1))) != 0;
   }
 
   /** Swaps the dot values of 1<->4, 2<->5, 3<->6, 7<->8. */
@@ -130,14 +142,14 @@ public class BrailleCharacter {
     byte dot456To123 = (byte) ((allDots >> 3) & 0b00000111);
     byte dot7To8 = (byte) ((allDots << 1) & 0b10000000);
     byte dot8To7 = (byte) ((allDots >> 1) & 0b01000000);
-    return new BrailleCharacter((byte) (dot123To456 | dot456To123 | dot7To8 | dot8To7));
+    return valueOf((byte) (dot123To456 | dot456To123 | dot7To8 | dot8To7));
   }
 
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    for (int bitIndex = 0; bitIndex < dotNumbers.length(); bitIndex++) {
-      if (dotNumbers.get(bitIndex)) {
+    for (int bitIndex = 0; bitIndex < 8; bitIndex++) {
+      if ((dots & (1 << bitIndex)) != 0) {
         // Maps bit 0 to dot number 1.
         sb.append(bitIndex + 1);
       }
@@ -156,11 +168,11 @@ public class BrailleCharacter {
       return false;
     }
     BrailleCharacter that = (BrailleCharacter) o;
-    return dotNumbers.equals(that.dotNumbers);
+    return dots == that.dots;
   }
 
   @Override
   public int hashCode() {
-    return dotNumbers.hashCode();
+    return dots & 0xFF;
   }
 }
@@ -20,24 +20,43 @@ import com.google.common.base.Splitter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 
-/** A sequence of {@link BrailleCharacter}. */
+/**
+ * A sequence of {@link BrailleCharacter}.
+ *
+ * <p>The characters are packed as bytes, one per cell, and returned as the shared objects of
+ * {@link BrailleCharacter#valueOf(byte)}. Subwords and copies share the bytes of their word until
+ * either of them is changed, so taking them does not copy the word.
+ */
 public class BrailleWord {
 
-  private final List<BrailleCharacter> list;
+  private static final byte[] EMPTY_CELLS = new byte[0];
+  private static final int MIN_CAPACITY = 8;
+
+  /** The cells of the word, from {@link #offset} for {@link #size} bytes. */
+  private byte[] cells;
+
+  private int offset;
+  private int size;
+
+  /**
+   * Whether {@link #cells} may also be read by another word. Shared cells are copied before they
+   * are changed.
+   */
+  private boolean shared;
 
   /** Creates an empty word. */
   public BrailleWord() {
-    list = new ArrayList<>();
+    cells = EMPTY_CELLS;
   }
 
   /** Creates a word from a collection of {@link BrailleCharacter}. */
   public BrailleWord(Collection<BrailleCharacter> characters) {
-    this();
-    list.addAll(characters);
+    cells = new byte[characters.size()];
+    for (BrailleCharacter character : characters) {
+      cells[size++] = character.toByte();
+    }
   }
 
   /**
@@ -56,7 +75,7 @@ public class BrailleWord {
       for (int i = 0; i < token.length(); i++) {
         dotNumbers.add(Character.getNumericValue(token.charAt(i)));
       }
-      list.add(new BrailleCharacter(dotNumbers));
+      add(new BrailleCharacter(dotNumbers));
     }
   }
 
@@ -67,10 +86,21 @@ public class BrailleWord {
 
   /** Creates a word from byte array. */
   public BrailleWord(byte[] brailleByteArray) {
-    this();
-    for (byte b : brailleByteArray) {
-      list.add(new BrailleCharacter(b));
-    }
+    cells = Arrays.copyOf(brailleByteArray, brailleByteArray.length);
+    size = brailleByteArray.length;
+  }
+
+  /** Creates a copy of a word, which shares its cells until either word is changed. */
+  public BrailleWord(BrailleWord word) {
+    this(word, 0, word.size);
+  }
+
+  private BrailleWord(BrailleWord word, int start, int end) {
+    word.shared = true;
+    cells = word.cells;
+    offset = word.offset + start;
+    size = end - start;
+    shared = true;
   }
 
   public static BrailleWord create(String dashDelimited) {
@@ -79,12 +109,34 @@ public class BrailleWord {
 
   /** Appends a {@link BrailleCharacter} to the end of the word. */
   public void add(BrailleCharacter brailleCharacter) {
-    list.add(brailleCharacter);
+    openGap(size, 1);
+    cells[offset + size - 1] = brailleCharacter.toByte();
+  }
+
+  /** Appends the characters of a word to the end of the word. */
+  public void append(BrailleWord word) {
+    insert(size, word);
   }
 
   /** Inserts a {@link BrailleCharacter} to the specified position of the word. */
   public void insert(int index, BrailleCharacter brailleCharacter) {
-    list.add(index, brailleCharacter);
+    checkPositionIndex(index);
+    openGap(index, 1);
+    cells[offset + index] = brailleCharacter.toByte();
+  }
+
+  /** Inserts the characters of a word to the specified position of the word. */
+  public void insert(int index, BrailleWord word) {
+    checkPositionIndex(index);
+    if (word == this) {
+      // Share the cells with a copy, so that making room does not move the inserted cells.
+      word = new BrailleWord(this);
+    }
+    byte[] source = word.cells;
+    int sourceOffset = word.offset;
+    int count = word.size;
+    openGap(index, count);
+    System.arraycopy(source, sourceOffset, cells, offset + index, count);
   }
 
   /**
@@ -92,7 +144,12 @@ public class BrailleWord {
    * IndexOutOfBoundsException} if {@code index < 0} or {@code index >= size()}.
    */
   public BrailleCharacter remove(int index) {
-    return list.remove(index);
+    checkElementIndex(index);
+    unshare();
+    byte removed = cells[offset + index];
+    System.arraycopy(cells, offset + index + 1, cells, offset + index, size - index - 1);
+    size--;
+    return BrailleCharacter.valueOf(removed);
   }
 
   /**
@@ -100,22 +157,36 @@ public class BrailleWord {
    * IndexOutOfBoundsException} if {@code index < 0} or {@code index >= size()}.
    */
   public BrailleCharacter get(int index) {
-    return list.get(index);
+    return BrailleCharacter.valueOf(getByte(index));
+  }
+
+  /**
+   * Gets the byte of the {@link BrailleCharacter} at the specified {@code index}, or throws {@link
+   * IndexOutOfBoundsException} if {@code index < 0} or {@code index >= size()}.
+   */
+  public byte getByte(int index) {
+    checkElementIndex(index);
+    return cells[offset + index];
   }
 
   /** Returns the size of the word, which is the number of {@link BrailleCharacter} it contains. */
   public int size() {
-    return list.size();
+    return size;
   }
 
   /** Returns {@code true} if the word is empty. */
   public boolean isEmpty() {
-    return list.isEmpty();
+    return size == 0;
   }
 
   /** Clears the contents of word, making it empty. */
   public void clear() {
-    list.clear();
+    if (shared) {
+      cells = EMPTY_CELLS;
+      offset = 0;
+      shared = false;
+    }
+    size = 0;
   }
 
   /**
@@ -123,12 +194,7 @@ public class BrailleWord {
    * BrailleCharacter#toByte()}.
    */
   public byte[] toByteArray() {
-    byte[] array = new byte[list.size()];
-    for (int i = 0; i < list.size(); i++) {
-      BrailleCharacter brailleCharacter = list.get(i);
-      array[i] = brailleCharacter.toByte();
-    }
-    return array;
+    return Arrays.copyOfRange(cells, offset, offset + size);
   }
 
   /**
@@ -140,10 +206,9 @@ public class BrailleWord {
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
-    for (int i = 0; i < list.size(); i++) {
-      BrailleCharacter brailleCharacter = list.get(i);
-      sb.append(brailleCharacter);
-      if (i < list.size() - 1) {
+    for (int i = 0; i < size; i++) {
+      sb.append(get(i));
+      if (i < size - 1) {
         sb.append('-');
       }
     }
@@ -159,29 +224,56 @@ public class BrailleWord {
       return false;
     }
     BrailleWord that = (BrailleWord) o;
-    return list.equals(that.list);
+    if (size != that.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (cells[offset + i] != that.cells[that.offset + i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(list);
+    int hashCode = 1;
+    for (int i = 0; i < size; i++) {
+      hashCode = 31 * hashCode + cells[offset + i];
+    }
+    return hashCode;
   }
 
   public List<BrailleCharacter> toList() {
-    return new ArrayList<>(list);
+    List<BrailleCharacter> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      list.add(get(i));
+    }
+    return list;
   }
 
   /**
    * Returns a subword from the range [start, end), or throws {@link IndexOutOfBoundsException} if
-   * the passed-in range is out of bounds.
+   * the passed-in range is out of bounds. The subword shares the cells of the word until either
+   * word is changed.
    */
   public BrailleWord subword(int start, int end) {
-    return new BrailleWord(list.subList(start, end));
+    if (start < 0 || end > size || start > end) {
+      throw new IndexOutOfBoundsException(
+          "subword [" + start + ", " + end + ") of word of size " + size);
+    }
+    return new BrailleWord(this, start, end);
   }
 
   /** Returns {@code true} if the word contains the passed-in {@link BrailleCharacter}. */
   public boolean contains(BrailleCharacter brailleCharacter) {
-    return list.contains(brailleCharacter);
+    byte b = brailleCharacter.toByte();
+    for (int i = 0; i < size; i++) {
+      if (cells[offset + i] == b) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -189,7 +281,12 @@ public class BrailleWord {
    * passed-in collection.
    */
   public boolean containsAny(Collection<BrailleCharacter> collection) {
-    return !Collections.disjoint(list, collection);
+    for (int i = 0; i < size; i++) {
+      if (collection.contains(get(i))) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -208,7 +305,7 @@ public class BrailleWord {
           fragments.add(subword(nonPoleFragmentAnchor, i));
           nonPoleFragmentAnchor = -1;
         }
-        fragments.add(new BrailleWord(iCharacter));
+        fragments.add(subword(i, i + 1));
       } else {
         if (nonPoleFragmentAnchor < 0) {
           nonPoleFragmentAnchor = i;
@@ -220,4 +317,44 @@ public class BrailleWord {
     }
     return fragments;
   }
+
+  /**
+   * Makes room for {@code count} cells at {@code index}, copying the cells to a new array if they
+   * are shared or full.
+   */
+  private void openGap(int index, int count) {
+    int newSize = size + count;
+    if (shared || offset + newSize > cells.length) {
+      byte[] newCells = new byte[Math.max(MIN_CAPACITY, Math.max(newSize, 2 * size))];
+      System.arraycopy(cells, offset, newCells, 0, index);
+      System.arraycopy(cells, offset + index, newCells, index + count, size - index);
+      cells = newCells;
+      offset = 0;
+      shared = false;
+    } else {
+      System.arraycopy(cells, offset + index, cells, offset + index + count, size - index);
+    }
+    size = newSize;
+  }
+
+  /** Copies the cells to an array of this word only, if they are shared. */
+  private void unshare() {
+    if (shared) {
+      cells = Arrays.copyOfRange(cells, offset, offset + size);
+      offset = 0;
+      shared = false;
+    }
+  }
+
+  private void checkElementIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index " + index + " of word of size " + size);
+    }
+  }
+
+  private void checkPositionIndex(int index) {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException("position " + index + " of word of size " + size);
+    }
+  }
 }
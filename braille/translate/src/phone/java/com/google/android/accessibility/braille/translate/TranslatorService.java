@@ -0,0 +1,270 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.accessibility.braille.translate;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.accessibility.braille.interfaces.BrailleWord;
+import com.google.common.util.concurrent.Futures;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the translations of {@link BrailleTranslator}s in the background, with back-translation of
+ * typed input ahead of translation of text for display.
+ *
+ * <p>Translations are queued by priority, so that input waits at most for the translation that is
+ * running, not for all the display translations queued before it. Display translations return
+ * futures which can be cancelled when their text is replaced before they run. Back-translations
+ * are remembered, and repeated ones complete immediately without being queued.
+ *
+ * <p>Translations run on a single thread shared by all users of the service, since liblouis, which
+ * backs most translators, keeps global state and can not translate on several threads at once. A
+ * translator which does not use liblouis, like a fake translator, is scheduled the same way.
+ */
+public class TranslatorService {
+  /** Priority of the back-translation of typed input. */
+  private static final int PRIORITY_INPUT = 0;
+  /** Priority of the translation of text for display, which runs after input. */
+  private static final int PRIORITY_DISPLAY = 1;
+
+  /** Number of back-translations remembered of each kind. */
+  private static final int MAX_CACHED_BACK_TRANSLATIONS = 256;
+
+  private static final long IDLE_THREAD_TIMEOUT_MS = 30000;
+
+  private static TranslatorService instance;
+
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong sequence = new AtomicLong();
+  /** The thread running translations, if it was started. */
+  @Nullable private volatile Thread thread;
+
+  /** Back-translations by translator and braille, least recently used first. Guarded by itself. */
+  private final BackTranslationCache backTranslations = new BackTranslationCache();
+  /** Partial back-translations, least recently used first. Guarded by itself. */
+  private final BackTranslationCache partialBackTranslations = new BackTranslationCache();
+
+  /** Receives the translation of text for display. */
+  public interface TranslationCallback {
+    /**
+     * Called on the translation thread with the translation, or {@code null} if the translator
+     * failed. Not called if the translation was cancelled.
+     */
+    void onTranslated(@Nullable TranslationResult result);
+  }
+
+  private static final class BackTranslationKey {
+    private final BrailleTranslator translator;
+    private final BrailleWord brailleWord;
+
+    BackTranslationKey(BrailleTranslator translator, BrailleWord brailleWord) {
+      this.translator = translator;
+      this.brailleWord = brailleWord;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof BackTranslationKey)) {
+        return false;
+      }
+      BackTranslationKey other = (BackTranslationKey) o;
+      return translator.equals(other.translator) && brailleWord.equals(other.brailleWord);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(translator, brailleWord);
+    }
+  }
+
+  private static final class BackTranslationCache
+      extends LinkedHashMap<BackTranslationKey, String> {
+    BackTranslationCache() {
+      super(MAX_CACHED_BACK_TRANSLATIONS, 0.75f, /* accessOrder= */ true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<BackTranslationKey, String> eldest) {
+      return size() > MAX_CACHED_BACK_TRANSLATIONS;
+    }
+  }
+
+  /** A queued translation, ordered by priority and then by the order it was submitted in. */
+  private static final class PrioritizedTask<T> extends FutureTask<T>
+      implements Comparable<PrioritizedTask<?>> {
+    private final int priority;
+    private final long sequence;
+
+    PrioritizedTask(Callable<T> callable, int priority, long sequence) {
+      super(callable);
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(PrioritizedTask<?> other) {
+      if (priority != other.priority) {
+        return Integer.compare(priority, other.priority);
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+
+  /** Returns the service shared by the braille keyboard and the braille display. */
+  public static synchronized TranslatorService getInstance() {
+    if (instance == null) {
+      instance = new TranslatorService();
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  TranslatorService() {
+    executor =
+        new ThreadPoolExecutor(
+            /* corePoolSize= */ 1,
+            /* maximumPoolSize= */ 1,
+            IDLE_THREAD_TIMEOUT_MS,
+            TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<>(),
+            runnable -> {
+              Thread newThread = new Thread(runnable, "TranslatorService");
+              thread = newThread;
+              return newThread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Translates text for display, after any queued back-translation. The returned future can be
+   * cancelled when the result is no longer wanted, which skips the translation if it did not
+   * start.
+   */
+  public Future<TranslationResult> translate(
+      BrailleTranslator translator,
+      String text,
+      int cursorPosition,
+      boolean computerBrailleAtCursor,
+      TranslationCallback callback) {
+    return submit(
+        () -> {
+          TranslationResult result =
+              translator.translate(text, cursorPosition, computerBrailleAtCursor);
+          callback.onTranslated(result);
+          return result;
+        },
+        PRIORITY_DISPLAY);
+  }
+
+  /** Back-translates typed braille, ahead of queued display translations. */
+  public Future<String> translateToPrint(BrailleTranslator translator, BrailleWord brailleWord) {
+    return backTranslate(translator, brailleWord, /* partial= */ false);
+  }
+
+  /** Back-translates partially typed braille, ahead of queued display translations. */
+  public Future<String> translateToPrintPartial(
+      BrailleTranslator translator, BrailleWord brailleWord) {
+    return backTranslate(translator, brailleWord, /* partial= */ true);
+  }
+
+  /**
+   * Returns a translator which runs the translations of {@code translator} on this service and
+   * waits for them, for callers which need the result before they continue, like the edit buffers
+   * of the braille keyboard. Their back-translations wait at most for the display translation that
+   * is running.
+   */
+  public BrailleTranslator wrap(BrailleTranslator translator) {
+    return new BrailleTranslator() {
+      @Override
+      public String translateToPrint(BrailleWord brailleWord) {
+        return Futures.getUnchecked(
+            TranslatorService.this.translateToPrint(translator, brailleWord));
+      }
+
+      @Override
+      public String translateToPrintPartial(BrailleWord brailleWord) {
+        return Futures.getUnchecked(
+            TranslatorService.this.translateToPrintPartial(translator, brailleWord));
+      }
+
+      @Override
+      public TranslationResult translate(
+          String text, int cursorPosition, boolean computerBrailleAtCursor) {
+        return Futures.getUnchecked(
+            submit(
+                () -> translator.translate(text, cursorPosition, computerBrailleAtCursor),
+                PRIORITY_INPUT));
+      }
+    };
+  }
+
+  private Future<String> backTranslate(
+      BrailleTranslator translator, BrailleWord brailleWord, boolean partial) {
+    BackTranslationCache cache = partial ? partialBackTranslations : backTranslations;
+    // Copy the braille, since callers keep changing their word while it is queued. The copy shares
+    // the cells of the word until the caller changes it.
+    BackTranslationKey key = new BackTranslationKey(translator, new BrailleWord(brailleWord));
+    @Nullable String cached;
+    synchronized (cache) {
+      cached = cache.get(key);
+    }
+    if (cached != null) {
+      String result = cached;
+      FutureTask<String> done = new FutureTask<>(() -> result);
+      done.run();
+      return done;
+    }
+    return submit(
+        () -> {
+          String result =
+              partial
+                  ? translator.translateToPrintPartial(key.brailleWord)
+                  : translator.translateToPrint(key.brailleWord);
+          if (result != null) {
+            synchronized (cache) {
+              cache.put(key, result);
+            }
+          }
+          return result;
+        },
+        PRIORITY_INPUT);
+  }
+
+  private <T> Future<T> submit(Callable<T> callable, int priority) {
+    PrioritizedTask<T> task =
+        new PrioritizedTask<>(callable, priority, sequence.getAndIncrement());
+    if (Thread.currentThread() == thread) {
+      // Translating from a translation, which would wait for itself if it was queued.
+      task.run();
+    } else {
+      executor.execute(task);
+    }
+    return task;
+  }
+}
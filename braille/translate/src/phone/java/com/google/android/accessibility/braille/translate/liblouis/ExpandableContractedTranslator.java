@@ -1,12 +1,14 @@
 package com.google.android.accessibility.braille.translate.liblouis;
 
-import android.text.TextUtils;
 import androidx.annotation.Nullable;
 import com.google.android.accessibility.braille.interfaces.BrailleWord;
 import com.google.android.accessibility.braille.translate.BrailleTranslator;
 import com.google.android.accessibility.braille.translate.TranslationResult;
-import com.google.common.base.Splitter;
-import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -22,10 +24,62 @@ import java.util.Objects;
  *       The translator will translate 1 and 3 in grade 2 and translate 2 in grade 1 and combine all
  *       the result.
  *   <li>If a text field has "a |child", it will be translated into 1-0-1478-125-24-123-145.
+ * </ul>
+ *
+ * <p>When the cursor is not at a word, like after the last word while typing at the end of a text
+ * field, the text is contracted in 2 parts, split at the start of the word before the cursor.
+ *
+ * <p>Each of the 3 parts is translated as a whole, since the translation of a word may depend on
+ * the words around it, like in capital, numeric or emphasis passages. The last translations of
+ * each grade are kept by text, so that typing in a word only translates the word again, while the
+ * text before and after it, which did not change, is not translated again.
  */
 public class ExpandableContractedTranslator implements BrailleTranslator {
+  /**
+   * Number of translations kept per grade, enough for the parts before and after the cursor word
+   * of the last few edits.
+   */
+  private static final int MAX_CACHED_TRANSLATIONS = 8;
+
   private final BrailleTranslator g1Translator;
   private final BrailleTranslator g2Translator;
+  private final TranslationCache g1Cache = new TranslationCache();
+  private final TranslationCache g2Cache = new TranslationCache();
+
+  /** Translations by text, least recently used first. */
+  private static final class TranslationCache extends LinkedHashMap<String, TranslationResult> {
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    TranslationCache() {
+      super(MAX_CACHED_TRANSLATIONS, 0.75f, /* accessOrder= */ true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, TranslationResult> eldest) {
+      return size() > MAX_CACHED_TRANSLATIONS;
+    }
+
+    @Nullable
+    TranslationResult translate(BrailleTranslator translator, String text) {
+      TranslationResult result = get(text);
+      if (result != null) {
+        hitCount++;
+        return result;
+      }
+      missCount++;
+      result =
+          translator.translate(text, /* cursorPosition= */ -1, /* computerBrailleAtCursor= */ false);
+      if (result != null) {
+        put(text, result);
+      }
+      return result;
+    }
+
+    String getStats() {
+      return "{size=" + size() + ", hits=" + hitCount + ", translations=" + missCount + "}";
+    }
+  }
 
   public ExpandableContractedTranslator(
       BrailleTranslator g1Translator, BrailleTranslator g2Translator) {
@@ -44,90 +98,103 @@ public class ExpandableContractedTranslator implements BrailleTranslator {
   }
 
   @Override
-  public TranslationResult translate(
+  public synchronized TranslationResult translate(
       String wholeText, int cursorPosition, boolean computerBrailleAtCursor) {
-    Iterable<String> words = Splitter.on(' ').split(wholeText);
-    int lastSearchIndex = -1;
-    for (String wordString : words) {
-      if (TextUtils.isEmpty(wordString)) {
-        continue;
+    int wordStart = cursorPosition;
+    int wordEnd = cursorPosition;
+    if (0 <= cursorPosition
+        && cursorPosition < wholeText.length()
+        && wholeText.charAt(cursorPosition) != ' ') {
+      while (wordStart > 0 && wholeText.charAt(wordStart - 1) != ' ') {
+        wordStart--;
       }
-      int startIndex = wholeText.indexOf(wordString, /* fromIndex= */ lastSearchIndex + 1);
-      int endIndex = startIndex + wordString.length();
-      lastSearchIndex = endIndex;
-      // Check if the cursor is at this word.
-      if (startIndex <= cursorPosition && cursorPosition <= endIndex - 1) {
-        return getTranslationResult(wholeText, startIndex, endIndex, cursorPosition);
+      while (wordEnd < wholeText.length() && wholeText.charAt(wordEnd) != ' ') {
+        wordEnd++;
       }
     }
-    return g2Translator.translate(wholeText, cursorPosition, /* computerBrailleAtCursor= */ false);
-  }
-
-  private TranslationResult getTranslationResult(
-      String wholeText, int startIndex, int endIndex, int cursorPosition) {
-    String beforeWord = wholeText.substring(0, startIndex);
-    String expandableString = wholeText.substring(startIndex, endIndex);
-    String afterWord = wholeText.substring(endIndex);
+    if (wordStart == wordEnd) {
+      return contract(wholeText, cursorPosition);
+    }
     TranslationResult beforeWordResult =
-        g2Translator.translate(
-            beforeWord, /* cursorPosition= */ -1, /* computerBrailleAtCursor= */ false);
-    TranslationResult expandableWordResult =
-        g1Translator.translate(
-            expandableString, /* cursorPosition= */ -1, /* computerBrailleAtCursor= */ false);
+        g2Cache.translate(g2Translator, wholeText.substring(0, wordStart));
+    TranslationResult wordResult =
+        g1Cache.translate(g1Translator, wholeText.substring(wordStart, wordEnd));
     TranslationResult afterWordResult =
-        g2Translator.translate(
-            afterWord, /* cursorPosition= */ -1, /* computerBrailleAtCursor= */ false);
-    byte[] beforeWordByteArray = beforeWordResult.getCells();
-    byte[] expandableWordArray = expandableWordResult.getCells();
-    byte[] afterWordByteArray = afterWordResult.getCells();
-    int[] beforeWordTextToBraillePositions = beforeWordResult.getTextToBraillePositions();
-    int[] beforeWordBrailleToTextPositions = beforeWordResult.getBrailleToTextPositions();
-    int[] expandableWordTextToBraillePositions = expandableWordResult.getTextToBraillePositions();
-    int[] expandableWordBrailleToTextPositions = expandableWordResult.getBrailleToTextPositions();
-    int[] afterWordTextToBraillePositions = afterWordResult.getTextToBraillePositions();
-    int[] afterWordBrailleToTextPositions = afterWordResult.getBrailleToTextPositions();
-    byte[] all =
-        ByteBuffer.allocate(
-                beforeWordByteArray.length + expandableWordArray.length + afterWordByteArray.length)
-            .put(beforeWordByteArray)
-            .put(expandableWordArray)
-            .put(afterWordByteArray)
-            .array();
+        g2Cache.translate(g2Translator, wholeText.substring(wordEnd));
+    if (beforeWordResult == null || wordResult == null || afterWordResult == null) {
+      return g2Translator.translate(
+          wholeText, cursorPosition, /* computerBrailleAtCursor= */ false);
+    }
+    return concatenate(
+        wholeText, Arrays.asList(beforeWordResult, wordResult, afterWordResult), cursorPosition);
+  }
+
+  /**
+   * Contracts the text when the cursor is not at a word. The text is split at the start of the word
+   * before the cursor, so that while a word is typed at the cursor the text before it, which did
+   * not change, comes from the cache.
+   */
+  @Nullable
+  private TranslationResult contract(String wholeText, int cursorPosition) {
+    int split = Math.min(cursorPosition, wholeText.length());
+    while (split > 0 && wholeText.charAt(split - 1) != ' ') {
+      split--;
+    }
+    if (split <= 0 || split == wholeText.length()) {
+      TranslationResult result = g2Cache.translate(g2Translator, wholeText);
+      return result == null
+          ? null
+          : concatenate(wholeText, Collections.singletonList(result), cursorPosition);
+    }
+    TranslationResult beforeResult =
+        g2Cache.translate(g2Translator, wholeText.substring(0, split));
+    TranslationResult afterResult = g2Cache.translate(g2Translator, wholeText.substring(split));
+    if (beforeResult == null || afterResult == null) {
+      return g2Translator.translate(
+          wholeText, cursorPosition, /* computerBrailleAtCursor= */ false);
+    }
+    return concatenate(wholeText, Arrays.asList(beforeResult, afterResult), cursorPosition);
+  }
+
+  /** Joins the translations of consecutive parts that together make up the whole text. */
+  private static TranslationResult concatenate(
+      String wholeText, List<TranslationResult> results, int cursorPosition) {
+    int cellCount = 0;
+    for (TranslationResult result : results) {
+      cellCount += result.getCells().length;
+    }
+    byte[] all = new byte[cellCount];
     int[] textToBraille = new int[wholeText.length()];
-    int[] brailleToText = new int[all.length];
-    // Assign the position of braille byte array to each character in text.
-    for (int i = 0; i < textToBraille.length; i++) {
-      if (i < beforeWord.length()) {
-        textToBraille[i] = beforeWordTextToBraillePositions[i];
-      } else if (i < beforeWord.length() + expandableString.length()) {
-        textToBraille[i] =
-            beforeWordByteArray.length
-                + expandableWordTextToBraillePositions[i - beforeWord.length()];
-      } else if (i < wholeText.length()) {
-        textToBraille[i] =
-            beforeWordByteArray.length
-                + expandableWordArray.length
-                + afterWordTextToBraillePositions[
-                    i - beforeWord.length() - expandableString.length()];
+    int[] brailleToText = new int[cellCount];
+    int textOffset = 0;
+    int brailleOffset = 0;
+    for (TranslationResult result : results) {
+      byte[] cells = result.getCells();
+      int[] segmentTextToBraille = result.getTextToBraillePositions();
+      int[] segmentBrailleToText = result.getBrailleToTextPositions();
+      System.arraycopy(cells, 0, all, brailleOffset, cells.length);
+      // Assign the position of braille byte array to each character in text.
+      for (int i = 0; i < segmentTextToBraille.length; i++) {
+        textToBraille[textOffset + i] = brailleOffset + segmentTextToBraille[i];
       }
-    }
-    // Assign the position of character in text to each byte in braille byte array.
-    for (int i = 0; i < all.length; i++) {
-      if (i < beforeWordByteArray.length) {
-        brailleToText[i] = beforeWordBrailleToTextPositions[i];
-      } else if (i < beforeWordByteArray.length + expandableWordArray.length) {
-        brailleToText[i] =
-            beforeWord.length()
-                + expandableWordBrailleToTextPositions[i - beforeWordByteArray.length];
-      } else if (i < all.length) {
-        brailleToText[i] =
-            beforeWord.length()
-                + expandableString.length()
-                + afterWordBrailleToTextPositions[
-                    i - beforeWordByteArray.length - expandableWordArray.length];
+      // Assign the position of character in text to each byte in braille byte array.
+      for (int i = 0; i < cells.length; i++) {
+        brailleToText[brailleOffset + i] = textOffset + segmentBrailleToText[i];
       }
+      textOffset += segmentTextToBraille.length;
+      brailleOffset += cells.length;
+    }
+
+    int brailleCursorPosition;
+    if (cursorPosition < 0) {
+      brailleCursorPosition = -1;
+    } else if (cursorPosition < textToBraille.length) {
+      brailleCursorPosition = textToBraille[cursorPosition];
+    } else {
+      // Like the liblouis wrapper, put a cursor past the end of the text past the end of braille.
+      brailleCursorPosition = all.length;
     }
-    return new TranslationResult(all, textToBraille, brailleToText, cursorPosition);
+    return new TranslationResult(all, textToBraille, brailleToText, brailleCursorPosition);
   }
 
   @Override
@@ -146,4 +213,13 @@ public class ExpandableContractedTranslator implements BrailleTranslator {
   public int hashCode() {
     return Objects.hash(g1Translator, g2Translator);
   }
+
+  @Override
+  public synchronized String toString() {
+    return "ExpandableContractedTranslator{g1Translations="
+        + g1Cache.getStats()
+        + ", g2Translations="
+        + g2Cache.getStats()
+        + "}";
+  }
 }
@@ -56,7 +56,8 @@ public class LibLouisTranslator implements BrailleTranslator {
       tablesDir = customTablesDir;
     } else {
       tablesDir = context.getDir("translator", Context.MODE_PRIVATE);
-      TranslateUtils.extractTables(context.getResources(), R.raw.translationtables, tablesDir);
+      // Tables are extracted once per app version and shared by all translators in the process.
+      TranslateUtils.extractTablesIfNeeded(context, R.raw.translationtables, tablesDir);
     }
     LouisTranslation.setTablesDir(tablesDir.getPath());
     bypassMap = new LinkedHashMap<>();
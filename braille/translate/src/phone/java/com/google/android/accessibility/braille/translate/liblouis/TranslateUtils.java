@@ -16,15 +16,28 @@
 
 package com.google.android.accessibility.braille.translate.liblouis;
 
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.res.Resources;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -33,12 +46,112 @@ import java.util.zip.ZipInputStream;
 public class TranslateUtils {
   private static final String TAG = "TranslateUtils";
 
+  /**
+   * Name of the file that lists the extracted tables, written after extraction completes. Each
+   * line after the version line holds the CRC-32, the size and the path of an extracted file, and
+   * the last line holds the CRC-32 of the lines before it.
+   */
+  private static final String MANIFEST_FILE_NAME = "tables.manifest";
+
+  private static final String MANIFEST_VERSION = "version";
+  private static final String MANIFEST_CHECKSUM = "checksum";
+
+  /** Tables that were extracted or verified in this process, by output directory and resource. */
+  private static final Set<String> extractedTables = new HashSet<>();
+
+  /** Checks the CRC-32 of extracted tables in the background, after the sizes were checked. */
+  private static Executor verificationExecutor = Executors.newSingleThreadExecutor();
+
+  /** Number of extractions in this process. */
+  private static int extractionCount = 0;
+
+  /**
+   * Extracts the tables to the directory, unless a previous extraction for this app version is
+   * listed by a valid manifest in the directory. Tables are extracted or checked once per process,
+   * and later calls return immediately.
+   *
+   * <p>Checking a previous extraction only compares the sizes of the files with the manifest, so
+   * that starting a translator does not read every table. Their CRC-32s are then checked in the
+   * background, and the tables are extracted again if one is damaged.
+   *
+   * @return whether the directory holds the tables
+   */
+  public static synchronized boolean extractTablesIfNeeded(
+      Context context, int rawResId, File output) {
+    String key = output.getPath() + ":" + rawResId;
+    if (extractedTables.contains(key)) {
+      return true;
+    }
+
+    String version = getAppVersion(context) + " " + rawResId;
+    File manifest = new File(output, MANIFEST_FILE_NAME);
+    @Nullable List<String[]> entries = readManifest(manifest, output, version);
+    if (entries != null) {
+      extractedTables.add(key);
+      Resources resources = context.getResources();
+      verificationExecutor.execute(
+          () -> {
+            if (!areChecksumsValid(output, entries)) {
+              synchronized (TranslateUtils.class) {
+                if (!extract(resources, rawResId, output, manifest, version)) {
+                  extractedTables.remove(key);
+                }
+              }
+            }
+          });
+      return true;
+    }
+
+    if (!extract(context.getResources(), rawResId, output, manifest, version)) {
+      return false;
+    }
+    extractedTables.add(key);
+    return true;
+  }
+
+  /** Extracts the tables and writes their manifest. */
+  private static boolean extract(
+      Resources resources, int rawResId, File output, File manifest, String version) {
+    LogUtils.i(TAG, "Extracting tables to %s", output);
+    extractionCount++;
+    // Remove the old manifest first, so that an interrupted extraction is not taken as complete.
+    manifest.delete();
+    StringBuilder manifestContent = new StringBuilder();
+    manifestContent.append(MANIFEST_VERSION).append(' ').append(version).append('\n');
+    if (!extractTables(resources, rawResId, output, manifestContent)) {
+      return false;
+    }
+    writeManifest(manifest, manifestContent);
+    return true;
+  }
+
+  @VisibleForTesting
+  static synchronized int getExtractionCount() {
+    return extractionCount;
+  }
+
+  /** Forgets the tables extracted in this process, as if the process was restarted. */
+  @VisibleForTesting
+  static synchronized void forgetExtractedTables() {
+    extractedTables.clear();
+  }
+
+  @VisibleForTesting
+  static synchronized void setVerificationExecutor(Executor executor) {
+    verificationExecutor = executor;
+  }
+
   public static boolean extractTables(Resources resources, int rawResId, File output) {
+    return extractTables(resources, rawResId, output, /* manifest= */ null);
+  }
+
+  private static boolean extractTables(
+      Resources resources, int rawResId, File output, @Nullable StringBuilder manifest) {
     List<File> extractedFiles = new ArrayList<>();
     final InputStream stream = resources.openRawResource(rawResId);
     final ZipInputStream zipStream = new ZipInputStream(new BufferedInputStream(stream));
     try {
-      extractEntries(zipStream, output, extractedFiles);
+      extractEntries(zipStream, output, extractedFiles, manifest);
       return true;
     } catch (Exception e) {
       LogUtils.e(TAG, "Exception during extractEntries()", e);
@@ -54,8 +167,13 @@ public class TranslateUtils {
   }
 
   private static void extractEntries(
-      ZipInputStream zipStream, File output, List<File> extractedFiles) throws IOException {
+      ZipInputStream zipStream,
+      File output,
+      List<File> extractedFiles,
+      @Nullable StringBuilder manifest)
+      throws IOException {
     final byte[] buffer = new byte[10240];
+    final CRC32 crc = new CRC32();
     int bytesRead;
     ZipEntry entry;
 
@@ -71,19 +189,151 @@ public class TranslateUtils {
       // Ensure the target path exists.
       outputFile.getParentFile().mkdirs();
       final FileOutputStream outputStream = new FileOutputStream(outputFile);
+      crc.reset();
+      long size = 0;
 
       while ((bytesRead = zipStream.read(buffer)) != -1) {
         outputStream.write(buffer, 0, bytesRead);
+        crc.update(buffer, 0, bytesRead);
+        size += bytesRead;
       }
 
       outputStream.close();
       zipStream.closeEntry();
 
+      if (manifest != null) {
+        manifest
+            .append(Long.toHexString(crc.getValue()))
+            .append(' ')
+            .append(size)
+            .append(' ')
+            .append(entry.getName())
+            .append('\n');
+      }
+
       // Make sure the output file is readable.
       makeReadable(outputFile);
     }
   }
 
+  /**
+   * Returns the entries of the manifest, as CRC-32, size and path, if the manifest was written for
+   * the version, is intact, and lists files that are all present with the size they were extracted
+   * with. Otherwise returns null.
+   */
+  private static @Nullable List<String[]> readManifest(File manifest, File output, String version) {
+    String content;
+    try {
+      content = new String(readFile(manifest), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      return null;
+    }
+
+    int checksumStart = content.lastIndexOf(MANIFEST_CHECKSUM + " ");
+    if (checksumStart < 0
+        || !content.startsWith(MANIFEST_VERSION + " " + version + "\n")
+        || !content
+            .substring(checksumStart)
+            .trim()
+            .equals(MANIFEST_CHECKSUM + " " + checksum(content.substring(0, checksumStart)))) {
+      LogUtils.i(TAG, "Table manifest is missing, outdated or damaged");
+      return null;
+    }
+
+    String[] lines = content.substring(0, checksumStart).split("\n");
+    List<String[]> entries = new ArrayList<>(lines.length);
+    for (int i = 1; i < lines.length; i++) {
+      String[] fields = lines[i].split(" ", 3);
+      if (fields.length != 3) {
+        return null;
+      }
+      File file = new File(output, fields[2]);
+      try {
+        if (file.length() != Long.parseLong(fields[1])) {
+          LogUtils.w(TAG, "Extracted table has changed: %s", file);
+          return null;
+        }
+      } catch (NumberFormatException e) {
+        LogUtils.w(TAG, "Failed to verify extracted table %s: %s", file, e);
+        return null;
+      }
+      entries.add(fields);
+    }
+    return entries;
+  }
+
+  /** Returns whether the files listed by the manifest entries have their CRC-32. */
+  private static boolean areChecksumsValid(File output, List<String[]> entries) {
+    CRC32 crc = new CRC32();
+    for (String[] fields : entries) {
+      File file = new File(output, fields[2]);
+      try {
+        crc.reset();
+        crc.update(readFile(file));
+        if (crc.getValue() != Long.parseLong(fields[0], 16)) {
+          LogUtils.w(TAG, "Extracted table is damaged: %s", file);
+          return false;
+        }
+      } catch (IOException | NumberFormatException e) {
+        LogUtils.w(TAG, "Failed to verify extracted table %s: %s", file, e);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Writes the manifest with its checksum, through a temporary file so it is never partial. */
+  private static void writeManifest(File manifest, StringBuilder content) {
+    String checksum = checksum(content);
+    content.append(MANIFEST_CHECKSUM).append(' ').append(checksum).append('\n');
+    File temporary = new File(manifest.getPath() + ".tmp");
+    try (OutputStream outputStream = new FileOutputStream(temporary)) {
+      outputStream.write(content.toString().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      LogUtils.e(TAG, "Failed to write the table manifest", e);
+      temporary.delete();
+      return;
+    }
+    if (!temporary.renameTo(manifest)) {
+      LogUtils.e(TAG, "Failed to rename the table manifest");
+      temporary.delete();
+    }
+  }
+
+  private static String checksum(CharSequence content) {
+    CRC32 crc = new CRC32();
+    crc.update(content.toString().getBytes(StandardCharsets.UTF_8));
+    return Long.toHexString(crc.getValue());
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    try (InputStream inputStream = new FileInputStream(file)) {
+      byte[] bytes = new byte[(int) file.length()];
+      int offset = 0;
+      int read;
+      while (offset < bytes.length
+          && (read = inputStream.read(bytes, offset, bytes.length - offset)) > 0) {
+        offset += read;
+      }
+      if (offset < bytes.length) {
+        throw new IOException("Unexpected end of " + file);
+      }
+      return bytes;
+    }
+  }
+
+  /** Returns a string that changes whenever the app is updated or reinstalled. */
+  @SuppressWarnings("deprecation") // PackageInfo.versionCode is used on all versions.
+  private static String getAppVersion(Context context) {
+    try {
+      PackageInfo packageInfo =
+          context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+      return packageInfo.versionCode + "-" + packageInfo.lastUpdateTime;
+    } catch (NameNotFoundException e) {
+      return "unknown";
+    }
+  }
+
   private static void removeExtractedFiles(List<File> extractedFiles) {
     for (File extractedFile : extractedFiles) {
       if (!extractedFile.isDirectory()) {
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.accessibility.braille.translate;
+
+import com.google.android.accessibility.braille.interfaces.BrailleWord;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A translator for tests which runs in the JVM, without liblouis. Each ASCII character is
+ * translated into one cell holding its code, with dot 8 also raised by a contracted translator, so
+ * that tests can tell which translator translated a character. Calls are recorded.
+ */
+public class FakeBrailleTranslator implements BrailleTranslator {
+  private static final int DOT_8 = 0x80;
+
+  private final boolean contracted;
+  private final List<String> translatedTexts = new ArrayList<>();
+  private int translatedCharacterCount = 0;
+  private int backTranslationCount = 0;
+
+  public FakeBrailleTranslator(boolean contracted) {
+    this.contracted = contracted;
+  }
+
+  @Override
+  public synchronized String translateToPrint(BrailleWord brailleWord) {
+    backTranslationCount++;
+    StringBuilder print = new StringBuilder();
+    for (int i = 0; i < brailleWord.size(); i++) {
+      print.append((char) (brailleWord.getByte(i) & ~DOT_8 & 0xFF));
+    }
+    return print.toString();
+  }
+
+  @Override
+  public String translateToPrintPartial(BrailleWord brailleWord) {
+    return translateToPrint(brailleWord);
+  }
+
+  @Override
+  public synchronized TranslationResult translate(
+      String text, int cursorPosition, boolean computerBrailleAtCursor) {
+    translatedTexts.add(text);
+    translatedCharacterCount += text.length();
+    byte[] cells = new byte[text.length()];
+    int[] positions = new int[text.length()];
+    for (int i = 0; i < text.length(); i++) {
+      cells[i] = (byte) (contracted ? text.charAt(i) | DOT_8 : text.charAt(i));
+      positions[i] = i;
+    }
+    return new TranslationResult(cells, positions, positions.clone(), cursorPosition);
+  }
+
+  /** Returns the texts translated into braille, in the order they were translated. */
+  public synchronized List<String> getTranslatedTexts() {
+    return new ArrayList<>(translatedTexts);
+  }
+
+  /** Returns the number of characters translated into braille. */
+  public synchronized int getTranslatedCharacterCount() {
+    return translatedCharacterCount;
+  }
+
+  /** Returns the number of back-translations of braille into print. */
+  public synchronized int getBackTranslationCount() {
+    return backTranslationCount;
+  }
+
+  /** Forgets the calls recorded so far. */
+  public synchronized void reset() {
+    translatedTexts.clear();
+    translatedCharacterCount = 0;
+    backTranslationCount = 0;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.accessibility.braille.translate;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.accessibility.braille.interfaces.BrailleWord;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TranslatorServiceTest {
+  private static final long TIMEOUT_SECONDS = 5;
+
+  private final TranslatorService service = new TranslatorService();
+  private final RecordingTranslator translator = new RecordingTranslator();
+
+  @Test
+  public void getInstance_returnsSharedService() {
+    assertThat(TranslatorService.getInstance()).isSameInstanceAs(TranslatorService.getInstance());
+  }
+
+  @Test
+  public void translateToPrint_runsBeforeQueuedDisplayTranslations() throws Exception {
+    translator.blockNextTranslation();
+    Future<TranslationResult> running = translate("running");
+    translator.awaitBlocked();
+    Future<TranslationResult> first = translate("first");
+    Future<TranslationResult> second = translate("second");
+    Future<String> input = service.translateToPrint(translator, toBraille("input"));
+
+    translator.unblock();
+    second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    assertThat(input.get()).isEqualTo("input");
+    assertThat(running.isDone()).isTrue();
+    assertThat(first.isDone()).isTrue();
+    assertThat(translator.getCalls())
+        .containsExactly("running", "print:input", "first", "second")
+        .inOrder();
+  }
+
+  @Test
+  public void translate_cancelledBeforeRunning_isSkipped() throws Exception {
+    translator.blockNextTranslation();
+    translate("running");
+    translator.awaitBlocked();
+    List<TranslationResult> results = Collections.synchronizedList(new ArrayList<>());
+    Future<TranslationResult> replaced =
+        service.translate(
+            translator,
+            "replaced",
+            /* cursorPosition= */ -1,
+            /* computerBrailleAtCursor= */ false,
+            results::add);
+    Future<TranslationResult> latest =
+        service.translate(
+            translator,
+            "latest",
+            /* cursorPosition= */ -1,
+            /* computerBrailleAtCursor= */ false,
+            results::add);
+
+    replaced.cancel(/* mayInterruptIfRunning= */ false);
+    translator.unblock();
+    latest.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    assertThat(translator.getCalls()).containsExactly("running", "latest").inOrder();
+    assertThat(results).hasSize(1);
+  }
+
+  @Test
+  public void translateToPrint_sameBraille_isBackTranslatedOnce() throws Exception {
+    BrailleWord brailleWord = toBraille("word");
+
+    assertThat(service.translateToPrint(translator, brailleWord).get()).isEqualTo("word");
+    assertThat(service.translateToPrint(translator, brailleWord).get()).isEqualTo("word");
+
+    assertThat(translator.getBackTranslationCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void translateToPrint_brailleChangedWhileQueued_backTranslatesSubmittedBraille()
+      throws Exception {
+    translator.blockNextTranslation();
+    translate("running");
+    translator.awaitBlocked();
+    BrailleWord brailleWord = toBraille("ab");
+    Future<String> input = service.translateToPrint(translator, brailleWord);
+
+    brailleWord.append(toBraille("c"));
+    translator.unblock();
+
+    assertThat(input.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isEqualTo("ab");
+  }
+
+  @Test
+  public void wrap_translatesOnServiceThread() {
+    BrailleTranslator wrapped = service.wrap(translator);
+
+    assertThat(wrapped.translateToPrint(toBraille("abc"))).isEqualTo("abc");
+    assertThat(
+            wrapped
+                .translate("abc", /* cursorPosition= */ -1, /* computerBrailleAtCursor= */ false)
+                .getCells())
+        .isEqualTo("abc".getBytes());
+    assertThat(translator.getThreadNames())
+        .containsExactly("TranslatorService", "TranslatorService");
+  }
+
+  private Future<TranslationResult> translate(String text) {
+    return service.translate(
+        translator,
+        text,
+        /* cursorPosition= */ -1,
+        /* computerBrailleAtCursor= */ false,
+        result -> {});
+  }
+
+  private static BrailleWord toBraille(String print) {
+    return new BrailleWord(print.getBytes());
+  }
+
+  /** Records the order of its translations, and can hold the translation thread in one. */
+  private static class RecordingTranslator extends FakeBrailleTranslator {
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> threadNames = Collections.synchronizedList(new ArrayList<>());
+    private volatile CountDownLatch blocked = new CountDownLatch(0);
+    private volatile CountDownLatch unblocked = new CountDownLatch(0);
+
+    RecordingTranslator() {
+      super(/* contracted= */ false);
+    }
+
+    void blockNextTranslation() {
+      blocked = new CountDownLatch(1);
+      unblocked = new CountDownLatch(1);
+    }
+
+    void awaitBlocked() throws InterruptedException {
+      assertThat(blocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)).isTrue();
+    }
+
+    void unblock() {
+      unblocked.countDown();
+    }
+
+    List<String> getCalls() {
+      return new ArrayList<>(calls);
+    }
+
+    List<String> getThreadNames() {
+      return new ArrayList<>(threadNames);
+    }
+
+    @Override
+    public String translateToPrint(BrailleWord brailleWord) {
+      String print = super.translateToPrint(brailleWord);
+      calls.add("print:" + print);
+      threadNames.add(Thread.currentThread().getName());
+      return print;
+    }
+
+    @Override
+    public TranslationResult translate(
+        String text, int cursorPosition, boolean computerBrailleAtCursor) {
+      calls.add(text);
+      threadNames.add(Thread.currentThread().getName());
+      if (blocked.getCount() > 0) {
+        blocked.countDown();
+        try {
+          unblocked.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return super.translate(text, cursorPosition, computerBrailleAtCursor);
+    }
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.accessibility.braille.translate.liblouis;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.accessibility.braille.translate.FakeBrailleTranslator;
+import com.google.android.accessibility.braille.translate.TranslationResult;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ExpandableContractedTranslatorTest {
+  /** Length of the paragraph edited by the typing tests. */
+  private static final int PARAGRAPH_LENGTH = 2000;
+
+  private static final String TYPED_WORD = "braille";
+
+  private final FakeBrailleTranslator g1Translator =
+      new FakeBrailleTranslator(/* contracted= */ false);
+  private final FakeBrailleTranslator g2Translator =
+      new FakeBrailleTranslator(/* contracted= */ true);
+  private final ExpandableContractedTranslator translator =
+      new ExpandableContractedTranslator(g1Translator, g2Translator);
+
+  @Test
+  public void translate_cursorAtWord_translatesTextAroundWordAsWholeRuns() {
+    TranslationResult result =
+        translator.translate(
+            "ab cd ef", /* cursorPosition= */ 4, /* computerBrailleAtCursor= */ false);
+
+    assertThat(g2Translator.getTranslatedTexts()).containsExactly("ab ", " ef").inOrder();
+    assertThat(g1Translator.getTranslatedTexts()).containsExactly("cd");
+    assertThat(result.getCells()).isEqualTo(concatenate(contract("ab "), "cd", contract(" ef")));
+    assertThat(result.getCursorPosition()).isEqualTo(4);
+  }
+
+  @Test
+  public void translate_cursorAfterWord_contractsTextBeforeWordAndWordSeparately() {
+    TranslationResult result =
+        translator.translate(
+            "ab cd", /* cursorPosition= */ 5, /* computerBrailleAtCursor= */ false);
+
+    assertThat(g2Translator.getTranslatedTexts()).containsExactly("ab ", "cd").inOrder();
+    assertThat(g1Translator.getTranslatedTexts()).isEmpty();
+    assertThat(result.getCells()).isEqualTo(contract("ab cd"));
+    assertThat(result.getCursorPosition()).isEqualTo(5);
+  }
+
+  @Test
+  public void translate_cursorAfterSpace_contractsWholeText() {
+    translator.translate("ab ", /* cursorPosition= */ 3, /* computerBrailleAtCursor= */ false);
+
+    assertThat(g2Translator.getTranslatedTexts()).containsExactly("ab ");
+  }
+
+  @Test
+  public void translate_cursorAtSpace_contractsWholeText() {
+    translator.translate("ab cd", /* cursorPosition= */ 2, /* computerBrailleAtCursor= */ false);
+
+    assertThat(g2Translator.getTranslatedTexts()).containsExactly("ab cd");
+    assertThat(g1Translator.getTranslatedTexts()).isEmpty();
+  }
+
+  @Test
+  public void translate_sameText_isNotTranslatedAgain() {
+    TranslationResult first =
+        translator.translate(
+            "ab cd ef", /* cursorPosition= */ 4, /* computerBrailleAtCursor= */ false);
+    g1Translator.reset();
+    g2Translator.reset();
+
+    TranslationResult second =
+        translator.translate(
+            "ab cd ef", /* cursorPosition= */ 4, /* computerBrailleAtCursor= */ false);
+
+    assertThat(g1Translator.getTranslatedTexts()).isEmpty();
+    assertThat(g2Translator.getTranslatedTexts()).isEmpty();
+    assertThat(second.getCells()).isEqualTo(first.getCells());
+  }
+
+  /**
+   * Types a word into the middle of a paragraph, before one of its words. Only the typed word is
+   * translated again while it is typed, since the text around it does not change.
+   */
+  @Test
+  public void typingInsideParagraph_translatesOnlyTypedWordPerKeystroke() {
+    String paragraph = createParagraph();
+    int insertAt = paragraph.indexOf(' ', PARAGRAPH_LENGTH / 2) + 1;
+    String before = paragraph.substring(0, insertAt);
+    String after = paragraph.substring(insertAt);
+    String wordAfter = after.substring(0, after.indexOf(' '));
+    translator.translate(paragraph, insertAt, /* computerBrailleAtCursor= */ false);
+
+    for (int i = 1; i <= TYPED_WORD.length(); i++) {
+      g1Translator.reset();
+      g2Translator.reset();
+      String text = before + TYPED_WORD.substring(0, i) + after;
+
+      translator.translate(text, insertAt + i, /* computerBrailleAtCursor= */ false);
+
+      // The cursor stays at the typed word, which now also holds the word it was typed before.
+      assertThat(g2Translator.getTranslatedTexts()).isEmpty();
+      assertThat(g1Translator.getTranslatedTexts()).hasSize(1);
+      assertThat(g1Translator.getTranslatedCharacterCount()).isEqualTo(i + wordAfter.length());
+    }
+  }
+
+  /**
+   * Types a word at the end of a paragraph. The cursor is past the end of the text, so the text is
+   * split before the typed word, and only the typed word is contracted again on each keystroke.
+   */
+  @Test
+  public void typingAtEndOfParagraph_translatesOnlyTypedWordPerKeystroke() {
+    String paragraph = createParagraph() + " ";
+    translator.translate(paragraph, paragraph.length(), /* computerBrailleAtCursor= */ false);
+
+    for (int i = 1; i <= TYPED_WORD.length(); i++) {
+      g1Translator.reset();
+      g2Translator.reset();
+      String text = paragraph + TYPED_WORD.substring(0, i);
+
+      translator.translate(text, text.length(), /* computerBrailleAtCursor= */ false);
+
+      assertThat(g2Translator.getTranslatedTexts()).containsExactly(TYPED_WORD.substring(0, i));
+      assertThat(g2Translator.getTranslatedCharacterCount()).isEqualTo(i);
+      assertThat(g1Translator.getTranslatedTexts()).isEmpty();
+    }
+  }
+
+  private static String createParagraph() {
+    String[] words = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog"};
+    StringBuilder paragraph = new StringBuilder();
+    for (int i = 0; paragraph.length() < PARAGRAPH_LENGTH; i++) {
+      paragraph.append(words[i % words.length]).append(' ');
+    }
+    paragraph.setLength(PARAGRAPH_LENGTH);
+    return paragraph.toString().trim();
+  }
+
+  private static byte[] contract(String text) {
+    byte[] cells = text.getBytes();
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] |= (byte) 0x80;
+    }
+    return cells;
+  }
+
+  private static byte[] concatenate(byte[] before, String word, byte[] after) {
+    byte[] all = new byte[before.length + word.length() + after.length];
+    System.arraycopy(before, 0, all, 0, before.length);
+    System.arraycopy(word.getBytes(), 0, all, before.length, word.length());
+    System.arraycopy(after, 0, all, before.length + word.length(), after.length);
+    return all;
+  }
+}
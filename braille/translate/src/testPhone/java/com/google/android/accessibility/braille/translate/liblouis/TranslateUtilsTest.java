@@ -0,0 +1,186 @@
+/*
+ * Copyright 2022 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.accessibility.braille.translate.liblouis;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import androidx.annotation.Nullable;
+import com.google.android.accessibility.braille.translate.R;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Extracts the real table archive, the way each {@link LibLouisTranslator} does when it is built.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class TranslateUtilsTest {
+  private static final int TRANSLATOR_COUNT = 10;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<Runnable> verifications = new ArrayList<>();
+  private Context context;
+  private File output;
+  private int extractionCount;
+
+  @Before
+  public void setUp() throws IOException {
+    context = RuntimeEnvironment.getApplication();
+    output = temporaryFolder.newFolder("translator");
+    TranslateUtils.forgetExtractedTables();
+    TranslateUtils.setVerificationExecutor(verifications::add);
+    extractionCount = TranslateUtils.getExtractionCount();
+  }
+
+  @After
+  public void tearDown() {
+    TranslateUtils.forgetExtractedTables();
+    TranslateUtils.setVerificationExecutor(Executors.newSingleThreadExecutor());
+  }
+
+  @Test
+  public void manyTranslators_extractOnce() {
+    for (int i = 0; i < TRANSLATOR_COUNT; i++) {
+      assertThat(extractTables()).isTrue();
+    }
+
+    assertThat(getNewExtractions()).isEqualTo(1);
+    assertThat(new File(output, "tables.manifest").exists()).isTrue();
+    assertThat(findTable()).isNotNull();
+  }
+
+  @Test
+  public void manyTranslatorsOnManyThreads_extractOnce() throws InterruptedException {
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < TRANSLATOR_COUNT; i++) {
+      threads.add(new Thread(this::extractTables));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(getNewExtractions()).isEqualTo(1);
+  }
+
+  @Test
+  public void nextProcess_checksSizesAndVerifiesInBackground() {
+    extractTables();
+    TranslateUtils.forgetExtractedTables();
+
+    assertThat(extractTables()).isTrue();
+
+    assertThat(getNewExtractions()).isEqualTo(1);
+    assertThat(verifications).hasSize(1);
+    verifications.get(0).run();
+    assertThat(getNewExtractions()).isEqualTo(1);
+  }
+
+  @Test
+  public void nextProcess_damagedTable_extractsAgainInBackground() throws IOException {
+    extractTables();
+    File table = findTable();
+    byte original = damage(table);
+    TranslateUtils.forgetExtractedTables();
+
+    assertThat(extractTables()).isTrue();
+    assertThat(getNewExtractions()).isEqualTo(1);
+    verifications.get(0).run();
+
+    assertThat(getNewExtractions()).isEqualTo(2);
+    assertThat(readFirstByte(table)).isEqualTo(original);
+  }
+
+  @Test
+  public void nextProcess_truncatedTable_extractsAgain() throws IOException {
+    extractTables();
+    File table = findTable();
+    try (RandomAccessFile file = new RandomAccessFile(table, "rw")) {
+      file.setLength(file.length() - 1);
+    }
+    TranslateUtils.forgetExtractedTables();
+
+    assertThat(extractTables()).isTrue();
+
+    assertThat(getNewExtractions()).isEqualTo(2);
+    assertThat(verifications).isEmpty();
+  }
+
+  private boolean extractTables() {
+    return TranslateUtils.extractTablesIfNeeded(context, R.raw.translationtables, output);
+  }
+
+  private int getNewExtractions() {
+    return TranslateUtils.getExtractionCount() - extractionCount;
+  }
+
+  /** Returns an extracted table, or null if none was extracted. */
+  @Nullable
+  private File findTable() {
+    return findFile(output);
+  }
+
+  @Nullable
+  private static File findFile(File directory) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return null;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        File found = findFile(file);
+        if (found != null) {
+          return found;
+        }
+      } else if (file.length() > 0 && !file.getName().startsWith("tables.manifest")) {
+        return file;
+      }
+    }
+    return null;
+  }
+
+  /** Changes the first byte of the file, keeping its size, and returns the original byte. */
+  private static byte damage(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      byte original = randomAccessFile.readByte();
+      randomAccessFile.seek(0);
+      randomAccessFile.writeByte(~original);
+      return original;
+    }
+  }
+
+  private static byte readFirstByte(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+      return randomAccessFile.readByte();
+    }
+  }
+}
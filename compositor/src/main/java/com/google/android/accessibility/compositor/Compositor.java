@@ -20,7 +20,10 @@ import static com.google.android.accessibility.utils.output.SpeechController.QUE
 import static com.google.android.accessibility.utils.output.SpeechController.QUEUE_MODE_UNINTERRUPTIBLE_BY_NEW_SPEECH;
 
 import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.text.TextUtils;
 import android.view.View;
@@ -34,6 +37,7 @@ import androidx.core.view.accessibility.AccessibilityRecordCompat;
 import androidx.core.view.accessibility.AccessibilityWindowInfoCompat;
 import com.google.android.accessibility.utils.AccessibilityEventUtils;
 import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils;
+import com.google.android.accessibility.utils.FeatureSupport;
 import com.google.android.accessibility.utils.ImageContents;
 import com.google.android.accessibility.utils.JsonUtils;
 import com.google.android.accessibility.utils.Performance.EventId;
@@ -48,6 +52,14 @@ import com.google.android.accessibility.utils.output.SpeechController.UtteranceC
 import com.google.android.accessibility.utils.output.Utterance;
 import com.google.android.accessibility.utils.parsetree.ParseTree;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.HashMap;
@@ -217,6 +229,9 @@ public class Compositor {
   // Constant parameters
   private static final int VERBOSE_UTTERANCE_THRESHOLD_CHARACTERS = 50;
 
+  // Precompiled parse trees are stored in the code cache, which the system clears on app update.
+  private static final String PARSE_TREE_SNAPSHOT_PREFIX = "compositor_parse_tree_";
+
   /** IDs of description orders in verbosity setting. */
   @IntDef({
     DESC_ORDER_ROLE_NAME_STATE_POSITION,
@@ -248,6 +263,12 @@ public class Compositor {
 
   private boolean mParseTreeIsStale = false;
 
+  /** Outputs of the event handled on the main thread, reused so that events do not allocate. */
+  private final ParseTree.OutputValues mMainThreadOutputs = new ParseTree.OutputValues();
+
+  /** Whether {@link #mMainThreadOutputs} belongs to an event being handled. */
+  private boolean mMainThreadOutputsInUse = false;
+
   /////////////////////////////////////////////////////////////////////////////////
   // Inner classes
 
@@ -264,6 +285,19 @@ public class Compositor {
     @DescriptionOrder int mDescriptionOrder = DESC_ORDER_ROLE_NAME_STATE_POSITION;
     boolean mSpeakElementIds = false;
     boolean mSpeakSystemWindowTitles = true;
+
+    /** Returns a name that is unique for each combination of constants. */
+    String getSnapshotName() {
+      return String.format(
+          Locale.US,
+          "f%d_r%d_c%d_o%d_e%d_w%d",
+          mFlavor,
+          mSpeakRoles ? 1 : 0,
+          mSpeakCollectionInfo ? 1 : 0,
+          mDescriptionOrder,
+          mSpeakElementIds ? 1 : 0,
+          mSpeakSystemWindowTitles ? 1 : 0);
+    }
   }
 
   private final Constants mConstants = new Constants();
@@ -468,9 +502,30 @@ public class Compositor {
       }
     }
 
+    // Outputs are evaluated as they are read, so speech outputs are skipped without speech.
+    boolean reuseOutputs =
+        (Looper.myLooper() == Looper.getMainLooper()) && !mMainThreadOutputsInUse;
+    ParseTree.OutputValues outputs =
+        reuseOutputs ? mMainThreadOutputs : new ParseTree.OutputValues();
+    mMainThreadOutputsInUse |= reuseOutputs;
+    mParseTree.parseEventOutputs(event, delegate, outputs);
+    try {
+      handleEventOutputs(outputs, eventId, runnable);
+    } finally {
+      outputs.clear();
+      if (reuseOutputs) {
+        mMainThreadOutputsInUse = false;
+      }
+    }
+  }
+
+  private void handleEventOutputs(
+      ParseTree.OutputValues outputs,
+      @Nullable EventId eventId,
+      @Nullable UtteranceCompleteRunnable runnable) {
     // Compose earcons.
     SpeakOptions speakOptions = null;
-    int earcon = mParseTree.parseEventToInteger(event, OUTPUT_EARCON, -1, delegate);
+    int earcon = outputs.getInteger(OUTPUT_EARCON, -1);
     if (earcon != -1) {
       if (speakOptions == null) {
         speakOptions = SpeakOptions.create();
@@ -480,11 +535,11 @@ public class Compositor {
       speakOptions.setEarcons(earcons);
 
       Bundle nonSpeechParams = new Bundle();
-      double rate = mParseTree.parseEventToNumber(event, OUTPUT_EARCON_RATE, 1.0, delegate);
+      double rate = outputs.getNumber(OUTPUT_EARCON_RATE, 1.0);
       if (rate != 1.0) {
         nonSpeechParams.putFloat(Utterance.KEY_METADATA_EARCON_RATE, (float) rate);
       }
-      double volume = mParseTree.parseEventToNumber(event, OUTPUT_EARCON_RATE, 1.0, delegate);
+      double volume = outputs.getNumber(OUTPUT_EARCON_RATE, 1.0);
       if (volume != 1.0) {
         nonSpeechParams.putFloat(Utterance.KEY_METADATA_EARCON_VOLUME, (float) volume);
       }
@@ -492,7 +547,7 @@ public class Compositor {
     }
 
     // Compose haptics.
-    int haptic = mParseTree.parseEventToInteger(event, OUTPUT_HAPTIC, -1, delegate);
+    int haptic = outputs.getInteger(OUTPUT_HAPTIC, -1);
     if (haptic != -1) {
       if (speakOptions == null) {
         speakOptions = SpeakOptions.create();
@@ -505,7 +560,7 @@ public class Compositor {
     // FLAG_ADVANCED_CONTINUOUS_READING is used for "read from top". Ensure that the flag is set
     // correctly in SpeakOptions regardless of the speech/haptics/earcon feedback. So that the
     // "read from top" will not stop at focusable node with no feedback.
-    if (hasFlagAdvancedContinuousReading(event, delegate)) {
+    if (outputs.getBoolean(OUTPUT_ADVANCE_CONTINUOUS_READING, false)) {
       if (speakOptions == null) {
         speakOptions = SpeakOptions.create();
       }
@@ -513,7 +568,7 @@ public class Compositor {
     }
 
     // Compose speech, and speech parameters.
-    CharSequence ttsOutput = mParseTree.parseEventToString(event, OUTPUT_TTS_OUTPUT, delegate);
+    CharSequence ttsOutput = outputs.getString(OUTPUT_TTS_OUTPUT);
     if (!TextUtils.isEmpty(ttsOutput)) {
       // Cleans up the TTS output if it is just 1 character long. This will announce single
       // symbols correctly.
@@ -522,8 +577,7 @@ public class Compositor {
       ttsOutput = SpeechCleanupUtils.cleanUp(mContext, ttsOutput);
       // Compute queueing mode.
       int queueMode =
-          mParseTree.parseEventToEnum(
-              event, OUTPUT_TTS_QUEUE_MODE, SpeechController.QUEUE_MODE_INTERRUPT, delegate);
+          outputs.getInteger(OUTPUT_TTS_QUEUE_MODE, SpeechController.QUEUE_MODE_INTERRUPT);
       if (queueMode == QUEUE_MODE_INTERRUPTIBLE_IF_LONG) {
         queueMode =
             (ttsOutput.length() <= VERBOSE_UTTERANCE_THRESHOLD_CHARACTERS)
@@ -533,15 +587,12 @@ public class Compositor {
 
       // Compose queue group to clear.
       int clearQueueGroup =
-          mParseTree.parseEventToEnum(
-              event,
-              OUTPUT_TTS_CLEAR_QUEUE_GROUP,
-              SpeechController.UTTERANCE_GROUP_DEFAULT,
-              delegate);
+          outputs.getInteger(
+              OUTPUT_TTS_CLEAR_QUEUE_GROUP, SpeechController.UTTERANCE_GROUP_DEFAULT);
 
       // Compose other speech flags/parameters.
-      int flags = getSpeechFlags(event, clearQueueGroup, delegate);
-      double speechPitch = mParseTree.parseEventToNumber(event, OUTPUT_TTS_PITCH, 1.0, delegate);
+      int flags = getSpeechFlags(outputs, clearQueueGroup);
+      double speechPitch = outputs.getNumber(OUTPUT_TTS_PITCH, 1.0);
       Bundle speechParams = new Bundle();
       speechParams.putFloat(SpeechParam.PITCH, (float) speechPitch);
 
@@ -624,50 +675,41 @@ public class Compositor {
     }
   }
 
-  private boolean hasFlagAdvancedContinuousReading(
-      int event, ParseTree.VariableDelegate variables) {
-    return mParseTree.parseEventToBool(event, OUTPUT_ADVANCE_CONTINUOUS_READING, false, variables);
-  }
-
   /**
    * Gets speech flag mask for the event. <strong>Note:</strong> This method doesn't handle {@link
-   * FeedbackItem#FLAG_ADVANCE_CONTINUOUS_READING}, which should be handled after calling {@link
-   * #hasFlagAdvancedContinuousReading}.
+   * FeedbackItem#FLAG_ADVANCE_CONTINUOUS_READING}, which the caller sets from {@code
+   * OUTPUT_ADVANCE_CONTINUOUS_READING}.
    */
-  private int getSpeechFlags(int event, int clearQueueGroup, ParseTree.VariableDelegate variables) {
+  private static int getSpeechFlags(ParseTree.OutputValues outputs, int clearQueueGroup) {
     int flags = 0;
-    if (!mParseTree.parseEventToBool(event, OUTPUT_TTS_ADD_TO_HISTORY, false, variables)) {
+    if (!outputs.getBoolean(OUTPUT_TTS_ADD_TO_HISTORY, false)) {
       flags = flags | FeedbackItem.FLAG_NO_HISTORY;
     }
-    if (mParseTree.parseEventToBool(event, OUTPUT_TTS_FORCE_FEEDBACK, false, variables)) {
+    if (outputs.getBoolean(OUTPUT_TTS_FORCE_FEEDBACK, false)) {
       flags = flags | FeedbackItem.FLAG_FORCE_FEEDBACK;
     }
-    if (mParseTree.parseEventToBool(
-        event, OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_AUDIO_PLAYBACK_ACTIVE, false, variables)) {
+    if (outputs.getBoolean(OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_AUDIO_PLAYBACK_ACTIVE, false)) {
       flags = flags | FeedbackItem.FLAG_FORCE_FEEDBACK_EVEN_IF_AUDIO_PLAYBACK_ACTIVE;
     }
-    if (mParseTree.parseEventToBool(
-        event, OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_MICROPHONE_ACTIVE, false, variables)) {
+    if (outputs.getBoolean(OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_MICROPHONE_ACTIVE, false)) {
       flags = flags | FeedbackItem.FLAG_FORCE_FEEDBACK_EVEN_IF_MICROPHONE_ACTIVE;
     }
-    if (mParseTree.parseEventToBool(
-        event, OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_SSB_ACTIVE, false, variables)) {
+    if (outputs.getBoolean(OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_SSB_ACTIVE, false)) {
       flags = flags | FeedbackItem.FLAG_FORCE_FEEDBACK_EVEN_IF_SSB_ACTIVE;
     }
-    if (mParseTree.parseEventToBool(
-        event, OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_PHONE_CALL_ACTIVE, true, variables)) {
+    if (outputs.getBoolean(OUTPUT_TTS_FORCE_FEEDBACK_EVEN_IF_PHONE_CALL_ACTIVE, true)) {
       flags = flags | FeedbackItem.FLAG_FORCE_FEEDBACK_EVEN_IF_PHONE_CALL_ACTIVE;
     }
-    if (mParseTree.parseEventToBool(event, OUTPUT_TTS_SKIP_DUPLICATE, false, variables)) {
+    if (outputs.getBoolean(OUTPUT_TTS_SKIP_DUPLICATE, false)) {
       flags = flags | FeedbackItem.FLAG_SKIP_DUPLICATE;
     }
     if (clearQueueGroup != SpeechController.UTTERANCE_GROUP_DEFAULT) {
       flags = flags | FeedbackItem.FLAG_CLEAR_QUEUED_UTTERANCES_WITH_SAME_UTTERANCE_GROUP;
     }
-    if (mParseTree.parseEventToBool(event, OUTPUT_TTS_INTERRUPT_SAME_GROUP, false, variables)) {
+    if (outputs.getBoolean(OUTPUT_TTS_INTERRUPT_SAME_GROUP, false)) {
       flags = flags | FeedbackItem.FLAG_INTERRUPT_CURRENT_UTTERANCE_WITH_SAME_UTTERANCE_GROUP;
     }
-    if (mParseTree.parseEventToBool(event, OUTPUT_PREVENT_DEVICE_SLEEP, false, variables)) {
+    if (outputs.getBoolean(OUTPUT_PREVENT_DEVICE_SLEEP, false)) {
       flags = flags | FeedbackItem.FLAG_NO_DEVICE_SLEEP;
     }
     return flags;
@@ -682,6 +724,16 @@ public class Compositor {
     declareEvents(parseTree);
     variablesFactory.declareVariables(parseTree);
 
+    // Prefer the precompiled tree, which skips reading the JSON and parsing every statement.
+    File snapshotFile =
+        new File(
+            context.getCodeCacheDir(),
+            PARSE_TREE_SNAPSHOT_PREFIX + constants.getSnapshotName() + ".bin");
+    @Nullable String snapshotKey = getParseTreeSnapshotKey(context, constants);
+    if (snapshotKey != null && readParseTreeSnapshot(parseTree, snapshotFile, snapshotKey)) {
+      return parseTree;
+    }
+
     try {
       parseTree.mergeTree(JsonUtils.readFromRawFile(context, R.raw.compositor));
     } catch (Exception e) {
@@ -690,9 +742,69 @@ public class Compositor {
 
     parseTree.build();
 
+    if (snapshotKey != null) {
+      writeParseTreeSnapshot(parseTree, snapshotFile, snapshotKey);
+    }
+
     return parseTree;
   }
 
+  /**
+   * Returns the key a parse tree snapshot must match, or null if snapshots can't be used. Resource
+   * IDs are stored in the snapshot, so the key includes the installed APK.
+   */
+  private static @Nullable String getParseTreeSnapshotKey(Context context, Constants constants) {
+    PackageInfo packageInfo;
+    try {
+      packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+    } catch (NameNotFoundException e) {
+      return null;
+    }
+    if (packageInfo == null) {
+      return null;
+    }
+    long versionCode =
+        FeatureSupport.supportLongVersionCode()
+            ? packageInfo.getLongVersionCode()
+            : packageInfo.versionCode;
+    return versionCode + ":" + packageInfo.lastUpdateTime + ":" + constants.getSnapshotName();
+  }
+
+  private static boolean readParseTreeSnapshot(ParseTree parseTree, File file, String key) {
+    if (!file.exists()) {
+      return false;
+    }
+    try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+      if (parseTree.buildFromSnapshot(stream, key)) {
+        LogUtils.d(TAG, "ParseTree loaded from snapshot %s", file.getName());
+        return true;
+      }
+    } catch (IOException e) {
+      LogUtils.w(TAG, "Failed to read parse tree snapshot: %s", e);
+    }
+    // The snapshot is stale or corrupt. It is replaced once the tree is built from JSON.
+    if (!file.delete()) {
+      LogUtils.w(TAG, "Failed to delete parse tree snapshot %s", file.getName());
+    }
+    return false;
+  }
+
+  private static void writeParseTreeSnapshot(ParseTree parseTree, File file, String key) {
+    // Write to a temporary file first, so that a partial write is never read back.
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+      parseTree.writeSnapshot(stream, key);
+    } catch (IOException e) {
+      LogUtils.w(TAG, "Failed to write parse tree snapshot: %s", e);
+      tempFile.delete();
+      return;
+    }
+    if (!tempFile.renameTo(file)) {
+      LogUtils.w(TAG, "Failed to store parse tree snapshot %s", file.getName());
+      tempFile.delete();
+    }
+  }
+
   private static void declareConstants(ParseTree parseTree, Constants constants) {
     // Declare constans from verbosity settings.
     parseTree.setConstantBool("VERBOSITY_SPEAK_ROLE", constants.mSpeakRoles);
@@ -69,6 +69,10 @@ class EventVariables implements VariableDelegate {
   private static final int EVENT_IS_WINDOW_CONTENT_CHANGED = 8030;
   private static final int EVENT_SOURCE_IS_LIVE_REGION = 8031;
 
+  // Range of the IDs above. Only these variables are memoized, other IDs go to mParent.
+  private static final int FIRST_EVENT_VARIABLE = EVENT_TEXT;
+  private static final int LAST_EVENT_VARIABLE = EVENT_SOURCE_IS_LIVE_REGION;
+
   // Constants used for ENUM_CONTENT_CHANGE_TYPE.
   private static final int CONTENT_CHANGE_TYPE_OTHER = -1;
   private static final int CONTENT_CHANGE_TYPE_UNDEFINED = 8401;
@@ -97,6 +101,8 @@ class EventVariables implements VariableDelegate {
   private final AccessibilityNodeInfo mSource;
   // Stores the user preferred locale changed using language switcher.
   private final @Nullable Locale mUserPreferredLocale;
+  // Values of event variables, which are read by several outputs for each event.
+  private final VariableCache mCache = new VariableCache();
 
   /**
    * Constructs an EventVariables, which contains context variables to help generate feedback for an
@@ -118,8 +124,22 @@ class EventVariables implements VariableDelegate {
     mSource = source;
   }
 
+  private static boolean isEventVariable(int variableId) {
+    return FIRST_EVENT_VARIABLE <= variableId && variableId <= LAST_EVENT_VARIABLE;
+  }
+
   @Override
   public boolean getBoolean(int variableId) {
+    if (!isEventVariable(variableId)) {
+      return mParent.getBoolean(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getBoolean(variableId);
+    }
+    return mCache.putBoolean(variableId, computeBoolean(variableId));
+  }
+
+  private boolean computeBoolean(int variableId) {
     switch (variableId) {
       case EVENT_SOURCE_IS_NULL:
         return (mSource == null);
@@ -137,6 +157,16 @@ class EventVariables implements VariableDelegate {
 
   @Override
   public int getInteger(int variableId) {
+    if (!isEventVariable(variableId)) {
+      return mParent.getInteger(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getInteger(variableId);
+    }
+    return mCache.putInteger(variableId, computeInteger(variableId));
+  }
+
+  private int computeInteger(int variableId) {
     switch (variableId) {
       case EVENT_ITEM_COUNT:
         return mEvent.getItemCount();
@@ -159,6 +189,16 @@ class EventVariables implements VariableDelegate {
 
   @Override
   public double getNumber(int variableId) {
+    if (!isEventVariable(variableId)) {
+      return mParent.getNumber(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getNumber(variableId);
+    }
+    return mCache.putNumber(variableId, computeNumber(variableId));
+  }
+
+  private double computeNumber(int variableId) {
     switch (variableId) {
       case EVENT_SCROLL_PERCENT:
         return AccessibilityEventUtils.getScrollPercent(mEvent, 50.0f);
@@ -171,6 +211,16 @@ class EventVariables implements VariableDelegate {
 
   @Override
   public @Nullable CharSequence getString(int variableId) {
+    if (!isEventVariable(variableId)) {
+      return mParent.getString(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getString(variableId);
+    }
+    return mCache.putString(variableId, computeString(variableId));
+  }
+
+  private @Nullable CharSequence computeString(int variableId) {
     // TODO: Remove collapseRepeatedCharactersAndCleanUp() from VariableDelegate classes.
     // Instead, apply collapseRepeatedCharactersAndCleanUp() to Compositor ttsOutput result whenever
     // Compositor output ttsOutputClean returns true (default is true).
@@ -234,6 +284,16 @@ class EventVariables implements VariableDelegate {
 
   @Override
   public int getEnum(int variableId) {
+    if (!isEventVariable(variableId)) {
+      return mParent.getEnum(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getInteger(variableId);
+    }
+    return mCache.putInteger(variableId, computeEnum(variableId));
+  }
+
+  private int computeEnum(int variableId) {
     switch (variableId) {
       case EVENT_NOTIFICATION_CATEGORY:
         return getNotificationCategory(AccessibilityEventUtils.extractNotification(mEvent));
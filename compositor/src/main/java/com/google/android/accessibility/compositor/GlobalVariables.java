@@ -46,7 +46,6 @@ import com.google.android.accessibility.utils.output.SpeechCleanupUtils;
 import com.google.android.accessibility.utils.parsetree.ParseTree;
 import com.google.android.accessibility.utils.parsetree.ParseTree.VariableDelegate;
 import com.google.android.accessibility.utils.parsetree.ParseTreeJoinNode;
-import com.google.android.apps.common.proguard.UsedByReflection;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import com.google.common.base.Ascii;
 import java.util.ArrayList;
@@ -277,18 +276,23 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
     parseTree.addStringVariable("gesture.nodeMenuShortcut", GESTURE_STRING_FOR_NODE_ACTIONS);
 
     // Functions
-    parseTree.addFunction("cleanUp", this);
-    parseTree.addFunction("collapseRepeatedCharactersAndCleanUp", this);
-    parseTree.addFunction("conditionalPrepend", this);
-    parseTree.addFunction("conditionalAppend", this);
-    parseTree.addFunction("conditionalPrependWithSpaceSeparator", this);
-    parseTree.addFunction("getWindowTitle", this);
-    parseTree.addFunction("round", this);
-    parseTree.addFunction("roundForProgressPercent", this);
-    parseTree.addFunction("spelling", this);
-    parseTree.addFunction("equals", this);
-    parseTree.addFunction("dedupJoin", this);
-    parseTree.addFunction("prependCapital", this);
+    parseTree.addFunction("cleanUp", this::cleanUp);
+    parseTree.addFunction(
+        "collapseRepeatedCharactersAndCleanUp", this::collapseRepeatedCharactersAndCleanUp);
+    parseTree.addFunction("conditionalPrepend", GlobalVariables::conditionalPrepend);
+    parseTree.addFunction("conditionalAppend", GlobalVariables::conditionalAppend);
+    parseTree.addFunction(
+        "conditionalPrependWithSpaceSeparator",
+        GlobalVariables::conditionalPrependWithSpaceSeparator);
+    parseTree.addFunction("getWindowTitle", this::getWindowTitle);
+    parseTree.addFunction("round", GlobalVariables::round);
+    parseTree.addFunction("roundForProgressPercent", GlobalVariables::roundForProgressPercent);
+    parseTree.addFunction("spelling", this::spelling);
+    // Typed lambda, because a method reference to equals() is ambiguous with Object.equals().
+    parseTree.addFunction(
+        "equals", (CharSequence text1, CharSequence text2) -> equals(text1, text2));
+    parseTree.addFunction("dedupJoin", GlobalVariables::dedupJoin);
+    parseTree.addFunction("prependCapital", this::prependCapital);
   }
 
   public void updateStateFromEvent(AccessibilityEvent event) {
@@ -889,20 +893,17 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
   }
 
   ///////////////////////////////////////////////////////////////////////////////////////////
-  // Functions callable from compositor script.
+  // Functions callable from compositor script. Registered in declareVariables().
 
-  @UsedByReflection("compositor.json")
   private CharSequence cleanUp(CharSequence text) {
     return SpeechCleanupUtils.cleanUp(mContext, text);
   }
 
-  @UsedByReflection("compositor.json")
   private @Nullable CharSequence collapseRepeatedCharactersAndCleanUp(CharSequence text) {
     return SpeechCleanupUtils.collapseRepeatedCharactersAndCleanUp(mContext, text);
   }
 
   // TODO: Add functionality to ParseTree to support this natively.
-  @UsedByReflection("compositor.json")
   private static CharSequence conditionalAppend(
       CharSequence conditionalText, CharSequence appendText) {
     if (TextUtils.isEmpty(conditionalText)) {
@@ -919,7 +920,6 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
   }
 
   // TODO: Add functionality to ParseTree to support this natively.
-  @UsedByReflection("compositor.json")
   private static CharSequence conditionalPrepend(
       CharSequence prependText, CharSequence conditionalText) {
     if (TextUtils.isEmpty(conditionalText)) {
@@ -935,7 +935,6 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
     return result;
   }
 
-  @UsedByReflection("compositor.json")
   private static CharSequence dedupJoin(
       CharSequence value1, CharSequence value2, CharSequence value3) {
     CharSequence[] values = {value1, value2, value3};
@@ -967,7 +966,6 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
   // TODO: The best way to implement this is to take the separator as an input parameter
   // of the function. However, compositor does not allow hard coded string as parameter of function.
   // Merge this function with conditionalPrepend when the feature supported.
-  @UsedByReflection("compositor.json")
   private static CharSequence conditionalPrependWithSpaceSeparator(
       CharSequence prependText, CharSequence conditionalText) {
     if (TextUtils.isEmpty(conditionalText)) {
@@ -983,7 +981,6 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
     return result;
   }
 
-  @UsedByReflection("compositor.json")
   private CharSequence spelling(CharSequence word) {
     if (word.length() <= 1) {
       return "";
@@ -998,17 +995,14 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
     return chars;
   }
 
-  @UsedByReflection("compositor.json")
   private static int round(double value) {
     return (int) Math.round(value);
   }
 
-  @UsedByReflection("compositor.json")
   private static int roundForProgressPercent(double value) {
     return AccessibilityNodeInfoUtils.roundForProgressPercent(value);
   }
 
-  @UsedByReflection("compositor.json")
   private CharSequence prependCapital(CharSequence s) {
     if (TextUtils.isEmpty(s) || !sayCapital) {
       return s;
@@ -1019,7 +1013,6 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
     return s;
   }
 
-  @UsedByReflection("compositor.json")
   private CharSequence getWindowTitle(int windowId) {
     if (mWindowsDelegate == null) {
       return "";
@@ -1029,7 +1022,6 @@ public class GlobalVariables extends TimedFlags implements ParseTree.VariableDel
     return title != null ? title : "";
   }
 
-  @UsedByReflection("compositor.json")
   private static boolean equals(CharSequence text1, CharSequence text2) {
     return TextUtils.equals(text1, text2);
   }
@@ -119,6 +119,10 @@ class NodeVariables implements ParseTree.VariableDelegate {
   private static final int NODE_DETECTED_ICON_LABEL = 7058;
   private static final int NODE_WINDOW_IS_IME = 7059;
 
+  // Range of the IDs above. Only these variables are memoized, other IDs go to mParentVariables.
+  private static final int FIRST_NODE_VARIABLE = NODE_ROLE;
+  private static final int LAST_NODE_VARIABLE = NODE_WINDOW_IS_IME;
+
   private final Context mContext;
   private final @Nullable ImageContents imageContents;
   private final ParseTree.VariableDelegate mParentVariables;
@@ -133,6 +137,9 @@ class NodeVariables implements ParseTree.VariableDelegate {
   // Stores the user preferred locale changed using language switcher.
   private final @Nullable Locale mUserPreferredLocale;
   private final @Nullable NodeMenuProvider nodeMenuProvider;
+  // Values of node variables, many of which need IPC or walk the node tree. They are read by
+  // several outputs for each event, and this delegate only lives for one event.
+  private final VariableCache mCache = new VariableCache();
 
   /**
    * Constructs a NodeVariables, which contains context variables to help generate feedback for an
@@ -206,9 +213,23 @@ class NodeVariables implements ParseTree.VariableDelegate {
     }
   }
 
-  @TargetApi(Build.VERSION_CODES.O)
+  private static boolean isNodeVariable(int variableId) {
+    return FIRST_NODE_VARIABLE <= variableId && variableId <= LAST_NODE_VARIABLE;
+  }
+
   @Override
   public boolean getBoolean(int variableId) {
+    if (!isNodeVariable(variableId)) {
+      return mParentVariables.getBoolean(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getBoolean(variableId);
+    }
+    return mCache.putBoolean(variableId, computeBoolean(variableId));
+  }
+
+  @TargetApi(Build.VERSION_CODES.O)
+  private boolean computeBoolean(int variableId) {
     switch (variableId) {
       case NODE_CHECKABLE:
         return mNode.isCheckable();
@@ -306,6 +327,16 @@ class NodeVariables implements ParseTree.VariableDelegate {
 
   @Override
   public int getInteger(int variableId) {
+    if (!isNodeVariable(variableId)) {
+      return mParentVariables.getInteger(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getInteger(variableId);
+    }
+    return mCache.putInteger(variableId, computeInteger(variableId));
+  }
+
+  private int computeInteger(int variableId) {
     switch (variableId) {
       case NODE_WINDOW_ID:
         return mNode.getWindowId();
@@ -318,6 +349,16 @@ class NodeVariables implements ParseTree.VariableDelegate {
 
   @Override
   public double getNumber(int variableId) {
+    if (!isNodeVariable(variableId)) {
+      return mParentVariables.getNumber(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getNumber(variableId);
+    }
+    return mCache.putNumber(variableId, computeNumber(variableId));
+  }
+
+  private double computeNumber(int variableId) {
     switch (variableId) {
       case NODE_RANGE_CURRENT_VALUE:
         {
@@ -333,6 +374,16 @@ class NodeVariables implements ParseTree.VariableDelegate {
 
   @Override
   public @Nullable CharSequence getString(int variableId) {
+    if (!isNodeVariable(variableId)) {
+      return mParentVariables.getString(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getString(variableId);
+    }
+    return mCache.putString(variableId, computeString(variableId));
+  }
+
+  private @Nullable CharSequence computeString(int variableId) {
     switch (variableId) {
       case NODE_TEXT:
         return prepareSpans(AccessibilityNodeInfoUtils.getText(mNode));
@@ -416,6 +467,16 @@ class NodeVariables implements ParseTree.VariableDelegate {
 
   @Override
   public int getEnum(int variableId) {
+    if (!isNodeVariable(variableId)) {
+      return mParentVariables.getEnum(variableId);
+    }
+    if (mCache.contains(variableId)) {
+      return mCache.getInteger(variableId);
+    }
+    return mCache.putInteger(variableId, computeEnum(variableId));
+  }
+
+  private int computeEnum(int variableId) {
     switch (variableId) {
       case NODE_ROLE:
         return mRole;
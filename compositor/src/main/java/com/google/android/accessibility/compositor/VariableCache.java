@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.compositor;
+
+import android.util.SparseArray;
+import com.google.android.accessibility.utils.Performance;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Memoizes variable values computed by a VariableDelegate. A delegate lives for one composition, so
+ * each value is computed at most once while evaluating all the outputs for an event, even though
+ * many outputs read the same variables.
+ */
+final class VariableCache {
+
+  // Stands in for null values, which SparseArray cannot tell apart from missing entries.
+  private static final Object NULL_VALUE = new Object();
+
+  private final SparseArray<Object> mValues = new SparseArray<>();
+
+  /** Returns whether a value is cached for the variable, and counts the lookup as hit or miss. */
+  boolean contains(int variableId) {
+    boolean hit = mValues.indexOfKey(variableId) >= 0;
+    if (hit) {
+      Performance.getInstance().onVariableCacheHit();
+    } else {
+      Performance.getInstance().onVariableCacheMiss();
+    }
+    return hit;
+  }
+
+  boolean getBoolean(int variableId) {
+    return (Boolean) mValues.get(variableId);
+  }
+
+  int getInteger(int variableId) {
+    return (Integer) mValues.get(variableId);
+  }
+
+  double getNumber(int variableId) {
+    return (Double) mValues.get(variableId);
+  }
+
+  @Nullable
+  CharSequence getString(int variableId) {
+    Object value = mValues.get(variableId);
+    return (value == NULL_VALUE) ? null : (CharSequence) value;
+  }
+
+  boolean putBoolean(int variableId, boolean value) {
+    mValues.put(variableId, value);
+    return value;
+  }
+
+  int putInteger(int variableId, int value) {
+    mValues.put(variableId, value);
+    return value;
+  }
+
+  double putNumber(int variableId, double value) {
+    mValues.put(variableId, value);
+    return value;
+  }
+
+  @Nullable
+  CharSequence putString(int variableId, @Nullable CharSequence value) {
+    mValues.put(variableId, (value == null) ? NULL_VALUE : value);
+    return value;
+  }
+}
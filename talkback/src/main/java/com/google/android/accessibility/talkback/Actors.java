@@ -274,6 +274,9 @@ class Actors {
         case INTERRUPT:
           continuousReader.interrupt();
           break;
+        case INVALIDATE_READ_AHEAD:
+          continuousReader.invalidateReadAhead();
+          break;
       }
     }
 
@@ -943,6 +943,7 @@ public abstract class Feedback {
       START_AT_NEXT,
       READ_FOCUSED_CONTENT,
       INTERRUPT,
+      INVALIDATE_READ_AHEAD,
     }
 
     public static ContinuousRead create(ContinuousRead.Action action) {
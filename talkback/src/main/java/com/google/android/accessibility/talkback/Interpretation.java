@@ -45,6 +45,7 @@ public abstract class Interpretation {
       SCROLL_CANCEL_TIMEOUT,
       CONTINUOUS_READ_CONTENT_FOCUSED,
       CONTINUOUS_READ_INTERRUPT,
+      CONTINUOUS_READ_CONTENT_CHANGED,
       STATE_CHANGE,
       PASS_THROUGH_INTERACTION_START,
       PASS_THROUGH_INTERACTION_END,
@@ -19,6 +19,7 @@ package com.google.android.accessibility.talkback;
 import static com.google.android.accessibility.compositor.Compositor.EVENT_SPEAK_HINT;
 import static com.google.android.accessibility.compositor.Compositor.EVENT_UNKNOWN;
 import static com.google.android.accessibility.talkback.Feedback.ContinuousRead.Action.INTERRUPT;
+import static com.google.android.accessibility.talkback.Feedback.ContinuousRead.Action.INVALIDATE_READ_AHEAD;
 import static com.google.android.accessibility.talkback.Feedback.ContinuousRead.Action.READ_FOCUSED_CONTENT;
 import static com.google.android.accessibility.talkback.Feedback.Focus.Action.ENSURE_ACCESSIBILITY_FOCUS_ON_SCREEN;
 import static com.google.android.accessibility.talkback.Feedback.PassThroughMode.Action.DISABLE_PASSTHROUGH;
@@ -33,7 +34,6 @@ import static com.google.android.accessibility.utils.output.SpeechController.QUE
 import static com.google.android.accessibility.utils.traversal.TraversalStrategy.SEARCH_FOCUS_UNKNOWN;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.graphics.Rect;
 import android.text.TextUtils;
 import android.view.accessibility.AccessibilityEvent;
@@ -54,13 +54,13 @@ import com.google.android.accessibility.talkback.focusmanagement.FocusFeedbackMa
 import com.google.android.accessibility.talkback.focusmanagement.FocusProcessorForTapAndTouchExploration.TypingMethod;
 import com.google.android.accessibility.talkback.focusmanagement.interpreter.ScreenState;
 import com.google.android.accessibility.talkback.focusmanagement.record.FocusActionInfo;
+import com.google.android.accessibility.talkback.utils.PreferenceSnapshot;
 import com.google.android.accessibility.utils.AccessibilityEventUtils;
 import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils;
 import com.google.android.accessibility.utils.FeatureSupport;
 import com.google.android.accessibility.utils.FocusFinder;
 import com.google.android.accessibility.utils.LogDepth;
 import com.google.android.accessibility.utils.Performance.EventId;
-import com.google.android.accessibility.utils.SharedPreferencesUtils;
 import com.google.android.accessibility.utils.output.FeedbackItem;
 import com.google.android.accessibility.utils.output.SpeechController;
 import com.google.android.accessibility.utils.output.SpeechController.SpeakOptions;
@@ -84,6 +84,7 @@ public final class Mappers {
   private final Compositor compositor;
   private final FocusFinder focusFinder;
   private Monitors.State monitors;
+  private PreferenceSnapshot preferenceSnapshot;
 
   ////////////////////////////////////////////////////////////////////////////////////////////////
   // Construction
@@ -92,12 +93,18 @@ public final class Mappers {
     this.context = context;
     this.compositor = compositor;
     this.focusFinder = focusFinder;
+    preferenceSnapshot = PreferenceSnapshot.read(context);
   }
 
   public void setMonitors(Monitors.State monitors) {
     this.monitors = monitors;
   }
 
+  /** Sets the preference values to map events with, after preferences changed. */
+  public void setPreferenceSnapshot(PreferenceSnapshot preferenceSnapshot) {
+    this.preferenceSnapshot = preferenceSnapshot;
+  }
+
   ////////////////////////////////////////////////////////////////////////////////////////////////
   // Methods
 
@@ -111,7 +118,8 @@ public final class Mappers {
       @Nullable Interpretation interpretation,
       @Nullable AccessibilityNodeInfoCompat eventSourceNode) {
 
-    final Variables variables = new Variables(context, event, interpretation, monitors);
+    final Variables variables =
+        new Variables(context, event, interpretation, monitors, preferenceSnapshot);
 
     int depth = 0;
     LogDepth.log(
@@ -132,6 +140,9 @@ public final class Mappers {
             return Feedback.create(eventId, Feedback.continuousRead(READ_FOCUSED_CONTENT).build());
           case CONTINUOUS_READ_INTERRUPT:
             return Feedback.create(eventId, Feedback.continuousRead(INTERRUPT).build());
+          case CONTINUOUS_READ_CONTENT_CHANGED:
+            return Feedback.create(
+                eventId, Feedback.continuousRead(INVALIDATE_READ_AHEAD).build());
           case SCROLL_CANCEL_TIMEOUT:
             return Feedback.create(eventId, Feedback.scrollCancelTimeout().build());
           case STATE_CHANGE:
@@ -334,7 +345,7 @@ public final class Mappers {
    */
   public static final class Variables {
     private final Context context;
-    private SharedPreferences prefs;
+    private final PreferenceSnapshot preferenceSnapshot;
     private final @Nullable AccessibilityEvent event;
     private final @Nullable Interpretation interpretation;
     private @Nullable AccessibilityNodeInfoCompat source;
@@ -344,12 +355,13 @@ public final class Mappers {
         Context context,
         @Nullable AccessibilityEvent event,
         @Nullable Interpretation interpretation,
-        Monitors.State monitors) {
+        Monitors.State monitors,
+        PreferenceSnapshot preferenceSnapshot) {
       this.context = context;
       this.event = event;
       this.interpretation = interpretation;
-      prefs = SharedPreferencesUtils.getSharedPreferences(context);
       this.monitors = monitors;
+      this.preferenceSnapshot = preferenceSnapshot;
     }
 
     /** Caller does not own returned node. */
@@ -504,24 +516,13 @@ public final class Mappers {
     }
 
     public boolean liftToType(int depth) {
-      @TypingMethod
-      int typingMethod =
-          SharedPreferencesUtils.getIntFromStringPref(
-              prefs,
-              context.getResources(),
-              R.string.pref_typing_confirmation_key,
-              R.string.pref_typing_confirmation_default);
+      @TypingMethod int typingMethod = preferenceSnapshot.typingMethod();
       LogDepth.logVar(LOG_TAG, ++depth, "liftToType", typingMethod);
       return typingMethod != DOUBLE_TAP;
     }
 
     public boolean singleTap(int depth) {
-      boolean enabled =
-          SharedPreferencesUtils.getBooleanPref(
-              prefs,
-              context.getResources(),
-              R.string.pref_single_tap_key,
-              R.bool.pref_single_tap_default);
+      boolean enabled = preferenceSnapshot.singleTap();
       LogDepth.logVar(LOG_TAG, ++depth, "singleTap", enabled);
       return enabled;
     }
@@ -33,13 +33,12 @@ import com.google.android.accessibility.compositor.Compositor;
 import com.google.android.accessibility.talkback.TalkBackService.ProximitySensorListener;
 import com.google.android.accessibility.talkback.eventprocessor.AccessibilityEventProcessor.AccessibilityEventIdleListener;
 import com.google.android.accessibility.talkback.utils.DiagnosticOverlayControllerImpl;
-import com.google.android.accessibility.talkback.utils.VerbosityPreferences;
+import com.google.android.accessibility.talkback.utils.PreferenceSnapshot;
 import com.google.android.accessibility.utils.AccessibilityEventListener;
 import com.google.android.accessibility.utils.Performance;
 import com.google.android.accessibility.utils.Performance.EventId;
 import com.google.android.accessibility.utils.Performance.EventIdAnd;
 import com.google.android.accessibility.utils.ProximitySensor;
-import com.google.android.accessibility.utils.SharedPreferencesUtils;
 import com.google.android.accessibility.utils.WeakReferenceHandler;
 import com.google.android.accessibility.utils.output.SpeechController;
 import com.google.android.accessibility.utils.output.SpeechController.SpeakOptions;
@@ -215,6 +214,9 @@ public class Pipeline implements AccessibilityEventListener, AccessibilityEventI
   private final DiagnosticOverlayControllerImpl diagnosticOverlayController;
   private final Compositor compositor;
 
+  /** Preference values read in the event path, replaced when preferences change. */
+  private PreferenceSnapshot preferenceSnapshot;
+
   private CharSequence hintTTSOutput;
   private int hintFlags;
 
@@ -247,6 +249,7 @@ public class Pipeline implements AccessibilityEventListener, AccessibilityEventI
     this.diagnosticOverlayController = diagnosticOverlayController;
     this.compositor = compositor;
     this.userInterface = userInterface;
+    preferenceSnapshot = PreferenceSnapshot.read(context);
 
     monitors.setPipelineInterpretationReceiver(interpretationReceiver);
 
@@ -329,12 +332,7 @@ public class Pipeline implements AccessibilityEventListener, AccessibilityEventI
     for (int p = 0; p < parts.size(); ++p) {
       Feedback.Part part = parts.get(p);
 
-      boolean speakUsageHints =
-          VerbosityPreferences.getPreferenceValueBool(
-              SharedPreferencesUtils.getSharedPreferences(context),
-              context.getResources(),
-              context.getString(R.string.pref_a11y_hints_key),
-              context.getResources().getBoolean(R.bool.pref_a11y_hints_default));
+      boolean speakUsageHints = preferenceSnapshot.speakUsageHints();
 
       // Convert Feedback if this is speak hint
       if ((part.speech() != null)
@@ -483,6 +481,12 @@ public class Pipeline implements AccessibilityEventListener, AccessibilityEventI
     speechObserver.shutdown();
   }
 
+  /** Publishes preference values read after preferences changed to the pipeline stages. */
+  public void setPreferenceSnapshot(PreferenceSnapshot preferenceSnapshot) {
+    this.preferenceSnapshot = preferenceSnapshot;
+    mappers.setPreferenceSnapshot(preferenceSnapshot);
+  }
+
   public void setOverlayEnabled(boolean enabled) {
     actors.setOverlayEnabled(enabled);
   }
@@ -152,6 +152,7 @@ import com.google.android.accessibility.talkback.utils.DiagnosticOverlayControll
 import com.google.android.accessibility.talkback.utils.ExperimentalUtils;
 import com.google.android.accessibility.talkback.utils.FocusIndicatorUtils;
 import com.google.android.accessibility.talkback.utils.NotificationUtils;
+import com.google.android.accessibility.talkback.utils.PreferenceSnapshot;
 import com.google.android.accessibility.talkback.utils.VerbosityPreferences;
 import com.google.android.accessibility.uiunderstanding.PreferenceProvider;
 import com.google.android.accessibility.utils.AccessibilityEventListener;
@@ -161,16 +162,19 @@ import com.google.android.accessibility.utils.BuildVersionUtils;
 import com.google.android.accessibility.utils.EditTextActionHistory;
 import com.google.android.accessibility.utils.FeatureSupport;
 import com.google.android.accessibility.utils.FocusFinder;
+import com.google.android.accessibility.utils.FocusabilityCache;
 import com.google.android.accessibility.utils.ImageContents;
 import com.google.android.accessibility.utils.PackageManagerUtils;
 import com.google.android.accessibility.utils.Performance;
 import com.google.android.accessibility.utils.Performance.EventId;
+import com.google.android.accessibility.utils.PerformanceExporter;
 import com.google.android.accessibility.utils.ProximitySensor;
 import com.google.android.accessibility.utils.ServiceKeyEventListener;
 import com.google.android.accessibility.utils.ServiceStateListener;
 import com.google.android.accessibility.utils.SettingsUtils;
 import com.google.android.accessibility.utils.SharedKeyEvent;
 import com.google.android.accessibility.utils.SharedPreferencesUtils;
+import com.google.android.accessibility.utils.WindowSnapshotCache;
 import com.google.android.accessibility.utils.caption.ImageCaptionStorage;
 import com.google.android.accessibility.utils.input.CursorGranularity;
 import com.google.android.accessibility.utils.input.InputModeManager;
@@ -190,14 +194,20 @@ import com.google.android.accessibility.utils.output.SpeechController.SpeakOptio
 import com.google.android.accessibility.utils.output.SpeechController.UtteranceCompleteRunnable;
 import com.google.android.accessibility.utils.output.SpeechControllerImpl;
 import com.google.android.accessibility.utils.output.SpeechControllerImpl.CapitalLetterHandlingMethod;
+import com.google.android.accessibility.utils.traversal.DirectionalTraversalCache;
+import com.google.android.accessibility.utils.traversal.OrderedTraversalCache;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.json.JSONException;
 
 /** An {@link AccessibilityService} that provides spoken, haptic, and audible feedback. */
 public class TalkBackService extends AccessibilityService
@@ -247,6 +257,13 @@ public class TalkBackService extends AccessibilityService
   private static final String ACTION_RESUME_FEEDBACK =
       "com.google.android.marvin.talkback.RESUME_FEEDBACK";
 
+  /** The intent action used to export performance statistics to a file. */
+  public static final String ACTION_EXPORT_PERFORMANCE_STATS =
+      "com.google.android.marvin.talkback.EXPORT_PERFORMANCE_STATS";
+
+  /** Folder, under the external files directory, for exported performance statistics. */
+  private static final String PERFORMANCE_FOLDER_NAME = "performance";
+
   /** Timeout to turn off TalkBack without waiting for callback from TTS. */
   private static final long TURN_OFF_TIMEOUT_MS = 5000;
 
@@ -275,6 +292,9 @@ public class TalkBackService extends AccessibilityService
   /** Controller for diagnostic overlay (developer mode). */
   private DiagnosticOverlayControllerImpl diagnosticOverlayController;
 
+  /** Writes performance statistics and traces to files (developer mode). Created on demand. */
+  private @Nullable PerformanceExporter performanceExporter;
+
   /** Staged pipeline for separating interpreters, feedback-mappers, and actors. */
   private Pipeline pipeline;
 
@@ -1153,12 +1173,30 @@ public class TalkBackService extends AccessibilityService
     globalVariables =
         new GlobalVariables(this, inputModeManager, keyComboManager, gestureShortcutMapping);
 
+    // Added first, so that cached node trees, focus verdicts and traversal orders are updated
+    // before any listener navigates.
+    WindowSnapshotCache.getInstance().setEnabled(true);
+    addEventListener(WindowSnapshotCache.getInstance());
+    FocusabilityCache.getInstance().setEnabled(true);
+    addEventListener(FocusabilityCache.getInstance());
+    OrderedTraversalCache.getInstance().setEnabled(true);
+    addEventListener(OrderedTraversalCache.getInstance());
+    DirectionalTraversalCache.getInstance().setEnabled(true);
+    addEventListener(DirectionalTraversalCache.getInstance());
+
     labelManager = new CustomLabelManager(this);
     addEventListener(labelManager);
 
-    ImageCaptionStorage imageCaptionStorage = new ImageCaptionStorage();
+    boolean supportsImageCaption = ImageCaptioner.supportsImageCaption(this);
+    // Only persist caption results when they can be used.
+    ImageCaptionStorage imageCaptionStorage =
+        supportsImageCaption ? new ImageCaptionStorage(this) : new ImageCaptionStorage();
+    if (supportsImageCaption) {
+      // Loads the persisted results of the apps before their nodes are described.
+      addEventListener(imageCaptionStorage);
+    }
     imageContents =
-        ImageCaptioner.supportsImageCaption(this)
+        supportsImageCaption
             ? new ImageContents(labelManager, imageCaptionStorage)
             : new ImageContents(labelManager, /* imageCaptionStorage= */ null);
 
@@ -1248,7 +1286,7 @@ public class TalkBackService extends AccessibilityService
             textCursorTracker,
             getSystemService(ClipboardManager.class));
     fullScreenReadActor =
-        new FullScreenReadActor(accessibilityFocusMonitor, this, speechController);
+        new FullScreenReadActor(accessibilityFocusMonitor, this, speechController, compositor);
     dimScreenController = new DimScreenActor(this, gestureShortcutMapping);
 
     accessibilityFocusInterpreter =
@@ -1531,7 +1569,12 @@ public class TalkBackService extends AccessibilityService
       addEventListener(televisionDPadManager);
     }
 
-    brailleDisplay = new BrailleDisplay(this, talkBackForBrailleDisplay);
+    brailleDisplay =
+        getBooleanPref(
+                R.string.pref_virtual_braille_display_key,
+                R.bool.pref_virtual_braille_display_default)
+            ? BrailleDisplay.createWithVirtualDisplay(this, talkBackForBrailleDisplay)
+            : new BrailleDisplay(this, talkBackForBrailleDisplay);
 
     BrailleIme.initialize(
         this, talkBackForBrailleIme, brailleDisplay.getBrailleDisplayForBrailleIme());
@@ -1896,6 +1939,7 @@ public class TalkBackService extends AccessibilityService
     // Add the broadcast listener for gestures.
     final IntentFilter filter = new IntentFilter();
     filter.addAction(ACTION_PERFORM_GESTURE_ACTION);
+    filter.addAction(ACTION_EXPORT_PERFORMANCE_STATS);
     registerReceiver(activeReceiver, filter, PERMISSION_TALKBACK, null);
 
     if (FeatureSupport.supportMagnificationController()) {
@@ -2036,6 +2080,11 @@ public class TalkBackService extends AccessibilityService
       fullScreenReadActor.shutdown();
     }
 
+    OrderedTraversalCache.getInstance().setEnabled(false);
+    DirectionalTraversalCache.getInstance().setEnabled(false);
+    FocusabilityCache.getInstance().setEnabled(false);
+    WindowSnapshotCache.getInstance().setEnabled(false);
+
     if (labelManager != null) {
       labelManager.shutdown();
     }
@@ -2056,6 +2105,11 @@ public class TalkBackService extends AccessibilityService
     if (analytics != null) {
       analytics.onTalkBackServiceStopped();
     }
+    if (performanceExporter != null) {
+      Performance.getInstance().setTraceListener(null);
+      performanceExporter.shutdown();
+      performanceExporter = null;
+    }
   }
 
   /**
@@ -2087,6 +2141,11 @@ public class TalkBackService extends AccessibilityService
   private void reloadPreferences() {
     final Resources res = getResources();
 
+    // Publish preference values read while processing events, so that they are not read per event.
+    PreferenceSnapshot preferenceSnapshot = PreferenceSnapshot.read(this);
+    pipeline.setPreferenceSnapshot(preferenceSnapshot);
+    processorPhoneticLetters.setPreferenceSnapshot(preferenceSnapshot);
+
     // Preferece to reduce window announcement delay.
     boolean reduceDelayPref =
         getBooleanPref(
@@ -2104,6 +2163,18 @@ public class TalkBackService extends AccessibilityService
       performance.clearAllStats();
       performance.setEnabled(performanceEnabled);
     }
+    boolean performanceTraceEnabled =
+        performanceEnabled
+            && getBooleanPref(
+                R.string.pref_performance_trace_key, R.bool.pref_performance_trace_default);
+    performance.setTraceListener(performanceTraceEnabled ? getPerformanceExporter() : null);
+
+    if (fullScreenReadActor != null) {
+      fullScreenReadActor.setReadAheadEnabled(
+          getBooleanPref(
+              R.string.pref_continuous_reading_read_ahead_key,
+              R.bool.pref_continuous_reading_read_ahead_default));
+    }
 
     boolean logOverlayEnabled =
         getBooleanPref(R.string.pref_log_overlay_key, R.bool.pref_log_overlay_default);
@@ -2126,16 +2197,10 @@ public class TalkBackService extends AccessibilityService
     reloadSilenceOnProximity();
     reloadPreferenceLogLevel();
 
-    final boolean useSingleTap =
-        getBooleanPref(R.string.pref_single_tap_key, R.bool.pref_single_tap_default);
+    final boolean useSingleTap = preferenceSnapshot.singleTap();
     globalVariables.setUseSingleTap(useSingleTap);
     accessibilityFocusInterpreter.setSingleTapEnabled(useSingleTap);
-    accessibilityFocusInterpreter.setTypingMethod(
-        SharedPreferencesUtils.getIntFromStringPref(
-            prefs,
-            res,
-            R.string.pref_typing_confirmation_key,
-            R.string.pref_typing_confirmation_default));
+    accessibilityFocusInterpreter.setTypingMethod(preferenceSnapshot.typingMethod());
     globalVariables.setInterpretAsEntryKey(
         accessibilityFocusInterpreter.getTypingMethod() == FORCE_LIFT_TO_TYPE_ON_IME);
 
@@ -2165,6 +2230,11 @@ public class TalkBackService extends AccessibilityService
             R.bool.pref_echo_recognized_text_default));
 
     // Reload speech preferences.
+    speechController
+        .getFailoverTts()
+        .setSpeechAudioCacheEnabled(
+            getBooleanPref(
+                R.string.pref_speech_audio_cache_key, R.bool.pref_speech_audio_cache_default));
     pipeline.setOverlayEnabled(
         getBooleanPref(R.string.pref_tts_overlay_key, R.bool.pref_tts_overlay_default));
     pipeline.setUseIntonation(
@@ -2569,6 +2639,52 @@ public class TalkBackService extends AccessibilityService
         }
       };
 
+  private PerformanceExporter getPerformanceExporter() {
+    if (performanceExporter == null) {
+      @Nullable File filesDir = getExternalFilesDir(null);
+      performanceExporter =
+          new PerformanceExporter(
+              new File((filesDir == null) ? getFilesDir() : filesDir, PERFORMANCE_FOLDER_NAME));
+    }
+    return performanceExporter;
+  }
+
+  /**
+   * Writes collected performance statistics to a JSON file in the background.
+   *
+   * @return The file that will hold the statistics
+   */
+  public File exportPerformanceStats() {
+    PerformanceExporter exporter = getPerformanceExporter();
+    exporter.exportStats(Performance.getInstance());
+    return exporter.getStatsFile();
+  }
+
+  /**
+   * Prints performance statistics as JSON, for {@code adb shell dumpsys activity service
+   * com.google.android.marvin.talkback/.TalkBackService}.
+   */
+  @Override
+  protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+    super.dump(fd, writer, args);
+    try {
+      writer.println("Performance statistics:");
+      writer.println(Performance.getInstance().toJson().toString(/* indentSpaces= */ 2));
+    } catch (JSONException e) {
+      writer.println("Failed to format performance statistics: " + e);
+    }
+    if (imageCaptioner != null) {
+      imageCaptioner.dump(writer);
+    }
+    writer.println(OrderedTraversalCache.getInstance());
+    writer.println(DirectionalTraversalCache.getInstance());
+    writer.println(WindowSnapshotCache.getInstance());
+    writer.println(FocusabilityCache.getInstance());
+    if (speechController != null) {
+      writer.println(speechController.getFailoverTts().getSpeechAudioCacheStatistics());
+    }
+  }
+
   /** Broadcast receiver for actions that happen while the service is active. */
   private final BroadcastReceiver activeReceiver =
       new BroadcastReceiver() {
@@ -2582,6 +2698,8 @@ public class TalkBackService extends AccessibilityService
             EventId eventId = Performance.getInstance().onGestureEventReceived(gestureId);
             gestureController.onGesture(gestureId, eventId);
             Performance.getInstance().onHandlerDone(eventId);
+          } else if (ACTION_EXPORT_PERFORMANCE_STATS.equals(action)) {
+            exportPerformanceStats();
           }
         }
       };
@@ -46,6 +46,7 @@ import com.google.android.accessibility.utils.Filter;
 import com.google.android.accessibility.utils.FocusFinder;
 import com.google.android.accessibility.utils.Performance.EventId;
 import com.google.android.accessibility.utils.input.CursorGranularity;
+import com.google.android.accessibility.utils.traversal.OrderedTraversalCache;
 import com.google.android.accessibility.utils.traversal.OrderedTraversalStrategy;
 import com.google.android.accessibility.utils.traversal.TraversalStrategyUtils;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
@@ -286,7 +287,7 @@ class FocusManagerInternal {
       // If couldn't restore the focus from the record directly, then try to find focus node
       // on the same root.
       if (nodeToFocus == null) {
-      OrderedTraversalStrategy strategy = new OrderedTraversalStrategy(root);
+      OrderedTraversalStrategy strategy = OrderedTraversalCache.getInstance().getTraversal(root);
         Filter.NodeCompat nodeFilter =
             new Filter.NodeCompat((node) -> AccessibilityNodeInfoUtils.shouldFocusNode(node));
         nodeToFocus =
@@ -26,24 +26,33 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Message;
 import android.os.PowerManager;
+import android.text.TextUtils;
+import android.view.accessibility.AccessibilityEvent;
 import androidx.annotation.IntDef;
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import com.google.android.accessibility.compositor.Compositor;
+import com.google.android.accessibility.compositor.EventInterpretation;
 import com.google.android.accessibility.talkback.Feedback;
 import com.google.android.accessibility.talkback.Pipeline;
 import com.google.android.accessibility.talkback.R;
 import com.google.android.accessibility.talkback.TalkBackService;
 import com.google.android.accessibility.talkback.eventprocessor.EventState;
 import com.google.android.accessibility.talkback.focusmanagement.AccessibilityFocusMonitor;
+import com.google.android.accessibility.talkback.focusmanagement.record.FocusActionInfo;
 import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils;
 import com.google.android.accessibility.utils.AccessibilityServiceCompatUtils;
+import com.google.android.accessibility.utils.Filter;
 import com.google.android.accessibility.utils.Performance.EventId;
+import com.google.android.accessibility.utils.WebInterfaceUtils;
 import com.google.android.accessibility.utils.output.SpeechController;
-import com.google.android.accessibility.utils.traversal.OrderedTraversalStrategy;
+import com.google.android.accessibility.utils.output.SpeechController.SpeakOptions;
+import com.google.android.accessibility.utils.traversal.OrderedTraversalCache;
 import com.google.android.accessibility.utils.traversal.TraversalStrategy;
 import com.google.android.accessibility.utils.traversal.TraversalStrategyUtils;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /** Manages state related to reading the screen from top or next. */
@@ -64,6 +73,12 @@ public class FullScreenReadActor {
   @Retention(RetentionPolicy.SOURCE)
   public @interface ReadState {}
 
+  /** Number of nodes composed and queued for speech ahead of the node being spoken. */
+  private static final int READ_AHEAD_NODE_COUNT = 3;
+
+  /** Delay to coalesce bursts of content changes before the read-ahead is composed again. */
+  private static final long INVALIDATE_READ_AHEAD_DELAY_MS = 100;
+
   ////////////////////////////////////////////////////////////////////////////////////////////////
   // Member variables
 
@@ -80,6 +95,8 @@ public class FullScreenReadActor {
 
   private final SpeechController speechController;
 
+  private final Compositor compositor;
+
   /** Feedback Returner of Pipeline for audio feedback */
   private Pipeline.FeedbackReturner pipeline;
 
@@ -93,6 +110,23 @@ public class FullScreenReadActor {
 
   private final RetryReadingHandler retryReadingHandler = new RetryReadingHandler();
 
+  /**
+   * Whether the following nodes are composed and queued for speech while a node is spoken, instead
+   * of being located only after the speech completes.
+   */
+  private boolean readAheadEnabled = true;
+
+  /** Nodes whose speech is queued, in reading order, and has not started yet. */
+  private final ArrayDeque<ReadAheadItem> queuedItems = new ArrayDeque<>();
+
+  /** The node whose queued speech is being spoken, or null. */
+  private @Nullable ReadAheadItem speakingItem;
+
+  /** The last node that the read-ahead traversed, from which the next batch is located. */
+  private @Nullable AccessibilityNodeInfoCompat readAheadPivot;
+
+  private final Handler invalidateReadAheadHandler = new Handler();
+
   ////////////////////////////////////////////////////////////////////////////////////////////////
   // State-reading interface
 
@@ -106,6 +140,11 @@ public class FullScreenReadActor {
     public boolean isWaitingForContentFocus() {
       return fullScreenReadDialog.isWaitingForContentFocus();
     }
+
+    /** Returns whether the event may make the text composed ahead of the spoken node stale. */
+    public boolean isReadAheadChangedBy(AccessibilityEvent event) {
+      return FullScreenReadActor.this.isReadAheadChangedBy(event);
+    }
   }
 
   public final State state = new State();
@@ -117,13 +156,15 @@ public class FullScreenReadActor {
   public FullScreenReadActor(
       AccessibilityFocusMonitor accessibilityFocusMonitor,
       TalkBackService service,
-      SpeechController speechController) {
+      SpeechController speechController,
+      Compositor compositor) {
     if (accessibilityFocusMonitor == null) {
       throw new IllegalStateException();
     }
     this.accessibilityFocusMonitor = accessibilityFocusMonitor;
     this.service = service;
     this.speechController = speechController;
+    this.compositor = compositor;
     fullScreenReadDialog = new FullScreenReadDialog(service);
     wakeLock =
         ((PowerManager) service.getSystemService(Context.POWER_SERVICE))
@@ -135,6 +176,14 @@ public class FullScreenReadActor {
     fullScreenReadDialog.setPipeline(pipeline);
   }
 
+  /** Sets whether the following nodes are composed and queued while a node is spoken. */
+  public void setReadAheadEnabled(boolean enabled) {
+    readAheadEnabled = enabled;
+    if (!enabled) {
+      clearReadAhead();
+    }
+  }
+
   /** Releases all resources held by this controller and save any persistent preferences. */
   public void shutdown() {
     interrupt();
@@ -174,7 +223,9 @@ public class FullScreenReadActor {
       wakeLock.acquire();
     }
 
-    moveForward();
+    if (!queueReadAhead(currentNode, /* includePivot= */ false)) {
+      moveForward();
+    }
   }
 
   /** Starts linearly reading from the top of the view hierarchy. */
@@ -202,7 +253,7 @@ public class FullScreenReadActor {
       return;
     }
 
-    TraversalStrategy traversal = new OrderedTraversalStrategy(rootNode);
+    TraversalStrategy traversal = OrderedTraversalCache.getInstance().getTraversal(rootNode);
     AccessibilityNodeInfoCompat currentNode =
         TraversalStrategyUtils.searchFocus(
             traversal,
@@ -225,7 +276,9 @@ public class FullScreenReadActor {
     // This is potentially a refocus, so we should set the refocus flag just in case.
     EventState.getInstance().setFlag(EventState.EVENT_NODE_REFOCUSED);
     pipeline.returnFeedback(eventId, Feedback.focus(CLEAR));
-    moveForward();
+    if (!queueReadAhead(currentNode, /* includePivot= */ true)) {
+      moveForward();
+    }
   }
 
   public void readFocusedContent(EventId eventId) {
@@ -244,12 +297,209 @@ public class FullScreenReadActor {
   /** Stops speech output and view traversal at the current position. */
   public void interrupt() {
     setReadingState(STATE_STOPPED);
+    clearReadAhead();
 
     if (wakeLock.isHeld()) {
       wakeLock.release();
     }
   }
 
+  /**
+   * Composes the queued nodes again after the content changed, since their text or order may be
+   * stale. The node being spoken is not interrupted. Bursts of changes are coalesced.
+   */
+  public void invalidateReadAhead() {
+    if (!isActive() || queuedItems.isEmpty()) {
+      return;
+    }
+    invalidateReadAheadHandler.removeCallbacksAndMessages(null);
+    invalidateReadAheadHandler.postDelayed(
+        this::invalidateReadAheadNow, INVALIDATE_READ_AHEAD_DELAY_MS);
+  }
+
+  private void invalidateReadAheadNow() {
+    if (!isActive() || queuedItems.isEmpty()) {
+      return;
+    }
+    LogUtils.v(TAG, "Content changed, composing the read-ahead again.");
+    @Nullable ReadAheadItem speaking = speakingItem;
+    ReadAheadItem next = queuedItems.peekFirst();
+    clearQueuedReadAhead();
+    if (speaking != null) {
+      // Nodes are queued again after the spoken node, which ends by the completion of its speech.
+      queueReadAhead(speaking.node, /* includePivot= */ false);
+    } else if (!next.node.refresh() || !queueReadAhead(next.node, /* includePivot= */ true)) {
+      // Between two utterances nothing is left to complete, so reading is continued here, from the
+      // node which was not spoken yet, or from the focus if that node is gone.
+      continueReading();
+    }
+  }
+
+  /**
+   * Returns whether the queued nodes may be stale after the event. Content changes only make them
+   * stale when they change a queued node or its descendants, while window changes always may.
+   */
+  private boolean isReadAheadChangedBy(AccessibilityEvent event) {
+    if (!isActive() || queuedItems.isEmpty()) {
+      return false;
+    }
+    if (event.getEventType() != AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+      return true;
+    }
+    boolean inQueuedWindow = false;
+    for (ReadAheadItem item : queuedItems) {
+      if (item.node.getWindowId() == event.getWindowId()) {
+        inQueuedWindow = true;
+        break;
+      }
+    }
+    if (!inQueuedWindow) {
+      return false;
+    }
+    @Nullable AccessibilityNodeInfoCompat source =
+        AccessibilityNodeInfoUtils.toCompat(event.getSource());
+    if (source == null) {
+      // The changed node can not be located, so it may be any of the queued nodes.
+      return true;
+    }
+    return AccessibilityNodeInfoUtils.isOrHasMatchingAncestor(
+        source,
+        new Filter.NodeCompat(
+            (node) -> {
+              for (ReadAheadItem item : queuedItems) {
+                if (item.node.equals(node)) {
+                  return true;
+                }
+              }
+              return false;
+            }));
+  }
+
+  /** Continues reading after the focused node was spoken, through its focus event. */
+  private void continueReading() {
+    @Nullable AccessibilityNodeInfoCompat focus =
+        accessibilityFocusMonitor.getAccessibilityFocus(/* useInputFocusIfEmpty= */ false);
+    if ((focus == null) || !queueReadAhead(focus, /* includePivot= */ false)) {
+      moveForward();
+    }
+  }
+
+  /**
+   * Locates the nodes following the pivot in reading order, composes their text, and queues their
+   * speech. Each node is focused when its speech starts, so that the focus follows the reading.
+   *
+   * @param pivot The node to read after, or the first node to read if {@code includePivot}
+   * @param includePivot Whether the pivot itself is read first
+   * @return Whether any speech was queued. If not, the caller falls back to {@link #moveForward()},
+   *     which also handles scrolling and the end of the content.
+   */
+  private boolean queueReadAhead(AccessibilityNodeInfoCompat pivot, boolean includePivot) {
+    if (!readAheadEnabled || WebInterfaceUtils.supportsWebActions(pivot)) {
+      // Web content is navigated by the browser, which the traversal cannot predict.
+      return false;
+    }
+    @Nullable AccessibilityNodeInfoCompat root = AccessibilityNodeInfoUtils.getRoot(pivot);
+    if (root == null) {
+      return false;
+    }
+
+    // Speech already queued is followed rather than interrupted.
+    boolean interruptSpeech = queuedItems.isEmpty() && (speakingItem == null);
+    TraversalStrategy traversal = OrderedTraversalCache.getInstance().getTraversal(root);
+    @Nullable AccessibilityNodeInfoCompat node = includePivot ? pivot : null;
+    AccessibilityNodeInfoCompat last = pivot;
+    int queuedCount = 0;
+    for (int searched = 0; searched < READ_AHEAD_NODE_COUNT; searched++) {
+      if (node == null) {
+        node =
+            TraversalStrategyUtils.searchFocus(
+                traversal,
+                last,
+                SEARCH_FOCUS_FORWARD,
+                AccessibilityNodeInfoUtils.FILTER_SHOULD_FOCUS);
+      }
+      if ((node == null) || WebInterfaceUtils.supportsWebActions(node)) {
+        break;
+      }
+      last = node;
+
+      @Nullable String text =
+          compositor.parseTTSText(
+              node,
+              Compositor.EVENT_INPUT_DESCRIBE_NODE,
+              new EventInterpretation(Compositor.EVENT_INPUT_DESCRIBE_NODE));
+      if (!TextUtils.isEmpty(text)) {
+        speakReadAheadItem(
+            new ReadAheadItem(node),
+            text,
+            interruptSpeech && (queuedCount == 0)
+                ? SpeechController.QUEUE_MODE_INTERRUPT
+                : SpeechController.QUEUE_MODE_QUEUE);
+        queuedCount++;
+      }
+      node = null;
+    }
+    readAheadPivot = (last == pivot && !includePivot) ? null : last;
+    return queuedCount > 0;
+  }
+
+  private void speakReadAheadItem(ReadAheadItem item, CharSequence text, int queueMode) {
+    queuedItems.addLast(item);
+    SpeakOptions options =
+        SpeakOptions.create()
+            .setQueueMode(queueMode)
+            .setUtteranceGroup(SpeechController.UTTERANCE_GROUP_CONTINUOUS_READING)
+            .setStartingAction(() -> onReadAheadStarted(item))
+            .setCompletedAction(status -> onReadAheadCompleted(item, status));
+    pipeline.returnFeedback(EVENT_ID_UNTRACKED, Feedback.speech(text, options));
+  }
+
+  private void onReadAheadStarted(ReadAheadItem item) {
+    if (!isActive() || !queuedItems.remove(item)) {
+      return;
+    }
+    speakingItem = item;
+    pipeline.returnFeedback(
+        EVENT_ID_UNTRACKED,
+        Feedback.focus(
+            item.node,
+            FocusActionInfo.builder()
+                .setSourceAction(FocusActionInfo.LOGICAL_NAVIGATION)
+                .forceMuteFeedback()
+                .build()));
+    if (queuedItems.isEmpty() && (readAheadPivot != null)) {
+      // Keep the next batch queued while the last queued node is spoken.
+      queueReadAhead(readAheadPivot, /* includePivot= */ false);
+    }
+  }
+
+  private void onReadAheadCompleted(ReadAheadItem item, int status) {
+    if (item != speakingItem) {
+      // Removed from the queue before it was spoken.
+      return;
+    }
+    speakingItem = null;
+    if (!isActive() || (status == SpeechController.STATUS_INTERRUPTED)) {
+      return;
+    }
+    if (queuedItems.isEmpty()) {
+      moveForward();
+    }
+  }
+
+  /** Removes the queued speech, without interrupting the node being spoken. */
+  private void clearQueuedReadAhead() {
+    invalidateReadAheadHandler.removeCallbacksAndMessages(null);
+    queuedItems.clear();
+    readAheadPivot = null;
+    speechController.clearQueuedUtterances(SpeechController.UTTERANCE_GROUP_CONTINUOUS_READING);
+  }
+
+  private void clearReadAhead() {
+    clearQueuedReadAhead();
+    speakingItem = null;
+  }
+
   private void moveForward() {
     EventId eventId = EVENT_ID_UNTRACKED; // First node's speech is already performance tracked.
     if (!pipeline.returnFeedback(
@@ -283,11 +533,20 @@ public class FullScreenReadActor {
         @Override
         public void run(int status) {
           if (isActive() && status != SpeechController.STATUS_INTERRUPTED) {
-            moveForward();
+            continueReading();
           }
         }
       };
 
+  /** A node whose speech was queued ahead by continuous reading. */
+  private static final class ReadAheadItem {
+    final AccessibilityNodeInfoCompat node;
+
+    ReadAheadItem(AccessibilityNodeInfoCompat node) {
+      this.node = node;
+    }
+  }
+
   /**
    * A {@link Handler} to retry ReadFromTop action. When the user performs read from top from Global
    * Context Menu, it is possible that when the GCM is closed, {@link
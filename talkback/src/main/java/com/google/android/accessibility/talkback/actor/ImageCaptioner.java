@@ -46,6 +46,7 @@ import com.google.android.accessibility.utils.caption.ImageCaptionStorage;
 import com.google.android.accessibility.utils.caption.ImageNode;
 import com.google.android.accessibility.utils.screenunderstanding.IconAnnotationsDetector;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.PrintWriter;
 import java.util.Locale;
 
 /** Performs image caption and manages related state. */
@@ -64,11 +65,11 @@ public class ImageCaptioner {
   private boolean iconAnnotationsDetectorStarted = false;
 
   private final RequestList<ScreenshotCaptureRequest> screenshotRequests =
-      new RequestList<>(CAPTION_REQUEST_CAPACITY);
+      new RequestList<>("Screenshot", CAPTION_REQUEST_CAPACITY, this::getFocusedNode);
   private final RequestList<CharacterCaptionRequest> characterCaptionRequests =
-      new RequestList<>(CAPTION_REQUEST_CAPACITY);
+      new RequestList<>("CharacterCaption", CAPTION_REQUEST_CAPACITY, this::getFocusedNode);
   private final RequestList<IconDetectionRequest> iconDetectionRequests =
-      new RequestList<>(CAPTION_REQUEST_CAPACITY);
+      new RequestList<>("IconDetection", CAPTION_REQUEST_CAPACITY, this::getFocusedNode);
 
   public ImageCaptioner(
       AccessibilityService service,
@@ -117,6 +118,7 @@ public class ImageCaptioner {
         }
       }
     }
+    imageCaptionStorage.shutdown();
   }
 
   public void setPipeline(Pipeline.FeedbackReturner pipeline) {
@@ -168,7 +170,12 @@ public class ImageCaptioner {
 
     screenshotRequests.addRequest(
         new ScreenshotCaptureRequest(
-            service, node, this::handleScreenshotCaptureResponse, isUserRequested));
+            service,
+            node,
+            this::handleScreenshotCaptureResponse,
+            /* onErrorListener= */ (droppedNode, userRequest) ->
+                LogUtils.v(TAG, "Screenshot request is dropped for %s", droppedNode),
+            isUserRequested));
     return true;
   }
 
@@ -288,7 +295,15 @@ public class ImageCaptioner {
             /* onFinishListener= */ this::onCharacterCaptionFinish,
             /* onErrorListener= */ (errorNode, errorCode, userRequest) -> {
               LogUtils.v(TAG, "onError(), error= %s", CaptionRequest.errorName(errorCode));
-              characterCaptionRequests.performNextRequest();
+              if (errorCode == CaptionRequest.ERROR_DROPPED) {
+                // The request did not run, or was replaced by another one for the node, so it
+                // does not hold the list. Only the user is still waiting for its feedback.
+                if (!userRequest) {
+                  return;
+                }
+              } else {
+                characterCaptionRequests.performNextRequest();
+              }
               @Nullable
               AccessibilityNode focusedNode =
                   AccessibilityNode.takeOwnership(
@@ -338,7 +353,15 @@ public class ImageCaptioner {
             /* onFinishListener= */ this::onIconDetectionFinish,
             /* onErrorListener= */ (errorNode, errorCode, userRequest) -> {
               LogUtils.v(TAG, "onError(), error=%s", CaptionRequest.errorName(errorCode));
-              iconDetectionRequests.performNextRequest();
+              if (errorCode == CaptionRequest.ERROR_DROPPED) {
+                // The request did not run, or was replaced by another one for the node, so it
+                // does not hold the list. Only the user is still waiting for its feedback.
+                if (!userRequest) {
+                  return;
+                }
+              } else {
+                iconDetectionRequests.performNextRequest();
+              }
               @Nullable
               AccessibilityNode focusedNode =
                   AccessibilityNode.takeOwnership(
@@ -351,6 +374,19 @@ public class ImageCaptioner {
             isUserRequested));
   }
 
+  @Nullable
+  private AccessibilityNodeInfoCompat getFocusedNode() {
+    return accessibilityFocusMonitor.getAccessibilityFocus(/* useInputFocusIfEmpty= */ false);
+  }
+
+  /** Prints the queue metrics of the caption requests. */
+  public void dump(PrintWriter writer) {
+    writer.println("Image caption requests:");
+    writer.println("  " + screenshotRequests.getMetricsDescription());
+    writer.println("  " + characterCaptionRequests.getMetricsDescription());
+    writer.println("  " + iconDetectionRequests.getMetricsDescription());
+  }
+
   @VisibleForTesting
   Locale getSpeechLocale() {
     Locale locale = actorState.getLanguageState().getCurrentLanguage();
@@ -71,7 +71,7 @@ import com.google.android.accessibility.utils.FocusFinder;
 import com.google.android.accessibility.utils.Performance.EventId;
 import com.google.android.accessibility.utils.Role;
 import com.google.android.accessibility.utils.SharedPreferencesUtils;
-import com.google.android.accessibility.utils.traversal.OrderedTraversalStrategy;
+import com.google.android.accessibility.utils.traversal.OrderedTraversalCache;
 import com.google.android.accessibility.utils.traversal.TraversalStrategy;
 import com.google.android.accessibility.utils.traversal.TraversalStrategyUtils;
 import java.lang.Character.UnicodeBlock;
@@ -993,7 +993,7 @@ public class SearchScreenOverlay implements SearchObserver {
       if (rootNode == null) {
         return;
       }
-      traversal = new OrderedTraversalStrategy(rootNode);
+      traversal = OrderedTraversalCache.getInstance().getTraversal(rootNode);
       currentNode =
           TraversalStrategyUtils.searchFocus(
               traversal,
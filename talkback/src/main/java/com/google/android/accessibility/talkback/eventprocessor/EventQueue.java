@@ -18,14 +18,21 @@ package com.google.android.accessibility.talkback.eventprocessor;
 
 import android.util.SparseIntArray;
 import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
 import androidx.core.view.accessibility.AccessibilityEventCompat;
 import com.google.android.accessibility.utils.AccessibilityEventUtils;
-import java.util.ArrayList;
-import java.util.Iterator;
+import com.google.android.accessibility.utils.BuildVersionUtils;
+import com.google.android.accessibility.utils.Performance;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 /**
  * This class is a queue that tracks events that TalkBack will process. This queue self-prunes
- * events that exceed a maximum threshold for certain event types.
+ * events that exceed a maximum threshold for certain event types, and merges redundant events from
+ * the same source node.
+ *
+ * <p>Events are kept in a ring buffer, oldest first. Events that are pruned or merged leave an
+ * empty slot, which is skipped when dequeuing and reclaimed when the buffer is full, so that events
+ * are never shifted on the event path.
  */
 class EventQueue {
 
@@ -44,8 +51,35 @@ class EventQueue {
           | AccessibilityEventCompat.TYPE_VIEW_ACCESSIBILITY_FOCUSED
           | AccessibilityEventCompat.TYPE_VIEW_SCROLLED;
 
-  /** The list responsible for maintaining events in the event queue. */
-  private final ArrayList<AccessibilityEvent> eventQueue = new ArrayList<>();
+  /**
+   * The types of events that replace a queued event of the same type from the same source node.
+   * Only the latest content of a node is spoken, so an earlier event from the node is redundant.
+   */
+  private static final int MASK_MERGED_EVENT_TYPES =
+      AccessibilityEventCompat.TYPE_WINDOW_CONTENT_CHANGED
+          | AccessibilityEventCompat.TYPE_VIEW_SCROLLED;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  /** Queued events, starting at {@code head}. Removed events leave null slots. */
+  private AccessibilityEvent[] events = new AccessibilityEvent[INITIAL_CAPACITY];
+
+  /**
+   * Source nodes of queued events, parallel to {@code events}. Sources are fetched only when an
+   * event may be merged, since fetching a source is a call to the framework.
+   */
+  private AccessibilityNodeInfo[] sources = new AccessibilityNodeInfo[INITIAL_CAPACITY];
+
+  private boolean[] sourceFetched = new boolean[INITIAL_CAPACITY];
+
+  /** Index of the oldest slot in the buffer. */
+  private int head = 0;
+
+  /** Number of slots in use, including empty slots left by removed events. */
+  private int slotCount = 0;
+
+  /** Number of events in the queue. */
+  private int eventCount = 0;
 
   /**
    * The current number of events in the queue for each event type that match a type defined in
@@ -54,9 +88,11 @@ class EventQueue {
   private final SparseIntArray qualifyingEvents = new SparseIntArray();
 
   /**
-   * Adds an {@link AccessibilityEvent} to the queue for processing. If this addition causes the
-   * queue to exceed the maximum allowable events for an event's type, earlier events of this type
-   * will be pruned from the queue.
+   * Adds an {@link AccessibilityEvent} to the queue for processing. If the queue holds an earlier
+   * event of a type in {@code MASK_MERGED_EVENT_TYPES} from the same source, with no other type of
+   * event after it, the earlier event is merged into this one. If this addition causes the queue to
+   * exceed the maximum allowable events for an event's type, earlier events of this type will be
+   * pruned from the queue.
    *
    * @param event The event to add to the queue
    */
@@ -69,7 +105,10 @@ class EventQueue {
       qualifyingEvents.put(eventType, (eventCountOfType + 1));
     }
 
-    eventQueue.add(clone);
+    append(clone);
+    if (AccessibilityEventUtils.eventMatchesAnyType(clone, MASK_MERGED_EVENT_TYPES)) {
+      mergeEarlierEvent(slotCount - 1);
+    }
     enforceEventLimits();
   }
 
@@ -79,24 +118,36 @@ class EventQueue {
    * @return The event at the front of the queue.
    */
   public AccessibilityEvent dequeue() {
-    if (eventQueue.isEmpty()) {
-      return null;
-    }
-
-    final AccessibilityEvent event = eventQueue.remove(0);
+    while (slotCount > 0) {
+      final AccessibilityEvent event = events[head];
+      events[head] = null;
+      sources[head] = null;
+      sourceFetched[head] = false;
+      head = (head + 1) % events.length;
+      slotCount--;
+      if (event == null) {
+        continue;
+      }
 
-    if (event != null
-        && AccessibilityEventUtils.eventMatchesAnyType(event, MASK_LIMITED_EVENT_TYPES)) {
-      final int eventType = event.getEventType();
-      final int eventCountOfType = qualifyingEvents.get(eventType, 0);
-      qualifyingEvents.put(eventType, (eventCountOfType - 1));
+      eventCount--;
+      if (AccessibilityEventUtils.eventMatchesAnyType(event, MASK_LIMITED_EVENT_TYPES)) {
+        final int eventType = event.getEventType();
+        final int eventCountOfType = qualifyingEvents.get(eventType, 0);
+        qualifyingEvents.put(eventType, (eventCountOfType - 1));
+      }
+      return event;
     }
-    return event;
+    return null;
   }
 
   /** Clears the event queue and discards all events waiting for processing. */
   public void clear() {
-    eventQueue.clear();
+    events = new AccessibilityEvent[INITIAL_CAPACITY];
+    sources = new AccessibilityNodeInfo[INITIAL_CAPACITY];
+    sourceFetched = new boolean[INITIAL_CAPACITY];
+    head = 0;
+    slotCount = 0;
+    eventCount = 0;
     qualifyingEvents.clear();
   }
 
@@ -106,7 +157,153 @@ class EventQueue {
    * @return {@code true} if the queue is empty, {@code false} otherwise
    */
   public boolean isEmpty() {
-    return eventQueue.isEmpty();
+    return eventCount == 0;
+  }
+
+  /** Adds the event after the last slot, reclaiming empty slots or growing the buffer if full. */
+  private void append(AccessibilityEvent event) {
+    if (slotCount == events.length) {
+      // Only grow if more than half of the slots hold events, so that bursts of merged events do
+      // not compact the buffer on every enqueue.
+      int capacity = (eventCount > events.length / 2) ? (events.length * 2) : events.length;
+      compact(capacity);
+    }
+    int index = toIndex(slotCount);
+    events[index] = event;
+    sources[index] = null;
+    sourceFetched[index] = false;
+    slotCount++;
+    eventCount++;
+  }
+
+  /** Moves the queued events, in order, to the start of new buffers without empty slots. */
+  private void compact(int capacity) {
+    AccessibilityEvent[] newEvents = new AccessibilityEvent[capacity];
+    AccessibilityNodeInfo[] newSources = new AccessibilityNodeInfo[capacity];
+    boolean[] newSourceFetched = new boolean[capacity];
+    int count = 0;
+    for (int slot = 0; slot < slotCount; slot++) {
+      int index = toIndex(slot);
+      if (events[index] != null) {
+        newEvents[count] = events[index];
+        newSources[count] = sources[index];
+        newSourceFetched[count] = sourceFetched[index];
+        count++;
+      }
+    }
+    events = newEvents;
+    sources = newSources;
+    sourceFetched = newSourceFetched;
+    head = 0;
+    slotCount = count;
+  }
+
+  /**
+   * Merges an earlier event of the same type from the same source into the event in the slot, and
+   * removes the earlier event. Only looks back over events of types in {@code
+   * MASK_MERGED_EVENT_TYPES}, so that no event moves past an event of another type.
+   */
+  private void mergeEarlierEvent(int slot) {
+    final AccessibilityEvent event = events[toIndex(slot)];
+    for (int earlierSlot = slot - 1; earlierSlot >= 0; earlierSlot--) {
+      final AccessibilityEvent earlier = events[toIndex(earlierSlot)];
+      if (earlier == null) {
+        continue;
+      }
+      if (!AccessibilityEventUtils.eventMatchesAnyType(earlier, MASK_MERGED_EVENT_TYPES)) {
+        return;
+      }
+      if (!canMerge(earlier, event) || !haveSameSource(earlierSlot, slot)) {
+        continue;
+      }
+
+      if (event.getEventType() == AccessibilityEvent.TYPE_VIEW_SCROLLED) {
+        addScrollDeltas(earlier, event);
+      }
+      removeSlot(earlierSlot);
+      Performance.getInstance().onQueuedEventMerged();
+      // Earlier events from the source were merged when the earlier event was queued.
+      return;
+    }
+  }
+
+  /**
+   * Returns whether the events describe the same kind of change, so that the later event makes the
+   * earlier redundant. Pane changes are never merged, since each is announced.
+   */
+  private static boolean canMerge(AccessibilityEvent earlier, AccessibilityEvent later) {
+    if ((earlier.getEventType() != later.getEventType())
+        || (earlier.getWindowId() != later.getWindowId())) {
+      return false;
+    }
+    if (later.getEventType() == AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED) {
+      int changeTypes = later.getContentChangeTypes();
+      return (earlier.getContentChangeTypes() == changeTypes) && !isPaneChange(changeTypes);
+    }
+    return true;
+  }
+
+  private static boolean isPaneChange(int changeTypes) {
+    return (changeTypes
+            & (AccessibilityEventCompat.CONTENT_CHANGE_TYPE_PANE_APPEARED
+                | AccessibilityEventCompat.CONTENT_CHANGE_TYPE_PANE_DISAPPEARED
+                | AccessibilityEventCompat.CONTENT_CHANGE_TYPE_PANE_TITLE))
+        != 0;
+  }
+
+  /** Adds the scroll deltas of the earlier event to the later, so the total scroll is kept. */
+  private static void addScrollDeltas(AccessibilityEvent earlier, AccessibilityEvent later) {
+    if (!BuildVersionUtils.isAtLeastP()
+        || !AccessibilityEventUtils.hasValidScrollDelta(earlier)
+        || !AccessibilityEventUtils.hasValidScrollDelta(later)) {
+      return;
+    }
+    later.setScrollDeltaX(addDeltas(earlier.getScrollDeltaX(), later.getScrollDeltaX()));
+    later.setScrollDeltaY(addDeltas(earlier.getScrollDeltaY(), later.getScrollDeltaY()));
+  }
+
+  private static int addDeltas(int earlierDelta, int laterDelta) {
+    if (earlierDelta == AccessibilityEventUtils.DELTA_UNDEFINED) {
+      return laterDelta;
+    }
+    if (laterDelta == AccessibilityEventUtils.DELTA_UNDEFINED) {
+      return earlierDelta;
+    }
+    return earlierDelta + laterDelta;
+  }
+
+  /** Returns whether the events in the slots have the same, non-null, source node. */
+  private boolean haveSameSource(int slot, int otherSlot) {
+    @Nullable AccessibilityNodeInfo source = getSource(slot);
+    return (source != null) && source.equals(getSource(otherSlot));
+  }
+
+  private @Nullable AccessibilityNodeInfo getSource(int slot) {
+    int index = toIndex(slot);
+    if (!sourceFetched[index]) {
+      sources[index] = events[index].getSource();
+      sourceFetched[index] = true;
+    }
+    return sources[index];
+  }
+
+  /** Removes the event in the slot, leaving the slot empty. */
+  private void removeSlot(int slot) {
+    int index = toIndex(slot);
+    final AccessibilityEvent event = events[index];
+    events[index] = null;
+    sources[index] = null;
+    sourceFetched[index] = false;
+    eventCount--;
+
+    if (AccessibilityEventUtils.eventMatchesAnyType(event, MASK_LIMITED_EVENT_TYPES)) {
+      final int eventType = event.getEventType();
+      qualifyingEvents.put(eventType, qualifyingEvents.get(eventType, 0) - 1);
+    }
+  }
+
+  private int toIndex(int slot) {
+    return (head + slot) % events.length;
   }
 
   /**
@@ -125,21 +322,18 @@ class EventQueue {
       }
     }
 
-    final Iterator<AccessibilityEvent> iterator = eventQueue.iterator();
-    while (iterator.hasNext() && (eventTypesToPrune != 0)) {
-      final AccessibilityEvent next = iterator.next();
+    for (int slot = 0; (slot < slotCount) && (eventTypesToPrune != 0); slot++) {
+      final AccessibilityEvent next = events[toIndex(slot)];
 
       // Prune offending events
-      if (AccessibilityEventUtils.eventMatchesAnyType(next, eventTypesToPrune)) {
+      if (next != null && AccessibilityEventUtils.eventMatchesAnyType(next, eventTypesToPrune)) {
         final int eventType = next.getEventType();
-        int eventCountOfType = qualifyingEvents.get(eventType, 0);
-        eventCountOfType--;
-        qualifyingEvents.put(eventType, eventCountOfType);
-        iterator.remove();
+        removeSlot(slot);
+        Performance.getInstance().onQueuedEventDropped();
 
         // Stop pruning further events of this type if the number of
         // events is below the limit
-        if (eventCountOfType <= MAXIMUM_QUALIFYING_EVENTS) {
+        if (qualifyingEvents.get(eventType, 0) <= MAXIMUM_QUALIFYING_EVENTS) {
           eventTypesToPrune &= ~eventType;
         }
       }
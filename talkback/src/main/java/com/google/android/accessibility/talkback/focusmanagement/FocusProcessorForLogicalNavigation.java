@@ -60,6 +60,7 @@ import com.google.android.accessibility.utils.AccessibilityWindowInfoUtils;
 import com.google.android.accessibility.utils.FeatureSupport;
 import com.google.android.accessibility.utils.Filter;
 import com.google.android.accessibility.utils.FocusFinder;
+import com.google.android.accessibility.utils.FocusabilityCache;
 import com.google.android.accessibility.utils.NodeActionFilter;
 import com.google.android.accessibility.utils.Performance.EventId;
 import com.google.android.accessibility.utils.Role;
@@ -72,7 +73,6 @@ import com.google.android.accessibility.utils.traversal.TraversalStrategy;
 import com.google.android.accessibility.utils.traversal.TraversalStrategy.SearchDirection;
 import com.google.android.accessibility.utils.traversal.TraversalStrategyUtils;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
-import java.util.HashMap;
 import java.util.Map;
 
 /** Handles the use case of logical navigation actions. */
@@ -538,7 +538,8 @@ public class FocusProcessorForLogicalNavigation {
     if (!FILTER_WINDOW_FOR_WINDOW_NAVIGATION.accept(currentWindow)) {
       return false;
     }
-    Map<AccessibilityNodeInfoCompat, Boolean> speakingNodeCache = new HashMap<>();
+    Map<AccessibilityNodeInfoCompat, Boolean> speakingNodeCache =
+        FocusabilityCache.getInstance().getSpeakingNodesCache();
     WindowTraversal windowTraversal = new WindowTraversal(service);
     boolean isScreenRtl = WindowUtils.isScreenLayoutRTL(service);
     AccessibilityNodeInfoCompat target =
@@ -750,7 +751,8 @@ public class FocusProcessorForLogicalNavigation {
 
       if (isWindowNavigationSupported && windowFilter.accept(currentWindow)) {
         boolean reachEdgeBeforeSearch = reachEdge;
-        Map<AccessibilityNodeInfoCompat, Boolean> speakingNodeCache = new HashMap<>();
+        Map<AccessibilityNodeInfoCompat, Boolean> speakingNodeCache =
+            FocusabilityCache.getInstance().getSpeakingNodesCache();
         target =
             searchTargetInNextOrPreviousWindow(
                 screenState.getStableScreenState(),
@@ -299,6 +299,8 @@ public class GestureController {
       Performance.getInstance().displayLabelToStats();
       Performance.getInstance().displayStatToLabelCompare();
       Performance.getInstance().displayAllEventStats();
+      Performance.getInstance().displayVariableCacheStats();
+      Performance.getInstance().displayEventQueueStats();
     } else if (action.equals(service.getString(R.string.shortcut_value_perform_click_action))) {
       result = pipeline.returnFeedback(eventId, Feedback.focus(CLICK_CURRENT));
     } else if (action.equals(
@@ -58,12 +58,19 @@ public abstract class CaptionRequest implements Request {
   }
 
   /** The reasons of image captions. */
-  @IntDef({ERROR_IMAGE_CAPTION_NO_RESULT, ERROR_ICON_DETECTION_NO_RESULT, ERROR_TIMEOUT})
+  @IntDef({
+    ERROR_IMAGE_CAPTION_NO_RESULT,
+    ERROR_ICON_DETECTION_NO_RESULT,
+    ERROR_TIMEOUT,
+    ERROR_DROPPED
+  })
   public @interface ErrorCode {}
 
   public static final int ERROR_IMAGE_CAPTION_NO_RESULT = 0;
   public static final int ERROR_ICON_DETECTION_NO_RESULT = 1;
   public static final int ERROR_TIMEOUT = 2;
+  /** The request was dropped by its {@link RequestList} without being performed. */
+  public static final int ERROR_DROPPED = 3;
 
   /** Maximal caption request execution time. */
   public static final int CAPTION_TIMEOUT_MS = 10000;
@@ -101,10 +108,22 @@ public abstract class CaptionRequest implements Request {
   @Override
   public abstract void perform();
 
+  @Override
+  public AccessibilityNodeInfoCompat getTargetNode() {
+    return node;
+  }
+
+  @Override
   public boolean isUserRequested() {
     return isUserRequested;
   }
 
+  @Override
+  public void drop() {
+    LogUtils.v(TAG, "drop() %s", this);
+    onErrorListener.onError(AccessibilityNode.obtainCopy(node), ERROR_DROPPED, isUserRequested);
+  }
+
   protected void runTimeoutRunnable() {
     handler.postDelayed(timeoutRunnable, CAPTION_TIMEOUT_MS);
   }
@@ -128,6 +147,8 @@ public abstract class CaptionRequest implements Request {
         return "ERROR_ICON_DETECTION_NO_RESULT";
       case ERROR_TIMEOUT:
         return "ERROR_TIMEOUT";
+      case ERROR_DROPPED:
+        return "ERROR_DROPPED";
       default:
         return "";
     }
@@ -65,6 +65,17 @@ public class CharacterCaptionRequest extends CaptionRequest implements OcrListen
     runTimeoutRunnable();
   }
 
+  @Override
+  public boolean canCancel() {
+    return true;
+  }
+
+  /** Stops OCR, which then finishes with the text recognized so far. */
+  @Override
+  public void cancel() {
+    ocrController.cancel();
+  }
+
   @Override
   public void onOcrStarted() {}
 
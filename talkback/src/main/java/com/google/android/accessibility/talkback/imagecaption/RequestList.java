@@ -16,17 +16,30 @@
 
 package com.google.android.accessibility.talkback.imagecaption;
 
-import static java.lang.Math.max;
-
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
 import com.google.android.accessibility.talkback.imagecaption.RequestList.Request;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
-import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * A list of requests. Adds and starts a request to the list via {@link
  * RequestList#addRequest(Request)}. After a request is finished, invoke {@link
  * RequestList#performNextRequest()} to perform the next one.
+ *
+ * <p>One request runs at a time. Waiting requests are scheduled by priority instead of arrival:
+ * requests asked by the user run first, then requests for the node with accessibility focus, then
+ * the others in the order they were added. A new request replaces a waiting request for the same
+ * node, and requests for nodes which have left the screen are dropped instead of performed, so
+ * that the node the user lands on after swiping quickly is not stuck behind stale work. A request
+ * which is dropped without running is told through {@link Request#drop()}.
+ *
+ * <p>The focused node is read, and target nodes are refreshed, outside the lock of the list, since
+ * both are binder calls.
  */
 public class RequestList<T extends Request> {
 
@@ -34,14 +47,81 @@ public class RequestList<T extends Request> {
   public interface Request {
     /** Starts the action. */
     void perform();
+
+    /**
+     * Returns the node the action is for, or {@code null} if it is not for a node. Waiting requests
+     * for the same node are coalesced.
+     */
+    @Nullable
+    default AccessibilityNodeInfoCompat getTargetNode() {
+      return null;
+    }
+
+    /** Returns whether the user asked for the action, which puts it ahead of other requests. */
+    default boolean isUserRequested() {
+      return false;
+    }
+
+    /**
+     * Returns whether {@link #cancel()} makes the running action finish early. Only such actions
+     * are preempted by more urgent requests.
+     */
+    default boolean canCancel() {
+      return false;
+    }
+
+    /**
+     * Stops the running action early because its result is no longer urgent. The action must still
+     * finish, so that the owner invokes {@link RequestList#performNextRequest()}.
+     */
+    default void cancel() {}
+
+    /**
+     * Called instead of {@link #perform()} when the request is dropped without running, because a
+     * newer request for its node replaced it, its node left the screen, too many requests were
+     * waiting, or the list was cleared. The owner must not invoke {@link
+     * RequestList#performNextRequest()} for it.
+     */
+    void drop();
+  }
+
+  /** Provides the node with accessibility focus, whose requests are performed first. */
+  public interface FocusedNodeProvider {
+    @Nullable
+    AccessibilityNodeInfoCompat getFocusedNode();
   }
 
   private static final String TAG = "RequestListForCaption";
-  private final SynchronizedArrayDeque<T> requests = new SynchronizedArrayDeque<>();
+
+  private static final int PRIORITY_OTHER = 0;
+  private static final int PRIORITY_FOCUSED = 1;
+  private static final int PRIORITY_USER_REQUESTED = 2;
+
+  private final String name;
   private final int capacity;
+  @Nullable private final FocusedNodeProvider focusedNodeProvider;
+  private final Object mutex = new Object();
+
+  // The fields below are guarded by mutex.
+  private final List<Entry<T>> waitingEntries = new ArrayList<>();
+  @Nullable private Entry<T> runningEntry;
+  private final Metrics metrics = new Metrics();
 
   public RequestList(int capacity) {
+    this(TAG, capacity, /* focusedNodeProvider= */ null);
+  }
+
+  /**
+   * @param name Identifies the list in logs and metrics
+   * @param capacity The most requests which wait to be performed
+   * @param focusedNodeProvider Provides the focused node whose requests run first, or null to
+   *     ignore accessibility focus
+   */
+  public RequestList(
+      String name, int capacity, @Nullable FocusedNodeProvider focusedNodeProvider) {
+    this.name = name;
     this.capacity = capacity;
+    this.focusedNodeProvider = focusedNodeProvider;
   }
 
   /**
@@ -49,84 +129,270 @@ public class RequestList<T extends Request> {
    * Otherwise, the request has to wait for the previous requests to be finished.
    */
   public void addRequest(T request) {
-    requests.add(request);
-
-    if (requests.size() > 1) {
-      LogUtils.v(
-          TAG,
-          "addRequest() waiting... %d %s",
-          requests.size() - 1,
-          request.getClass().getSimpleName());
+    @Nullable AccessibilityNodeInfoCompat focusedNode = getFocusedNode();
+    List<T> droppedRequests = new ArrayList<>();
+    @Nullable T requestToCancel = null;
+    synchronized (mutex) {
+      metrics.addedCount++;
+      @Nullable T replaced = coalesce(request);
+      if (replaced == null) {
+        waitingEntries.add(new Entry<>(request, SystemClock.uptimeMillis()));
+      } else {
+        droppedRequests.add(replaced);
+      }
+      metrics.maxWaitingCount = Math.max(metrics.maxWaitingCount, waitingEntries.size());
+
+      if (runningEntry != null) {
+        LogUtils.v(
+            TAG,
+            "%s addRequest() waiting... %d %s",
+            name,
+            waitingEntries.size(),
+            request.getClass().getSimpleName());
+        // Do not let stale work delay the request for the node the user just moved to.
+        if (runningEntry.started
+            && !runningEntry.cancelled
+            && runningEntry.request.canCancel()
+            && getPriority(request, focusedNode) > PRIORITY_OTHER
+            && getPriority(runningEntry.request, focusedNode) == PRIORITY_OTHER) {
+          runningEntry.cancelled = true;
+          requestToCancel = runningEntry.request;
+          metrics.preemptedCount++;
+        }
+        trimToCapacity(focusedNode, droppedRequests);
+      }
+    }
+
+    drop(droppedRequests);
+    if (requestToCancel != null) {
+      LogUtils.v(TAG, "%s addRequest() cancels %s", name, requestToCancel);
+      requestToCancel.cancel();
     } else {
-      T firstRequest = requests.getFirst();
-      firstRequest.perform();
+      startNextRequestIfIdle(focusedNode);
     }
   }
 
   /**
    * Performs the next request. If there are too many requests waiting to be executed in the list,
-   * discards the older requests.
+   * discards the requests with the lowest priority.
    */
   public void performNextRequest() {
-    if (requests.isEmpty()) {
-      return;
+    @Nullable AccessibilityNodeInfoCompat focusedNode = getFocusedNode();
+    List<T> droppedRequests = new ArrayList<>();
+    synchronized (mutex) {
+      if (runningEntry == null) {
+        return;
+      }
+      runningEntry = null;
+      trimToCapacity(focusedNode, droppedRequests);
     }
+    drop(droppedRequests);
+    startNextRequestIfIdle(focusedNode);
+  }
 
-    T finishedRequest = requests.removeFirst();
-
-    while (requests.size() > capacity) {
-      T request = requests.removeFirst();
+  public int getWaitingRequestSize() {
+    synchronized (mutex) {
+      return waitingEntries.size();
     }
+  }
 
-    if (!requests.isEmpty()) {
-      T request = requests.getFirst();
-      request.perform();
+  public void clear() {
+    List<T> droppedRequests = new ArrayList<>();
+    synchronized (mutex) {
+      metrics.droppedCount += waitingEntries.size();
+      for (Entry<T> entry : waitingEntries) {
+        droppedRequests.add(entry.request);
+      }
+      waitingEntries.clear();
+      runningEntry = null;
     }
+    drop(droppedRequests);
   }
 
-  public int getWaitingRequestSize() {
-    return max(0, requests.size() - 1);
+  /** Returns a summary of queue depth, wait times and dropped requests, for dumps and logs. */
+  public String getMetricsDescription() {
+    synchronized (mutex) {
+      return String.format(
+          Locale.ROOT,
+          "%s: waiting=%d maxWaiting=%d added=%d performed=%d coalesced=%d dropped=%d"
+              + " offScreen=%d preempted=%d avgWaitMs=%d maxWaitMs=%d",
+          name,
+          waitingEntries.size(),
+          metrics.maxWaitingCount,
+          metrics.addedCount,
+          metrics.performedCount,
+          metrics.coalescedCount,
+          metrics.droppedCount,
+          metrics.offScreenCount,
+          metrics.preemptedCount,
+          (metrics.performedCount == 0) ? 0 : metrics.totalWaitMs / metrics.performedCount,
+          metrics.maxWaitMs);
+    }
   }
 
-  public void clear() {
-    while (!requests.isEmpty()) {
-      T request = requests.removeFirst();
+  /**
+   * Replaces a waiting request for the same node with the new request, keeping its place in line.
+   * A request asked by the user is not replaced by one which was not.
+   *
+   * @return the request which no longer waits, either the new request or the one it replaced, or
+   *     {@code null} if the request was not coalesced and should be added
+   */
+  @Nullable
+  private T coalesce(T request) {
+    @Nullable AccessibilityNodeInfoCompat node = request.getTargetNode();
+    if (node == null) {
+      return null;
     }
+    for (Entry<T> entry : waitingEntries) {
+      if (node.equals(entry.request.getTargetNode())) {
+        metrics.coalescedCount++;
+        if (request.isUserRequested() || !entry.request.isUserRequested()) {
+          T replaced = entry.request;
+          entry.request = request;
+          return replaced;
+        }
+        return request;
+      }
+    }
+    return null;
   }
 
-  /** A synchronized ArrayDeque which prohibits null elements. */
-  private static final class SynchronizedArrayDeque<E> {
-    final ArrayDeque<E> arrayDeque = new ArrayDeque<>();
-    final Object mutex = new Object();
+  /**
+   * Drops the waiting requests with the lowest priority, oldest first, down to the capacity, and
+   * adds them to {@code droppedRequests}.
+   */
+  private void trimToCapacity(
+      @Nullable AccessibilityNodeInfoCompat focusedNode, List<T> droppedRequests) {
+    while (waitingEntries.size() > capacity) {
+      int dropIndex = 0;
+      int dropPriority = Integer.MAX_VALUE;
+      for (int i = 0; i < waitingEntries.size(); i++) {
+        int priority = getPriority(waitingEntries.get(i).request, focusedNode);
+        if (priority < dropPriority) {
+          dropIndex = i;
+          dropPriority = priority;
+        }
+      }
+      Entry<T> dropped = waitingEntries.remove(dropIndex);
+      metrics.droppedCount++;
+      LogUtils.v(TAG, "%s discards %s", name, dropped.request);
+      droppedRequests.add(dropped.request);
+    }
+  }
 
-    private SynchronizedArrayDeque() {}
+  /** Tells requests that they were dropped, outside the lock. */
+  private void drop(List<T> droppedRequests) {
+    for (T request : droppedRequests) {
+      request.drop();
+    }
+  }
 
-    public boolean add(@NonNull E request) {
+  /**
+   * Starts the waiting request with the highest priority, if no request is running. Requests for
+   * nodes which are no longer on screen are dropped along the way.
+   */
+  private void startNextRequestIfIdle(@Nullable AccessibilityNodeInfoCompat focusedNode) {
+    while (true) {
+      Entry<T> next;
       synchronized (mutex) {
-        return arrayDeque.add(request);
+        if (runningEntry != null || waitingEntries.isEmpty()) {
+          return;
+        }
+        next = takeNextEntry(focusedNode);
+        // Holds the place of the request while its node is refreshed, so that no other starts.
+        runningEntry = next;
       }
-    }
 
-    @NonNull
-    public E getFirst() {
+      boolean onScreen = isOnScreen(next.request);
       synchronized (mutex) {
-        return arrayDeque.getFirst();
+        if (runningEntry != next) {
+          // The list was cleared while the node was refreshed.
+          onScreen = false;
+        } else if (onScreen) {
+          next.started = true;
+          long waitMs = SystemClock.uptimeMillis() - next.addedTimeMs;
+          metrics.performedCount++;
+          metrics.totalWaitMs += waitMs;
+          metrics.maxWaitMs = Math.max(metrics.maxWaitMs, waitMs);
+        } else {
+          runningEntry = null;
+          metrics.offScreenCount++;
+          LogUtils.v(TAG, "%s drops off-screen %s", name, next.request);
+        }
       }
+
+      if (onScreen) {
+        // Performs outside the lock, since a request may finish, and start the next one, at once.
+        next.request.perform();
+        return;
+      }
+      next.request.drop();
     }
+  }
 
-    @NonNull
-    public E removeFirst() {
-      synchronized (mutex) {
-        return arrayDeque.removeFirst();
+  /**
+   * Removes and returns the waiting entry with the highest priority, or the earliest added among
+   * equals. There must be a waiting entry.
+   */
+  private Entry<T> takeNextEntry(@Nullable AccessibilityNodeInfoCompat focusedNode) {
+    int nextIndex = 0;
+    int nextPriority = Integer.MIN_VALUE;
+    for (int i = 0; i < waitingEntries.size(); i++) {
+      int priority = getPriority(waitingEntries.get(i).request, focusedNode);
+      if (priority > nextPriority) {
+        nextIndex = i;
+        nextPriority = priority;
       }
     }
+    return waitingEntries.remove(nextIndex);
+  }
+
+  @Nullable
+  private AccessibilityNodeInfoCompat getFocusedNode() {
+    return (focusedNodeProvider == null) ? null : focusedNodeProvider.getFocusedNode();
+  }
 
-    public int size() {
-      return arrayDeque.size();
+  private static int getPriority(
+      Request request, @Nullable AccessibilityNodeInfoCompat focusedNode) {
+    if (request.isUserRequested()) {
+      return PRIORITY_USER_REQUESTED;
     }
+    if (focusedNode != null && focusedNode.equals(request.getTargetNode())) {
+      return PRIORITY_FOCUSED;
+    }
+    return PRIORITY_OTHER;
+  }
+
+  private static boolean isOnScreen(Request request) {
+    @Nullable AccessibilityNodeInfoCompat node = request.getTargetNode();
+    return (node == null) || (node.refresh() && node.isVisibleToUser());
+  }
 
-    public boolean isEmpty() {
-      return arrayDeque.isEmpty();
+  /** A request and the time it was added. */
+  private static final class Entry<T> {
+    @NonNull T request;
+    final long addedTimeMs;
+    /** Whether the request was performed, after its node was found on screen. */
+    boolean started = false;
+
+    boolean cancelled = false;
+
+    Entry(@NonNull T request, long addedTimeMs) {
+      this.request = request;
+      this.addedTimeMs = addedTimeMs;
     }
   }
+
+  /** Counters of the list, guarded by the list's mutex. */
+  private static final class Metrics {
+    int addedCount;
+    int performedCount;
+    int coalescedCount;
+    int droppedCount;
+    int offScreenCount;
+    int preemptedCount;
+    int maxWaitingCount;
+    long totalWaitMs;
+    long maxWaitMs;
+  }
 }
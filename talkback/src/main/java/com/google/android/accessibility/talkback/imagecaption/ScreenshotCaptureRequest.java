@@ -33,19 +33,28 @@ public class ScreenshotCaptureRequest implements Request {
     void onFinish(AccessibilityNodeInfoCompat node, Bitmap bitmap, boolean isUserRequested);
   }
 
+  /** A listener to be invoked when the request is dropped without taking a screenshot. */
+  public interface OnErrorListener {
+    /** Called when the request is dropped by its {@link RequestList}. */
+    void onDropped(AccessibilityNodeInfoCompat node, boolean isUserRequested);
+  }
+
   private final AccessibilityService service;
   private final AccessibilityNodeInfoCompat node;
   @NonNull private final OnFinishListener onFinishListener;
+  @NonNull private final OnErrorListener onErrorListener;
   private final boolean isUserRequested;
 
   public ScreenshotCaptureRequest(
       AccessibilityService service,
       AccessibilityNodeInfoCompat node,
       @NonNull OnFinishListener onFinishListener,
+      @NonNull OnErrorListener onErrorListener,
       boolean isUserRequested) {
     this.service = service;
     this.node = node;
     this.onFinishListener = onFinishListener;
+    this.onErrorListener = onErrorListener;
     this.isUserRequested = isUserRequested;
   }
 
@@ -58,6 +67,21 @@ public class ScreenshotCaptureRequest implements Request {
         });
   }
 
+  @Override
+  public void drop() {
+    onErrorListener.onDropped(node, isUserRequested);
+  }
+
+  @Override
+  public AccessibilityNodeInfoCompat getTargetNode() {
+    return node;
+  }
+
+  @Override
+  public boolean isUserRequested() {
+    return isUserRequested;
+  }
+
   @Override
   public String toString() {
     return getClass().getSimpleName()
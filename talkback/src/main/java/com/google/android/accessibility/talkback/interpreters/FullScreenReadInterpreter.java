@@ -19,6 +19,7 @@ package com.google.android.accessibility.talkback.interpreters;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_ACCESSIBILITY_FOCUSED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_CLICKED;
 import static android.view.accessibility.AccessibilityEvent.TYPE_VIEW_SELECTED;
+import static com.google.android.accessibility.talkback.Interpretation.ID.Value.CONTINUOUS_READ_CONTENT_CHANGED;
 import static com.google.android.accessibility.talkback.Interpretation.ID.Value.CONTINUOUS_READ_CONTENT_FOCUSED;
 import static com.google.android.accessibility.talkback.Interpretation.ID.Value.CONTINUOUS_READ_INTERRUPT;
 
@@ -50,6 +51,12 @@ public class FullScreenReadInterpreter implements AccessibilityEventListener {
           | AccessibilityEvent.TYPE_TOUCH_EXPLORATION_GESTURE_START
           | AccessibilityEventCompat.TYPE_ANNOUNCEMENT;
 
+  /** Event types that make the nodes composed ahead of continuous reading stale. */
+  private static final int MASK_EVENT_TYPES_CONTENT_CHANGED =
+      AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+          | AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+          | AccessibilityEvent.TYPE_WINDOWS_CHANGED;
+
   private Pipeline.InterpretationReceiver pipeline;
   private ActorState actorState;
 
@@ -64,6 +71,7 @@ public class FullScreenReadInterpreter implements AccessibilityEventListener {
   @Override
   public int getEventTypes() {
     return MASK_EVENT_TYPES_INTERRUPT_CONTINUOUS
+        | MASK_EVENT_TYPES_CONTENT_CHANGED
         | TYPE_VIEW_ACCESSIBILITY_FOCUSED
         | TYPE_VIEW_SELECTED;
   }
@@ -102,6 +110,11 @@ public class FullScreenReadInterpreter implements AccessibilityEventListener {
         // Interrupts full screen reading on user-initiated events -- not for events generated by
         // automated cursor movement or from delayed user interaction.
         pipeline.input(eventId, event, new Interpretation.ID(CONTINUOUS_READ_INTERRUPT));
+      } else if (AccessibilityEventUtils.eventMatchesAnyType(
+              event, MASK_EVENT_TYPES_CONTENT_CHANGED)
+          && actorState.getContinuousRead().isReadAheadChangedBy(event)) {
+        // Reading continues, but the text composed ahead of the node being spoken may be stale.
+        pipeline.input(eventId, event, new Interpretation.ID(CONTINUOUS_READ_CONTENT_CHANGED));
       }
     }
   }
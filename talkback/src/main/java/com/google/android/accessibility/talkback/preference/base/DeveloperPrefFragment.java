@@ -30,6 +30,7 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.provider.Settings;
 import android.util.Log;
+import android.widget.Toast;
 import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.Preference.OnPreferenceChangeListener;
@@ -39,9 +40,11 @@ import com.google.android.accessibility.talkback.TalkBackService;
 import com.google.android.accessibility.utils.AccessibilityEventUtils;
 import com.google.android.accessibility.utils.AlertDialogUtils;
 import com.google.android.accessibility.utils.FeatureSupport;
+import com.google.android.accessibility.utils.Performance;
 import com.google.android.accessibility.utils.PreferenceSettingsUtils;
 import com.google.android.accessibility.utils.SharedPreferencesUtils;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.File;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 /** Fragment holding a set of developer preferences. */
@@ -154,6 +157,16 @@ public class DeveloperPrefFragment extends TalkbackBaseFragment {
               .create();
     }
 
+    final @Nullable Preference prefPerformanceStatsExport =
+        findPreference(getString(R.string.pref_performance_stats_export_key));
+    if (prefPerformanceStatsExport != null) {
+      prefPerformanceStatsExport.setOnPreferenceClickListener(
+          (Preference preference) -> {
+            exportPerformanceStats();
+            return true;
+          });
+    }
+
     final @Nullable ListPreference logLevelPref =
         findPreference(getString(R.string.pref_log_level_key));
     if (logLevelPref != null) {
@@ -441,6 +454,22 @@ public class DeveloperPrefFragment extends TalkbackBaseFragment {
                 count /* formatArgs */));
   }
 
+  /** Saves performance statistics to a file, which developers can pull with adb. */
+  private void exportPerformanceStats() {
+    @Nullable TalkBackService talkBackService = TalkBackService.getInstance();
+    if (talkBackService == null || !Performance.getInstance().getEnabled()) {
+      Toast.makeText(context, R.string.message_performance_stats_unavailable, Toast.LENGTH_SHORT)
+          .show();
+      return;
+    }
+    File file = talkBackService.exportPerformanceStats();
+    Toast.makeText(
+            context,
+            getString(R.string.message_performance_stats_exported, file.getAbsolutePath()),
+            Toast.LENGTH_LONG)
+        .show();
+  }
+
   // TODO: Separate function for duplicate OnPreferenceChangeListener code.
   private final OnPreferenceChangeListener treeDebugChangeListener =
       new OnPreferenceChangeListener() {
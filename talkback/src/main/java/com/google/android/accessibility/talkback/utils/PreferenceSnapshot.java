@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.talkback.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import com.google.android.accessibility.talkback.R;
+import com.google.android.accessibility.talkback.focusmanagement.FocusProcessorForTapAndTouchExploration.TypingMethod;
+import com.google.android.accessibility.utils.SharedPreferencesUtils;
+
+/**
+ * An immutable copy of the preferences that are read while processing every event or feedback.
+ * Verbosity preferences are resolved through the verbosity preset once, when the snapshot is read,
+ * so that the event path reads plain fields instead of looking up preferences and comparing preset
+ * names.
+ *
+ * <p>TalkBackService reads a new snapshot when preferences change, and publishes it to the
+ * pipeline and event processors.
+ */
+public final class PreferenceSnapshot {
+
+  private final boolean speakUsageHints;
+  private final boolean phoneticLettersEnabled;
+  private final boolean singleTap;
+  private final @TypingMethod int typingMethod;
+
+  private PreferenceSnapshot(
+      boolean speakUsageHints,
+      boolean phoneticLettersEnabled,
+      boolean singleTap,
+      @TypingMethod int typingMethod) {
+    this.speakUsageHints = speakUsageHints;
+    this.phoneticLettersEnabled = phoneticLettersEnabled;
+    this.singleTap = singleTap;
+    this.typingMethod = typingMethod;
+  }
+
+  /** Reads the current preference values. */
+  public static PreferenceSnapshot read(Context context) {
+    SharedPreferences prefs = SharedPreferencesUtils.getSharedPreferences(context);
+    Resources res = context.getResources();
+    return new PreferenceSnapshot(
+        VerbosityPreferences.getPreferenceValueBool(
+            prefs,
+            res,
+            res.getString(R.string.pref_a11y_hints_key),
+            res.getBoolean(R.bool.pref_a11y_hints_default)),
+        VerbosityPreferences.getPreferenceValueBool(
+            prefs,
+            res,
+            res.getString(R.string.pref_phonetic_letters_key),
+            res.getBoolean(R.bool.pref_phonetic_letters_default)),
+        SharedPreferencesUtils.getBooleanPref(
+            prefs, res, R.string.pref_single_tap_key, R.bool.pref_single_tap_default),
+        SharedPreferencesUtils.getIntFromStringPref(
+            prefs,
+            res,
+            R.string.pref_typing_confirmation_key,
+            R.string.pref_typing_confirmation_default));
+  }
+
+  /** Whether usage hints are spoken, according to the verbosity preset. */
+  public boolean speakUsageHints() {
+    return speakUsageHints;
+  }
+
+  /** Whether phonetic letters are spoken, according to the verbosity preset. */
+  public boolean phoneticLettersEnabled() {
+    return phoneticLettersEnabled;
+  }
+
+  /** Whether a single tap activates the touched item. */
+  public boolean singleTap() {
+    return singleTap;
+  }
+
+  /** How keys on the on-screen keyboard are typed. */
+  public @TypingMethod int typingMethod() {
+    return typingMethod;
+  }
+
+  @Override
+  public String toString() {
+    return "PreferenceSnapshot{speakUsageHints="
+        + speakUsageHints
+        + ", phoneticLettersEnabled="
+        + phoneticLettersEnabled
+        + ", singleTap="
+        + singleTap
+        + ", typingMethod="
+        + typingMethod
+        + "}";
+  }
+}
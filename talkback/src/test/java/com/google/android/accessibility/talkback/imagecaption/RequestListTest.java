@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.talkback.imagecaption;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.view.View;
+import android.view.accessibility.AccessibilityNodeInfo;
+import androidx.annotation.Nullable;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import com.google.android.accessibility.talkback.imagecaption.RequestList.Request;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Checks the order in which {@link RequestList} performs, drops and cancels requests. */
+@RunWith(RobolectricTestRunner.class)
+public class RequestListTest {
+  private static final int CAPACITY = 2;
+
+  private final List<String> calls = new ArrayList<>();
+  @Nullable private AccessibilityNodeInfoCompat focusedNode;
+  private RequestList<Request> requests;
+
+  @Before
+  public void setUp() {
+    requests = new RequestList<>("test", CAPACITY, () -> focusedNode);
+  }
+
+  @Test
+  public void addRequest_whileIdle_performsRequest() {
+    requests.addRequest(new FakeRequest("a", createNode()));
+
+    assertThat(calls).containsExactly("perform a");
+  }
+
+  @Test
+  public void performNextRequest_performsWaitingRequestsInOrder() {
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(new FakeRequest("b", createNode()));
+    requests.addRequest(new FakeRequest("c", createNode()));
+
+    requests.performNextRequest();
+    requests.performNextRequest();
+
+    assertThat(calls).containsExactly("perform a", "perform b", "perform c").inOrder();
+  }
+
+  @Test
+  public void addRequest_sameNode_dropsReplacedRequest() {
+    AccessibilityNodeInfoCompat node = createNode();
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(new FakeRequest("b", node));
+
+    requests.addRequest(new FakeRequest("b2", node));
+    requests.performNextRequest();
+
+    assertThat(calls).containsExactly("perform a", "drop b", "perform b2").inOrder();
+    assertThat(requests.getWaitingRequestSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void addRequest_sameNodeAsUserRequest_dropsNewRequest() {
+    AccessibilityNodeInfoCompat node = createNode();
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(new FakeRequest("user", node, /* userRequested= */ true));
+
+    requests.addRequest(new FakeRequest("b", node));
+    requests.performNextRequest();
+
+    assertThat(calls).containsExactly("perform a", "drop b", "perform user").inOrder();
+  }
+
+  @Test
+  public void performNextRequest_performsUserAndFocusedRequestsFirst() {
+    AccessibilityNodeInfoCompat focused = createNode();
+    requests = new RequestList<>("test", /* capacity= */ 4, () -> focusedNode);
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(new FakeRequest("b", createNode()));
+    requests.addRequest(new FakeRequest("focused", focused));
+    requests.addRequest(new FakeRequest("user", createNode(), /* userRequested= */ true));
+    focusedNode = focused;
+
+    requests.performNextRequest();
+    requests.performNextRequest();
+    requests.performNextRequest();
+
+    assertThat(calls)
+        .containsExactly("perform a", "perform user", "perform focused", "perform b")
+        .inOrder();
+  }
+
+  @Test
+  public void addRequest_overCapacity_dropsOldestRequestOfLowestPriority() {
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(new FakeRequest("b", createNode()));
+    requests.addRequest(new FakeRequest("user", createNode(), /* userRequested= */ true));
+
+    requests.addRequest(new FakeRequest("c", createNode()));
+
+    assertThat(calls).containsExactly("perform a", "drop b").inOrder();
+    assertThat(requests.getWaitingRequestSize()).isEqualTo(CAPACITY);
+  }
+
+  @Test
+  public void performNextRequest_offScreenUserRequest_dropsItAndPerformsNext() {
+    AccessibilityNodeInfoCompat offScreenNode = createNode();
+    offScreenNode.setVisibleToUser(false);
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(new FakeRequest("user", offScreenNode, /* userRequested= */ true));
+    requests.addRequest(new FakeRequest("b", createNode()));
+
+    requests.performNextRequest();
+
+    assertThat(calls).containsExactly("perform a", "drop user", "perform b").inOrder();
+  }
+
+  @Test
+  public void addRequest_focusedRequest_cancelsRunningCancelableRequest() {
+    AccessibilityNodeInfoCompat focused = createNode();
+    FakeRequest running = new FakeRequest("a", createNode());
+    running.cancelable = true;
+    requests.addRequest(running);
+    focusedNode = focused;
+
+    requests.addRequest(new FakeRequest("focused", focused));
+    requests.performNextRequest();
+
+    assertThat(calls).containsExactly("perform a", "cancel a", "perform focused").inOrder();
+  }
+
+  @Test
+  public void addRequest_focusedRequest_doesNotCancelRequestWhichCannotCancel() {
+    AccessibilityNodeInfoCompat focused = createNode();
+    requests.addRequest(new FakeRequest("a", createNode()));
+    focusedNode = focused;
+
+    requests.addRequest(new FakeRequest("focused", focused));
+
+    assertThat(calls).containsExactly("perform a");
+  }
+
+  @Test
+  public void clear_dropsWaitingRequests() {
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(new FakeRequest("user", createNode(), /* userRequested= */ true));
+
+    requests.clear();
+    requests.addRequest(new FakeRequest("b", createNode()));
+
+    assertThat(calls).containsExactly("perform a", "drop user", "perform b").inOrder();
+  }
+
+  @Test
+  public void droppedCaptionRequest_reportsDroppedErrorWithUserRequest() {
+    List<String> errors = new ArrayList<>();
+    CaptionRequest userRequest =
+        new CaptionRequest(
+            createNode(),
+            /* onFinishListener= */ (node, result, isUserRequested) -> {},
+            /* onErrorListener= */ (node, errorCode, isUserRequested) ->
+                errors.add(CaptionRequest.errorName(errorCode) + " " + isUserRequested),
+            /* isUserRequested= */ true) {
+          @Override
+          public void perform() {
+            calls.add("perform caption");
+          }
+        };
+    requests.addRequest(new FakeRequest("a", createNode()));
+    requests.addRequest(userRequest);
+
+    requests.clear();
+
+    assertThat(calls).containsExactly("perform a");
+    assertThat(errors).containsExactly("ERROR_DROPPED true");
+  }
+
+  private static AccessibilityNodeInfoCompat createNode() {
+    AccessibilityNodeInfo info =
+        AccessibilityNodeInfo.obtain(new View(RuntimeEnvironment.getApplication()));
+    info.setVisibleToUser(true);
+    return AccessibilityNodeInfoCompat.wrap(info);
+  }
+
+  /** Records the calls the list makes to it. */
+  private final class FakeRequest implements Request {
+    private final String name;
+    private final AccessibilityNodeInfoCompat node;
+    private final boolean userRequested;
+    boolean cancelable = false;
+
+    FakeRequest(String name, AccessibilityNodeInfoCompat node) {
+      this(name, node, /* userRequested= */ false);
+    }
+
+    FakeRequest(String name, AccessibilityNodeInfoCompat node, boolean userRequested) {
+      this.name = name;
+      this.node = node;
+      this.userRequested = userRequested;
+    }
+
+    @Override
+    public void perform() {
+      calls.add("perform " + name);
+    }
+
+    @Override
+    public AccessibilityNodeInfoCompat getTargetNode() {
+      return node;
+    }
+
+    @Override
+    public boolean isUserRequested() {
+      return userRequested;
+    }
+
+    @Override
+    public boolean canCancel() {
+      return cancelable;
+    }
+
+    @Override
+    public void cancel() {
+      calls.add("cancel " + name);
+    }
+
+    @Override
+    public void drop() {
+      calls.add("drop " + name);
+    }
+  }
+}
@@ -701,13 +701,8 @@ public class AccessibilityNodeInfoUtils {
    * @return {@code true} of the node is accessibility focusable.
    */
   public static boolean isAccessibilityFocusable(AccessibilityNodeInfoCompat node) {
-    Set<AccessibilityNodeInfoCompat> visitedNodes = new HashSet<>();
-    try {
-      return isFocusableOrClickable(node)
-          || (isTopLevelScrollItem(node) && isSpeakingNode(node, null, visitedNodes));
-    } finally {
-      AccessibilityNodeInfoUtils.recycleNodes(visitedNodes);
-    }
+    return isFocusableOrClickable(node)
+        || (isTopLevelScrollItem(node) && isSpeakingNode(node, null, /* visitedNodes= */ null));
   }
 
   /**
@@ -737,6 +732,20 @@ public class AccessibilityNodeInfoUtils {
       LogUtils.v(TAG, "Don't focus, node=null");
       return false;
     }
+
+    FocusabilityCache focusabilityCache = FocusabilityCache.getInstance();
+    @Nullable Boolean verdict = focusabilityCache.getFocusVerdict(node, checkChildren);
+    if (verdict == null) {
+      verdict = shouldFocusNodeUncached(node, speakingNodeCache, checkChildren);
+      focusabilityCache.putFocusVerdict(node, checkChildren, verdict);
+    }
+    return verdict;
+  }
+
+  private static boolean shouldFocusNodeUncached(
+      AccessibilityNodeInfoCompat node,
+      final Map<AccessibilityNodeInfoCompat, Boolean> speakingNodeCache,
+      boolean checkChildren) {
     // Inside views that support web navigation, we delegate focus to the view itself and
     // assume that it navigates to and focuses the correct elements.
     if (WebInterfaceUtils.supportsWebActions(node)) {
@@ -778,53 +787,47 @@ public class AccessibilityNodeInfoUtils {
       }
     }
 
-    HashSet<AccessibilityNodeInfoCompat> visitedNodes = new HashSet<>();
-    try {
-      // This checks if a node is clickable, focusable, screen reader focusable, or a direct
-      // spekaing child of a scrollable container.
-      boolean accessibilityFocusable =
-          isFocusableOrClickable(node)
-              || (isTopLevelScrollItem(node) && isSpeakingNode(node, null, visitedNodes));
-
-      if (!checkChildren) {
-        // End of the line. Don't check children and don't allow any recursion.
-        // checkChildren is only false in the shouldFocusNode call below. This is to avoid
-        // repetitive checks down the tree when looking up at the ancestors.
-        LogUtils.d(
-            TAG, "checkChildren=false and isAccessibilityFocusable=%s", accessibilityFocusable);
-        return accessibilityFocusable;
-      }
-
-      // A node that is deemed accessibility focusable shouldn't actually get focus if it has
-      // nothing to speak. For example, a view may be focusable, but if it has no text and all of
-      // its children are clickable, focus should go on each child individually and not on this
-      // view.
-      // Note: This is redundant for nodes that pass isSpeakingNode above
-      // Note: A special case exists for unlabeled buttons which otherwise wouldn't get focus.
-      if (accessibilityFocusable) {
-        AccessibilityNodeInfoUtils.recycleNodes(visitedNodes);
-        visitedNodes.clear();
-        // TODO: This may still result in focusing non-speaking nodes, but it
-        // won't prevent unlabeled buttons from receiving focus.
-        if (!hasVisibleChildren(node)) {
-          logShouldFocusNode(
-              checkChildren, NONE, "Focus, is focusable and has no visible children: ", node);
-          return true;
-        } else if (isSpeakingNode(node, speakingNodeCache, visitedNodes)) {
-          logShouldFocusNode(
-              checkChildren, NONE, "Focus, is focusable and has something to speak: ", node);
-          return true;
-        } else {
-          logShouldFocusNode(
-              checkChildren,
-              FOCUS_FAIL_NOT_SPEAKABLE,
-              "Don't focus, is focusable but has nothing to speak: ",
-              node);
-          return false;
-        }
+    // This checks if a node is clickable, focusable, screen reader focusable, or a direct
+    // spekaing child of a scrollable container.
+    boolean accessibilityFocusable =
+        isFocusableOrClickable(node)
+            || (isTopLevelScrollItem(node)
+                && isSpeakingNode(node, null, /* visitedNodes= */ null));
+
+    if (!checkChildren) {
+      // End of the line. Don't check children and don't allow any recursion.
+      // checkChildren is only false in the shouldFocusNode call below. This is to avoid
+      // repetitive checks down the tree when looking up at the ancestors.
+      LogUtils.d(
+          TAG, "checkChildren=false and isAccessibilityFocusable=%s", accessibilityFocusable);
+      return accessibilityFocusable;
+    }
+
+    // A node that is deemed accessibility focusable shouldn't actually get focus if it has
+    // nothing to speak. For example, a view may be focusable, but if it has no text and all of
+    // its children are clickable, focus should go on each child individually and not on this
+    // view.
+    // Note: This is redundant for nodes that pass isSpeakingNode above
+    // Note: A special case exists for unlabeled buttons which otherwise wouldn't get focus.
+    if (accessibilityFocusable) {
+      // TODO: This may still result in focusing non-speaking nodes, but it
+      // won't prevent unlabeled buttons from receiving focus.
+      if (!hasVisibleChildren(node)) {
+        logShouldFocusNode(
+            checkChildren, NONE, "Focus, is focusable and has no visible children: ", node);
+        return true;
+      } else if (isSpeakingNode(node, speakingNodeCache, /* visitedNodes= */ null)) {
+        logShouldFocusNode(
+            checkChildren, NONE, "Focus, is focusable and has something to speak: ", node);
+        return true;
+      } else {
+        logShouldFocusNode(
+            checkChildren,
+            FOCUS_FAIL_NOT_SPEAKABLE,
+            "Don't focus, is focusable but has nothing to speak: ",
+            node);
+        return false;
       }
-    } finally {
-      AccessibilityNodeInfoUtils.recycleNodes(visitedNodes);
     }
 
     // At this point, the node is an unfocusable target.
@@ -898,15 +901,19 @@ public class AccessibilityNodeInfoUtils {
    *
    * @param node the node to check
    * @param speakingNodeCache the cache that holds the speaking results for visited nodes
-   * @param visitedNodes the set of nodes that have already been visited
+   * @param visitedNodes the set of nodes that have already been visited, or null to create it when
+   *     the children are checked
    * @return {@code true} if the node can be spoken
    */
   private static boolean isSpeakingNode(
       AccessibilityNodeInfoCompat node,
       Map<AccessibilityNodeInfoCompat, Boolean> speakingNodeCache,
-      Set<AccessibilityNodeInfoCompat> visitedNodes) {
-    if (speakingNodeCache != null && speakingNodeCache.containsKey(node)) {
-      return speakingNodeCache.get(node);
+      @Nullable Set<AccessibilityNodeInfoCompat> visitedNodes) {
+    if (speakingNodeCache != null) {
+      @Nullable Boolean cachedResult = speakingNodeCache.get(node);
+      if (cachedResult != null) {
+        return cachedResult;
+      }
     }
 
     boolean result = false;
@@ -919,7 +926,8 @@ public class AccessibilityNodeInfoUtils {
     } else if (node.isCheckable()) { // Special case for check boxes.
       LogUtils.v(TAG, "Speaking, is checkable");
       result = true;
-    } else if (hasNonActionableSpeakingChildren(node, speakingNodeCache, visitedNodes)) {
+    } else if (hasNonActionableSpeakingChildren(
+        node, speakingNodeCache, (visitedNodes == null) ? new HashSet<>() : visitedNodes)) {
       // Special case for containers with non-focusable content. In this case, the container should
       // speak its non-focusable yet speakable content.
       LogUtils.v(TAG, "Speaking, has non-actionable speaking children");
@@ -941,27 +949,20 @@ public class AccessibilityNodeInfoUtils {
    *
    * @param node the node to check
    * @param speakingNodeCache the cache that holds the speaking results for visited nodes
-   * @param visitedNodes the set of nodes that have already been visited. Caller must recycle.
+   * @param visitedNodes the set of nodes that have already been visited
    * @return {@code true} if the node has children that are speaking
    */
   private static boolean hasNonActionableSpeakingChildren(
       AccessibilityNodeInfoCompat node,
       Map<AccessibilityNodeInfoCompat, Boolean> speakingNodeCache,
       Set<AccessibilityNodeInfoCompat> visitedNodes) {
-    final int childCount = node.getChildCount();
-
-    AccessibilityNodeInfoCompat child;
-
-    for (int i = 0; i < childCount; i++) {
-      child = node.getChild(i);
-
-      if (child == null) {
-        LogUtils.v(TAG, "Child %d is null, skipping it", i);
-        continue;
-      }
+    // Children may come from a shared WindowSnapshot, so they must not be recycled.
+    List<AccessibilityNodeInfoCompat> children =
+        WindowSnapshotCache.getInstance().getChildren(node);
+    for (int i = 0; i < children.size(); i++) {
+      AccessibilityNodeInfoCompat child = children.get(i);
 
       if (!visitedNodes.add(child)) {
-        child.recycle();
         return false;
       }
 
@@ -2898,6 +2899,11 @@ public class AccessibilityNodeInfoUtils {
       return new AutoValue_AccessibilityNodeInfoUtils_ViewResourceName(splitId[0], splitId[1]);
     }
 
+    /** Creates a ViewResourceName instance from a package name and a view ID name. */
+    public static ViewResourceName create(String packageName, String viewIdName) {
+      return new AutoValue_AccessibilityNodeInfoUtils_ViewResourceName(packageName, viewIdName);
+    }
+
     @Override
     public final String toString() {
       return "ViewResourceName= "
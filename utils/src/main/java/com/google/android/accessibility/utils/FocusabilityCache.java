@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils;
+
+import android.view.accessibility.AccessibilityEvent;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Keeps the verdicts of {@link AccessibilityNodeInfoUtils#shouldFocusNode} and of whether a node
+ * is a speaking node across traversal strategies and navigation actions, so that repeated
+ * navigation in the same screen does not check the same subtrees again.
+ *
+ * <p>Verdicts are keyed by node identity, which for {@link AccessibilityNodeInfoCompat} is the
+ * window id and the source node id. The verdicts of a window are discarded when its content
+ * changes or scrolls, and all verdicts are discarded when windows change. The number of verdicts
+ * is bounded, and the least recently used are discarded first.
+ */
+public class FocusabilityCache extends PerWindowCache {
+
+  private static final String TAG = "FocusabilityCache";
+
+  /** Number of verdicts of each kind that are kept. */
+  private static final int MAX_VERDICTS = 1000;
+
+  private static @Nullable FocusabilityCache instance;
+
+  /** Whether nodes are speaking nodes. Shared with traversal strategies as their speaking cache. */
+  private final VerdictMap speakingVerdicts = new VerdictMap();
+
+  /** Whether nodes should be focused, checking their children. */
+  private final VerdictMap focusVerdicts = new VerdictMap();
+
+  /** Whether nodes should be focused, without checking their children. */
+  private final VerdictMap focusIgnoringChildrenVerdicts = new VerdictMap();
+
+  /**
+   * A bounded map of verdicts, least recently used first, which counts its hits and misses. Keys
+   * are copied, so that callers can recycle their nodes.
+   */
+  private static final class VerdictMap extends LruMap<AccessibilityNodeInfoCompat, Boolean> {
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    VerdictMap() {
+      super(MAX_VERDICTS);
+    }
+
+    @Override
+    public synchronized @Nullable Boolean get(@Nullable Object key) {
+      @Nullable Boolean verdict = super.get(key);
+      if (verdict == null) {
+        missCount++;
+      } else {
+        hitCount++;
+      }
+      return verdict;
+    }
+
+    @Override
+    public synchronized boolean containsKey(@Nullable Object key) {
+      return super.containsKey(key);
+    }
+
+    @Override
+    public synchronized @Nullable Boolean put(AccessibilityNodeInfoCompat key, Boolean verdict) {
+      if (key == null) {
+        return null;
+      }
+      return super.put(AccessibilityNodeInfoCompat.obtain(key), verdict);
+    }
+
+    @Override
+    public synchronized @Nullable Boolean remove(@Nullable Object key) {
+      return super.remove(key);
+    }
+
+    @Override
+    public synchronized void clear() {
+      super.clear();
+    }
+
+    synchronized void removeWindow(int windowId) {
+      for (Iterator<AccessibilityNodeInfoCompat> iterator = keySet().iterator();
+          iterator.hasNext(); ) {
+        if (iterator.next().getWindowId() == windowId) {
+          iterator.remove();
+        }
+      }
+    }
+
+    synchronized String getStats() {
+      long lookups = hitCount + missCount;
+      return "{size="
+          + size()
+          + ", hits="
+          + hitCount
+          + ", misses="
+          + missCount
+          + ", hitRate="
+          + ((lookups == 0) ? 0 : (100 * hitCount / lookups))
+          + "%}";
+    }
+  }
+
+  public static synchronized FocusabilityCache getInstance() {
+    if (instance == null) {
+      instance = new FocusabilityCache();
+    }
+    return instance;
+  }
+
+  private FocusabilityCache() {}
+
+  /**
+   * Returns the map of speaking node verdicts to use as the speaking node cache of a traversal. It
+   * is shared while the cache is enabled, and a new map otherwise.
+   */
+  public Map<AccessibilityNodeInfoCompat, Boolean> getSpeakingNodesCache() {
+    return isEnabled() ? speakingVerdicts : new HashMap<>();
+  }
+
+  /**
+   * Returns whether the node should be focused, as found by {@link
+   * AccessibilityNodeInfoUtils#shouldFocusNode}, or null if it is unknown.
+   */
+  @Nullable
+  Boolean getFocusVerdict(AccessibilityNodeInfoCompat node, boolean checkChildren) {
+    if (!isEnabled()) {
+      return null;
+    }
+    return (checkChildren ? focusVerdicts : focusIgnoringChildrenVerdicts).get(node);
+  }
+
+  void putFocusVerdict(AccessibilityNodeInfoCompat node, boolean checkChildren, boolean verdict) {
+    if (!isEnabled()) {
+      return;
+    }
+    (checkChildren ? focusVerdicts : focusIgnoringChildrenVerdicts).put(node, verdict);
+  }
+
+  /** Discards the verdicts of a window, for example when its nodes changed without an event. */
+  public void invalidate(int windowId) {
+    speakingVerdicts.removeWindow(windowId);
+    focusVerdicts.removeWindow(windowId);
+    focusIgnoringChildrenVerdicts.removeWindow(windowId);
+  }
+
+  /** Discards all verdicts. */
+  @Override
+  public void invalidate() {
+    speakingVerdicts.clear();
+    focusVerdicts.clear();
+    focusIgnoringChildrenVerdicts.clear();
+  }
+
+  @Override
+  protected void onWindowContentChanged(AccessibilityEvent event) {
+    invalidate(event.getWindowId());
+  }
+
+  @Override
+  public String toString() {
+    return TAG
+        + "{speaking="
+        + speakingVerdicts.getStats()
+        + ", focus="
+        + focusVerdicts.getStats()
+        + ", focusIgnoringChildren="
+        + focusIgnoringChildrenVerdicts.getStats()
+        + "}";
+  }
+}
@@ -80,9 +80,7 @@ public class ImageContents {
 
     // Clears all cached ImageNodes when current speech locale has changed
     if (!locale.equals(currentSpeechLocale)) {
-      if (currentSpeechLocale != null) {
-        imageCaptionStorage.clearImageNodesCache();
-      }
+      imageCaptionStorage.setIconLabelLocale(locale);
       currentSpeechLocale = locale;
     }
 
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils;
+
+import android.view.accessibility.AccessibilityEvent;
+import com.google.android.accessibility.utils.Performance.EventId;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Base of the caches which keep data about the nodes of windows across navigation actions. The
+ * subclass holds the data, and this class decides when it is discarded: all of it when windows
+ * change, and the part about a window when the window's content changes or scrolls.
+ *
+ * <p>A cache must receive accessibility events before any listener that navigates in response to
+ * them, and is only enabled while it receives them, since its data is only discarded through them.
+ * Disabling the cache discards its data.
+ */
+public abstract class PerWindowCache implements AccessibilityEventListener {
+
+  private static final int MASK_EVENTS_WINDOW_CHANGED =
+      AccessibilityEvent.TYPE_WINDOWS_CHANGED | AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
+
+  private static final int MASK_EVENTS_CONTENT_CHANGED =
+      AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED | AccessibilityEvent.TYPE_VIEW_SCROLLED;
+
+  private volatile boolean enabled = false;
+
+  /** Enables the cache, or disables it and discards its data. */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) {
+      invalidate();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Discards all data of the cache. */
+  public abstract void invalidate();
+
+  /**
+   * Discards the data which the content change or scroll of the event's window may have made
+   * stale. Only called while the cache is enabled.
+   */
+  protected abstract void onWindowContentChanged(AccessibilityEvent event);
+
+  @Override
+  public int getEventTypes() {
+    return MASK_EVENTS_WINDOW_CHANGED | MASK_EVENTS_CONTENT_CHANGED;
+  }
+
+  @Override
+  public void onAccessibilityEvent(AccessibilityEvent event, EventId eventId) {
+    if (!enabled) {
+      return;
+    }
+    if ((event.getEventType() & MASK_EVENTS_WINDOW_CHANGED) != 0) {
+      invalidate();
+    } else {
+      onWindowContentChanged(event);
+    }
+  }
+
+  /** A map which keeps a bounded number of entries, discarding the least recently used first. */
+  protected static class LruMap<K, V> extends LinkedHashMap<K, V> {
+    private final int maxSize;
+
+    public LruMap(int maxSize) {
+      super(maxSize, 0.75f, /* accessOrder= */ true);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+      return size() > maxSize;
+    }
+  }
+}
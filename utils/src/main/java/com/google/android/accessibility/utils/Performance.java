@@ -28,10 +28,15 @@ import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 /**
  * Utility class for tracking performance statistic per various event types & processing stages.
@@ -107,23 +112,71 @@ public class Performance {
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Member data
 
-  protected boolean mEnabled = false;
+  protected boolean mEnabled = true;
 
   /** Recent events for which we are collecting stage latencies */
   protected static final int MAX_RECENT_EVENTS = 100;
 
-  protected LinkedList<EventId> mEventQueue = new LinkedList<EventId>();
-  protected HashMap<EventId, EventData> mEventIndex = new HashMap<EventId, EventData>();
-  private HashMap<String, EventId> mUtteranceToEvent = new HashMap<String, EventId>();
-  protected final Object mLockRecentEvents = new Object();
+  private static final int NUM_STAGES = STAGE_NAMES.length;
+  private static final long NO_EVENT = -1;
+  private static final long STAGE_NOT_REACHED = -1;
+
+  // Recent events are kept in a ring buffer of records, so that tracking an event takes no lock
+  // and allocates nothing beyond the EventId returned to the caller. The event with sequence
+  // number S is held by slot S % MAX_RECENT_EVENTS, while mSlotSequence holds S for that slot.
+  // Events are received on the main thread, but stages may be reached and events retired on the
+  // TTS thread, so every slot field is atomic. Before a slot's record is overwritten,
+  // mSlotRecordSequence is set to the new sequence, so that a thread which read the record can
+  // tell from a changed record sequence that it read a mix of two events.
+  private final AtomicLong mNextSequence = new AtomicLong(0);
+  private final AtomicLongArray mSlotSequence = new AtomicLongArray(MAX_RECENT_EVENTS);
+  private final AtomicLongArray mSlotRecordSequence = new AtomicLongArray(MAX_RECENT_EVENTS);
+  private final AtomicReferenceArray<EventId> mSlotEventId =
+      new AtomicReferenceArray<>(MAX_RECENT_EVENTS);
+  private final AtomicLongArray mSlotTimeReceived = new AtomicLongArray(MAX_RECENT_EVENTS);
+  private final AtomicReferenceArray<String> mSlotLabel =
+      new AtomicReferenceArray<>(MAX_RECENT_EVENTS);
+  // Time at which each slot's event reached each stage, indexed by slot * NUM_STAGES + stage.
+  private final AtomicLongArray mSlotStageTimes =
+      new AtomicLongArray(MAX_RECENT_EVENTS * NUM_STAGES);
+  private final AtomicReferenceArray<String> mSlotUtteranceId =
+      new AtomicReferenceArray<>(MAX_RECENT_EVENTS);
+
+  // Recent events are found by event id and by utterance id through open-addressing tables of
+  // sequence numbers, probed linearly from the key's hash. Entries are never emptied, only
+  // overwritten once their event is retired, so a probe stops at the first unused entry. Since an
+  // event's slot may be reused at any time, every entry found is checked against its slot.
+  private static final int INDEX_BITS = 9;
+  private static final int INDEX_SIZE = 1 << INDEX_BITS; // Keeps the tables under 1/4 full.
+  private static final int INDEX_MAX_PROBES = 8;
+  private final AtomicLongArray mEventIndex = new AtomicLongArray(INDEX_SIZE);
+  private final AtomicLongArray mUtteranceIndex = new AtomicLongArray(INDEX_SIZE);
 
   /** Latency statistics for various event/label types */
   protected HashMap<StatisticsKey, Statistics> mLabelToStats =
       new HashMap<StatisticsKey, Statistics>();
 
+  /** The same statistics as mLabelToStats, indexed by stage, for lookup without a lock. */
+  private final ConcurrentHashMap<String, Statistics[]> mLabelToStageStats =
+      new ConcurrentHashMap<>();
+
   protected final Object mLockLabelToStats = new Object();
   protected Statistics mAllEventStats = new Statistics();
 
+  /** Receives a trace of each event when tracking of the event finishes. */
+  private volatile @Nullable TraceListener mTraceListener;
+
+  /** Lookups of compositor variables, which are memoized while composing feedback for an event. */
+  protected final AtomicLong mVariableCacheHits = new AtomicLong(0);
+
+  protected final AtomicLong mVariableCacheMisses = new AtomicLong(0);
+
+  /** Events merged into a later queued event from the same source, before processing. */
+  protected final AtomicLong mQueuedEventsMerged = new AtomicLong(0);
+
+  /** Events dropped from the event queue because too many events of their type were queued. */
+  protected final AtomicLong mQueuedEventsDropped = new AtomicLong(0);
+
   private static Performance sInstance = new Performance();
 
   /////////////////////////////////////////////////////////////////////////////////////////////
@@ -133,7 +186,14 @@ public class Performance {
     return sInstance;
   }
 
-  protected Performance() {}
+  protected Performance() {
+    for (int slot = 0; slot < MAX_RECENT_EVENTS; ++slot) {
+      mSlotSequence.set(slot, NO_EVENT);
+      mSlotRecordSequence.set(slot, NO_EVENT);
+    }
+    clearIndex(mEventIndex);
+    clearIndex(mUtteranceIndex);
+  }
 
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Simple getters/setters
@@ -150,6 +210,27 @@ public class Performance {
     return mAllEventStats;
   }
 
+  /** Sets a listener to receive a trace of each tracked event, or null to stop tracing. */
+  public void setTraceListener(@Nullable TraceListener traceListener) {
+    mTraceListener = traceListener;
+  }
+
+  public long getVariableCacheHits() {
+    return mVariableCacheHits.get();
+  }
+
+  public long getVariableCacheMisses() {
+    return mVariableCacheMisses.get();
+  }
+
+  public long getQueuedEventsMerged() {
+    return mQueuedEventsMerged.get();
+  }
+
+  public long getQueuedEventsDropped() {
+    return mQueuedEventsDropped.get();
+  }
+
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Methods to track events
 
@@ -161,16 +242,16 @@ public class Performance {
    * @return An event id that can be used to track performance through later stages.
    */
   public EventId onEventReceived(@NonNull AccessibilityEvent event) {
-    @NonNull EventId eventId = toEventId(event);
+    EventId eventId =
+        new EventId(event.getEventTime(), EVENT_TYPE_ACCESSIBILITY, event.getEventType());
     if (!mEnabled) {
       return eventId;
     }
 
     // Segment events based on type.
     String label = AccessibilityEventUtils.typeToString(event.getEventType());
-    String[] labels = {label};
 
-    onEventReceived(eventId, labels);
+    onEventReceived(eventId, label);
     return eventId;
   }
 
@@ -180,11 +261,24 @@ public class Performance {
    * use this as little as possible, and instead pass the EventId from onEventReceived().
    *
    * @param event Event that has already been tracked by onEventReceived()
-   * @return EventId of event
+   * @return EventId of event, which is the one returned by onEventReceived() while the event is
+   *     tracked
    */
   @NonNull
   public EventId toEventId(@NonNull AccessibilityEvent event) {
-    return new EventId(event.getEventTime(), EVENT_TYPE_ACCESSIBILITY, event.getEventType());
+    long eventTimeMs = event.getEventTime();
+    int eventType = event.getEventType();
+    // Return the id of the tracked event, so that recreating the id does not allocate one.
+    if (mEnabled) {
+      long sequence = findRecentEvent(eventTimeMs, EVENT_TYPE_ACCESSIBILITY, eventType);
+      @Nullable EventId recentEventId =
+          (sequence == NO_EVENT) ? null : mSlotEventId.get(toSlot(sequence));
+      if (recentEventId != null
+          && recentEventId.matches(eventTimeMs, EVENT_TYPE_ACCESSIBILITY, eventType)) {
+        return recentEventId;
+      }
+    }
+    return new EventId(eventTimeMs, EVENT_TYPE_ACCESSIBILITY, eventType);
   }
 
   /**
@@ -211,9 +305,8 @@ public class Performance {
     } else if (KeyEvent.KEYCODE_VOLUME_UP <= keycode && keycode <= KeyEvent.KEYCODE_VOLUME_DOWN) {
       label = "KeyEvent-volume";
     }
-    String[] labels = {label};
 
-    onEventReceived(eventId, labels);
+    onEventReceived(eventId, label);
     return eventId;
   }
 
@@ -232,9 +325,8 @@ public class Performance {
 
     // Segment events based on gesture id.
     String label = AccessibilityServiceCompatUtils.gestureIdToString(gestureId);
-    String[] labels = {label};
 
-    onEventReceived(eventId, labels);
+    onEventReceived(eventId, label);
     return eventId;
   }
 
@@ -253,11 +345,10 @@ public class Performance {
     }
 
     // Segment events based on fingerprint gesture id.
-    String[] labels = {
-      AccessibilityServiceCompatUtils.fingerprintGestureIdToString(fingerprintGestureId)
-    };
+    String label =
+        AccessibilityServiceCompatUtils.fingerprintGestureIdToString(fingerprintGestureId);
 
-    onEventReceived(eventId, labels);
+    onEventReceived(eventId, label);
     return eventId;
   }
 
@@ -269,9 +360,8 @@ public class Performance {
 
     // Segment events based on key combo id.
     String label = Integer.toString(keyComboId);
-    String[] labels = {label};
 
-    onEventReceived(eventId, labels);
+    onEventReceived(eventId, label);
     return eventId;
   }
 
@@ -283,9 +373,8 @@ public class Performance {
 
     // Segment events based on key combo id.
     String label = Integer.toString(keyComboId);
-    String[] labels = {label};
 
-    onEventReceived(eventId, labels);
+    onEventReceived(eventId, label);
     return eventId;
   }
 
@@ -302,37 +391,42 @@ public class Performance {
     } else if (orientation == Configuration.ORIENTATION_LANDSCAPE) {
       label = "ORIENTATION_LANDSCAPE";
     }
-    String[] labels = {label};
 
-    onEventReceived(eventId, labels);
+    onEventReceived(eventId, label);
     return eventId;
   }
 
-  protected void onEventReceived(@NonNull EventId eventId, String[] labels) {
+  protected void onEventReceived(@NonNull EventId eventId, @NonNull String label) {
     if (!mEnabled) {
       return;
     }
 
-    // Create event data.
-    EventData eventData = new EventData(getTime(), labels, eventId);
-
-    // Collect event data.
-    addRecentEvent(eventId, eventData);
-    trimRecentEvents(MAX_RECENT_EVENTS);
+    // Collect event data, replacing the oldest recent event.
+    long now = getTime();
+    long sequence = mNextSequence.getAndIncrement();
+    int slot = toSlot(sequence);
+    long retiredSequence = mSlotSequence.getAndSet(slot, NO_EVENT);
+    if (retiredSequence != NO_EVENT) {
+      retireEvent(slot, retiredSequence);
+    }
+    mSlotRecordSequence.set(slot, sequence);
+    mSlotEventId.set(slot, eventId);
+    mSlotTimeReceived.set(slot, now);
+    mSlotLabel.set(slot, label);
+    for (int stage = 0; stage < NUM_STAGES; ++stage) {
+      mSlotStageTimes.set(slot * NUM_STAGES + stage, STAGE_NOT_REACHED);
+    }
+    mSlotUtteranceId.set(slot, null);
+    mSlotSequence.set(slot, sequence);
+    addToIndex(mEventIndex, eventId.hashCode(), sequence);
 
     @StageId int prevStage = STAGE_INLINE_HANDLING - 1;
     long prevStageLatency = getUptime() - eventId.getEventTimeMs(); // Event times are uptime.
     mAllEventStats.increment(prevStageLatency);
 
-    // For each event label... increment statistics.
-    if (eventData.labels != null) {
-      int numLabels = eventData.labels.length;
-      for (int labelIndex = 0; labelIndex < numLabels; ++labelIndex) {
-        String label = eventData.labels[labelIndex];
-        Statistics stats = getOrCreateStatistics(label, prevStage);
-        stats.increment(prevStageLatency);
-      }
-    }
+    // For the event label... increment statistics.
+    Statistics stats = getOrCreateStatistics(label, prevStage);
+    stats.increment(prevStageLatency);
   }
 
   /**
@@ -346,27 +440,14 @@ public class Performance {
     }
 
     // If recent event not found... then labels are not available to increment statistics.
-    EventData eventData = getRecentEvent(eventId);
-    if (eventData == null) {
+    long sequence =
+        findRecentEvent(
+            eventId.getEventTimeMs(), eventId.getEventType(), eventId.getEventSubtype());
+    if (sequence == NO_EVENT) {
       return;
     }
     // If time already collected for this event & stage... do not update.
-    if (eventData.timeInlineHandled != -1) {
-      return;
-    }
-
-    // Compute stage latency.
-    long now = getTime();
-    eventData.timeInlineHandled = now;
-    long stageLatency = now - eventData.timeReceivedAtTalkback;
-
-    // For each event label... increment stage latency statistics.
-    if (eventData.labels != null) {
-      for (String label : eventData.labels) {
-        Statistics stats = getOrCreateStatistics(label, STAGE_INLINE_HANDLING);
-        stats.increment(stageLatency);
-      }
-    }
+    onStageReached(sequence, STAGE_INLINE_HANDLING);
   }
 
   /**
@@ -381,28 +462,18 @@ public class Performance {
     }
 
     // If recent event not found... then labels are not available to increment statistics.
-    EventData eventData = getRecentEvent(eventId);
-    if (eventData == null) {
+    long sequence =
+        findRecentEvent(
+            eventId.getEventTimeMs(), eventId.getEventType(), eventId.getEventSubtype());
+    if (sequence == NO_EVENT) {
       return;
     }
     // If utterance already matched with this event... do not update.
-    if (eventData.getUtteranceId() != null) {
+    if (!mSlotUtteranceId.compareAndSet(toSlot(sequence), null, utteranceId)) {
       return;
     }
-
-    // Compute stage latency.
-    long now = getTime();
-    eventData.setFeedbackQueued(now, utteranceId);
-    indexRecentUtterance(utteranceId, eventId);
-    long stageLatency = now - eventData.timeReceivedAtTalkback;
-
-    // For each event label... increment stage latency statistics.
-    if (eventData.labels != null) {
-      for (String label : eventData.labels) {
-        Statistics stats = getOrCreateStatistics(label, STAGE_FEEDBACK_QUEUED);
-        stats.increment(stageLatency);
-      }
-    }
+    addToIndex(mUtteranceIndex, utteranceId.hashCode(), sequence);
+    onStageReached(sequence, STAGE_FEEDBACK_QUEUED);
   }
 
   /** Track event latency between receiving event, and hearing audio feedback. */
@@ -412,61 +483,79 @@ public class Performance {
     }
 
     // If recent event not found... then labels are not available to increment statistics.
-    EventId eventId = getRecentUtterance(utteranceId);
-    if (eventId == null) {
-      return;
-    }
-    EventData eventData = getRecentEvent(eventId);
-    if (eventData == null) {
+    long sequence = findRecentUtterance(utteranceId);
+    if (sequence == NO_EVENT) {
       return;
     }
 
-    // If speech is not already matched with this event...
-    if (eventData.getTimeFeedbackOutput() <= 0) {
-      // Compute stage latency.
-      long now = getTime();
-      eventData.setFeedbackOutput(now);
-      long stageLatency = now - eventData.timeReceivedAtTalkback;
+    // If speech is not already matched with this event... increment stage latency statistics.
+    onStageReached(sequence, STAGE_FEEDBACK_HEARD);
 
-      // For each event label... increment stage latency statistics.
-      if (eventData.labels != null) {
-        for (String label : eventData.labels) {
-          Statistics stats = getOrCreateStatistics(label, STAGE_FEEDBACK_HEARD);
-          stats.increment(stageLatency);
-        }
-      }
+    // Clear the recent event, since we have no more use for it after tracking all stages.
+    int slot = toSlot(sequence);
+    if (mSlotSequence.compareAndSet(slot, sequence, NO_EVENT)) {
+      retireEvent(slot, sequence);
     }
+  }
 
-    // Clear the recent event, since we have no more use for it after tracking all stages.
-    collectMissingLatencies(eventData);
-    removeRecentEvent(eventId);
-    removeRecentUtterance(utteranceId);
+  /**
+   * Records the time an event first reached a stage, and increments the stage latency statistics
+   * for each of the event's labels. Does nothing if the event already reached the stage.
+   */
+  private void onStageReached(long sequence, @StageId int stage) {
+    int slot = toSlot(sequence);
+    long now = getTime();
+    if (mSlotSequence.get(slot) != sequence
+        || !mSlotStageTimes.compareAndSet(slot * NUM_STAGES + stage, STAGE_NOT_REACHED, now)) {
+      return;
+    }
+    long stageLatency = now - mSlotTimeReceived.get(slot);
+    @Nullable String label = mSlotLabel.get(slot);
+    // If the slot was reused meanwhile... the data read above belongs to another event.
+    if (label == null || mSlotRecordSequence.get(slot) != sequence) {
+      return;
+    }
+    Statistics stats = getOrCreateStatistics(label, stage);
+    stats.increment(stageLatency);
   }
 
-  /** Pop recent events off the queue, and increment their statistics as "missing" */
-  protected void trimRecentEvents(int targetSize) {
-    while (getNumRecentEvents() > targetSize) {
-      EventData eventData = popOldestRecentEvent();
-      if (eventData != null) {
-        collectMissingLatencies(eventData);
+  /**
+   * Finishes tracking the event in the slot, which the caller has just removed from the recent
+   * events, and reports its trace to the trace listener. Does nothing if the slot is reused for
+   * another event while it is read.
+   */
+  private void retireEvent(int slot, long sequence) {
+    @Nullable String label = mSlotLabel.get(slot);
+    // Bit s is set if the event did not reach stage s.
+    int missingStages = 0;
+    for (int stage = STAGE_INLINE_HANDLING; stage < NUM_STAGES; ++stage) {
+      if (mSlotStageTimes.get(slot * NUM_STAGES + stage) == STAGE_NOT_REACHED) {
+        missingStages |= 1 << stage;
       }
     }
+    @Nullable TraceListener traceListener = mTraceListener;
+    @Nullable JSONObject trace = (traceListener == null) ? null : toTraceJson(slot);
+
+    // If the main thread started overwriting the slot meanwhile... the data read above may mix
+    // two events, so drop it.
+    if (mSlotRecordSequence.get(slot) != sequence) {
+      return;
+    }
+    collectMissingLatencies(label, missingStages);
+    if (traceListener != null && trace != null) {
+      traceListener.onEventTraced(trace.toString());
+    }
   }
 
-  /** Increment statistics for missing stages. */
-  private void collectMissingLatencies(@NonNull EventData eventData) {
-    // For each label x unreached stage... collect latency=missing.
-    if (eventData != null && eventData.labels != null) {
-      for (String label : eventData.labels) {
-        if (eventData.timeInlineHandled <= 0) {
-          incrementNumMissing(label, STAGE_INLINE_HANDLING);
-        }
-        if (eventData.getTimeFeedbackQueued() <= 0) {
-          incrementNumMissing(label, STAGE_FEEDBACK_QUEUED);
-        }
-        if (eventData.getTimeFeedbackOutput() <= 0) {
-          incrementNumMissing(label, STAGE_FEEDBACK_HEARD);
-        }
+  /** Increment statistics for stages that an event did not reach. */
+  private void collectMissingLatencies(@Nullable String label, int missingStages) {
+    if (label == null) {
+      return;
+    }
+    // For each unreached stage... collect latency=missing.
+    for (int stage = STAGE_INLINE_HANDLING; stage < NUM_STAGES; ++stage) {
+      if ((missingStages & (1 << stage)) != 0) {
+        incrementNumMissing(label, stage);
       }
     }
   }
@@ -490,69 +579,132 @@ public class Performance {
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Methods to access recent event collection
 
-  protected void addRecentEvent(@NonNull EventId eventId, @NonNull EventData eventData) {
-    synchronized (mLockRecentEvents) {
-      mEventQueue.add(eventId);
-      mEventIndex.put(eventId, eventData);
+  private static int toSlot(long sequence) {
+    return (int) (sequence % MAX_RECENT_EVENTS);
+  }
+
+  /** Returns the sequence number of a recent event, or NO_EVENT. Prefers the newest match. */
+  private long findRecentEvent(long eventTimeMs, @EventTypeId int eventType, int eventSubtype) {
+    int start = indexStart(EventId.hashCode(eventTimeMs, eventType, eventSubtype));
+    long found = NO_EVENT;
+    for (int probe = 0; probe < INDEX_MAX_PROBES; ++probe) {
+      long sequence = mEventIndex.get((start + probe) & (INDEX_SIZE - 1));
+      if (sequence == NO_EVENT) {
+        break;
+      }
+      if (sequence <= found || !isRecent(sequence)) {
+        continue;
+      }
+      @Nullable EventId recentEventId = mSlotEventId.get(toSlot(sequence));
+      if (recentEventId != null && recentEventId.matches(eventTimeMs, eventType, eventSubtype)) {
+        found = sequence;
+      }
     }
+    return found;
   }
 
-  private void indexRecentUtterance(@NonNull String utteranceId, @NonNull EventId eventId) {
-    synchronized (mLockRecentEvents) {
-      mUtteranceToEvent.put(utteranceId, eventId);
+  /** Returns the sequence number of the recent event that queued an utterance, or NO_EVENT. */
+  private long findRecentUtterance(@NonNull String utteranceId) {
+    int start = indexStart(utteranceId.hashCode());
+    long found = NO_EVENT;
+    for (int probe = 0; probe < INDEX_MAX_PROBES; ++probe) {
+      long sequence = mUtteranceIndex.get((start + probe) & (INDEX_SIZE - 1));
+      if (sequence == NO_EVENT) {
+        break;
+      }
+      if (sequence > found
+          && isRecent(sequence)
+          && utteranceId.equals(mSlotUtteranceId.get(toSlot(sequence)))) {
+        found = sequence;
+      }
     }
+    return found;
+  }
+
+  /** Returns whether the event with the given sequence number is still held by its slot. */
+  private boolean isRecent(long sequence) {
+    return mSlotSequence.get(toSlot(sequence)) == sequence;
   }
 
-  protected EventData getRecentEvent(@NonNull EventId eventId) {
-    synchronized (mLockRecentEvents) {
-      return mEventIndex.get(eventId);
+  private static int indexStart(int hash) {
+    // Fibonacci hashing spreads out the nearby hashes of similar keys, like "utterance_12".
+    return (hash * 0x9E3779B9) >>> (Integer.SIZE - INDEX_BITS);
+  }
+
+  /**
+   * Adds an event to an index, at the first probed entry that holds no recent event. If every
+   * probed entry holds a recent event, which is unlikely while the index is mostly empty, the
+   * oldest of them is replaced, and that event can no longer be found by the index's key.
+   */
+  private void addToIndex(AtomicLongArray index, int hash, long sequence) {
+    int start = indexStart(hash);
+    int oldestPosition = start;
+    long oldestSequence = Long.MAX_VALUE;
+    for (int probe = 0; probe < INDEX_MAX_PROBES; ++probe) {
+      int position = (start + probe) & (INDEX_SIZE - 1);
+      long indexed = index.get(position);
+      if (indexed == NO_EVENT || !isRecent(indexed)) {
+        // If another thread took the entry meanwhile... keep probing.
+        if (index.compareAndSet(position, indexed, sequence)) {
+          return;
+        }
+      } else if (indexed < oldestSequence) {
+        oldestPosition = position;
+        oldestSequence = indexed;
+      }
     }
+    index.set(oldestPosition, sequence);
   }
 
-  protected EventId getRecentUtterance(@NonNull String utteranceId) {
-    synchronized (mLockRecentEvents) {
-      return mUtteranceToEvent.get(utteranceId);
+  private static void clearIndex(AtomicLongArray index) {
+    for (int position = 0; position < INDEX_SIZE; ++position) {
+      index.set(position, NO_EVENT);
     }
   }
 
   protected int getNumRecentEvents() {
-    synchronized (mLockRecentEvents) {
-      return mEventQueue.size();
+    int count = 0;
+    for (int slot = 0; slot < MAX_RECENT_EVENTS; ++slot) {
+      if (mSlotSequence.get(slot) != NO_EVENT) {
+        ++count;
+      }
     }
+    return count;
   }
 
-  protected @Nullable EventData popOldestRecentEvent() {
-    synchronized (mLockRecentEvents) {
-      if (mEventQueue.size() == 0) {
-        return null;
-      }
-      EventId eventId = mEventQueue.remove();
-      EventData eventData = mEventIndex.remove(eventId);
-      String utteranceId = (eventData == null) ? null : eventData.getUtteranceId();
-      if (utteranceId != null) {
-        mUtteranceToEvent.remove(eventData.getUtteranceId());
-      }
-      return eventData;
+  public void clearRecentEvents() {
+    for (int slot = 0; slot < MAX_RECENT_EVENTS; ++slot) {
+      mSlotSequence.set(slot, NO_EVENT);
     }
+    clearIndex(mEventIndex);
+    clearIndex(mUtteranceIndex);
   }
 
-  protected void removeRecentEvent(@NonNull EventId eventId) {
-    synchronized (mLockRecentEvents) {
-      mEventIndex.remove(eventId);
-      mEventQueue.remove(eventId);
+  /** Counts a compositor variable lookup that was answered from the per-event memo. */
+  public void onVariableCacheHit() {
+    if (mEnabled) {
+      mVariableCacheHits.incrementAndGet();
     }
   }
 
-  public void clearRecentEvents() {
-    synchronized (mLockRecentEvents) {
-      mEventIndex.clear();
-      mEventQueue.clear();
+  /** Counts a compositor variable lookup that had to be computed. */
+  public void onVariableCacheMiss() {
+    if (mEnabled) {
+      mVariableCacheMisses.incrementAndGet();
+    }
+  }
+
+  /** Counts a queued event that was merged into a later event from the same source. */
+  public void onQueuedEventMerged() {
+    if (mEnabled) {
+      mQueuedEventsMerged.incrementAndGet();
     }
   }
 
-  protected void removeRecentUtterance(@NonNull String utteranceId) {
-    synchronized (mLockRecentEvents) {
-      mUtteranceToEvent.remove(utteranceId);
+  /** Counts a queued event that was dropped because too many events of its type were queued. */
+  public void onQueuedEventDropped() {
+    if (mEnabled) {
+      mQueuedEventsDropped.incrementAndGet();
     }
   }
 
@@ -567,31 +719,121 @@ public class Performance {
    * @return The statistics for requested label & stage, or null if no such label & stage found.
    */
   public Statistics getStatistics(@NonNull String label, @StageId int stage) {
-    synchronized (mLockLabelToStats) {
-      StatisticsKey statsKey = new StatisticsKey(label, stage);
-      return mLabelToStats.get(statsKey);
-    }
+    Statistics[] stageStats = mLabelToStageStats.get(label);
+    return (stageStats == null) ? null : stageStats[stage];
   }
 
   public void clearAllStats() {
     synchronized (mLockLabelToStats) {
       mLabelToStats.clear();
+      mLabelToStageStats.clear();
     }
     mAllEventStats.clear();
+    mVariableCacheHits.set(0);
+    mVariableCacheMisses.set(0);
+    mQueuedEventsMerged.set(0);
+    mQueuedEventsDropped.set(0);
   }
 
   protected Statistics getOrCreateStatistics(@NonNull String label, @StageId int stage) {
+    Statistics[] stageStats = mLabelToStageStats.get(label);
+    if (stageStats != null) {
+      return stageStats[stage];
+    }
+    // First event with this label... create statistics for all stages at once.
     synchronized (mLockLabelToStats) {
-      StatisticsKey statsKey = new StatisticsKey(label, stage);
-      Statistics stats = mLabelToStats.get(statsKey);
-      if (stats == null) {
-        stats = new Statistics();
-        mLabelToStats.put(statsKey, stats);
+      stageStats = mLabelToStageStats.get(label);
+      if (stageStats == null) {
+        stageStats = new Statistics[NUM_STAGES];
+        for (int stageIndex = 0; stageIndex < NUM_STAGES; ++stageIndex) {
+          stageStats[stageIndex] = new Statistics();
+          mLabelToStats.put(new StatisticsKey(label, stageIndex), stageStats[stageIndex]);
+        }
+        mLabelToStageStats.put(label, stageStats);
       }
-      return stats;
+      return stageStats[stage];
     }
   }
 
+  /////////////////////////////////////////////////////////////////////////////////////////////
+  // Methods to export results
+
+  /**
+   * Summarizes statistics for all events and for each label & stage, in a machine-readable form
+   * that can be compared across devices and builds.
+   */
+  public JSONObject toJson() {
+    JSONObject json = new JSONObject();
+    try {
+      json.put("enabled", mEnabled);
+      json.put("timeMs", System.currentTimeMillis());
+      json.put("allEvents", mAllEventStats.toJson());
+
+      StatisticsKey[] labelsSorted;
+      synchronized (mLockLabelToStats) {
+        labelsSorted = new StatisticsKey[mLabelToStats.size()];
+        labelsSorted = mLabelToStats.keySet().toArray(labelsSorted);
+      }
+      Arrays.sort(labelsSorted);
+      JSONArray labelStats = new JSONArray();
+      for (StatisticsKey labelAndStage : labelsSorted) {
+        Statistics stats = getStatistics(labelAndStage.getLabel(), labelAndStage.getStage());
+        if (stats == null || stats.isEmpty()) {
+          continue;
+        }
+        JSONObject statsJson = stats.toJson();
+        statsJson.put("label", labelAndStage.getLabel());
+        statsJson.put("stage", STAGE_NAMES[labelAndStage.getStage()]);
+        labelStats.put(statsJson);
+      }
+      json.put("labels", labelStats);
+
+      JSONObject variableCache = new JSONObject();
+      variableCache.put("hits", getVariableCacheHits());
+      variableCache.put("misses", getVariableCacheMisses());
+      json.put("variableCache", variableCache);
+
+      JSONObject eventQueue = new JSONObject();
+      eventQueue.put("merged", getQueuedEventsMerged());
+      eventQueue.put("dropped", getQueuedEventsDropped());
+      json.put("eventQueue", eventQueue);
+    } catch (JSONException e) {
+      LogUtils.e(TAG, "Failed to export statistics: %s", e);
+    }
+    return json;
+  }
+
+  /** Describes the event in the slot, with the time it reached each stage, or -1 if missing. */
+  private JSONObject toTraceJson(int slot) {
+    JSONObject json = new JSONObject();
+    try {
+      @Nullable EventId eventId = mSlotEventId.get(slot);
+      if (eventId != null) {
+        int eventType = eventId.getEventType();
+        json.put(
+            "type",
+            (0 <= eventType && eventType < EVENT_TYPE_NAMES.length)
+                ? EVENT_TYPE_NAMES[eventType]
+                : Integer.toString(eventType));
+        json.put("subtype", eventId.getEventSubtype());
+        json.put("eventTimeMs", eventId.getEventTimeMs());
+      }
+      @Nullable String label = mSlotLabel.get(slot);
+      if (label != null) {
+        json.put("labels", new JSONArray().put(label));
+      }
+      json.put("timeReceived", mSlotTimeReceived.get(slot));
+      int stageTimes = slot * NUM_STAGES;
+      json.put("timeInlineHandled", mSlotStageTimes.get(stageTimes + STAGE_INLINE_HANDLING));
+      json.put("timeFeedbackQueued", mSlotStageTimes.get(stageTimes + STAGE_FEEDBACK_QUEUED));
+      json.put("timeFeedbackHeard", mSlotStageTimes.get(stageTimes + STAGE_FEEDBACK_HEARD));
+      json.put("utteranceId", mSlotUtteranceId.get(slot));
+    } catch (JSONException e) {
+      LogUtils.e(TAG, "Failed to export event trace: %s", e);
+    }
+    return json;
+  }
+
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Methods to display results
 
@@ -608,10 +850,15 @@ public class Performance {
     ArrayList<BarInfo> barsMean = new ArrayList<BarInfo>(labelsSorted.length);
     ArrayList<BarInfo> barsMedian = new ArrayList<BarInfo>(labelsSorted.length);
     ArrayList<BarInfo> barsStdDev = new ArrayList<BarInfo>(labelsSorted.length);
+    ArrayList<BarInfo> barsP90 = new ArrayList<BarInfo>(labelsSorted.length);
+    ArrayList<BarInfo> barsP99 = new ArrayList<BarInfo>(labelsSorted.length);
 
     // For each label... collect summary statistics.
     for (StatisticsKey label : labelsSorted) {
       Statistics stats = mLabelToStats.get(label);
+      if (stats.isEmpty()) {
+        continue;
+      }
       barsMissing.add(new BarInfo(label.toString(), stats.getNumMissing()));
       barsCount.add(new BarInfo(label.toString(), stats.getCount()));
       barsMean.add(new BarInfo(label.toString(), stats.getMean()));
@@ -619,6 +866,8 @@ public class Performance {
           new BarInfo(
               label.toString(), stats.getMedianBinStart(), (2 * stats.getMedianBinStart())));
       barsStdDev.add(new BarInfo(label.toString(), (float) stats.getStdDev()));
+      barsP90.add(new BarInfo(label.toString(), stats.getPercentile(90)));
+      barsP99.add(new BarInfo(label.toString(), stats.getPercentile(99)));
     }
 
     // For each summary statistic... display comparison bar graph.
@@ -627,6 +876,8 @@ public class Performance {
     displayBarGraph("  ", "mean", barsMean, "ms");
     displayBarGraph("  ", "median", barsMedian, "ms");
     displayBarGraph("  ", "stddev", barsStdDev, "ms");
+    displayBarGraph("  ", "p90", barsP90, "ms");
+    displayBarGraph("  ", "p99", barsP99, "ms");
   }
 
   /** Display latency statistics for each label. */
@@ -639,6 +890,9 @@ public class Performance {
     Arrays.sort(labelsSorted);
     for (StatisticsKey labelAndStage : labelsSorted) {
       Statistics stats = mLabelToStats.get(labelAndStage);
+      if (stats.isEmpty()) {
+        continue;
+      }
       display("  %s", labelAndStage);
       displayStatistics(stats);
     }
@@ -649,23 +903,43 @@ public class Performance {
     displayStatistics(mAllEventStats);
   }
 
+  public void displayVariableCacheStats() {
+    long hits = mVariableCacheHits.get();
+    long misses = mVariableCacheMisses.get();
+    long lookups = hits + misses;
+    display(
+        "displayVariableCacheStats() hits=%s misses=%s hitRate=%s%%",
+        hits, misses, (lookups == 0) ? 0 : (100 * hits / lookups));
+  }
+
+  public void displayEventQueueStats() {
+    display(
+        "displayEventQueueStats() merged=%s dropped=%s",
+        mQueuedEventsMerged.get(), mQueuedEventsDropped.get());
+  }
+
   public static void displayStatistics(Statistics stats) {
     // Display summary statistics.
     display(
-        "    missing=%s count=%s  mean=%sms  stdDev=%sms  median=%sms",
+        "    missing=%s count=%s  mean=%sms  stdDev=%sms  median=%sms"
+            + "  p50=%sms  p90=%sms  p99=%sms",
         stats.getNumMissing(),
         stats.getCount(),
         stats.getMean(),
         stats.getStdDev(),
-        stats.getMedianBinStart());
+        stats.getMedianBinStart(),
+        stats.getPercentile(50),
+        stats.getPercentile(90),
+        stats.getPercentile(99));
 
     // Display latency distribution.
-    ArrayList<BarInfo> bars = new ArrayList<BarInfo>(stats.mHistogram.size());
-    for (int bin = 0; bin < stats.mHistogram.size(); ++bin) {
+    int histogramSize = stats.getHistogramSize();
+    ArrayList<BarInfo> bars = new ArrayList<BarInfo>(histogramSize);
+    for (int bin = 0; bin < histogramSize; ++bin) {
       long binStart = stats.histogramBinToStartValue(bin);
       bars.add(
           new BarInfo(
-              "" + binStart + "-" + (2 * binStart) + "ms", stats.mHistogram.get(bin).longValue()));
+              "" + binStart + "-" + (2 * binStart) + "ms", stats.getHistogramBinCount(bin)));
     }
     displayBarGraph("      ", "distribution=", bars, "count");
   }
@@ -714,13 +988,24 @@ public class Performance {
   }
 
   public void displayRecentEvents() {
-    display("perf.mEventQueue=");
-    for (EventId i : mEventQueue) {
-      display("\t" + i);
-    }
-    display("perf.mEventIndex=");
-    for (EventId i : mEventIndex.keySet()) {
-      display("\t" + i + ":" + mEventIndex.get(i));
+    display("perf.recentEvents=");
+    long newest = mNextSequence.get() - 1;
+    long oldest = Math.max(0, newest - MAX_RECENT_EVENTS + 1);
+    for (long sequence = oldest; sequence <= newest; ++sequence) {
+      int slot = toSlot(sequence);
+      if (mSlotSequence.get(slot) != sequence) {
+        continue;
+      }
+      display(
+          "\t%s: labels=%s timeReceivedAtTalkback=%s timeInlineHandled=%s"
+              + " timeFeedbackQueued=%s timeFeedbackOutput=%s utteranceId=%s",
+          mSlotEventId.get(slot),
+          (mSlotLabel.get(slot) == null) ? "" : mSlotLabel.get(slot),
+          mSlotTimeReceived.get(slot),
+          mSlotStageTimes.get(slot * NUM_STAGES + STAGE_INLINE_HANDLING),
+          mSlotStageTimes.get(slot * NUM_STAGES + STAGE_FEEDBACK_QUEUED),
+          mSlotStageTimes.get(slot * NUM_STAGES + STAGE_FEEDBACK_HEARD),
+          mSlotUtteranceId.get(slot));
     }
   }
 
@@ -739,7 +1024,7 @@ public class Performance {
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Inner classes for recent events
 
-  /** Key for looking up EventData in HashMap. */
+  /** Key for looking up Statistics in HashMap. */
   public static class EventId {
     private final long mEventTimeMs;
     @EventTypeId private final int mEventType;
@@ -789,7 +1074,22 @@ public class Performance {
 
     @Override
     public int hashCode() {
-      return Objects.hash(mEventTimeMs, mEventType, mEventSubtype);
+      return hashCode(mEventTimeMs, mEventType, mEventSubtype);
+    }
+
+    /** Returns the hash code of an id with the given fields, without allocating the id. */
+    static int hashCode(long eventTimeMs, @EventTypeId int eventType, int eventSubtype) {
+      // Like Objects.hash(), without boxing the fields into an array.
+      int hash = 31 + (int) (eventTimeMs ^ (eventTimeMs >>> 32));
+      hash = 31 * hash + eventType;
+      return 31 * hash + eventSubtype;
+    }
+
+    /** Returns whether the id has the given fields, without allocating an id to compare. */
+    boolean matches(long eventTimeMs, @EventTypeId int eventType, int eventSubtype) {
+      return mEventTimeMs == eventTimeMs
+          && mEventType == eventType
+          && mEventSubtype == eventSubtype;
     }
 
     @Override
@@ -821,67 +1121,6 @@ public class Performance {
     }
   }
 
-  /** Tracking the stage start times for an event. */
-  protected static class EventData {
-
-    // Members set when event is received at TalkBack.
-    public final String[] labels;
-    public final EventId eventId; // This EventData's key in mEventIndex.
-    public final long timeReceivedAtTalkback;
-
-    public long timeInlineHandled = -1;
-
-    // Members set when feedback is queued.
-    private long mTimeFeedbackQueued = -1;
-    private String mUtteranceId; // Updates may come from TalkBack or TextToSpeech threads.
-
-    private long mTimeFeedbackOutput = -1;
-
-    public EventData(long timeReceivedAtTalkbackArg, String[] labelsArg, EventId eventIdArg) {
-      labels = labelsArg;
-      eventId = eventIdArg;
-      timeReceivedAtTalkback = timeReceivedAtTalkbackArg;
-    }
-
-    // Synchronized because this method may be called from a separate audio handling thread.
-    public synchronized void setFeedbackQueued(long timeFeedbackQueued, String utteranceId) {
-      mTimeFeedbackQueued = timeFeedbackQueued;
-      mUtteranceId = utteranceId;
-    }
-
-    // Synchronized because this method may be called from a separate audio handling thread.
-    public synchronized void setFeedbackOutput(long timeFeedbackOutput) {
-      mTimeFeedbackOutput = timeFeedbackOutput;
-    }
-
-    public synchronized long getTimeFeedbackQueued() {
-      return mTimeFeedbackQueued;
-    }
-
-    public synchronized String getUtteranceId() {
-      return mUtteranceId;
-    }
-
-    public synchronized long getTimeFeedbackOutput() {
-      return mTimeFeedbackOutput;
-    }
-
-    @Override
-    public String toString() {
-      return " labels="
-          + TextUtils.join(",", labels)
-          + " timeReceivedAtTalkback="
-          + timeReceivedAtTalkback
-          + " mTimeFeedbackQueued="
-          + mTimeFeedbackQueued
-          + " mTimeFeedbackOutput="
-          + mTimeFeedbackOutput
-          + " timeInlineHandled="
-          + timeInlineHandled
-          + String.format(" mUtteranceId=%s", mUtteranceId);
-    }
-  }
-
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Inner classes for latency statistics
 
@@ -946,61 +1185,64 @@ public class Performance {
     }
   }
 
-  /** General-purpose summary & distribution statistics for a group of values. */
+  /**
+   * General-purpose summary & distribution statistics for a group of values. Values are counted in
+   * atomics and a fixed log2 histogram, so that increment() never locks or allocates.
+   */
   public static class Statistics {
-    protected long mNumMissing;
-    protected long mCount;
-    protected long mSum;
-    protected long mSumSquares;
+    /** Bins for values <= 0 and for each power of 2 up to 2^62. */
+    private static final int NUM_HISTOGRAM_BINS = 64;
+
+    protected final AtomicLong mNumMissing = new AtomicLong(0);
+    protected final AtomicLong mCount = new AtomicLong(0);
+    protected final AtomicLong mSum = new AtomicLong(0);
+    protected final AtomicLong mSumSquares = new AtomicLong(0);
 
     /** Bin start value = 2^(index-1) , except index=0 holds bin start value=0. */
-    protected ArrayList<AtomicLong> mHistogram = new ArrayList<AtomicLong>();
+    protected final AtomicLongArray mHistogram = new AtomicLongArray(NUM_HISTOGRAM_BINS);
 
-    public Statistics() {
-      clear();
-    }
+    public Statistics() {}
 
-    public synchronized void clear() {
-      mNumMissing = 0;
-      mCount = 0;
-      mSum = 0;
-      mSumSquares = 0;
-      mHistogram.clear();
+    public void clear() {
+      mNumMissing.set(0);
+      mCount.set(0);
+      mSum.set(0);
+      mSumSquares.set(0);
+      for (int bin = 0; bin < NUM_HISTOGRAM_BINS; ++bin) {
+        mHistogram.set(bin, 0);
+      }
     }
 
-    public synchronized void incrementNumMissing() {
-      ++mNumMissing;
+    public void incrementNumMissing() {
+      mNumMissing.incrementAndGet();
     }
 
-    public synchronized void increment(long value) {
+    public void increment(long value) {
       // Increment summary statistics.
-      ++mCount;
-      mSum += value;
-      mSumSquares += value * value;
-
-      // Ensure histogram is big enough to hold this value.
-      int binIndex = valueToHistogramBin(value);
-      if (mHistogram.size() < binIndex + 1) {
-        mHistogram.ensureCapacity(binIndex + 1);
-        while (mHistogram.size() <= binIndex) {
-          mHistogram.add(new AtomicLong(0));
-        }
-      }
+      mCount.incrementAndGet();
+      mSum.addAndGet(value);
+      mSumSquares.addAndGet(value * value);
+
       // Increment histogram count.
-      AtomicLong binCount = mHistogram.get(binIndex);
-      binCount.set(binCount.longValue() + 1);
+      mHistogram.incrementAndGet(valueToHistogramBin(value));
     }
 
     public long getNumMissing() {
-      return mNumMissing;
+      return mNumMissing.get();
     }
 
     public long getCount() {
-      return mCount;
+      return mCount.get();
+    }
+
+    /** Returns whether no values and no missing values were counted. */
+    public boolean isEmpty() {
+      return (mCount.get() == 0) && (mNumMissing.get() == 0);
     }
 
     public long getMean() {
-      return (mCount <= 0) ? 0 : (mSum / mCount);
+      long count = mCount.get();
+      return (count <= 0) ? 0 : (mSum.get() / count);
     }
 
     /**
@@ -1010,34 +1252,103 @@ public class Performance {
      * @return Standard deviation of {@code increment(value)}
      */
     public double getStdDev() {
-      if (mCount <= 0) {
+      long count = mCount.get();
+      if (count <= 0) {
         return 0;
       }
-      double mean = (double) mSum / (double) mCount;
-      double meanOfSquares = (double) mSumSquares / (double) mCount;
+      double mean = (double) mSum.get() / (double) count;
+      double meanOfSquares = (double) mSumSquares.get() / (double) count;
       double variance = meanOfSquares - (mean * mean);
       return Math.sqrt(variance);
     }
 
+    /** Returns the number of histogram bins, up to and including the last non-empty bin. */
+    public int getHistogramSize() {
+      for (int bin = NUM_HISTOGRAM_BINS - 1; bin >= 0; --bin) {
+        if (mHistogram.get(bin) > 0) {
+          return bin + 1;
+        }
+      }
+      return 0;
+    }
+
+    public long getHistogramBinCount(int index) {
+      return mHistogram.get(index);
+    }
+
     public long getMedianBinStart() {
-      if (mCount <= 0) {
+      long count = mCount.get();
+      if (count <= 0) {
         return 0;
       }
       // For each histogram bin, in order...
-      long medianCount = mCount / 2;
+      long medianCount = count / 2;
       long sumBins = 0;
-      for (int binIndex = 0; binIndex < mHistogram.size(); ++binIndex) {
+      for (int binIndex = 0; binIndex < NUM_HISTOGRAM_BINS; ++binIndex) {
         // If bin contains mCount/2... return bin start.
-        sumBins += mHistogram.get(binIndex).longValue();
+        sumBins += mHistogram.get(binIndex);
         if (sumBins >= medianCount) {
           return histogramBinToStartValue(binIndex);
         }
       }
-      return histogramBinToStartValue(mHistogram.size());
+      return histogramBinToStartValue(NUM_HISTOGRAM_BINS);
+    }
+
+    /**
+     * Estimates a percentile of the values, by finding the histogram bin that holds it, and
+     * interpolating linearly within the bin.
+     *
+     * @param percent The percentile, from 0 to 100
+     * @return The estimated value, or 0 if no values were counted
+     */
+    public long getPercentile(int percent) {
+      long count = 0;
+      long[] bins = new long[NUM_HISTOGRAM_BINS];
+      for (int bin = 0; bin < NUM_HISTOGRAM_BINS; ++bin) {
+        bins[bin] = mHistogram.get(bin);
+        count += bins[bin];
+      }
+      if (count <= 0) {
+        return 0;
+      }
+      // Rank of the value at the percentile, from 1 to count.
+      long rank = Math.max(1, (count * percent + 99) / 100);
+      long sumBins = 0;
+      for (int bin = 0; bin < NUM_HISTOGRAM_BINS; ++bin) {
+        if (sumBins + bins[bin] >= rank) {
+          if (bin == 0) {
+            return 0;
+          }
+          long binStart = histogramBinToStartValue(bin);
+          double fraction = (rank - sumBins - 0.5) / bins[bin];
+          return binStart + (long) (binStart * fraction);
+        }
+        sumBins += bins[bin];
+      }
+      return histogramBinToStartValue(NUM_HISTOGRAM_BINS - 1);
+    }
+
+    /** Summarizes the statistics, with the count of values in each histogram bin. */
+    public JSONObject toJson() throws JSONException {
+      JSONObject json = new JSONObject();
+      json.put("count", getCount());
+      json.put("missing", getNumMissing());
+      json.put("meanMs", getMean());
+      json.put("stdDevMs", getStdDev());
+      json.put("p50Ms", getPercentile(50));
+      json.put("p90Ms", getPercentile(90));
+      json.put("p99Ms", getPercentile(99));
+      JSONArray histogram = new JSONArray();
+      int histogramSize = getHistogramSize();
+      for (int bin = 0; bin < histogramSize; ++bin) {
+        histogram.put(getHistogramBinCount(bin));
+      }
+      json.put("histogram", histogram);
+      return json;
     }
 
     public int valueToHistogramBin(long value) {
-      return valueToPower(value) + 1;
+      return Math.min(valueToPower(value) + 1, NUM_HISTOGRAM_BINS - 1);
     }
 
     public long histogramBinToStartValue(int index) {
@@ -1046,24 +1357,29 @@ public class Performance {
 
     /**
      * Converts a positive value to the exponent of preceding 2^P. Returns the largest integer
-     * exponent "P" such that 2^P < value. Returns -1 for value <= 0.
+     * exponent "P" such that 2^P <= value. Returns -1 for value <= 0.
      */
     public static int valueToPower(long value) {
       if (value < 1) {
         return -1;
       }
-      // For each power that leaves a remainder... increment power.
-      long power = -1;
-      for (long remainder = value; remainder > 0; remainder >>= 1) {
-        ++power;
-      }
-      return (int) power;
+      return 63 - Long.numberOfLeadingZeros(value);
     }
   }
 
   /////////////////////////////////////////////////////////////////////////////////////////////
   // Inner classes
 
+  /** Receives a trace of each event. Called on whichever thread finishes tracking the event. */
+  public interface TraceListener {
+    /**
+     * Called when tracking of an event finishes.
+     *
+     * @param traceJson A single-line JSON description of the event and its stage times
+     */
+    void onEventTraced(String traceJson);
+  }
+
   /** Holds data for one bar in a bar graph. */
   protected static class BarInfo {
     public String label = "";
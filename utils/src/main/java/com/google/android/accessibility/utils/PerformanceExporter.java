@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import androidx.annotation.NonNull;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.json.JSONException;
+
+/**
+ * Writes {@link Performance} statistics to a JSON file, and event traces to rotating JSON-lines
+ * files, so that latency can be compared across devices and builds without scraping logs. All file
+ * access happens on a single background thread.
+ *
+ * <p>Files are written to the given directory, for example {@code
+ * /sdcard/Android/data/<package>/files/performance/}, where they can be pulled with adb.
+ */
+public class PerformanceExporter implements Performance.TraceListener {
+
+  private static final String TAG = "PerformanceExporter";
+
+  public static final String STATS_FILE_NAME = "performance_stats.json";
+  public static final String TRACE_FILE_NAME = "performance_trace.jsonl";
+
+  /** Number of trace files kept, including the one being written. */
+  private static final int MAX_TRACE_FILES = 3;
+
+  private static final long MAX_TRACE_FILE_BYTES = 1024 * 1024;
+
+  private final File mDirectory;
+  private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+  // Accessed only on the executor thread.
+  private @Nullable Writer mTraceWriter;
+  private long mTraceFileBytes;
+
+  public PerformanceExporter(@NonNull File directory) {
+    mDirectory = directory;
+  }
+
+  /** Returns the file that {@link #exportStats(Performance)} writes. */
+  public File getStatsFile() {
+    return new File(mDirectory, STATS_FILE_NAME);
+  }
+
+  /**
+   * Writes a JSON summary of the statistics collected so far. The summary is taken immediately,
+   * and written in the background.
+   */
+  public void exportStats(@NonNull Performance performance) {
+    final String statsJson;
+    try {
+      statsJson = performance.toJson().toString(/* indentSpaces= */ 2);
+    } catch (JSONException e) {
+      LogUtils.e(TAG, "Failed to format statistics: %s", e);
+      return;
+    }
+    execute(() -> writeStatsFile(statsJson));
+  }
+
+  @Override
+  public void onEventTraced(String traceJson) {
+    execute(() -> appendTrace(traceJson));
+  }
+
+  /** Closes the trace file after pending writes, and stops the background thread. */
+  public void shutdown() {
+    execute(this::closeTraceFile);
+    mExecutor.shutdown();
+  }
+
+  private void execute(Runnable task) {
+    try {
+      mExecutor.execute(task);
+    } catch (RejectedExecutionException e) {
+      LogUtils.w(TAG, "Dropped performance export after shutdown");
+    }
+  }
+
+  private void writeStatsFile(String statsJson) {
+    if (!ensureDirectory()) {
+      return;
+    }
+    File file = getStatsFile();
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+      writer.write(statsJson);
+      LogUtils.i(TAG, "Exported performance statistics to %s", file);
+    } catch (IOException e) {
+      LogUtils.e(TAG, "Failed to write %s: %s", file, e);
+    }
+  }
+
+  private void appendTrace(String traceJson) {
+    try {
+      if (mTraceWriter == null || mTraceFileBytes >= MAX_TRACE_FILE_BYTES) {
+        openTraceFile();
+        if (mTraceWriter == null) {
+          return;
+        }
+      }
+      mTraceWriter.write(traceJson);
+      mTraceWriter.write('\n');
+      // Flush each line, so the file is complete whenever it is pulled.
+      mTraceWriter.flush();
+      mTraceFileBytes += getUtf8Length(traceJson) + 1;
+    } catch (IOException e) {
+      LogUtils.e(TAG, "Failed to write trace: %s", e);
+      closeTraceFile();
+    }
+  }
+
+  /**
+   * Returns the number of bytes the writer encodes the text into, without encoding it. A surrogate
+   * pair takes four bytes, and a lone surrogate is replaced by a single byte.
+   */
+  private static int getUtf8Length(String text) {
+    int length = 0;
+    for (int i = 0; i < text.length(); ++i) {
+      char c = text.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c)
+          && (i + 1 < text.length())
+          && Character.isLowSurrogate(text.charAt(i + 1))) {
+        length += 4;
+        ++i;
+      } else if (Character.isSurrogate(c)) {
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /** Opens the trace file, first rotating older files if the current file is full. */
+  private void openTraceFile() {
+    closeTraceFile();
+    if (!ensureDirectory()) {
+      return;
+    }
+
+    File traceFile = new File(mDirectory, TRACE_FILE_NAME);
+    if (traceFile.length() >= MAX_TRACE_FILE_BYTES) {
+      // Shift performance_trace.jsonl.1 to .2 and so on, dropping the oldest file.
+      for (int index = MAX_TRACE_FILES - 1; index > 0; --index) {
+        File older = getRotatedTraceFile(index);
+        File newer = (index == 1) ? traceFile : getRotatedTraceFile(index - 1);
+        if (!newer.exists()) {
+          continue;
+        }
+        older.delete();
+        if (!newer.renameTo(older)) {
+          LogUtils.w(TAG, "Failed to rotate %s", newer);
+        }
+      }
+    }
+
+    try {
+      mTraceWriter =
+          new OutputStreamWriter(new FileOutputStream(traceFile, /* append= */ true), UTF_8);
+      mTraceFileBytes = traceFile.length();
+    } catch (IOException e) {
+      LogUtils.e(TAG, "Failed to open %s: %s", traceFile, e);
+      mTraceWriter = null;
+    }
+  }
+
+  private void closeTraceFile() {
+    if (mTraceWriter == null) {
+      return;
+    }
+    try {
+      mTraceWriter.close();
+    } catch (IOException e) {
+      LogUtils.e(TAG, "Failed to close trace: %s", e);
+    }
+    mTraceWriter = null;
+  }
+
+  private File getRotatedTraceFile(int index) {
+    return new File(mDirectory, TRACE_FILE_NAME + "." + index);
+  }
+
+  private boolean ensureDirectory() {
+    if (mDirectory.isDirectory() || mDirectory.mkdirs()) {
+      return true;
+    }
+    LogUtils.e(TAG, "Failed to create %s", mDirectory);
+    return false;
+  }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils;
+
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * An in-process copy of the child links of a node tree, captured once with a single breadth-first
+ * walk, so that traversal can walk the tree repeatedly without fetching children again. The
+ * captured nodes keep their own state, like bounds, flags and text, so reading it does not fetch
+ * anything either.
+ *
+ * <p>Breadth-first order keeps the children of each node next to each other, so a node's children
+ * are the range {@code [firstChild, firstChild + childCount)}. Children are not captured below web
+ * content, which is navigated by the browser, nor beyond {@link #MAX_NODES}. For those nodes,
+ * {@link #getChildren(AccessibilityNodeInfoCompat)} returns null, and callers fall back to live
+ * nodes.
+ *
+ * <p>When part of the window changes, {@link #invalidateSubtree(AccessibilityNodeInfoCompat)}
+ * drops the captured children around the changed node, and the next capture takes the rest from
+ * this snapshot, so only that part is fetched again. The snapshot is not thread-safe, {@link
+ * WindowSnapshotCache} guards it.
+ */
+public final class WindowSnapshot {
+
+  /** Most nodes captured, to bound the time of a capture on very large windows. */
+  public static final int MAX_NODES = 3000;
+
+  private static final int NO_CHILDREN_CAPTURED = -1;
+
+  private final AccessibilityNodeInfoCompat[] nodes;
+  private final Map<AccessibilityNodeInfoCompat, Integer> indexes;
+  private final int[] parentIndexes;
+  private final int[] firstChildIndexes;
+  private final int[] childCounts;
+  private boolean stale = false;
+
+  private WindowSnapshot(
+      List<AccessibilityNodeInfoCompat> nodeList,
+      Map<AccessibilityNodeInfoCompat, Integer> indexes,
+      int[] parents,
+      int[] firsts,
+      int[] counts) {
+    nodes = nodeList.toArray(new AccessibilityNodeInfoCompat[nodeList.size()]);
+    this.indexes = indexes;
+    parentIndexes = parents;
+    firstChildIndexes = firsts;
+    childCounts = counts;
+  }
+
+  /**
+   * Captures the tree under the root, breadth-first. Each node is fetched once.
+   *
+   * @return the snapshot, or null if the root is null
+   */
+  public static @Nullable WindowSnapshot capture(@Nullable AccessibilityNodeInfoCompat root) {
+    return capture(root, /* previous= */ null);
+  }
+
+  /**
+   * Captures the tree under the root, breadth-first, taking the children that are still captured
+   * in the previous snapshot from it, so that only the parts dropped by {@link
+   * #invalidateSubtree(AccessibilityNodeInfoCompat)} are fetched again.
+   *
+   * @return the snapshot, or null if the root is null
+   */
+  public static @Nullable WindowSnapshot capture(
+      @Nullable AccessibilityNodeInfoCompat root, @Nullable WindowSnapshot previous) {
+    if (root == null) {
+      return null;
+    }
+
+    List<AccessibilityNodeInfoCompat> nodeList = new ArrayList<>();
+    List<Integer> parents = new ArrayList<>();
+    List<Integer> firsts = new ArrayList<>();
+    List<Integer> counts = new ArrayList<>();
+    Map<AccessibilityNodeInfoCompat, Integer> visited = new HashMap<>();
+    // Like the children, the root is shared and never recycled.
+    nodeList.add(root);
+    parents.add(-1);
+    visited.put(root, 0);
+
+    for (int i = 0; i < nodeList.size(); i++) {
+      AccessibilityNodeInfoCompat node = nodeList.get(i);
+      @Nullable List<AccessibilityNodeInfoCompat> children =
+          (previous == null) ? null : previous.getChildren(node);
+      if (children == null) {
+        children = fetchChildren(node, nodeList.size(), visited);
+      }
+      if (children == null) {
+        firsts.add(NO_CHILDREN_CAPTURED);
+        counts.add(0);
+        continue;
+      }
+      firsts.add(nodeList.size());
+      counts.add(children.size());
+      for (AccessibilityNodeInfoCompat child : children) {
+        visited.put(child, nodeList.size());
+        nodeList.add(child);
+        parents.add(i);
+      }
+    }
+
+    return new WindowSnapshot(
+        nodeList, visited, toArray(parents), toArray(firsts), toArray(counts));
+  }
+
+  /**
+   * Fetches the children of the node from the live node, or returns null if they should not be
+   * captured.
+   */
+  private static @Nullable List<AccessibilityNodeInfoCompat> fetchChildren(
+      AccessibilityNodeInfoCompat node,
+      int capturedCount,
+      Map<AccessibilityNodeInfoCompat, Integer> visited) {
+    int childCount = node.getChildCount();
+    if (WebInterfaceUtils.supportsWebActions(node) || (capturedCount + childCount > MAX_NODES)) {
+      return null;
+    }
+    List<AccessibilityNodeInfoCompat> children = new ArrayList<>(childCount);
+    for (int c = 0; c < childCount; c++) {
+      AccessibilityNodeInfoCompat child = node.getChild(c);
+      if (child == null || visited.containsKey(child)) {
+        // A missing child or a loop cannot be represented by a contiguous range.
+        return null;
+      }
+      children.add(child);
+    }
+    return children;
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    int[] array = new int[values.size()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = values.get(i);
+    }
+    return array;
+  }
+
+  /** Returns the number of captured nodes. */
+  public int size() {
+    return nodes.length;
+  }
+
+  /**
+   * Returns whether {@link #invalidateSubtree(AccessibilityNodeInfoCompat)} dropped part of the
+   * snapshot, which should then be captured again.
+   */
+  public boolean isStale() {
+    return stale;
+  }
+
+  /** Returns whether the node was captured. */
+  public boolean contains(@Nullable AccessibilityNodeInfoCompat node) {
+    return (node != null) && indexes.containsKey(node);
+  }
+
+  /**
+   * Returns the captured children of the node, in order, or null if the node was not captured or
+   * its children were not, in which case the caller should fetch them from the live node.
+   */
+  public @Nullable List<AccessibilityNodeInfoCompat> getChildren(
+      @Nullable AccessibilityNodeInfoCompat node) {
+    @Nullable Integer index = (node == null) ? null : indexes.get(node);
+    if (index == null || firstChildIndexes[index] == NO_CHILDREN_CAPTURED) {
+      return null;
+    }
+    int first = firstChildIndexes[index];
+    return Collections.unmodifiableList(
+        Arrays.asList(nodes).subList(first, first + childCounts[index]));
+  }
+
+  /**
+   * Drops the captured children of the changed node's parent and everything captured below them,
+   * since the change may have replaced the node itself, not only its descendants. The parent stays
+   * captured, so walks through it read its children from live nodes.
+   *
+   * @return the number of nodes dropped, or -1 if the node was not captured or is the root, in
+   *     which case the whole snapshot is out of date
+   */
+  public int invalidateSubtree(@Nullable AccessibilityNodeInfoCompat changedNode) {
+    @Nullable Integer index = (changedNode == null) ? null : indexes.get(changedNode);
+    if (index == null || parentIndexes[index] < 0) {
+      return -1;
+    }
+    int parent = parentIndexes[index];
+    int dropped = 0;
+    List<Integer> pending = new ArrayList<>();
+    pending.add(parent);
+    for (int i = 0; i < pending.size(); i++) {
+      int node = pending.get(i);
+      int first = firstChildIndexes[node];
+      if (first == NO_CHILDREN_CAPTURED) {
+        continue;
+      }
+      for (int child = first; child < first + childCounts[node]; child++) {
+        indexes.remove(nodes[child]);
+        pending.add(child);
+        dropped++;
+      }
+      firstChildIndexes[node] = NO_CHILDREN_CAPTURED;
+      childCounts[node] = 0;
+    }
+    stale = true;
+    return dropped;
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils;
+
+import android.util.SparseArray;
+import android.view.accessibility.AccessibilityEvent;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import java.util.ArrayList;
+import java.util.List;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Keeps one {@link WindowSnapshot} per window, captured on first use and discarded when the window
+ * changes. When content changes within a window, only the captured children around the changed
+ * node are dropped, so the next capture fetches that part again rather than the whole window. Tree
+ * walks in traversal and bounds calculation read children through {@link
+ * #getChildren(AccessibilityNodeInfoCompat)}, which serves them from the snapshot and falls back
+ * to live nodes.
+ *
+ * <p>Counts the children fetched from live nodes and served from snapshots, to compare the node
+ * fetches per navigation with and without snapshots. The counts are printed by {@link #toString()}.
+ */
+public class WindowSnapshotCache extends PerWindowCache {
+
+  private static final String TAG = "WindowSnapshotCache";
+
+  private static @Nullable WindowSnapshotCache instance;
+
+  /** Snapshots by window id. */
+  private final SparseArray<WindowSnapshot> snapshots = new SparseArray<>();
+
+  private long captureCount = 0;
+  private long capturedNodeCount = 0;
+  private long subtreeInvalidationCount = 0;
+  private long droppedNodeCount = 0;
+  private long liveChildCount = 0;
+  private long snapshotChildCount = 0;
+
+  public static synchronized WindowSnapshotCache getInstance() {
+    if (instance == null) {
+      instance = new WindowSnapshotCache();
+    }
+    return instance;
+  }
+
+  private WindowSnapshotCache() {}
+
+  /**
+   * Returns a snapshot that contains the root, capturing the tree under the root if the window has
+   * no up-to-date snapshot that contains it. The capture only fetches the children that were
+   * dropped from the previous snapshot. Returns null while the cache is disabled.
+   */
+  public synchronized @Nullable WindowSnapshot getSnapshot(
+      @Nullable AccessibilityNodeInfoCompat root) {
+    if (!isEnabled() || root == null) {
+      return null;
+    }
+    @Nullable WindowSnapshot previous = snapshots.get(root.getWindowId());
+    if (previous != null && previous.contains(root) && !previous.isStale()) {
+      return previous;
+    }
+
+    // Children still captured in the previous snapshot are valid, whatever the root.
+    @Nullable WindowSnapshot snapshot = WindowSnapshot.capture(root, previous);
+    if (snapshot == null) {
+      return null;
+    }
+    captureCount++;
+    capturedNodeCount += snapshot.size();
+    snapshots.put(root.getWindowId(), snapshot);
+    return snapshot;
+  }
+
+  /**
+   * Returns the children of the node, from the window's snapshot if it captured them, otherwise
+   * from the live node. Missing children are skipped.
+   */
+  public List<AccessibilityNodeInfoCompat> getChildren(AccessibilityNodeInfoCompat node) {
+    synchronized (this) {
+      @Nullable WindowSnapshot snapshot = isEnabled() ? snapshots.get(node.getWindowId()) : null;
+      @Nullable List<AccessibilityNodeInfoCompat> children =
+          (snapshot == null) ? null : snapshot.getChildren(node);
+      if (children != null) {
+        snapshotChildCount += children.size();
+        return children;
+      }
+    }
+
+    int childCount = node.getChildCount();
+    List<AccessibilityNodeInfoCompat> children = new ArrayList<>(childCount);
+    for (int i = 0; i < childCount; i++) {
+      AccessibilityNodeInfoCompat child = node.getChild(i);
+      if (child != null) {
+        children.add(child);
+      }
+    }
+    synchronized (this) {
+      liveChildCount += childCount;
+    }
+    return children;
+  }
+
+  /** Discards all snapshots. */
+  @Override
+  public synchronized void invalidate() {
+    snapshots.clear();
+  }
+
+  /**
+   * Drops the captured children around the changed node from its window's snapshot, or the whole
+   * snapshot if the node was not captured or is the root.
+   */
+  public synchronized void invalidate(int windowId, @Nullable AccessibilityNodeInfoCompat changed) {
+    @Nullable WindowSnapshot snapshot = snapshots.get(windowId);
+    if (snapshot == null) {
+      return;
+    }
+    int dropped = snapshot.invalidateSubtree(changed);
+    if (dropped < 0) {
+      snapshots.remove(windowId);
+      return;
+    }
+    subtreeInvalidationCount++;
+    droppedNodeCount += dropped;
+  }
+
+  @Override
+  protected void onWindowContentChanged(AccessibilityEvent event) {
+    synchronized (this) {
+      if (snapshots.get(event.getWindowId()) == null) {
+        return;
+      }
+    }
+    // The source is usually served by the framework's node cache, and is read outside the lock in
+    // case it is not.
+    invalidate(event.getWindowId(), AccessibilityEventUtils.sourceCompat(event));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return TAG
+        + "{captures="
+        + captureCount
+        + ", capturedNodes="
+        + capturedNodeCount
+        + ", subtreeInvalidations="
+        + subtreeInvalidationCount
+        + ", droppedNodes="
+        + droppedNodeCount
+        + ", liveChildFetches="
+        + liveChildCount
+        + ", snapshotChildReads="
+        + snapshotChildCount
+        + "}";
+  }
+}
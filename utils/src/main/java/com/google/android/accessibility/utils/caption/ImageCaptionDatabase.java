@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.caption;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import androidx.annotation.Nullable;
+import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils.ViewResourceName;
+import com.google.android.accessibility.utils.labeling.SQLiteTableBuilder;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A SQLite database that persists {@link ImageNode} results across TalkBack restarts. Results are
+ * keyed by package name, package version and view name. Detected icon labels are localized, so
+ * each is stored with its locale, and only loaded for that locale. Each package remembers when its
+ * results were last loaded, so that the least recently used packages are evicted first.
+ *
+ * <p>All methods access the database, so they should be called from a background thread.
+ */
+class ImageCaptionDatabase extends SQLiteOpenHelper {
+
+  private static final String TAG = "ImageCaptionDatabase";
+
+  private static final String DATABASE_NAME = "imageCaptionDatabase.db";
+
+  /*
+   * If the database structure is modified and this value is changed, be
+   * sure to implement the onUpgrade method.
+   */
+  private static final int DATABASE_VERSION = 2;
+
+  private static final String TABLE_NAME = "imageCaptions";
+  private static final String INDEX_NAME = "imageCaptionsKey";
+
+  private static final String KEY_ID = "_id";
+  private static final String KEY_PACKAGE_NAME = "packageName";
+  private static final String KEY_PACKAGE_VERSION = "packageVersion";
+  private static final String KEY_VIEW_NAME = "viewName";
+  private static final String KEY_OCR_TEXT = "ocrText";
+  private static final String KEY_ICON_LABEL = "iconLabel";
+  private static final String KEY_ICON_LABEL_STABLE = "iconLabelStable";
+  private static final String KEY_ICON_LABEL_LOCALE = "iconLabelLocale";
+  private static final String KEY_LAST_USED = "lastUsed";
+
+  private static final String[] LOAD_COLUMNS =
+      new String[] {
+        KEY_VIEW_NAME, KEY_OCR_TEXT, KEY_ICON_LABEL, KEY_ICON_LABEL_STABLE, KEY_ICON_LABEL_LOCALE
+      };
+  private static final int INDEX_VIEW_NAME = 0;
+  private static final int INDEX_OCR_TEXT = 1;
+  private static final int INDEX_ICON_LABEL = 2;
+  private static final int INDEX_ICON_LABEL_STABLE = 3;
+  private static final int INDEX_ICON_LABEL_LOCALE = 4;
+
+  ImageCaptionDatabase(Context context) {
+    super(context, DATABASE_NAME, null, DATABASE_VERSION);
+  }
+
+  @Override
+  public void onCreate(SQLiteDatabase database) {
+    LogUtils.i(TAG, "Creating table: %s.", TABLE_NAME);
+
+    new SQLiteTableBuilder(database, TABLE_NAME)
+        .addColumn(KEY_ID, SQLiteTableBuilder.TYPE_INTEGER, true)
+        .addColumn(KEY_PACKAGE_NAME, SQLiteTableBuilder.TYPE_TEXT)
+        .addColumn(KEY_PACKAGE_VERSION, SQLiteTableBuilder.TYPE_INTEGER)
+        .addColumn(KEY_VIEW_NAME, SQLiteTableBuilder.TYPE_TEXT)
+        .addColumn(KEY_OCR_TEXT, SQLiteTableBuilder.TYPE_TEXT)
+        .addColumn(KEY_ICON_LABEL, SQLiteTableBuilder.TYPE_TEXT)
+        .addColumn(KEY_ICON_LABEL_STABLE, SQLiteTableBuilder.TYPE_INTEGER)
+        .addColumn(KEY_ICON_LABEL_LOCALE, SQLiteTableBuilder.TYPE_TEXT)
+        .addColumn(KEY_LAST_USED, SQLiteTableBuilder.TYPE_INTEGER)
+        .createTable();
+    database.execSQL(
+        String.format(
+            Locale.ROOT,
+            "CREATE UNIQUE INDEX %s ON %s (%s, %s, %s)",
+            INDEX_NAME,
+            TABLE_NAME,
+            KEY_PACKAGE_NAME,
+            KEY_PACKAGE_VERSION,
+            KEY_VIEW_NAME));
+  }
+
+  @Override
+  public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+    // Version 2 adds the locale of icon labels. The results are only a cache, so rather than
+    // keeping labels of an unknown locale, start over.
+    LogUtils.i(
+        TAG,
+        "Dropping table %s to upgrade from version %d to version %d.",
+        TABLE_NAME,
+        oldVersion,
+        newVersion);
+    database.execSQL(String.format(Locale.ROOT, "DROP TABLE IF EXISTS %s", TABLE_NAME));
+    onCreate(database);
+  }
+
+  /**
+   * Loads the results stored for a package, and marks the package as recently used. Results stored
+   * for other versions of the package are deleted, since the views may have changed. Icon labels
+   * are left out unless they were stored for {@code iconLabelLocale}.
+   */
+  List<ImageNode> loadPackage(
+      String packageName, long packageVersion, @Nullable Locale iconLabelLocale, long timeMs) {
+    @Nullable String iconLabelLanguageTag = toLanguageTagOrNull(iconLabelLocale);
+    SQLiteDatabase database = getWritableDatabase();
+    String[] packageArgs = new String[] {packageName, Long.toString(packageVersion)};
+
+    database.delete(
+        TABLE_NAME, KEY_PACKAGE_NAME + " = ? AND " + KEY_PACKAGE_VERSION + " != ?", packageArgs);
+
+    ContentValues lastUsed = new ContentValues();
+    lastUsed.put(KEY_LAST_USED, timeMs);
+    database.update(
+        TABLE_NAME,
+        lastUsed,
+        KEY_PACKAGE_NAME + " = ? AND " + KEY_PACKAGE_VERSION + " = ?",
+        packageArgs);
+
+    List<ImageNode> results = new ArrayList<>();
+    try (Cursor cursor =
+        database.query(
+            TABLE_NAME,
+            LOAD_COLUMNS,
+            KEY_PACKAGE_NAME + " = ? AND " + KEY_PACKAGE_VERSION + " = ?",
+            packageArgs,
+            /* groupBy= */ null,
+            /* having= */ null,
+            /* orderBy= */ null)) {
+      while (cursor.moveToNext()) {
+        String viewName = cursor.getString(INDEX_VIEW_NAME);
+        if (TextUtils.isEmpty(viewName)) {
+          continue;
+        }
+        @Nullable String ocrText = cursor.getString(INDEX_OCR_TEXT);
+        @Nullable String iconLabel =
+            (iconLabelLanguageTag != null)
+                    && iconLabelLanguageTag.equals(cursor.getString(INDEX_ICON_LABEL_LOCALE))
+                ? cursor.getString(INDEX_ICON_LABEL)
+                : null;
+        if (TextUtils.isEmpty(ocrText) && TextUtils.isEmpty(iconLabel)) {
+          continue;
+        }
+        ImageNode imageNode = ImageNode.create(ViewResourceName.create(packageName, viewName));
+        imageNode.setOcrText(ocrText);
+        if (iconLabel != null) {
+          imageNode.setDetectedIconLabel(iconLabel);
+          imageNode.setIconLabelStable(cursor.getInt(INDEX_ICON_LABEL_STABLE) != 0);
+        }
+        results.add(imageNode);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Stores the results of an ImageNode, replacing the results stored for the same view. The icon
+   * label is stored as a label of {@code iconLabelLocale}.
+   */
+  void save(
+      ImageNode imageNode, long packageVersion, @Nullable Locale iconLabelLocale, long timeMs) {
+    ViewResourceName viewResourceName = imageNode.viewResourceName();
+    ContentValues values = new ContentValues();
+    values.put(KEY_PACKAGE_NAME, viewResourceName.packageName());
+    values.put(KEY_PACKAGE_VERSION, packageVersion);
+    values.put(KEY_VIEW_NAME, viewResourceName.viewIdName());
+    values.put(KEY_OCR_TEXT, toStringOrNull(imageNode.getOcrText()));
+    values.put(KEY_ICON_LABEL, toStringOrNull(imageNode.getDetectedIconLabel()));
+    values.put(KEY_ICON_LABEL_STABLE, imageNode.isIconLabelStable() ? 1 : 0);
+    values.put(KEY_ICON_LABEL_LOCALE, toLanguageTagOrNull(iconLabelLocale));
+    values.put(KEY_LAST_USED, timeMs);
+    getWritableDatabase()
+        .insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+  }
+
+  /** Deletes the results stored for a view, in all versions of its package. */
+  void delete(ViewResourceName viewResourceName) {
+    getWritableDatabase()
+        .delete(
+            TABLE_NAME,
+            KEY_PACKAGE_NAME + " = ? AND " + KEY_VIEW_NAME + " = ?",
+            new String[] {viewResourceName.packageName(), viewResourceName.viewIdName()});
+  }
+
+  /** Deletes the least recently used results, until at most {@code maxResults} remain. */
+  void trim(int maxResults) {
+    SQLiteDatabase database = getWritableDatabase();
+    long excess = DatabaseUtils.queryNumEntries(database, TABLE_NAME) - maxResults;
+    if (excess <= 0) {
+      return;
+    }
+    LogUtils.v(TAG, "trim() removes %d results", excess);
+    database.execSQL(
+        String.format(
+            Locale.ROOT,
+            "DELETE FROM %s WHERE %s IN (SELECT %s FROM %s ORDER BY %s ASC LIMIT %d)",
+            TABLE_NAME,
+            KEY_ID,
+            KEY_ID,
+            TABLE_NAME,
+            KEY_LAST_USED,
+            excess));
+  }
+
+  @Nullable
+  private static String toLanguageTagOrNull(@Nullable Locale locale) {
+    return (locale == null) ? null : locale.toLanguageTag();
+  }
+
+  @Nullable
+  private static String toStringOrNull(@Nullable CharSequence text) {
+    return (text == null) ? null : text.toString();
+  }
+}
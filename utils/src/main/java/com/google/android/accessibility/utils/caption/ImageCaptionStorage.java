@@ -16,28 +16,80 @@
 
 package com.google.android.accessibility.utils.caption;
 
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
 import android.text.TextUtils;
+import android.view.accessibility.AccessibilityEvent;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import com.google.android.accessibility.utils.AccessibilityEventListener;
 import com.google.android.accessibility.utils.AccessibilityNode;
 import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils.ViewResourceName;
+import com.google.android.accessibility.utils.PackageManagerUtils;
+import com.google.android.accessibility.utils.Performance.EventId;
 import com.google.android.accessibility.utils.screenunderstanding.IconAnnotationsDetector;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import com.google.common.collect.Maps;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 
-/** Stores and retrieves image caption results. */
-public class ImageCaptionStorage {
+/**
+ * Stores and retrieves image caption results.
+ *
+ * <p>When created with a {@link Context}, results are also persisted in an {@link
+ * ImageCaptionDatabase}, so they survive TalkBack restarts. The persisted results of a package are
+ * loaded in the background when a window of the package appears, so that they are ready when its
+ * nodes are first looked up, or else the first time a node of the package is looked up or stored.
+ * New results are written in the background. Detected icon labels are persisted with the locale
+ * set by {@link #setIconLabelLocale(Locale)}, and only loaded again for that locale.
+ */
+public class ImageCaptionStorage implements AccessibilityEventListener {
 
   private static final String TAG = "ImageCaptionStorage";
   private static final int RESULT_CAPACITY = 500;
 
+  /** Maximum number of results persisted, across all packages. */
+  private static final int PERSISTED_RESULT_CAPACITY = 5000;
+
+  /** Number of persisted writes between checks of the persisted capacity. */
+  private static final int WRITES_PER_TRIM = 50;
+
   private final LimitedCapacityCache imageNodes;
   private @MonotonicNonNull IconAnnotationsDetector iconAnnotationsDetector;
 
+  private final @Nullable Context context;
+  private final @Nullable ImageCaptionDatabase database;
+  private final @Nullable ExecutorService databaseExecutor;
+
+  /** Packages whose persisted results were loaded, or are being loaded. */
+  private final Set<String> requestedPackages = new HashSet<>();
+
+  /**
+   * Number of times the cache was cleared, so that loads requested before a clear discard their
+   * results. Guarded by {@link #requestedPackages}.
+   */
+  private int generation = 0;
+
+  /**
+   * Locale of the detected icon labels, or null until it is known. Guarded by {@link
+   * #requestedPackages}.
+   */
+  private @Nullable Locale iconLabelLocale;
+
+  /** Versions of the loaded packages. Accessed only on the database thread. */
+  private final HashMap<String, Long> packageVersions = new HashMap<>();
+
+  /** Number of persisted writes since the last trim. Accessed only on the database thread. */
+  private int writesSinceTrim = 0;
+
   public ImageCaptionStorage() {
     this(RESULT_CAPACITY);
   }
@@ -45,6 +97,39 @@ public class ImageCaptionStorage {
   @VisibleForTesting
   public ImageCaptionStorage(int capacity) {
     imageNodes = new LimitedCapacityCache(capacity);
+    context = null;
+    database = null;
+    databaseExecutor = null;
+  }
+
+  /** Creates a storage that also persists results in a database. */
+  public ImageCaptionStorage(Context context) {
+    imageNodes = new LimitedCapacityCache(RESULT_CAPACITY);
+    this.context = context;
+    database = new ImageCaptionDatabase(context);
+    databaseExecutor = Executors.newSingleThreadExecutor();
+  }
+
+  /** Closes the database after pending writes. */
+  public void shutdown() {
+    if (databaseExecutor == null || database == null) {
+      return;
+    }
+    executeOnDatabaseThread(database::close);
+    databaseExecutor.shutdown();
+  }
+
+  @Override
+  public int getEventTypes() {
+    return AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
+  }
+
+  @Override
+  public void onAccessibilityEvent(AccessibilityEvent event, EventId eventId) {
+    CharSequence packageName = event.getPackageName();
+    if (!TextUtils.isEmpty(packageName)) {
+      loadPackage(packageName.toString());
+    }
   }
 
   @VisibleForTesting
@@ -52,9 +137,31 @@ public class ImageCaptionStorage {
     return imageNodes.size();
   }
 
-  /** Removes all cached {@link ImageNode}s. */
+  /**
+   * Removes all cached {@link ImageNode}s. The persisted results are kept, and loaded again when
+   * they are needed.
+   */
   public void clearImageNodesCache() {
-    imageNodes.clear();
+    synchronized (requestedPackages) {
+      generation++;
+      requestedPackages.clear();
+      imageNodes.clear();
+    }
+  }
+
+  /**
+   * Sets the locale of the detected icon labels. When it changes, the cached results are removed,
+   * so that labels of the previous locale are not used, and persisted results are loaded again
+   * with the labels of the new locale.
+   */
+  public void setIconLabelLocale(Locale locale) {
+    synchronized (requestedPackages) {
+      if (locale.equals(iconLabelLocale)) {
+        return;
+      }
+      iconLabelLocale = locale;
+      clearImageNodesCache();
+    }
   }
 
   /** Sets the {@link IconAnnotationsDetector} for retrieving labels of detected icons. */
@@ -112,6 +219,7 @@ public class ImageCaptionStorage {
     }
     imageNode.setOcrText(result);
     imageNodes.put(imageNode);
+    persist(imageNode.viewResourceName());
   }
 
   /**
@@ -131,10 +239,12 @@ public class ImageCaptionStorage {
     }
     imageNode.setDetectedIconLabel(detectedIconLabel);
     imageNodes.put(imageNode);
+    persist(imageNode.viewResourceName());
   }
 
   /**
-   * Marks the OCR text and the detected icon label for the specific node as invalid in the cache.
+   * Marks the OCR text and the detected icon label for the specific node as invalid in the cache,
+   * and deletes the persisted ones, so that they are not loaded again after a restart.
    *
    * <p><strong>Note:</strong> Caller is responsible for recycling the node-argument.
    */
@@ -146,6 +256,9 @@ public class ImageCaptionStorage {
     @Nullable final ViewResourceName viewResourceName = node.getPackageNameAndViewId();
     if (viewResourceName != null) {
       imageNodes.invalidateImageNode(viewResourceName);
+      if (database != null) {
+        executeOnDatabaseThread(() -> database.delete(viewResourceName));
+      }
     }
   }
 
@@ -178,7 +291,93 @@ public class ImageCaptionStorage {
       return null;
     }
 
-    return imageNodes.get(viewResourceName);
+    @Nullable ImageNode imageNode = imageNodes.get(viewResourceName);
+    if (imageNode == null) {
+      loadPackage(viewResourceName.packageName());
+    }
+    return imageNode;
+  }
+
+  /** Loads the persisted results of the package in the background, if not loaded yet. */
+  private void loadPackage(String packageName) {
+    if (database == null) {
+      return;
+    }
+    int requestGeneration;
+    @Nullable Locale requestLocale;
+    synchronized (requestedPackages) {
+      if (!requestedPackages.add(packageName)) {
+        return;
+      }
+      requestGeneration = generation;
+      requestLocale = iconLabelLocale;
+    }
+    executeOnDatabaseThread(
+        () -> {
+          long packageVersion = PackageManagerUtils.getVersionCode(context, packageName);
+          packageVersions.put(packageName, packageVersion);
+          List<ImageNode> results =
+              database.loadPackage(
+                  packageName, packageVersion, requestLocale, System.currentTimeMillis());
+          synchronized (requestedPackages) {
+            if (requestGeneration != generation) {
+              // The cache was cleared while loading, for example when the locale changed.
+              LogUtils.v(TAG, "loadPackage() %s discards stale results", packageName);
+              return;
+            }
+            LogUtils.v(TAG, "loadPackage() %s loaded %d results", packageName, results.size());
+            for (ImageNode result : results) {
+              imageNodes.putIfAbsent(result);
+            }
+          }
+        });
+  }
+
+  /** Writes the cached results of the view to the database in the background. */
+  private void persist(ViewResourceName viewResourceName) {
+    if (database == null) {
+      return;
+    }
+    // Loading first ensures the package version is known, and that stored results are merged.
+    loadPackage(viewResourceName.packageName());
+    @Nullable ImageNode imageNode = imageNodes.get(viewResourceName);
+    if (imageNode == null) {
+      return;
+    }
+    @Nullable Locale locale;
+    synchronized (requestedPackages) {
+      locale = iconLabelLocale;
+    }
+    executeOnDatabaseThread(
+        () -> {
+          @Nullable Long packageVersion = packageVersions.get(viewResourceName.packageName());
+          if (packageVersion == null) {
+            return;
+          }
+          database.save(imageNode, packageVersion, locale, System.currentTimeMillis());
+          if (++writesSinceTrim >= WRITES_PER_TRIM) {
+            writesSinceTrim = 0;
+            database.trim(PERSISTED_RESULT_CAPACITY);
+          }
+        });
+  }
+
+  private void executeOnDatabaseThread(Runnable task) {
+    if (databaseExecutor == null) {
+      return;
+    }
+    try {
+      databaseExecutor.execute(
+          () -> {
+            try {
+              task.run();
+            } catch (SQLiteException e) {
+              LogUtils.e(TAG, "Failed to access image caption database: %s", e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      LogUtils.w(TAG, "Image caption storage is shut down.");
+    }
   }
 
   /**
@@ -203,6 +402,15 @@ public class ImageCaptionStorage {
     /** Removes all {@link ImageNode}s in the cache. */
     public synchronized void clear() {
       imageNodes.clear();
+      firstOldestKey = null;
+      lastNewestKey = null;
+    }
+
+    /** Adds the specified ImageNode, unless the cache already has results for its view. */
+    public synchronized void putIfAbsent(ImageNode imageNode) {
+      if (!imageNodes.containsKey(imageNode.viewResourceName())) {
+        add(imageNode);
+      }
     }
 
     /**
@@ -61,6 +61,11 @@ public abstract class ImageNode {
     return new AutoValue_ImageNode(viewResourceName);
   }
 
+  /** Creates an instance of {@link ImageNode} for a view, without the results of image captions. */
+  static ImageNode create(ViewResourceName viewResourceName) {
+    return new AutoValue_ImageNode(viewResourceName);
+  }
+
   /** Returns a copy of the ImageNode-argument. */
   static ImageNode copy(ImageNode imageNode) {
     ImageNode copy = new AutoValue_ImageNode(imageNode.viewResourceName());
@@ -18,6 +18,9 @@ package com.google.android.accessibility.utils.keyboard;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.util.LongSparseArray;
+import android.util.SparseIntArray;
 import android.view.KeyEvent;
 import androidx.annotation.Nullable;
 import com.google.android.accessibility.utils.FeatureSupport;
@@ -223,6 +226,42 @@ public class KeyComboManager implements ServiceKeyEventListener, ServiceStateLis
   private int mServiceState = SERVICE_STATE_INACTIVE;
   private ServiceKeyEventListener mKeyEventDelegate;
 
+  /** Index of the combos of {@link #mKeyComboModel}, or null if it must be built again. */
+  @Nullable private KeyComboIndex mKeyComboIndex;
+
+  /**
+   * Discards the combo index when key combo or trigger modifier preferences change. The model is
+   * updated after its preference is saved, so the index is built again on the next key event.
+   */
+  private final OnSharedPreferenceChangeListener mPreferenceChangeListener =
+      (SharedPreferences preferences, String key) -> mKeyComboIndex = null;
+
+  /** A combo of the model, with its action id resolved. */
+  private static final class IndexedKeyCombo {
+    final int actionId;
+    final boolean alwaysProcess;
+
+    IndexedKeyCombo(int actionId, boolean alwaysProcess) {
+      this.actionId = actionId;
+      this.alwaysProcess = alwaysProcess;
+    }
+  }
+
+  /**
+   * The combos of a model, by the key combo code that matches them exactly, and counted by the
+   * modifiers that they need, so that a key event is matched without going through all combos.
+   */
+  private static final class KeyComboIndex {
+    /** Combos by key combo code including the trigger modifier, in the order of the model. */
+    final LongSparseArray<List<IndexedKeyCombo>> exactCombos = new LongSparseArray<>();
+
+    /** Number of combos by modifiers including the trigger modifier. */
+    final SparseIntArray comboCountByMetaState = new SparseIntArray();
+
+    /** Number of combos that are processed while the service is inactive, by modifiers. */
+    final SparseIntArray alwaysProcessedComboCountByMetaState = new SparseIntArray();
+  }
+
   public static KeyComboManager create(Context context) {
     return new KeyComboManager(context);
   }
@@ -233,6 +272,8 @@ public class KeyComboManager implements ServiceKeyEventListener, ServiceStateLis
     mKeyComboModel = createKeyComboModelFor(getKeymap());
 
     initializeDefaultPreferenceValues();
+    SharedPreferencesUtils.getSharedPreferences(mContext)
+        .registerOnSharedPreferenceChangeListener(mPreferenceChangeListener);
   }
 
   /** Store default values in preferences to show them in preferences UI. */
@@ -292,6 +333,42 @@ public class KeyComboManager implements ServiceKeyEventListener, ServiceStateLis
   /** Sets key combo model. TODO: replace this method with setKeymap. */
   public void setKeyComboModel(KeyComboModel keyComboModel) {
     mKeyComboModel = keyComboModel;
+    mKeyComboIndex = null;
+  }
+
+  /** Returns the index of the combos of the model, building it if the model or combos changed. */
+  private KeyComboIndex getKeyComboIndex() {
+    if (mKeyComboIndex != null) {
+      return mKeyComboIndex;
+    }
+
+    KeyComboIndex index = new KeyComboIndex();
+    int triggerModifier = mKeyComboModel.getTriggerModifier();
+    for (Map.Entry<String, Long> entry : mKeyComboModel.getKeyComboCodeMap().entrySet()) {
+      long keyComboCode = entry.getValue();
+      int metaState = getModifier(keyComboCode) | triggerModifier;
+      long fullKeyComboCode = getKeyComboCode(metaState, getKeyCode(keyComboCode));
+      int actionId = getActionIdFromKey(entry.getKey());
+      boolean alwaysProcess = alwaysProcessCombo(entry.getKey());
+
+      List<IndexedKeyCombo> combos = index.exactCombos.get(fullKeyComboCode);
+      if (combos == null) {
+        combos = new ArrayList<>(1);
+        index.exactCombos.put(fullKeyComboCode, combos);
+      }
+      combos.add(new IndexedKeyCombo(actionId, alwaysProcess));
+
+      incrementCount(index.comboCountByMetaState, metaState);
+      if (alwaysProcess) {
+        incrementCount(index.alwaysProcessedComboCountByMetaState, metaState);
+      }
+    }
+    mKeyComboIndex = index;
+    return index;
+  }
+
+  private static void incrementCount(SparseIntArray counts, int key) {
+    counts.put(key, counts.get(key) + 1);
   }
 
   /**
@@ -812,14 +889,17 @@ public class KeyComboManager implements ServiceKeyEventListener, ServiceStateLis
     // If the current set of keys is a partial combo, consume the event.
     mHasPartialMatch = false;
 
-    for (Map.Entry<String, Long> entry : mKeyComboModel.getKeyComboCodeMap().entrySet()) {
-      if (!isServiceActive && !alwaysProcessCombo(entry.getKey())) {
-        continue;
-      }
+    KeyComboIndex index = getKeyComboIndex();
+    int exactMatchCount = 0;
+    @Nullable List<IndexedKeyCombo> exactCombos = index.exactCombos.get(mCurrentKeyComboCode);
+    if (exactCombos != null) {
+      for (IndexedKeyCombo combo : exactCombos) {
+        if (!isServiceActive && !combo.alwaysProcess) {
+          continue;
+        }
+        exactMatchCount++;
 
-      final int match = matchKeyEventWith(event, triggerModifier, entry.getValue());
-      if (match == EXACT_MATCH) {
-        int comboId = getActionIdFromKey(entry.getKey());
+        int comboId = combo.actionId;
         String comboName = getKeyComboStringRepresentation(comboId);
         EventId eventId = Performance.getInstance().onKeyComboEventReceived(comboId);
         // Checks interrupt events if matches key combos. To prevent interrupting actions generated
@@ -834,12 +914,16 @@ public class KeyComboManager implements ServiceKeyEventListener, ServiceStateLis
           }
         }
       }
-
-      if (match == PARTIAL_MATCH) {
-        mHasPartialMatch = true;
-      }
     }
 
+    mHasPartialMatch =
+        hasPartialMatch(
+            event,
+            isServiceActive
+                ? index.comboCountByMetaState
+                : index.alwaysProcessedComboCountByMetaState,
+            exactMatchCount);
+
     // Do not handle key event if user has pressed search key (meta key) twice to open search
     // app.
     if (hasModifier && triggerModifier == KeyEvent.META_META_ON) {
@@ -865,32 +949,34 @@ public class KeyComboManager implements ServiceKeyEventListener, ServiceStateLis
     return mHasPartialMatch;
   }
 
-  private int matchKeyEventWith(KeyEvent event, int triggerModifier, long keyComboCode) {
+  /**
+   * Returns whether the key event partially matches any combo, using the counts of combos by
+   * modifiers. A key event partially matches a combo that it does not match exactly, if the key is
+   * a modifier key and the combo needs any of the modifiers that are down.
+   *
+   * @param comboCountByMetaState Number of combos to match, by modifiers including the trigger
+   * @param exactMatchCount Number of combos to match that the key event matches exactly
+   */
+  private static boolean hasPartialMatch(
+      KeyEvent event, SparseIntArray comboCountByMetaState, int exactMatchCount) {
     int keyCode = getConvertedKeyCode(event);
     int metaState = event.getModifiers() & KEY_EVENT_MODIFIER_MASK;
-
-    int targetKeyCode = getKeyCode(keyComboCode);
-    int targetMetaState = getModifier(keyComboCode) | triggerModifier;
-
-    // Handle exact matches first.
-    if (metaState == targetMetaState && keyCode == targetKeyCode) {
-      return EXACT_MATCH;
-    }
-
-    if (targetMetaState != 0 && metaState == 0) {
-      return NO_MATCH;
+    if (metaState == 0 || !KeyEvent.isModifierKey(keyCode)) {
+      return false;
     }
 
-    // Otherwise, all modifiers must be down.
-    if (KeyEvent.isModifierKey(keyCode)
-        && targetMetaState != 0
-        && (targetMetaState & metaState) != 0) {
-      // Partial match.
-      return PARTIAL_MATCH;
+    for (int i = 0; i < comboCountByMetaState.size(); i++) {
+      int targetMetaState = comboCountByMetaState.keyAt(i);
+      int count = comboCountByMetaState.valueAt(i);
+      if (targetMetaState == metaState) {
+        // Exact matches have the same modifiers, and are not partial matches.
+        count -= exactMatchCount;
+      }
+      if (count > 0 && (targetMetaState & metaState) != 0) {
+        return true;
+      }
     }
-
-    // No match.
-    return NO_MATCH;
+    return false;
   }
 
   /**
@@ -29,6 +29,8 @@ import androidx.annotation.VisibleForTesting;
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
 import com.google.android.accessibility.utils.Filter;
 import com.google.android.accessibility.utils.RectUtils;
+import com.google.android.libraries.accessibility.utils.bitmap.BitmapPool;
+import com.google.android.libraries.accessibility.utils.bitmap.BitmapProcessingExecutor;
 import com.google.android.libraries.accessibility.utils.bitmap.BitmapUtils;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import com.google.common.collect.ImmutableList;
@@ -69,6 +71,11 @@ public class OcrController {
           RectUtils.RECT_POSITION_COMPARATOR);
   private static final String TAG = "OcrController";
 
+  /** The most memory held by unused node crops, shared by all OcrControllers. */
+  private static final long MAX_POOLED_CROP_BYTES = 4L * 1024 * 1024;
+
+  private static final BitmapPool cropPool = new BitmapPool(MAX_POOLED_CROP_BYTES);
+
   private final OcrListener ocrListener;
   private final Handler handler;
   // TextRecognizer (MlKitContext) may not be ready when the device just boots completely, so this
@@ -91,12 +98,21 @@ public class OcrController {
    * use OcrController.
    */
   public void shutdown() {
+    cancel();
     if (recognizer != null) {
       recognizer.close();
       recognizer = null;
     }
   }
 
+  /**
+   * Cancels the OCR requests of this controller which are waiting or running. Nodes that are not
+   * recognized yet are skipped, and the listener is still notified with the partial results.
+   */
+  public void cancel() {
+    BitmapProcessingExecutor.getInstance().cancel(ocrListener);
+  }
+
   /**
    * Recognize text in all the nodes by performing OCR on the cropped screenshots of all the nodes,
    * and save the resulting TextBlocks in each node.
@@ -123,10 +139,10 @@ public class OcrController {
       }
     }
 
-    new Thread(
+    BitmapProcessingExecutor.getInstance()
+        .execute(
             new OcrRunnable(
-                handler, ocrListener, recognizer, image, ocrInfos, selectionBounds, filter))
-        .start();
+                handler, ocrListener, recognizer, image, ocrInfos, selectionBounds, filter));
   }
 
   private static void filterTextBlocks(OcrInfo ocrInfo, Rect selectionBounds) {
@@ -246,9 +262,12 @@ public class OcrController {
     void onOcrFinished(List<OcrInfo> ocrResults);
   }
 
-  /** Performs OCR and gets text blocks from OCR results. */
+  /**
+   * Performs OCR and gets text blocks from OCR results. Runs on the shared {@link
+   * BitmapProcessingExecutor}, tagged with its listener so that {@link #cancel()} can stop it.
+   */
   @VisibleForTesting
-  static class OcrRunnable implements Runnable {
+  static class OcrRunnable extends BitmapProcessingExecutor.Task {
 
     private final Handler handler;
     private final OcrListener ocrListener;
@@ -266,6 +285,7 @@ public class OcrController {
         List<OcrInfo> ocrInfos,
         @Nullable Rect selectionBounds,
         Filter<AccessibilityNodeInfoCompat> filter) {
+      super(/* tag= */ ocrListener);
       this.handler = handler;
       this.ocrListener = ocrListener;
       this.recognizer = recognizer;
@@ -283,6 +303,10 @@ public class OcrController {
           new ParserResultRunnable(handler, ocrInfos, textBlocksMap, selectionBounds, ocrListener);
 
       for (OcrInfo ocrInfo : ocrInfos) {
+        if (isCancelled()) {
+          LogUtils.v(TAG, "OCR was cancelled.");
+          break;
+        }
         AccessibilityNodeInfoCompat node = ocrInfo.getNode();
         if (filter.accept(node)) {
           Rect nodeBounds = new Rect();
@@ -293,9 +317,9 @@ public class OcrController {
             break;
           }
 
-          Bitmap croppedBitmap;
+          @Nullable Bitmap croppedBitmap;
           try {
-            croppedBitmap = BitmapUtils.cropBitmap(screenshot, nodeBounds);
+            croppedBitmap = BitmapUtils.cropBitmap(screenshot, nodeBounds, cropPool);
           } catch (IllegalArgumentException e) {
             LogUtils.w(TAG, e.getMessage() == null ? "Fail to crop screenshot." : e.getMessage());
             continue;
@@ -305,12 +329,18 @@ public class OcrController {
             continue;
           }
 
+          Bitmap nodeBitmap = croppedBitmap;
           runnable.addRecognitionCount();
           recognizer
-              .process(InputImage.fromBitmap(croppedBitmap, /* rotationDegrees= */ 0))
-              .addOnSuccessListener(text -> textBlocksMap.put(ocrInfo, text.getTextBlocks()))
+              .process(InputImage.fromBitmap(nodeBitmap, /* rotationDegrees= */ 0))
+              .addOnSuccessListener(
+                  text -> {
+                    cropPool.release(nodeBitmap);
+                    textBlocksMap.put(ocrInfo, text.getTextBlocks());
+                  })
               .addOnFailureListener(
                   exception -> {
+                    cropPool.release(nodeBitmap);
                     LogUtils.w(TAG, "Fail to recognize text. errMsg=" + exception.getMessage());
                     textBlocksMap.put(ocrInfo, ImmutableList.of());
                   });
@@ -318,6 +348,14 @@ public class OcrController {
       }
       handler.postDelayed(runnable, DELAY_PARSER_OCR_RESULT_MS);
     }
+
+    @Override
+    protected void onDropped() {
+      // Nothing was recognized, but the listener still expects to hear that OCR finished.
+      handler.post(
+          new ParserResultRunnable(
+              handler, ocrInfos, new ConcurrentHashMap<>(), selectionBounds, ocrListener));
+    }
   }
 
   /** Parsers OCR results and notifies caller that OCR is finished. */
@@ -176,8 +176,12 @@ public class FailoverTextToSpeech {
    */
   private LinkedList<String> mRecentUtteranceIds = new LinkedList<>(); // may contain nulls
 
+  /** Synthesized audio of short utterances that are spoken often. Disabled by default. */
+  private final SpeechAudioCache mSpeechAudioCache;
+
   public FailoverTextToSpeech(Context context) {
     mContext = context;
+    mSpeechAudioCache = new SpeechAudioCache(context, mSpeechAudioCacheListener);
     mContext.registerReceiver(mMediaStateMonitor, mMediaStateMonitor.getFilter());
 
     final Uri defaultSynth = Secure.getUriFor(Secure.TTS_DEFAULT_SYNTH);
@@ -248,6 +252,19 @@ public class FailoverTextToSpeech {
     return mTts;
   }
 
+  /**
+   * Sets whether short utterances that are spoken often are synthesized once, and then played from
+   * cached audio.
+   */
+  public void setSpeechAudioCacheEnabled(boolean enabled) {
+    mSpeechAudioCache.setEnabled(enabled);
+  }
+
+  /** Returns the hit rate and latency of cached speech, for dumpsys. */
+  public String getSpeechAudioCacheStatistics() {
+    return mSpeechAudioCache.toString();
+  }
+
   /**
    * Sets whether to handle TTS callback in main thread. If {@code false}, the callback will be
    * handled in TTS thread.
@@ -392,6 +409,7 @@ public class FailoverTextToSpeech {
 
   /** Stops speech from all applications. No utterance callbacks will be sent. */
   public void stopAll() {
+    mSpeechAudioCache.stop(/* interrupted= */ false);
     try {
       allowDeviceSleep();
       ensureQueueFlush();
@@ -403,6 +421,7 @@ public class FailoverTextToSpeech {
 
   /** Stops all speech that originated from TalkBack. No utterance callbacks will be sent. */
   public void stopFromTalkBack() {
+    mSpeechAudioCache.stop(/* interrupted= */ false);
     try {
       allowDeviceSleep();
       mTts.speak("", TextToSpeech.QUEUE_FLUSH, null);
@@ -417,6 +436,7 @@ public class FailoverTextToSpeech {
    */
   public void shutdown() {
     allowDeviceSleep();
+    mSpeechAudioCache.setEnabled(false);
     mContext.unregisterReceiver(mMediaStateMonitor);
     unregisterGoogleTtsFixCallbacks();
 
@@ -496,8 +516,22 @@ public class FailoverTextToSpeech {
     bundle.putInt(Engine.KEY_PARAM_STREAM, stream);
     bundle.putFloat(SpeechParam.VOLUME, volume);
 
+    final @Nullable String cacheKey =
+        mSpeechAudioCache.getCacheKey(text, mLastUtteranceLocale, bundle);
+    if ((cacheKey != null) && mSpeechAudioCache.play(cacheKey, utteranceId, stream, volume)) {
+      // Stop the engine, as speaking new text would.
+      mTts.speak("", SPEECH_FLUSH_ALL, null, null);
+      return TextToSpeech.SUCCESS;
+    }
+    mSpeechAudioCache.stop(/* interrupted= */ true);
+
     ensureQueueFlush();
-    return mTts.speak(text, SPEECH_FLUSH_ALL, bundle, utteranceId);
+    final int result = mTts.speak(text, SPEECH_FLUSH_ALL, bundle, utteranceId);
+    if ((result == TextToSpeech.SUCCESS) && (cacheKey != null)) {
+      mSpeechAudioCache.onEngineSpeak(utteranceId);
+      mSpeechAudioCache.onSpoken(cacheKey, text, mTts, bundle);
+    }
+    return result;
   }
 
   /**
@@ -608,6 +642,7 @@ public class FailoverTextToSpeech {
 
     mTts = tempTts;
     mTts.setOnUtteranceProgressListener(mUtteranceProgressListener);
+    mSpeechAudioCache.invalidate();
 
     if (tempTtsEngine == null) {
       mTtsEngine = TextToSpeechCompatUtils.getCurrentEngine(mTts);
@@ -728,6 +763,7 @@ public class FailoverTextToSpeech {
    */
   private void updateDefaultPitch() {
     mDefaultPitch = (Secure.getInt(mResolver, Secure.TTS_DEFAULT_PITCH, 100) / 100.0f);
+    mSpeechAudioCache.invalidate();
   }
 
   /**
@@ -736,6 +772,7 @@ public class FailoverTextToSpeech {
    */
   private void updateDefaultRate() {
     mDefaultRate = (Secure.getInt(mResolver, Secure.TTS_DEFAULT_RATE, 100) / 100.0f);
+    mSpeechAudioCache.invalidate();
   }
 
   /** Preferred locale for fallback language. */
@@ -896,6 +933,7 @@ public class FailoverTextToSpeech {
   private void updateDefaultLocale() {
     final String defaultLocale = TextToSpeechUtils.getDefaultLocaleForEngine(mResolver, mTtsEngine);
     mDefaultLocale = (!TextUtils.isEmpty(defaultLocale)) ? new Locale(defaultLocale) : null;
+    mSpeechAudioCache.invalidate();
 
     // The default locale changed, which may mean we can restore the user's
     // preferred locale.
@@ -910,6 +948,7 @@ public class FailoverTextToSpeech {
     }
 
     mSystemLocale = newLocale;
+    mSpeechAudioCache.invalidate();
 
     // The system locale changed, which may mean we need to override the
     // current TTS locale.
@@ -1028,6 +1067,10 @@ public class FailoverTextToSpeech {
         }
 
         private void handleUtteranceCompleted(String utteranceId, boolean success) {
+          if (SpeechAudioCache.isSynthesisUtteranceId(utteranceId)) {
+            mSpeechAudioCache.onSynthesisCompleted(utteranceId, success);
+            return;
+          }
           LogUtils.d(TAG, "Received callback for \"%s\"", utteranceId);
           if (mShouldHandleTtsCallbackInMainThread) {
             // Hand utterance completed processing to the main thread.
@@ -1039,6 +1082,9 @@ public class FailoverTextToSpeech {
 
         @Override
         public void onStart(String utteranceId) {
+          if (SpeechAudioCache.isSynthesisUtteranceId(utteranceId)) {
+            return;
+          }
           if (mShouldHandleTtsCallbackInMainThread) {
             mHandler.onUtteranceStarted(utteranceId);
           } else {
@@ -1051,12 +1097,18 @@ public class FailoverTextToSpeech {
         public void onAudioAvailable(String utteranceId, byte[] audio) {
           // onAudioAvailable() is usually called many times per utterance,
           // once for each audio chunk.
-          updatePerformanceMetrics(utteranceId);
+          if (!SpeechAudioCache.isSynthesisUtteranceId(utteranceId)) {
+            mSpeechAudioCache.onEngineAudioAvailable(utteranceId);
+            updatePerformanceMetrics(utteranceId);
+          }
         }
 
         @TargetApi(Build.VERSION_CODES.O)
         @Override
         public void onRangeStart(String utteranceId, int start, int end, int frame) {
+          if (SpeechAudioCache.isSynthesisUtteranceId(utteranceId)) {
+            return;
+          }
           if (mShouldHandleTtsCallbackInMainThread) {
             mHandler.onUtteranceRangeStarted(utteranceId, start, end);
           } else {
@@ -1080,6 +1132,21 @@ public class FailoverTextToSpeech {
         }
       };
 
+  /** Reports cached audio like engine speech, on the main thread. */
+  private final SpeechAudioCache.PlaybackListener mSpeechAudioCacheListener =
+      new SpeechAudioCache.PlaybackListener() {
+        @Override
+        public void onPlaybackStarted(String utteranceId) {
+          Performance.getInstance().onFeedbackOutput(utteranceId);
+          mHandler.onUtteranceStarted(utteranceId);
+        }
+
+        @Override
+        public void onPlaybackCompleted(String utteranceId, boolean success) {
+          mHandler.onUtteranceCompleted(utteranceId, success);
+        }
+      };
+
   /**
    * When changing TTS engines, switches the active TTS engine when the new engine is initialized.
    */
@@ -96,6 +96,12 @@ public class FeedbackItem {
   /** Unique ID defining this generated feedback */
   private String mUtteranceId = "";
 
+  /** Numeric index of {@link #mUtteranceId}, or -1 if the ID is not set. */
+  private int mUtteranceIndex = -1;
+
+  /** Hash of the fragment texts, or null if it must be computed again. */
+  private @Nullable Integer mTextHash;
+
   /** Ordered fragments of the feedback to be produced from a single {@link Utterance}. */
   private List<FeedbackFragment> mFragments = new ArrayList<>();
 
@@ -174,6 +180,37 @@ public class FeedbackItem {
    */
   public void setUtteranceId(String id) {
     mUtteranceId = id;
+    mUtteranceIndex = -1;
+  }
+
+  /**
+   * Sets the utterance ID for this item, with its numeric index, so that the index does not have
+   * to be parsed from the ID.
+   */
+  void setUtteranceId(String id, int index) {
+    mUtteranceId = id;
+    mUtteranceIndex = index;
+  }
+
+  /** @return The numeric index of the utterance ID, or -1 if it is not known */
+  int getUtteranceIndex() {
+    return mUtteranceIndex;
+  }
+
+  /**
+   * Returns a hash of the text of the fragments, which is equal for items whose fragments have
+   * equal text. The hash is kept until fragments are added or removed.
+   */
+  int getTextHash() {
+    if (mTextHash == null) {
+      int hash = mFragments.size();
+      for (FeedbackFragment fragment : mFragments) {
+        CharSequence text = (fragment == null) ? null : fragment.getText();
+        hash = 31 * hash + ((text == null) ? 0 : text.toString().hashCode());
+      }
+      mTextHash = hash;
+    }
+    return mTextHash;
   }
 
   /**
@@ -212,10 +249,12 @@ public class FeedbackItem {
    */
   public void addFragment(FeedbackFragment fragment) {
     mFragments.add(fragment);
+    mTextHash = null;
   }
 
   public void addFragmentAtPosition(FeedbackFragment fragment, int position) {
     mFragments.add(position, fragment);
+    mTextHash = null;
   }
 
   /**
@@ -225,12 +264,14 @@ public class FeedbackItem {
    * @return {@code true} if removed.
    */
   public boolean removeFragment(FeedbackFragment fragment) {
+    mTextHash = null;
     return mFragments.remove(fragment);
   }
 
   /** Removes all {@link FeedbackFragment}s associated with this item. */
   public void clearFragments() {
     mFragments.clear();
+    mTextHash = null;
   }
 
   /** @return {@code true} if this item should be uninterruptible, {@code false} otherwise */
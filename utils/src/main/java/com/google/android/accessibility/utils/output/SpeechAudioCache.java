@@ -0,0 +1,822 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.output;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.TextToSpeech.Engine;
+import android.text.Spanned;
+import android.util.SparseArray;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.accessibility.utils.BuildVersionUtils;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Keeps synthesized audio of short utterances that are spoken often, such as role names, usage
+ * hints and typed characters, and plays it through an {@link AudioTrack} instead of sending the
+ * text to the engine again.
+ *
+ * <p>An utterance is synthesized with {@link TextToSpeech#synthesizeToFile} after it was spoken
+ * {@link #MIN_SPEAK_COUNT} times. Synthesis goes through the engine queue, so it is dropped when
+ * new speech flushes the queue, and retried when the utterance is spoken again. Audio is stored as
+ * WAV files in an app-private cache directory, and the most recently played audio is also kept in
+ * memory. Both are bounded, and the least recently used audio is dropped first. Audio that was
+ * dropped from memory is read back on a background thread, and the engine speaks the utterance
+ * until it was read.
+ *
+ * <p>Clips are played through one low-latency streaming track per audio format and stream, which
+ * is built when the first clip of the format is synthesized and reused for every clip, so that a
+ * hit does not wait for a track to be created. Tracks play on the stream that the engine would
+ * speak on, and volumes above the maximum of a track are applied to the samples. The time from
+ * {@link #play} to the first frame being played is compared in {@link #toString} with the time
+ * from sending a cacheable utterance to the engine to its first synthesized audio, which leaves
+ * out the output latency of engine speech.
+ *
+ * <p>Audio depends on the engine, the locale, the pitch and the rate, so the cache is cleared when
+ * any of them changes. Utterances with spans or with custom engine parameters are not cached.
+ *
+ * <p>{@link #getCacheKey}, {@link #play} and {@link #stop} must be called on the main thread.
+ * Synthesis callbacks arrive on the engine thread.
+ */
+class SpeechAudioCache {
+
+  private static final String TAG = "SpeechAudioCache";
+
+  private static final String DIRECTORY_NAME = "speech_audio_cache";
+
+  /** Prefix of utterance IDs of synthesis requests, which are not reported to listeners. */
+  private static final String SYNTHESIS_UTTERANCE_ID_PREFIX = "speech_audio_cache_";
+
+  /** Utterances longer than this are not cached. */
+  private static final int MAX_TEXT_LENGTH = 24;
+
+  /** Number of times that an utterance is spoken before it is synthesized. */
+  private static final int MIN_SPEAK_COUNT = 2;
+
+  /** Number of utterances whose speak count is kept. */
+  private static final int MAX_CANDIDATES = 256;
+
+  /** Number of synthesized utterances that are kept on disk. */
+  private static final int MAX_CLIPS = 64;
+
+  /** Bytes of audio that are kept in memory. */
+  private static final int MAX_MEMORY_BYTES = 1024 * 1024;
+
+  /** Time after the expected end of a clip at which it is completed, if no marker was reached. */
+  private static final long PLAYBACK_TIMEOUT_MS = 500;
+
+  /** Audio buffered by each track, which is refilled as it plays. */
+  private static final int TRACK_BUFFER_MS = 80;
+
+  /**
+   * Engine parameters of utterances that are cached, which do not change the synthesized audio or
+   * are part of the cache key.
+   */
+  private static final String[] CACHED_PARAMS = {
+    Engine.KEY_PARAM_UTTERANCE_ID,
+    Engine.KEY_PARAM_STREAM,
+    Engine.KEY_PARAM_VOLUME,
+    FailoverTextToSpeech.SpeechParam.PITCH,
+    FailoverTextToSpeech.SpeechParam.RATE
+  };
+
+  /** Builds the streaming tracks that play clips. */
+  interface TrackFactory {
+    AudioTrack createTrack(AudioAttributes attributes, AudioFormat format, int bufferSizeInBytes);
+  }
+
+  private static final TrackFactory DEFAULT_TRACK_FACTORY =
+      (attributes, format, bufferSizeInBytes) -> {
+        AudioTrack.Builder builder =
+            new AudioTrack.Builder()
+                .setAudioAttributes(attributes)
+                .setAudioFormat(format)
+                .setTransferMode(AudioTrack.MODE_STREAM)
+                .setBufferSizeInBytes(bufferSizeInBytes);
+        if (BuildVersionUtils.isAtLeastO()) {
+          builder.setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY);
+        }
+        return builder.build();
+      };
+
+  /** Receives the start and completion of played clips. */
+  interface PlaybackListener {
+    void onPlaybackStarted(String utteranceId);
+
+    void onPlaybackCompleted(String utteranceId, boolean success);
+  }
+
+  /** Synthesized audio of an utterance. */
+  private static final class Clip {
+    final File file;
+    int sampleRate;
+    int channelCount;
+    int encoding;
+    int frameSize;
+
+    /** PCM audio, or null if it was released from memory and must be read from the file. */
+    byte @Nullable [] pcm;
+
+    /** Whether the audio is being read from the file in the background. */
+    boolean loading;
+
+    Clip(File file) {
+      this.file = file;
+    }
+  }
+
+  private final File directory;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final PlaybackListener playbackListener;
+  private final TrackFactory trackFactory;
+  private final Executor loadExecutor = Executors.newSingleThreadExecutor();
+
+  private volatile boolean enabled = false;
+
+  /** Synthesized clips by cache key, least recently used first. */
+  private final LinkedHashMap<String, Clip> clips = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Number of times that uncached utterances were spoken, by cache key. */
+  private final LinkedHashMap<String, Integer> speakCounts =
+      new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+          return size() > MAX_CANDIDATES;
+        }
+      };
+
+  private int memoryBytes = 0;
+
+  /** Cache key and file of the synthesis request in progress, or null if there is none. */
+  private @Nullable String synthesisKey;
+
+  private @Nullable File synthesisFile;
+  private @Nullable String synthesisUtteranceId;
+  private int synthesisStream;
+  private int synthesisCount = 0;
+
+  /** Increases when the cache is cleared, to drop synthesis results requested before. */
+  private int generation = 0;
+
+  private int synthesisGeneration = 0;
+
+  /** Tracks by audio format and stream, used on the main thread only. */
+  private final SparseArray<AudioTrack> tracks = new SparseArray<>();
+
+  /** Samples of the playing clip with a gain applied, reused across clips. */
+  private byte[] gainPcm = new byte[0];
+
+  /** The track that is playing, and the clip it plays, or null if none is playing. */
+  private @Nullable AudioTrack track;
+
+  private @Nullable String trackUtteranceId;
+  private byte @Nullable [] trackPcm;
+  /** Bytes of the playing clip, at the start of trackPcm. */
+  private int trackLength;
+  /** Bytes of the playing clip that were written to the track. */
+  private int trackOffset;
+
+  private int trackSampleRate;
+  /** Time at which the playing clip was requested, or 0 once its start was measured. */
+  private long trackRequestNanos;
+
+  /** Increases with each played clip, to drop timeouts of clips that were interrupted. */
+  private int playbackCount = 0;
+
+  private final AudioTimestamp timestamp = new AudioTimestamp();
+
+  private long hitCount = 0;
+  private long missCount = 0;
+
+  /** Total time from requesting a clip to playing its first frame. */
+  private long hitLatencyNanos = 0;
+
+  private long hitLatencyCount = 0;
+
+  /** The cacheable utterance sent to the engine, whose first audio is awaited, if any. */
+  private @Nullable String engineUtteranceId;
+
+  private long engineRequestNanos;
+
+  /** Total time from sending a cacheable utterance to the engine to its first audio. */
+  private long engineLatencyNanos = 0;
+
+  private long engineLatencyCount = 0;
+
+  private final AudioTrack.OnPlaybackPositionUpdateListener positionListener =
+      new AudioTrack.OnPlaybackPositionUpdateListener() {
+        @Override
+        public void onMarkerReached(AudioTrack audioTrack) {
+          if (audioTrack == track) {
+            complete(playbackCount);
+          }
+        }
+
+        @Override
+        public void onPeriodicNotification(AudioTrack audioTrack) {
+          if (audioTrack == track) {
+            measureStart();
+            feed();
+          }
+        }
+      };
+
+  SpeechAudioCache(Context context, PlaybackListener playbackListener) {
+    this(context, playbackListener, DEFAULT_TRACK_FACTORY);
+  }
+
+  @VisibleForTesting
+  SpeechAudioCache(Context context, PlaybackListener playbackListener, TrackFactory trackFactory) {
+    directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+    this.playbackListener = playbackListener;
+    this.trackFactory = trackFactory;
+    deleteFiles();
+  }
+
+  /** Enables the cache. Disabling it stops playback and deletes all audio. */
+  void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    if (!enabled) {
+      stop(/* interrupted= */ false);
+      invalidate();
+    }
+  }
+
+  /** Returns whether the utterance ID belongs to a synthesis request of the cache. */
+  static boolean isSynthesisUtteranceId(@Nullable String utteranceId) {
+    return (utteranceId != null) && utteranceId.startsWith(SYNTHESIS_UTTERANCE_ID_PREFIX);
+  }
+
+  /**
+   * Returns the key of the synthesized audio of the text, spoken with the parameters, or null if
+   * the utterance cannot be cached.
+   */
+  @Nullable
+  String getCacheKey(CharSequence text, @Nullable Locale locale, Bundle params) {
+    if (!enabled || text.length() > MAX_TEXT_LENGTH) {
+      return null;
+    }
+    if ((text instanceof Spanned)
+        && ((Spanned) text).getSpans(0, text.length(), Object.class).length > 0) {
+      return null;
+    }
+
+    for (String key : params.keySet()) {
+      if (!isCachedParam(key)) {
+        return null;
+      }
+    }
+
+    return params.getInt(FailoverTextToSpeech.SpeechParam.PITCH)
+        + "|"
+        + params.getInt(FailoverTextToSpeech.SpeechParam.RATE)
+        + "|"
+        + locale
+        + "|"
+        + text;
+  }
+
+  private static boolean isCachedParam(String key) {
+    for (String cachedParam : CACHED_PARAMS) {
+      if (cachedParam.equals(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Plays the synthesized audio of the utterance, if it is cached and in memory, interrupting the
+   * clip that is playing. Audio that is cached but not in memory is read in the background, for
+   * the next time that the utterance is spoken.
+   *
+   * @param stream The stream that the engine would speak the utterance on
+   * @param volume The volume of the utterance, from 0 to 2 like {@link
+   *     FailoverTextToSpeech.SpeechParam#VOLUME}
+   * @return {@code true} if the audio is played, and the listener will be called when it completes
+   */
+  boolean play(String cacheKey, String utteranceId, int stream, float volume) {
+    final long requestNanos = System.nanoTime();
+    Clip clip;
+    byte[] pcm;
+    synchronized (this) {
+      clip = clips.get(cacheKey);
+      if (clip == null) {
+        missCount++;
+        return false;
+      }
+      pcm = clip.pcm;
+      if (pcm == null) {
+        missCount++;
+        load(cacheKey, clip);
+        return false;
+      }
+      hitCount++;
+    }
+
+    stop(/* interrupted= */ true);
+    final @Nullable AudioTrack newTrack = getTrack(clip, stream);
+    if (newTrack == null) {
+      return false;
+    }
+    // Tracks cap their volume at the maximum, while the engine amplifies louder speech.
+    float trackVolume = Math.min(volume, AudioTrack.getMaxVolume());
+    track = newTrack;
+    trackUtteranceId = utteranceId;
+    trackPcm = (volume > trackVolume) ? applyGain(pcm, clip, volume / trackVolume) : pcm;
+    trackLength = pcm.length;
+    trackOffset = 0;
+    trackSampleRate = clip.sampleRate;
+    trackRequestNanos = requestNanos;
+    playbackCount++;
+
+    final int frameCount = pcm.length / clip.frameSize;
+    try {
+      newTrack.setVolume(trackVolume);
+      newTrack.setNotificationMarkerPosition(frameCount);
+      // Fill the buffer before playing, so that the first frames are played without waiting.
+      feed();
+      newTrack.play();
+    } catch (IllegalStateException e) {
+      LogUtils.w(TAG, "Failed to play cached speech: %s", e);
+      pauseTrack();
+      return false;
+    }
+
+    final int playback = playbackCount;
+    long durationMs = (1000L * frameCount) / clip.sampleRate;
+    handler.postDelayed(() -> complete(playback), durationMs + PLAYBACK_TIMEOUT_MS);
+    playbackListener.onPlaybackStarted(utteranceId);
+    return true;
+  }
+
+  /**
+   * Returns the track for the format of the clip and the stream, creating it if needed, or null if
+   * it fails.
+   */
+  private @Nullable AudioTrack getTrack(Clip clip, int stream) {
+    int trackKey = getTrackKey(clip, stream);
+    AudioTrack streamTrack = tracks.get(trackKey);
+    if (streamTrack == null) {
+      try {
+        streamTrack = createTrack(clip, stream);
+      } catch (RuntimeException e) {
+        LogUtils.w(TAG, "Failed to create track for cached speech: %s", e);
+        return null;
+      }
+      tracks.put(trackKey, streamTrack);
+    }
+    return streamTrack;
+  }
+
+  /** Returns the key of the track for the clip and the stream, for sample rates below 2 MHz. */
+  private static int getTrackKey(Clip clip, int stream) {
+    return (stream << 24)
+        | (clip.sampleRate << 3)
+        | (clip.channelCount << 1)
+        | ((clip.encoding == AudioFormat.ENCODING_PCM_8BIT) ? 1 : 0);
+  }
+
+  private AudioTrack createTrack(Clip clip, int stream) {
+    int channelMask =
+        (clip.channelCount == 1) ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+    int bufferSize =
+        Math.max(
+            AudioTrack.getMinBufferSize(clip.sampleRate, channelMask, clip.encoding),
+            (clip.sampleRate * TRACK_BUFFER_MS / 1000) * clip.frameSize);
+    // Like the attributes that the engine plays speech with, for the stream of the utterance.
+    AudioAttributes attributes =
+        new AudioAttributes.Builder()
+            .setLegacyStreamType(stream)
+            .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+            .build();
+    AudioFormat format =
+        new AudioFormat.Builder()
+            .setEncoding(clip.encoding)
+            .setSampleRate(clip.sampleRate)
+            .setChannelMask(channelMask)
+            .build();
+    AudioTrack newTrack = trackFactory.createTrack(attributes, format, bufferSize);
+    // Refill the buffer when half of it was played.
+    newTrack.setPositionNotificationPeriod(bufferSize / clip.frameSize / 2);
+    newTrack.setPlaybackPositionUpdateListener(positionListener, handler);
+    return newTrack;
+  }
+
+  /**
+   * Returns the samples of the clip multiplied by the gain and clipped, at the start of a buffer
+   * that may be longer, and is reused by the next call.
+   */
+  private byte[] applyGain(byte[] pcm, Clip clip, float gain) {
+    if (gainPcm.length < pcm.length) {
+      gainPcm = new byte[pcm.length];
+    }
+    if (clip.encoding == AudioFormat.ENCODING_PCM_8BIT) {
+      // Unsigned samples, centered on 128.
+      for (int i = 0; i < pcm.length; i++) {
+        int sample = Math.round(((pcm[i] & 0xFF) - 128) * gain);
+        gainPcm[i] = (byte) (Math.max(-128, Math.min(127, sample)) + 128);
+      }
+    } else {
+      // Signed little-endian 16-bit samples.
+      for (int i = 0; i + 1 < pcm.length; i += 2) {
+        int sample = Math.round((short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8)) * gain);
+        sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        gainPcm[i] = (byte) sample;
+        gainPcm[i + 1] = (byte) (sample >> 8);
+      }
+    }
+    return gainPcm;
+  }
+
+  /** Writes as much of the playing clip to its track as fits, without blocking. */
+  private void feed() {
+    if (track == null || trackPcm == null || trackOffset >= trackLength) {
+      return;
+    }
+    int written =
+        track.write(trackPcm, trackOffset, trackLength - trackOffset, AudioTrack.WRITE_NON_BLOCKING);
+    if (written > 0) {
+      trackOffset += written;
+    }
+  }
+
+  /** Measures when the first frame of the playing clip was played, once the track reports it. */
+  private void measureStart() {
+    if (track == null || trackRequestNanos == 0 || !track.getTimestamp(timestamp)) {
+      return;
+    }
+    long startNanos = timestamp.nanoTime - (1000000000L * timestamp.framePosition) / trackSampleRate;
+    synchronized (this) {
+      hitLatencyNanos += Math.max(0, startNanos - trackRequestNanos);
+      hitLatencyCount++;
+    }
+    trackRequestNanos = 0;
+  }
+
+  private void complete(int playback) {
+    if (playback != playbackCount || track == null) {
+      return;
+    }
+    measureStart();
+    String utteranceId = trackUtteranceId;
+    pauseTrack();
+    playbackListener.onPlaybackCompleted(utteranceId, /* success= */ true);
+  }
+
+  /**
+   * Stops the clip that is playing, if any.
+   *
+   * @param interrupted Whether the listener is told that the clip was interrupted
+   */
+  void stop(boolean interrupted) {
+    if (track == null) {
+      return;
+    }
+    String utteranceId = trackUtteranceId;
+    pauseTrack();
+    if (interrupted) {
+      playbackListener.onPlaybackCompleted(utteranceId, /* success= */ false);
+    }
+  }
+
+  /** Stops the playing track and drops its buffered audio, keeping the track for the next clip. */
+  private void pauseTrack() {
+    if (track == null) {
+      return;
+    }
+    try {
+      track.pause();
+      track.flush();
+    } catch (IllegalStateException e) {
+      // The track was not initialized.
+    }
+    track = null;
+    trackUtteranceId = null;
+    trackPcm = null;
+  }
+
+  /** Stops playback and releases all tracks, on the main thread. */
+  private void releaseTracks() {
+    stop(/* interrupted= */ true);
+    for (int i = 0; i < tracks.size(); i++) {
+      tracks.valueAt(i).release();
+    }
+    tracks.clear();
+  }
+
+  /**
+   * Counts an utterance that was sent to the engine, and requests its synthesis once it was spoken
+   * often enough.
+   *
+   * @param params The engine parameters of the utterance, which are copied for synthesis
+   */
+  void onSpoken(String cacheKey, CharSequence text, TextToSpeech tts, Bundle params) {
+    File file;
+    String utteranceId;
+    synchronized (this) {
+      if (!enabled || clips.containsKey(cacheKey)) {
+        return;
+      }
+      Integer count = speakCounts.get(cacheKey);
+      count = (count == null) ? 1 : (count + 1);
+      if ((count < MIN_SPEAK_COUNT) || (synthesisKey != null)) {
+        speakCounts.put(cacheKey, count);
+        return;
+      }
+      speakCounts.remove(cacheKey);
+
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        LogUtils.w(TAG, "Failed to create %s", directory);
+        return;
+      }
+      synthesisCount++;
+      utteranceId = SYNTHESIS_UTTERANCE_ID_PREFIX + synthesisCount;
+      file = new File(directory, utteranceId + ".wav");
+      synthesisKey = cacheKey;
+      synthesisFile = file;
+      synthesisUtteranceId = utteranceId;
+      synthesisGeneration = generation;
+      synthesisStream = params.getInt(Engine.KEY_PARAM_STREAM, SpeechController.DEFAULT_STREAM);
+    }
+
+    Bundle synthesisParams = new Bundle(params);
+    synthesisParams.remove(Engine.KEY_PARAM_UTTERANCE_ID);
+    synthesisParams.remove(Engine.KEY_PARAM_STREAM);
+    synthesisParams.remove(Engine.KEY_PARAM_VOLUME);
+    int result;
+    try {
+      result = tts.synthesizeToFile(text, synthesisParams, file, utteranceId);
+    } catch (RuntimeException e) {
+      result = TextToSpeech.ERROR;
+    }
+    if (result != TextToSpeech.SUCCESS) {
+      onSynthesisCompleted(utteranceId, /* success= */ false);
+    }
+  }
+
+  /** Handles the completion of a synthesis request, on the engine thread. */
+  void onSynthesisCompleted(String utteranceId, boolean success) {
+    File file;
+    String cacheKey;
+    int requestGeneration;
+    int stream;
+    synchronized (this) {
+      if (!utteranceId.equals(synthesisUtteranceId)) {
+        // The cache was cleared after the request.
+        new File(directory, utteranceId + ".wav").delete();
+        return;
+      }
+      file = synthesisFile;
+      cacheKey = synthesisKey;
+      requestGeneration = synthesisGeneration;
+      stream = synthesisStream;
+      synthesisKey = null;
+      synthesisFile = null;
+      synthesisUtteranceId = null;
+    }
+
+    Clip clip = new Clip(file);
+    byte[] pcm = success ? readWav(clip) : null;
+    synchronized (this) {
+      if (pcm == null || !enabled || generation != requestGeneration) {
+        file.delete();
+        return;
+      }
+      clip.pcm = pcm;
+      memoryBytes += pcm.length;
+      Clip replaced = clips.put(cacheKey, clip);
+      if (replaced != null) {
+        removeClip(replaced);
+      }
+      trim();
+    }
+    // Build the track for the format of the clip before it is played.
+    handler.post(
+        () -> {
+          if (enabled) {
+            getTrack(clip, stream);
+          }
+        });
+  }
+
+  /** Notes that a cacheable utterance was sent to the engine, to measure its latency. */
+  synchronized void onEngineSpeak(String utteranceId) {
+    engineUtteranceId = utteranceId;
+    engineRequestNanos = System.nanoTime();
+  }
+
+  /** Notes the synthesized audio of an engine utterance, on the engine thread. */
+  synchronized void onEngineAudioAvailable(@Nullable String utteranceId) {
+    if (engineUtteranceId == null || !engineUtteranceId.equals(utteranceId)) {
+      return;
+    }
+    engineLatencyNanos += System.nanoTime() - engineRequestNanos;
+    engineLatencyCount++;
+    engineUtteranceId = null;
+  }
+
+  /** Deletes all audio, for example when the engine, the locale, the pitch or the rate changes. */
+  synchronized void invalidate() {
+    generation++;
+    clips.clear();
+    speakCounts.clear();
+    memoryBytes = 0;
+    synthesisKey = null;
+    synthesisFile = null;
+    synthesisUtteranceId = null;
+    deleteFiles();
+    handler.post(this::releaseTracks);
+  }
+
+  /** Releases audio from memory and deletes clips, least recently used first, to fit the limits. */
+  private void trim() {
+    Iterator<Clip> iterator = clips.values().iterator();
+    while (iterator.hasNext() && (clips.size() > MAX_CLIPS || memoryBytes > MAX_MEMORY_BYTES)) {
+      Clip clip = iterator.next();
+      if (clips.size() > MAX_CLIPS) {
+        iterator.remove();
+        removeClip(clip);
+      } else if (clip.pcm != null) {
+        memoryBytes -= clip.pcm.length;
+        clip.pcm = null;
+      }
+    }
+  }
+
+  private void removeClip(Clip clip) {
+    if (clip.pcm != null) {
+      memoryBytes -= clip.pcm.length;
+      clip.pcm = null;
+    }
+    clip.file.delete();
+  }
+
+  /**
+   * Reads the audio of a clip that was released from memory on a background thread, unless it is
+   * already being read. Must be called while holding the lock.
+   */
+  private void load(String cacheKey, Clip clip) {
+    if (clip.loading) {
+      return;
+    }
+    clip.loading = true;
+    final int loadGeneration = generation;
+    loadExecutor.execute(
+        () -> {
+          byte[] pcm = readWav(new Clip(clip.file));
+          synchronized (this) {
+            clip.loading = false;
+            if (generation != loadGeneration || clips.get(cacheKey) != clip) {
+              // The clip was dropped while it was read.
+              return;
+            }
+            if (pcm == null) {
+              clips.remove(cacheKey);
+              clip.file.delete();
+            } else if (clip.pcm == null) {
+              clip.pcm = pcm;
+              memoryBytes += pcm.length;
+              trim();
+            }
+          }
+        });
+  }
+
+  /**
+   * Reads the PCM audio of the clip's WAV file, and sets the format of the clip. Returns null if
+   * the file cannot be read or is not 8 or 16 bit PCM.
+   */
+  private static byte @Nullable [] readWav(Clip clip) {
+    byte[] bytes;
+    try (InputStream input = new FileInputStream(clip.file)) {
+      bytes = new byte[(int) clip.file.length()];
+      int offset = 0;
+      int read;
+      while (offset < bytes.length
+          && (read = input.read(bytes, offset, bytes.length - offset)) > 0) {
+        offset += read;
+      }
+      if (offset < bytes.length) {
+        return null;
+      }
+    } catch (IOException e) {
+      LogUtils.w(TAG, "Failed to read %s: %s", clip.file, e);
+      return null;
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    if (bytes.length < 12 || buffer.getInt(0) != 0x46464952 || buffer.getInt(8) != 0x45564157) {
+      // Not "RIFF" ... "WAVE".
+      return null;
+    }
+    boolean hasFormat = false;
+    int position = 12;
+    while (position + 8 <= bytes.length) {
+      int chunkId = buffer.getInt(position);
+      int chunkSize = buffer.getInt(position + 4);
+      int chunkStart = position + 8;
+      if (chunkSize < 0 || chunkSize > bytes.length - chunkStart) {
+        // Engines may leave the size of the data chunk unset while streaming.
+        chunkSize = bytes.length - chunkStart;
+      }
+      if (chunkId == 0x20746d66) { // "fmt "
+        int audioFormat = buffer.getShort(chunkStart) & 0xFFFF;
+        clip.channelCount = buffer.getShort(chunkStart + 2) & 0xFFFF;
+        clip.sampleRate = buffer.getInt(chunkStart + 4);
+        int bitsPerSample = buffer.getShort(chunkStart + 14) & 0xFFFF;
+        if (audioFormat != 1
+            || (clip.channelCount != 1 && clip.channelCount != 2)
+            || (bitsPerSample != 8 && bitsPerSample != 16)
+            || clip.sampleRate <= 0) {
+          return null;
+        }
+        clip.encoding =
+            (bitsPerSample == 8) ? AudioFormat.ENCODING_PCM_8BIT : AudioFormat.ENCODING_PCM_16BIT;
+        clip.frameSize = clip.channelCount * bitsPerSample / 8;
+        hasFormat = true;
+      } else if (chunkId == 0x61746164 && hasFormat) { // "data"
+        int length = chunkSize - (chunkSize % clip.frameSize);
+        if (length == 0) {
+          return null;
+        }
+        byte[] pcm = new byte[length];
+        System.arraycopy(bytes, chunkStart, pcm, 0, length);
+        return pcm;
+      }
+      position = chunkStart + chunkSize + (chunkSize & 1);
+    }
+    return null;
+  }
+
+  private void deleteFiles() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      file.delete();
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    long lookups = hitCount + missCount;
+    return TAG
+        + "{enabled="
+        + enabled
+        + ", clips="
+        + clips.size()
+        + ", memoryBytes="
+        + memoryBytes
+        + ", hits="
+        + hitCount
+        + ", misses="
+        + missCount
+        + ", hitRate="
+        + ((lookups == 0) ? 0 : (100 * hitCount / lookups))
+        + "%, hitLatencyMs="
+        + getAverageMs(hitLatencyNanos, hitLatencyCount)
+        + ", engineLatencyMs="
+        + getAverageMs(engineLatencyNanos, engineLatencyCount)
+        + "}";
+  }
+
+  private static float getAverageMs(long totalNanos, long count) {
+    return (count == 0) ? 0 : (totalNanos / 1000000f / count);
+  }
+}
@@ -69,6 +69,7 @@ public interface SpeechController {
   int UTTERANCE_GROUP_SEEK_PROGRESS = 2;
   int UTTERANCE_GROUP_PROGRESS_BAR_PROGRESS = 3;
   int UTTERANCE_GROUP_SCREEN_MAGNIFICATION = 4;
+  int UTTERANCE_GROUP_CONTINUOUS_READING = 5;
 
   /**
    * Delegate that is registered in {@link SpeechController} to provide callbacks when processing
@@ -392,6 +393,12 @@ public interface SpeechController {
       boolean callObserver,
       boolean interruptItemsThatCanIgnoreInterrupts);
 
+  /**
+   * Removes the queued utterances of an utterance group, without interrupting the utterance which
+   * is currently speaking. Removed utterances are completed with {@link #STATUS_INTERRUPTED}.
+   */
+  void clearQueuedUtterances(int utteranceGroup);
+
 
   int peekNextUtteranceId();
 
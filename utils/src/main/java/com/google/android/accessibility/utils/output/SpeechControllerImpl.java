@@ -42,6 +42,7 @@ import android.text.TextUtils;
 import android.text.style.ReplacementSpan;
 import android.text.style.TtsSpan;
 import android.util.Range;
+import android.util.SparseIntArray;
 import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import com.google.android.accessibility.utils.BuildVersionUtils;
@@ -55,14 +56,13 @@ import com.google.android.accessibility.utils.output.FailoverTextToSpeech.Speech
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Locale;
 import java.util.PriorityQueue;
 import java.util.Set;
@@ -125,15 +125,15 @@ public class SpeechControllerImpl implements SpeechController {
   private final HashMap<Integer, UtteranceRangeStartCallback> mUtteranceRangeStartCallbacks =
       new HashMap<>();
 
-  /** The list of items to be spoken. */
-  private ArrayList<FeedbackItem> feedbackQueue = new ArrayList<>();
-  /** The list for stopping or resuming voice feedback. */
-  private ArrayList<FeedbackItem> savedFeedbackQueue;
+  /** The queue of items to be spoken. */
+  private FeedbackItemQueue feedbackQueue = new FeedbackItemQueue();
+  /** The queue for stopping or resuming voice feedback. */
+  private FeedbackItemQueue savedFeedbackQueue;
   /** Keep the feedbackSavedTime to correlate it to the Pause gesture */
   private long feedbackSavedTime;
 
   /** The list of recently-spoken items. */
-  private final LinkedList<FeedbackItem> mFeedbackHistory = new LinkedList<>();
+  private final ArrayDeque<FeedbackItem> mFeedbackHistory = new ArrayDeque<>(MAX_HISTORY_ITEMS);
 
   /** Talkback speech deliberately saved by a caller of saveLastUtterance() */
   private @Nullable FeedbackItem savedUtterance;
@@ -980,18 +980,28 @@ public class SpeechControllerImpl implements SpeechController {
 
     boolean currentFeedbackInterrupted = false;
     if (shouldClearQueue(item, queueMode)) {
-      FeedbackItemFilter filter = getFeedbackItemFilter(item, queueMode);
-      // Call onUtteranceComplete on each queue item to be cleared.
-      ListIterator<FeedbackItem> iterator = feedbackQueue.listIterator(0);
-      while (iterator.hasNext()) {
-        FeedbackItem currentItem = iterator.next();
-        if (filter.accept(currentItem)) {
-          iterator.remove();
-          notifyItemInterrupted(currentItem);
-        }
-      }
-
-      if (mCurrentFeedbackItem != null && filter.accept(mCurrentFeedbackItem)) {
+      boolean clearInterruptible = clearsInterruptibleItems(queueMode);
+      boolean clearGroup =
+          (item.getUtteranceGroup() != UTTERANCE_GROUP_DEFAULT)
+              && item.hasFlag(FeedbackItem.FLAG_CLEAR_QUEUED_UTTERANCES_WITH_SAME_UTTERANCE_GROUP);
+      boolean interruptCurrentInGroup =
+          (item.getUtteranceGroup() != UTTERANCE_GROUP_DEFAULT)
+              && item.hasFlag(
+                  FeedbackItem.FLAG_INTERRUPT_CURRENT_UTTERANCE_WITH_SAME_UTTERANCE_GROUP);
+
+      // Call onUtteranceComplete on each queue item to be cleared. The current item is never
+      // queued, so clearing the group does not clear it.
+      notifyItemsInterrupted(
+          feedbackQueue.removeItems(
+              clearInterruptible,
+              clearGroup,
+              item.getUtteranceGroup(),
+              /* notIgnoringInterrupts= */ false));
+
+      if (mCurrentFeedbackItem != null
+          && ((clearInterruptible && mCurrentFeedbackItem.isInterruptible())
+              || (interruptCurrentInGroup
+                  && mCurrentFeedbackItem.getUtteranceGroup() == item.getUtteranceGroup()))) {
         notifyItemInterrupted(mCurrentFeedbackItem);
         currentFeedbackInterrupted = true;
       }
@@ -1038,9 +1048,7 @@ public class SpeechControllerImpl implements SpeechController {
   private boolean shouldClearQueue(FeedbackItem item, int queueMode) {
     // QUEUE_MODE_INTERRUPT, QUEUE_MODE_FLUSH_ALL and QUEUE_MODE_CAN_IGNORE_INTERRUPTS will clear
     // the queue.
-    if (queueMode != QUEUE_MODE_QUEUE
-        && queueMode != QUEUE_MODE_UNINTERRUPTIBLE_BY_NEW_SPEECH
-        && queueMode != QUEUE_MODE_UNINTERRUPTIBLE_BY_NEW_SPEECH_CAN_IGNORE_INTERRUPTS) {
+    if (clearsInterruptibleItems(queueMode)) {
       return true;
     }
 
@@ -1063,39 +1071,17 @@ public class SpeechControllerImpl implements SpeechController {
     return false;
   }
 
-  private FeedbackItemFilter getFeedbackItemFilter(FeedbackItem item, int queueMode) {
-    FeedbackItemFilter filter = new FeedbackItemFilter();
-    if (queueMode != QUEUE_MODE_QUEUE
+  /** Returns whether speech in the queue mode interrupts all interruptible items. */
+  private static boolean clearsInterruptibleItems(int queueMode) {
+    return queueMode != QUEUE_MODE_QUEUE
         && queueMode != QUEUE_MODE_UNINTERRUPTIBLE_BY_NEW_SPEECH
-        && queueMode != QUEUE_MODE_UNINTERRUPTIBLE_BY_NEW_SPEECH_CAN_IGNORE_INTERRUPTS) {
-      filter.addFeedbackItemPredicate(new FeedbackItemInterruptiblePredicate());
-    }
-
-    if (item.getUtteranceGroup() != UTTERANCE_GROUP_DEFAULT
-        && item.hasFlag(FeedbackItem.FLAG_CLEAR_QUEUED_UTTERANCES_WITH_SAME_UTTERANCE_GROUP)) {
-      FeedbackItemPredicate notCurrentItemPredicate =
-          new FeedbackItemEqualSamplePredicate(mCurrentFeedbackItem, false);
-      FeedbackItemPredicate sameUtteranceGroupPredicate =
-          new FeedbackItemUtteranceGroupPredicate(item.getUtteranceGroup());
-      FeedbackItemPredicate clearQueuePredicate =
-          new FeedbackItemConjunctionPredicateSet(
-              notCurrentItemPredicate, sameUtteranceGroupPredicate);
-      filter.addFeedbackItemPredicate(clearQueuePredicate);
-    }
+        && queueMode != QUEUE_MODE_UNINTERRUPTIBLE_BY_NEW_SPEECH_CAN_IGNORE_INTERRUPTS;
+  }
 
-    if (item.getUtteranceGroup() != UTTERANCE_GROUP_DEFAULT
-        && item.hasFlag(FeedbackItem.FLAG_INTERRUPT_CURRENT_UTTERANCE_WITH_SAME_UTTERANCE_GROUP)) {
-      FeedbackItemPredicate currentItemPredicate =
-          new FeedbackItemEqualSamplePredicate(mCurrentFeedbackItem, true);
-      FeedbackItemPredicate sameUtteranceGroupPredicate =
-          new FeedbackItemUtteranceGroupPredicate(item.getUtteranceGroup());
-      FeedbackItemPredicate clearQueuePredicate =
-          new FeedbackItemConjunctionPredicateSet(
-              currentItemPredicate, sameUtteranceGroupPredicate);
-      filter.addFeedbackItemPredicate(clearQueuePredicate);
+  private void notifyItemsInterrupted(List<FeedbackItem> items) {
+    for (int i = 0; i < items.size(); i++) {
+      notifyItemInterrupted(items.get(i));
     }
-
-    return filter;
   }
 
   private void notifyItemInterrupted(FeedbackItem item) {
@@ -1113,26 +1099,23 @@ public class SpeechControllerImpl implements SpeechController {
    *     new item.
    */
   private boolean hasItemOnQueueOrSpeaking(FeedbackItem item, int[] expectedUtteranceId) {
-    int accumulatedUtterance =
-        mCurrentFeedbackItem == null
-            ? peekNextUtteranceId()
-            : Integer.parseInt(
-                mCurrentFeedbackItem.getUtteranceId().substring(UTTERANCE_ID_PREFIX.length()));
     if (item == null) {
       return false;
     }
+    int accumulatedUtterance =
+        mCurrentFeedbackItem == null
+            ? peekNextUtteranceId()
+            : mCurrentFeedbackItem.getUtteranceIndex();
 
     if (feedbackTextEquals(item, mCurrentFeedbackItem)) {
       expectedUtteranceId[0] = accumulatedUtterance;
       return true;
     }
 
-    for (FeedbackItem queuedItem : feedbackQueue) {
-      accumulatedUtterance++;
-      if (feedbackTextEquals(item, queuedItem)) {
-        expectedUtteranceId[0] = accumulatedUtterance;
-        return true;
-      }
+    int queuePosition = feedbackQueue.indexOfText(item);
+    if (queuePosition >= 0) {
+      expectedUtteranceId[0] = accumulatedUtterance + queuePosition + 1;
+      return true;
     }
 
     long currentTime = item.getCreationTime();
@@ -1151,10 +1134,14 @@ public class SpeechControllerImpl implements SpeechController {
    * Compares feedback fragments based on their text only. Ignores other parameters such as earcons
    * and interruptibility.
    */
-  private boolean feedbackTextEquals(@Nullable FeedbackItem item1, @Nullable FeedbackItem item2) {
+  private static boolean feedbackTextEquals(
+      @Nullable FeedbackItem item1, @Nullable FeedbackItem item2) {
     if (item1 == null || item2 == null) {
       return false;
     }
+    if (item1.getTextHash() != item2.getTextHash()) {
+      return false;
+    }
 
     List<FeedbackFragment> fragments1 = item1.getFragments();
     List<FeedbackFragment> fragments2 = item2.getFragments();
@@ -1268,6 +1255,16 @@ public class SpeechControllerImpl implements SpeechController {
     }
   }
 
+  @Override
+  public void clearQueuedUtterances(int utteranceGroup) {
+    notifyItemsInterrupted(
+        feedbackQueue.removeItems(
+            /* interruptible= */ false,
+            /* inGroup= */ true,
+            utteranceGroup,
+            /* notIgnoringInterrupts= */ false));
+  }
+
   /** Check the last request status and then stop or resume utterance. */
   public void pauseOrResumeUtterance() {
     if (requestPause) {
@@ -1413,7 +1410,7 @@ public class SpeechControllerImpl implements SpeechController {
   private void speakNextItemInternal(FeedbackItem item) {
     final int utteranceIndex = getNextUtteranceId();
     final String utteranceId = UTTERANCE_ID_PREFIX + utteranceIndex;
-    item.setUtteranceId(utteranceId);
+    item.setUtteranceId(utteranceId, utteranceIndex);
     currentFragmentIterator.setFeedBackItemUtteranceId(utteranceId);
     // Track latency from event received to feedback queued.
     EventId eventId = item.getEventId();
@@ -1443,7 +1440,7 @@ public class SpeechControllerImpl implements SpeechController {
 
     if ((item != null) && !item.hasFlag(FeedbackItem.FLAG_NO_HISTORY)) {
       while (mFeedbackHistory.size() >= MAX_HISTORY_ITEMS) {
-        mFeedbackHistory.remove(mFeedbackHistory.peek());
+        mFeedbackHistory.pollFirst();
       }
       mFeedbackHistory.addLast(item);
     }
@@ -1577,6 +1574,20 @@ public class SpeechControllerImpl implements SpeechController {
     }
   }
 
+  /**
+   * Returns the index of the utterance ID, or -1 if the ID is invalid. The index of the current
+   * item is kept with the item, and only other IDs are parsed.
+   */
+  private int getUtteranceIndex(String utteranceId) {
+    final FeedbackItem currentItem = mCurrentFeedbackItem;
+    if (currentItem != null
+        && currentItem.getUtteranceIndex() >= 0
+        && utteranceId.equals(currentItem.getUtteranceId())) {
+      return currentItem.getUtteranceIndex();
+    }
+    return parseUtteranceId(utteranceId);
+  }
+
   /** @return The utterance ID, or -1 if the ID is invalid. */
   private static int parseUtteranceId(String utteranceId) {
     // Check for bad utterance ID. This should never happen.
@@ -1696,14 +1707,12 @@ public class SpeechControllerImpl implements SpeechController {
    *     speaking speech should be interrupted
    */
   private boolean clearCurrentAndQueuedUtterancesThatDontIgnoreInterrupts(boolean notifyObserver) {
-    ListIterator<FeedbackItem> iterator = feedbackQueue.listIterator(0);
-    while (iterator.hasNext()) {
-      FeedbackItem currentItem = iterator.next();
-      if (!currentItem.canIgnoreInterrupts()) {
-        iterator.remove();
-        notifyItemInterrupted(currentItem);
-      }
-    }
+    notifyItemsInterrupted(
+        feedbackQueue.removeItems(
+            /* interruptible= */ false,
+            /* inGroup= */ false,
+            UTTERANCE_GROUP_DEFAULT,
+            /* notIgnoringInterrupts= */ true));
 
     boolean currentFeedbackInterrupted = false;
     if (mCurrentFeedbackItem != null) {
@@ -1758,11 +1767,10 @@ public class SpeechControllerImpl implements SpeechController {
   }
 
   /** Save the current feedback and the contents of the feedback queue. */
-  @SuppressWarnings({"unchecked"})
   private void saveCurrentFeedbackInfo() {
     if (!requestPause) {
       feedbackSavedTime = SystemClock.uptimeMillis();
-      savedFeedbackQueue = (ArrayList<FeedbackItem>) feedbackQueue.clone();
+      savedFeedbackQueue = feedbackQueue.copy();
       savedFeedbackItem = mCurrentFeedbackItem;
       savedFragmentIterator =
           currentFragmentIterator != null ? currentFragmentIterator.deepCopy() : null;
@@ -1792,7 +1800,7 @@ public class SpeechControllerImpl implements SpeechController {
   }
 
   private void onFragmentStarted(String utteranceId) {
-    final int utteranceIndex = SpeechControllerImpl.parseUtteranceId(utteranceId);
+    final int utteranceIndex = getUtteranceIndex(utteranceId);
     onUtteranceStarted(utteranceIndex);
   }
 
@@ -1802,7 +1810,7 @@ public class SpeechControllerImpl implements SpeechController {
       currentFragmentIterator.onFragmentRangeStarted(utteranceId, start, end);
       offset = currentFragmentIterator.getFeedbackItemOffset();
     }
-    final int utteranceIndex = SpeechControllerImpl.parseUtteranceId(utteranceId);
+    final int utteranceIndex = getUtteranceIndex(utteranceId);
     onUtteranceRangeStarted(utteranceIndex, start + offset, end + offset);
   }
 
@@ -1824,7 +1832,7 @@ public class SpeechControllerImpl implements SpeechController {
       currentFragmentIterator.onFragmentCompleted(utteranceId, success);
     }
 
-    final int utteranceIndex = SpeechControllerImpl.parseUtteranceId(utteranceId);
+    final int utteranceIndex = getUtteranceIndex(utteranceId);
     final boolean interrupted =
         (mCurrentFeedbackItem != null)
             && (!mCurrentFeedbackItem.getUtteranceId().equals(utteranceId));
@@ -1975,7 +1983,7 @@ public class SpeechControllerImpl implements SpeechController {
    */
   private boolean speakNextItem() {
     final FeedbackItem previousItem = mCurrentFeedbackItem;
-    final FeedbackItem nextItem = (feedbackQueue.isEmpty() ? null : feedbackQueue.remove(0));
+    final FeedbackItem nextItem = feedbackQueue.poll();
 
     mCurrentFeedbackItem = nextItem;
 
@@ -2078,109 +2086,104 @@ public class SpeechControllerImpl implements SpeechController {
     }
   }
 
-  private interface FeedbackItemPredicate {
-    public boolean accept(FeedbackItem item);
-  }
-
-  private static class FeedbackItemDisjunctionPredicateSet implements FeedbackItemPredicate {
-    private FeedbackItemPredicate mPredicate1;
-    private FeedbackItemPredicate mPredicate2;
-
-    public FeedbackItemDisjunctionPredicateSet(
-        FeedbackItemPredicate predicate1, FeedbackItemPredicate predicate2) {
-      mPredicate1 = predicate1;
-      mPredicate2 = predicate2;
-    }
+  /**
+   * The queue of items to be spoken. Counts the queued items by text hash, so that looking for a
+   * queued item with the same text only walks the queue when such an item may be queued.
+   */
+  private static class FeedbackItemQueue {
 
-    @Override
-    public boolean accept(FeedbackItem item) {
-      return mPredicate1.accept(item) || mPredicate2.accept(item);
-    }
-  }
+    private final ArrayDeque<FeedbackItem> items = new ArrayDeque<>();
 
-  private static class FeedbackItemConjunctionPredicateSet implements FeedbackItemPredicate {
-    private FeedbackItemPredicate mPredicate1;
-    private FeedbackItemPredicate mPredicate2;
+    /** Number of queued items by {@link FeedbackItem#getTextHash()}. */
+    private final SparseIntArray textHashCounts = new SparseIntArray();
 
-    public FeedbackItemConjunctionPredicateSet(
-        FeedbackItemPredicate predicate1, FeedbackItemPredicate predicate2) {
-      mPredicate1 = predicate1;
-      mPredicate2 = predicate2;
+    public boolean isEmpty() {
+      return items.isEmpty();
     }
 
-    @Override
-    public boolean accept(FeedbackItem item) {
-      return mPredicate1.accept(item) && mPredicate2.accept(item);
+    public void add(FeedbackItem item) {
+      items.addLast(item);
+      countTextHash(item, 1);
     }
-  }
 
-  private static class FeedbackItemInterruptiblePredicate implements FeedbackItemPredicate {
-    @Override
-    public boolean accept(FeedbackItem item) {
-      if (item == null) {
-        return false;
+    /** Removes and returns the first item, or returns null if the queue is empty. */
+    public @Nullable FeedbackItem poll() {
+      FeedbackItem item = items.pollFirst();
+      if (item != null) {
+        countTextHash(item, -1);
       }
-
-      return item.isInterruptible();
+      return item;
     }
-  }
-
-  private static class FeedbackItemEqualSamplePredicate implements FeedbackItemPredicate {
-
-    private final @Nullable FeedbackItem mSample;
-    private final boolean mEqual;
 
-    public FeedbackItemEqualSamplePredicate(@Nullable FeedbackItem sample, boolean equal) {
-      mSample = sample;
-      mEqual = equal;
+    public void clear() {
+      items.clear();
+      textHashCounts.clear();
     }
 
-    @Override
-    public boolean accept(FeedbackItem item) {
-      if (mEqual) {
-        return mSample == item;
+    public FeedbackItemQueue copy() {
+      FeedbackItemQueue copy = new FeedbackItemQueue();
+      for (FeedbackItem item : items) {
+        copy.add(item);
       }
-
-      return mSample != item;
-    }
-  }
-
-  private static class FeedbackItemUtteranceGroupPredicate implements FeedbackItemPredicate {
-
-    private int mUtteranceGroup;
-
-    public FeedbackItemUtteranceGroupPredicate(int utteranceGroup) {
-      mUtteranceGroup = utteranceGroup;
+      return copy;
     }
 
-    @Override
-    public boolean accept(FeedbackItem item) {
-      if (item == null) {
-        return false;
+    /**
+     * Returns the position of the first queued item with the same text as the item, or -1 if there
+     * is none.
+     */
+    public int indexOfText(FeedbackItem item) {
+      if (textHashCounts.get(item.getTextHash(), 0) == 0) {
+        return -1;
       }
-
-      return item.getUtteranceGroup() == mUtteranceGroup;
+      int position = 0;
+      for (FeedbackItem queuedItem : items) {
+        if (feedbackTextEquals(item, queuedItem)) {
+          return position;
+        }
+        position++;
+      }
+      return -1;
     }
-  }
-
-  private static class FeedbackItemFilter {
 
-    private FeedbackItemPredicate mPredicate;
-
-    public void addFeedbackItemPredicate(FeedbackItemPredicate predicate) {
-      if (predicate == null) {
-        return;
+    /**
+     * Removes the items that are interruptible if {@code interruptible}, that are in the utterance
+     * group if {@code inGroup}, or that cannot ignore interrupts if {@code notIgnoringInterrupts},
+     * in a single pass over the queue.
+     *
+     * @return The removed items, in queue order
+     */
+    public List<FeedbackItem> removeItems(
+        boolean interruptible,
+        boolean inGroup,
+        int utteranceGroup,
+        boolean notIgnoringInterrupts) {
+      @Nullable List<FeedbackItem> removedItems = null;
+      for (int remaining = items.size(); remaining > 0; remaining--) {
+        FeedbackItem item = items.pollFirst();
+        if ((interruptible && item.isInterruptible())
+            || (inGroup && item.getUtteranceGroup() == utteranceGroup)
+            || (notIgnoringInterrupts && !item.canIgnoreInterrupts())) {
+          countTextHash(item, -1);
+          if (removedItems == null) {
+            removedItems = new ArrayList<>();
+          }
+          removedItems.add(item);
+        } else {
+          items.addLast(item);
+        }
       }
+      return (removedItems == null) ? Collections.emptyList() : removedItems;
+    }
 
-      if (mPredicate == null) {
-        mPredicate = predicate;
+    private void countTextHash(FeedbackItem item, int delta) {
+      int textHash = item.getTextHash();
+      int count = textHashCounts.get(textHash, 0) + delta;
+      if (count > 0) {
+        textHashCounts.put(textHash, count);
       } else {
-        mPredicate = new FeedbackItemDisjunctionPredicateSet(mPredicate, predicate);
+        textHashCounts.delete(textHash);
       }
     }
-
-    public boolean accept(FeedbackItem item) {
-      return mPredicate != null && mPredicate.accept(item);
-    }
   }
 }
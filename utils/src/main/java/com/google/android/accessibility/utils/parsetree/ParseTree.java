@@ -19,13 +19,18 @@ package com.google.android.accessibility.utils.parsetree;
 import android.content.res.Resources;
 import android.text.TextUtils;
 import android.util.Pair;
+import android.util.SparseArray;
 import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -80,8 +85,10 @@ import org.json.JSONObject;
  * <h4>Functions</h4>
  *
  * <p>Functions can be provided to provide an arbitrary transformation of data. They should always
- * produce the same result within a call to parseEventTo*(), given the same VariableDelegate. The
- * function should be annotated with @UsedByReflection.
+ * produce the same result within a call to parseEventTo*(), given the same VariableDelegate.
+ * Functions registered through one of the typed interfaces, such as {@link StringFunction}, are
+ * called directly. Functions registered by name are called through reflection, and should be
+ * annotated with @UsedByReflection.
  *
  * <h3>JSON format</h3>
  *
@@ -311,6 +318,138 @@ public class ParseTree {
     VariableDelegate getArrayChildElement(int variableId, int index);
   }
 
+  /** A function taking a String and returning a String. */
+  public interface StringFunction {
+    @Nullable
+    CharSequence apply(@Nullable CharSequence text);
+  }
+
+  /** A function taking two Strings and returning a String. */
+  public interface StringBiFunction {
+    @Nullable
+    CharSequence apply(@Nullable CharSequence text1, @Nullable CharSequence text2);
+  }
+
+  /** A function taking three Strings and returning a String. */
+  public interface StringTriFunction {
+    @Nullable
+    CharSequence apply(
+        @Nullable CharSequence text1, @Nullable CharSequence text2, @Nullable CharSequence text3);
+  }
+
+  /** A function taking two Strings and returning a Boolean. */
+  public interface StringBiPredicate {
+    boolean test(@Nullable CharSequence text1, @Nullable CharSequence text2);
+  }
+
+  /** A function taking a Number and returning an Integer. */
+  public interface NumberToIntegerFunction {
+    int apply(double value);
+  }
+
+  /** A function taking an Integer and returning a String. */
+  public interface IntegerToStringFunction {
+    @Nullable
+    CharSequence apply(int value);
+  }
+
+  /**
+   * Values of the outputs of one event, prepared by {@link #parseEventOutputs}. Outputs are indexed
+   * by output ID, and each output is evaluated the first time it is read, so outputs that the
+   * caller skips are never evaluated. An instance can be reused for several events, but not for
+   * two events at once.
+   */
+  public static final class OutputValues {
+    @Nullable private ParseTreeNode[] mNodes;
+    private int[] mOutputTypes = new int[0];
+    @Nullable private VariableDelegate mDelegate;
+    private boolean[] mEvaluated = new boolean[0];
+    private boolean[] mBooleans = new boolean[0];
+    private int[] mIntegers = new int[0];
+    private double[] mNumbers = new double[0];
+    private CharSequence[] mStrings = new CharSequence[0];
+
+    private void reset(
+        @Nullable ParseTreeNode[] nodes, int[] outputTypes, @Nullable VariableDelegate delegate) {
+      mNodes = nodes;
+      mOutputTypes = outputTypes;
+      mDelegate = delegate;
+      int size = outputTypes.length;
+      if (mEvaluated.length != size) {
+        mEvaluated = new boolean[size];
+        mBooleans = new boolean[size];
+        mIntegers = new int[size];
+        mNumbers = new double[size];
+        mStrings = new CharSequence[size];
+      } else {
+        Arrays.fill(mEvaluated, false);
+        Arrays.fill(mStrings, null);
+      }
+    }
+
+    /** Releases the event's variables, after the last output was read. */
+    public void clear() {
+      reset(/* nodes= */ null, mOutputTypes, /* delegate= */ null);
+    }
+
+    /** Returns whether the event defines the output. */
+    public boolean isDefined(int outputId) {
+      return mNodes != null
+          && outputId >= 0
+          && outputId < mNodes.length
+          && mNodes[outputId] != null
+          && mOutputTypes[outputId] != OUTPUT_UNDECLARED;
+    }
+
+    public boolean getBoolean(int outputId, boolean defaultValue) {
+      return evaluate(outputId) ? mBooleans[outputId] : defaultValue;
+    }
+
+    /** Returns the value of an integer or enum output. */
+    public int getInteger(int outputId, int defaultValue) {
+      return evaluate(outputId) ? mIntegers[outputId] : defaultValue;
+    }
+
+    public double getNumber(int outputId, double defaultValue) {
+      return evaluate(outputId) ? mNumbers[outputId] : defaultValue;
+    }
+
+    @Nullable
+    public CharSequence getString(int outputId) {
+      return evaluate(outputId) ? mStrings[outputId] : null;
+    }
+
+    /** Evaluates the output unless it was evaluated. Returns whether the event defines it. */
+    private boolean evaluate(int outputId) {
+      if (!isDefined(outputId)) {
+        return false;
+      }
+      if (mEvaluated[outputId]) {
+        return true;
+      }
+      ParseTreeNode node = mNodes[outputId];
+      switch (mOutputTypes[outputId]) {
+        case VARIABLE_BOOL:
+          mBooleans[outputId] = node.resolveToBoolean(mDelegate, "");
+          break;
+        case VARIABLE_INTEGER:
+        case VARIABLE_ENUM:
+          mIntegers[outputId] = node.resolveToInteger(mDelegate, "");
+          break;
+        case VARIABLE_NUMBER:
+          mNumbers[outputId] = node.resolveToNumber(mDelegate, "");
+          break;
+        case VARIABLE_STRING:
+          mStrings[outputId] = node.resolveToString(mDelegate, "");
+          break;
+        default:
+          return false;
+      }
+      mEvaluated[outputId] = true;
+      return true;
+    }
+  }
+
   /** Enum representing the variable types. */
   @IntDef({
     VARIABLE_BOOL,
@@ -385,7 +524,7 @@ public class ParseTree {
   static final int OPERATOR_OR = 12;
   static final int OPERATOR_POW = 13;
 
-  private static class VariableInfo {
+  static class VariableInfo {
     VariableInfo(String inName, @VariableType int inVariableType) {
       name = inName;
       variableType = inVariableType;
@@ -426,6 +565,7 @@ public class ParseTree {
     private final Map<String, VariableInfo> mVariables = new HashMap<>();
     private final Map<Integer, Map<String, Integer>> mEnums = new HashMap<>();
     private final Map<String, Pair<Object, Method>> mFunctions = new HashMap<>();
+    private final Map<String, ParseTreeDirectFunction> mDirectFunctions = new HashMap<>();
     private final Set<String> mPendingNamedNodes = new HashSet<>();
     private final List<Pair<ParseTreeForEachChildNode, JSONObject>> mDeferredForEachChildNodes =
         new ArrayList<>();
@@ -436,7 +576,14 @@ public class ParseTree {
     }
   }
 
-  private final Map<Pair<Integer, Integer>, ParseTreeNode> mEvents = new HashMap<>();
+  // Root nodes of the outputs of each event, indexed by output ID. Event IDs include accessibility
+  // event types, so they are too sparse to index an array directly.
+  private final SparseArray<ParseTreeNode[]> mEvents = new SparseArray<>();
+
+  // Type of each output, indexed by output ID, or OUTPUT_UNDECLARED. Set when the tree is built.
+  private int[] mOutputTypes = new int[0];
+
+  private static final int OUTPUT_UNDECLARED = -1;
 
   // Data used to build the parse tree.  It's released once the tree is built.
   @Nullable private TreeInfo mTreeInfo;
@@ -512,7 +659,7 @@ public class ParseTree {
    * Assigns an id to a named output with a boolean value.
    *
    * @param outputName Name of the output.
-   * @param outputId ID used to parse the output. Must be unique.
+   * @param outputId ID used to parse the output. Must be unique, small and non-negative.
    */
   public void addBooleanOutput(String outputName, int outputId) {
     addOutput(outputName, new VariableInfo(outputName, VARIABLE_BOOL, outputId));
@@ -522,7 +669,7 @@ public class ParseTree {
    * Assigns an id to a named output with a integral value.
    *
    * @param outputName Name of the output.
-   * @param outputId ID used to parse the output. Must be unique.
+   * @param outputId ID used to parse the output. Must be unique, small and non-negative.
    */
   public void addIntegerOutput(String outputName, int outputId) {
     addOutput(outputName, new VariableInfo(outputName, VARIABLE_INTEGER, outputId));
@@ -532,7 +679,7 @@ public class ParseTree {
    * Assigns an id to a named output with a floating point value.
    *
    * @param outputName Name of the output.
-   * @param outputId ID used to parse the output. Must be unique.
+   * @param outputId ID used to parse the output. Must be unique, small and non-negative.
    */
   public void addNumberOutput(String outputName, int outputId) {
     addOutput(outputName, new VariableInfo(outputName, VARIABLE_NUMBER, outputId));
@@ -542,7 +689,7 @@ public class ParseTree {
    * Assigns an id to a named output with a string value.
    *
    * @param outputName Name of the output.
-   * @param outputId ID used to parse the output. Must be unique.
+   * @param outputId ID used to parse the output. Must be unique, small and non-negative.
    */
   public void addStringOutput(String outputName, int outputId) {
     addOutput(outputName, new VariableInfo(outputName, VARIABLE_STRING, outputId));
@@ -552,7 +699,7 @@ public class ParseTree {
    * Assigns an id to a named output with an enum value.
    *
    * @param outputName Name of the output.
-   * @param outputId ID used to parse the output. Must be unique.
+   * @param outputId ID used to parse the output. Must be unique, small and non-negative.
    */
   public void addEnumOutput(String outputName, int outputId, int enumType) {
     addOutput(outputName, new VariableInfo(outputName, VARIABLE_ENUM, enumType, outputId));
@@ -664,9 +811,44 @@ public class ParseTree {
       return;
     }
 
+    mTreeInfo.mDirectFunctions.remove(name);
     mTreeInfo.mFunctions.put(name, Pair.create(delegate, method));
   }
 
+  public void addFunction(String name, StringFunction function) {
+    addDirectFunction(name, ParseTreeDirectFunction.of(function));
+  }
+
+  public void addFunction(String name, StringBiFunction function) {
+    addDirectFunction(name, ParseTreeDirectFunction.of(function));
+  }
+
+  public void addFunction(String name, StringTriFunction function) {
+    addDirectFunction(name, ParseTreeDirectFunction.of(function));
+  }
+
+  public void addFunction(String name, StringBiPredicate function) {
+    addDirectFunction(name, ParseTreeDirectFunction.of(function));
+  }
+
+  public void addFunction(String name, NumberToIntegerFunction function) {
+    addDirectFunction(name, ParseTreeDirectFunction.of(function));
+  }
+
+  public void addFunction(String name, IntegerToStringFunction function) {
+    addDirectFunction(name, ParseTreeDirectFunction.of(function));
+  }
+
+  private void addDirectFunction(String name, ParseTreeDirectFunction function) {
+    if (mTreeInfo == null) {
+      LogUtils.w(TAG, "Parse tree has been built and is immutable");
+      return;
+    }
+
+    mTreeInfo.mFunctions.remove(name);
+    mTreeInfo.mDirectFunctions.put(name, function);
+  }
+
   /**
    * Merges a JSON tree into the parse tree definition. This overwrites any existing nodes or events
    * with the new one in definition.
@@ -781,6 +963,7 @@ public class ParseTree {
 
     TreeInfo treeInfo = mTreeInfo;
     mTreeInfo = null;
+    initOutputTypes(treeInfo);
     for (int eventId : treeInfo.mEventNames.keySet()) {
       for (String outputName : treeInfo.mOutputs.keySet()) {
         VariableInfo outputInfo = treeInfo.mOutputs.get(outputName);
@@ -793,8 +976,9 @@ public class ParseTree {
             case ParseTree.VARIABLE_NUMBER:
             case ParseTree.VARIABLE_ENUM:
             case ParseTree.VARIABLE_STRING:
-              mEvents.put(
-                  Pair.create(eventId, outputInfo.id),
+              putEventOutput(
+                  eventId,
+                  outputInfo.id,
                   new ParseTreeCommentNode(
                       createParseTreeFromObject(
                           treeInfo, eventDefinition.opt(outputName), outputInfo),
@@ -824,6 +1008,124 @@ public class ParseTree {
     }
   }
 
+  /**
+   * Builds the parse tree from a snapshot written by {@link #writeSnapshot}, instead of from merged
+   * JSON. Enums, events, outputs, variables and functions must be declared before calling this, the
+   * same way as before {@link #build()}. Once this function succeeds, the parse tree can no longer
+   * be modified.
+   *
+   * @param stream Contains the snapshot.
+   * @param key Identifies the configuration the snapshot must have been written for.
+   * @return {@code true} if the tree was built. If {@code false}, the tree is unchanged, and can
+   *     still be built from JSON.
+   */
+  public boolean buildFromSnapshot(InputStream stream, String key) {
+    if (mTreeInfo == null) {
+      LogUtils.w(TAG, "Parse tree has been built and is immutable");
+      return false;
+    }
+
+    TreeInfo treeInfo = mTreeInfo;
+    Map<Pair<Integer, Integer>, ParseTreeNode> events;
+    try {
+      events =
+          ParseTreeSnapshot.read(
+              stream,
+              key,
+              treeInfo.resources,
+              treeInfo.mFunctions,
+              treeInfo.mDirectFunctions,
+              treeInfo.mVariables);
+    } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+      LogUtils.w(TAG, "Cannot build parse tree from snapshot: %s", e);
+      return false;
+    }
+
+    for (Pair<Integer, Integer> eventOutput : events.keySet()) {
+      if (!treeInfo.mEventNames.containsKey(eventOutput.first)
+          || !treeInfo.mOutputNames.containsKey(eventOutput.second)) {
+        LogUtils.w(
+            TAG, "Cannot build parse tree from snapshot: undeclared output %s", eventOutput);
+        return false;
+      }
+    }
+
+    mTreeInfo = null;
+    initOutputTypes(treeInfo);
+    for (Map.Entry<Pair<Integer, Integer>, ParseTreeNode> entry : events.entrySet()) {
+      putEventOutput(entry.getKey().first, entry.getKey().second, entry.getValue());
+    }
+    return true;
+  }
+
+  private void initOutputTypes(TreeInfo treeInfo) {
+    int size = 0;
+    for (VariableInfo outputInfo : treeInfo.mOutputs.values()) {
+      size = Math.max(size, outputInfo.id + 1);
+    }
+    mOutputTypes = new int[size];
+    Arrays.fill(mOutputTypes, OUTPUT_UNDECLARED);
+    for (VariableInfo outputInfo : treeInfo.mOutputs.values()) {
+      mOutputTypes[outputInfo.id] = outputInfo.variableType;
+    }
+  }
+
+  private void putEventOutput(int eventId, int outputId, ParseTreeNode node) {
+    ParseTreeNode[] outputs = mEvents.get(eventId);
+    if (outputs == null) {
+      outputs = new ParseTreeNode[mOutputTypes.length];
+      mEvents.put(eventId, outputs);
+    }
+    outputs[outputId] = node;
+  }
+
+  @Nullable
+  private ParseTreeNode getEventOutput(int eventId, int outputId) {
+    ParseTreeNode[] outputs = mEvents.get(eventId);
+    if (outputs == null || outputId < 0 || outputId >= outputs.length) {
+      return null;
+    }
+    return outputs[outputId];
+  }
+
+  /**
+   * Writes the built parse tree to {@code stream}, so that it can be restored later with {@link
+   * #buildFromSnapshot}.
+   *
+   * @param stream Receives the snapshot.
+   * @param key Identifies the configuration the tree was built with, such as the constants and the
+   *     APK version.
+   * @throws IOException If the stream fails, or if the tree contains data that can't be restored.
+   */
+  public void writeSnapshot(OutputStream stream, String key) throws IOException {
+    if (mTreeInfo != null) {
+      throw new IllegalStateException("Parse tree must be built before writing a snapshot");
+    }
+    Map<Pair<Integer, Integer>, ParseTreeNode> events = new HashMap<>();
+    for (int i = 0; i < mEvents.size(); i++) {
+      ParseTreeNode[] outputs = mEvents.valueAt(i);
+      for (int outputId = 0; outputId < outputs.length; outputId++) {
+        if (outputs[outputId] != null) {
+          events.put(Pair.create(mEvents.keyAt(i), outputId), outputs[outputId]);
+        }
+      }
+    }
+    ParseTreeSnapshot.write(events, stream, key);
+  }
+
+  /**
+   * Prepares the outputs of the specified event, which are evaluated as they are read from {@code
+   * values}. This is cheaper than calling parseEventTo*() for each output, since the outputs of the
+   * event are looked up once.
+   *
+   * @param eventId ID of the event to evaluate.
+   * @param delegate The delegate to retrieve variables from, until the last output is read
+   * @param values Receives the outputs of the event. Its previous contents are discarded.
+   */
+  public void parseEventOutputs(int eventId, VariableDelegate delegate, OutputValues values) {
+    values.reset(mEvents.get(eventId), mOutputTypes, delegate);
+  }
+
   /**
    * Evaluates the specified event, returning the result as a boolean.
    *
@@ -835,7 +1137,7 @@ public class ParseTree {
    */
   public boolean parseEventToBool(
       int eventId, int outputId, boolean defaultValue, VariableDelegate delegate) {
-    ParseTreeNode eventNode = mEvents.get(Pair.create(eventId, outputId));
+    ParseTreeNode eventNode = getEventOutput(eventId, outputId);
     if (eventNode != null) {
       return eventNode.resolveToBoolean(delegate, "");
     }
@@ -853,7 +1155,7 @@ public class ParseTree {
    */
   public int parseEventToInteger(
       int eventId, int outputId, int defaultValue, VariableDelegate delegate) {
-    ParseTreeNode eventNode = mEvents.get(Pair.create(eventId, outputId));
+    ParseTreeNode eventNode = getEventOutput(eventId, outputId);
     if (eventNode != null) {
       return eventNode.resolveToInteger(delegate, "");
     }
@@ -871,7 +1173,7 @@ public class ParseTree {
    */
   public double parseEventToNumber(
       int eventId, int outputId, double defaultValue, VariableDelegate delegate) {
-    ParseTreeNode eventNode = mEvents.get(Pair.create(eventId, outputId));
+    ParseTreeNode eventNode = getEventOutput(eventId, outputId);
     if (eventNode != null) {
       return eventNode.resolveToNumber(delegate, "");
     }
@@ -888,7 +1190,7 @@ public class ParseTree {
    */
   @Nullable
   public CharSequence parseEventToString(int eventId, int outputId, VariableDelegate delegate) {
-    ParseTreeNode eventNode = mEvents.get(Pair.create(eventId, outputId));
+    ParseTreeNode eventNode = getEventOutput(eventId, outputId);
     if (eventNode != null) {
       return eventNode.resolveToString(delegate, "");
     }
@@ -907,7 +1209,7 @@ public class ParseTree {
    */
   public int parseEventToEnum(
       int eventId, int outputId, int defaultValue, VariableDelegate delegate) {
-    ParseTreeNode eventNode = mEvents.get(Pair.create(eventId, outputId));
+    ParseTreeNode eventNode = getEventOutput(eventId, outputId);
     if (eventNode != null) {
       return eventNode.resolveToInteger(delegate, "");
     }
@@ -937,6 +1239,11 @@ public class ParseTree {
   private void addOutput(String outputName, VariableInfo type) {
     if (mTreeInfo != null) {
       TreeInfo treeInfo = mTreeInfo;
+      if (type.id < 0) {
+        throw new IllegalStateException(
+            "Can't add output: " + outputName + ", ID " + type.id + " is negative");
+      }
+
       if (treeInfo.mOutputs.containsKey(outputName)) {
         throw new IllegalStateException("Can't add output: " + outputName + " already in use");
       }
@@ -1587,13 +1894,16 @@ public class ParseTree {
         throw new IllegalStateException("length() takes exactly one argument: " + value);
       }
       result = new ParseTreeLengthNode(params.get(0));
+    } else if (treeInfo.mDirectFunctions.containsKey(name)) {
+      List<ParseTreeNode> params = createParamListFromString(treeInfo, value, paramOffset);
+      result = new ParseTreeFunctionNode(name, treeInfo.mDirectFunctions.get(name), params);
     } else {
       Pair<Object, Method> function = treeInfo.mFunctions.get(name);
       if (function == null) {
         throw new IllegalStateException("Unknown function: " + name);
       }
       List<ParseTreeNode> params = createParamListFromString(treeInfo, value, paramOffset);
-      result = new ParseTreeFunctionNode(function.first, function.second, params);
+      result = new ParseTreeFunctionNode(name, function.first, function.second, params);
     }
 
     return new ParseTreeCommentNode(
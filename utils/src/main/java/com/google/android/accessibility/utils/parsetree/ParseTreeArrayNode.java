@@ -16,6 +16,7 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +33,10 @@ class ParseTreeArrayNode extends ParseTreeNode {
     mChildren.addAll(children);
   }
 
+  List<ParseTreeNode> getChildren() {
+    return mChildren;
+  }
+
   @Override
   public int getType() {
     return ParseTree.VARIABLE_ARRAY;
@@ -40,13 +45,27 @@ class ParseTreeArrayNode extends ParseTreeNode {
   @Override
   public List<CharSequence> resolveToArray(ParseTree.VariableDelegate delegate, String logIndent) {
     List<CharSequence> result = new ArrayList<>();
-    for (ParseTreeNode child : mChildren) {
+    appendToArray(delegate, logIndent, result);
+    return result;
+  }
+
+  @Override
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
+    for (int i = 0; i < mChildren.size(); i++) {
+      ParseTreeNode child = mChildren.get(i);
       if (child.canCoerceTo(ParseTree.VARIABLE_STRING)) {
         result.add(child.resolveToString(delegate, logIndent));
       } else if (child.canCoerceTo(ParseTree.VARIABLE_ARRAY)) {
-        result.addAll(child.resolveToArray(delegate, logIndent));
+        child.appendToArray(delegate, logIndent, result);
       }
     }
-    return result;
+  }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int[] children = writer.writeNodes(mChildren);
+    writer.beginRecord(ParseTreeSnapshot.NODE_ARRAY);
+    writer.writeIndices(children);
   }
 }
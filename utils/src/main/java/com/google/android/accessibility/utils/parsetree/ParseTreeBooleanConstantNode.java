@@ -16,6 +16,8 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import java.io.IOException;
+
 class ParseTreeBooleanConstantNode extends ParseTreeNode {
   private final boolean mValue;
 
@@ -32,4 +34,10 @@ class ParseTreeBooleanConstantNode extends ParseTreeNode {
   public boolean resolveToBoolean(ParseTree.VariableDelegate delegate, String logIndent) {
     return mValue;
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    writer.beginRecord(ParseTreeSnapshot.NODE_BOOLEAN_CONSTANT);
+    writer.writeBoolean(mValue);
+  }
 }
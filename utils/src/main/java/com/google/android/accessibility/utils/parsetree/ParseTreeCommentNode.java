@@ -16,8 +16,10 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import android.util.Log;
 import androidx.annotation.Nullable;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -53,6 +55,11 @@ class ParseTreeCommentNode extends ParseTreeNode {
     mIndent = indent;
   }
 
+  @Nullable
+  ParseTreeNode getChild() {
+    return mChild;
+  }
+
   @Override
   public int getType() {
     return mChild != null ? mChild.getType() : ParseTree.VARIABLE_STRING;
@@ -65,15 +72,13 @@ class ParseTreeCommentNode extends ParseTreeNode {
 
   @Override
   public boolean resolveToBoolean(ParseTree.VariableDelegate delegate, String logIndent) {
-    logIndent = updateIndent(logIndent);
-    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    logIndent = logComment(logIndent);
     return mChild != null && mChild.resolveToBoolean(delegate, logIndent);
   }
 
   @Override
   public int resolveToInteger(ParseTree.VariableDelegate delegate, String logIndent) {
-    logIndent = updateIndent(logIndent);
-    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    logIndent = logComment(logIndent);
     if (mChild != null) {
       return mChild.resolveToInteger(delegate, logIndent);
     }
@@ -82,8 +87,7 @@ class ParseTreeCommentNode extends ParseTreeNode {
 
   @Override
   public double resolveToNumber(ParseTree.VariableDelegate delegate, String logIndent) {
-    logIndent = updateIndent(logIndent);
-    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    logIndent = logComment(logIndent);
     if (mChild != null) {
       return mChild.resolveToNumber(delegate, logIndent);
     }
@@ -92,8 +96,7 @@ class ParseTreeCommentNode extends ParseTreeNode {
 
   @Override
   public CharSequence resolveToString(ParseTree.VariableDelegate delegate, String logIndent) {
-    logIndent = updateIndent(logIndent);
-    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    logIndent = logComment(logIndent);
     if (mChild != null) {
       return mChild.resolveToString(delegate, logIndent);
     }
@@ -104,8 +107,7 @@ class ParseTreeCommentNode extends ParseTreeNode {
   @Nullable
   public ParseTree.VariableDelegate resolveToReference(
       ParseTree.VariableDelegate delegate, String logIndent) {
-    logIndent = updateIndent(logIndent);
-    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    logIndent = logComment(logIndent);
     if (mChild != null) {
       return mChild.resolveToReference(delegate, logIndent);
     }
@@ -114,8 +116,7 @@ class ParseTreeCommentNode extends ParseTreeNode {
 
   @Override
   public List<CharSequence> resolveToArray(ParseTree.VariableDelegate delegate, String logIndent) {
-    logIndent = updateIndent(logIndent);
-    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    logIndent = logComment(logIndent);
     if (mChild != null) {
       return mChild.resolveToArray(delegate, logIndent);
     }
@@ -125,15 +126,51 @@ class ParseTreeCommentNode extends ParseTreeNode {
   @Override
   public List<ParseTree.VariableDelegate> resolveToChildArray(
       ParseTree.VariableDelegate delegate, String logIndent) {
-    logIndent = updateIndent(logIndent);
-    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    logIndent = logComment(logIndent);
     if (mChild != null) {
       return mChild.resolveToChildArray(delegate, logIndent);
     }
     return new ArrayList<>();
   }
 
-  private String updateIndent(String logIndent) {
-    return mIndent ? logIndent += "  " : logIndent;
+  @Override
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
+    logIndent = logComment(logIndent);
+    if (mChild != null) {
+      mChild.appendToArray(delegate, logIndent, result);
+    }
+  }
+
+  @Override
+  void appendToJoin(
+      ParseTree.VariableDelegate delegate, String logIndent, ParseTreeJoinNode.Sink sink) {
+    logIndent = logComment(logIndent);
+    if (mChild != null) {
+      mChild.appendToJoin(delegate, logIndent, sink);
+    }
+  }
+
+  // Logs the comment, and returns the indent for the child. The comment and the indent are only
+  // built when verbose logging is enabled, since evaluation passes through many comment nodes.
+  private String logComment(String logIndent) {
+    if (!LogUtils.shouldLog(Log.VERBOSE)) {
+      return logIndent;
+    }
+    if (mIndent) {
+      logIndent += "  ";
+    }
+    LogUtils.v(TAG, "%s%s", logIndent, String.format(mCommentFormat, mArgs));
+    return logIndent;
+  }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int child = writer.writeNode(mChild);
+    writer.beginRecord(ParseTreeSnapshot.NODE_COMMENT);
+    writer.writeInt(child);
+    writer.writeString(mCommentFormat);
+    writer.writeArgs(mArgs);
+    writer.writeBoolean(mIndent);
   }
 }
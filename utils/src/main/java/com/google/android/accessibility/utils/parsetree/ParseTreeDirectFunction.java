@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.parsetree;
+
+import androidx.annotation.Nullable;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.util.List;
+
+/**
+ * Adapts one of the typed function interfaces in {@link ParseTree} so that {@link
+ * ParseTreeFunctionNode} can call it directly. Parameters are resolved straight into the call, so
+ * there is no argument array, no boxing, and no reflection.
+ */
+abstract class ParseTreeDirectFunction {
+
+  private static final String TAG = "ParseTreeDirectFunction";
+
+  @ParseTree.VariableType private final int mReturnType;
+  private final int[] mParamTypes;
+
+  private ParseTreeDirectFunction(@ParseTree.VariableType int returnType, int... paramTypes) {
+    mReturnType = returnType;
+    mParamTypes = paramTypes;
+  }
+
+  @ParseTree.VariableType
+  int getReturnType() {
+    return mReturnType;
+  }
+
+  int[] getParamTypes() {
+    return mParamTypes;
+  }
+
+  boolean callBoolean(
+      List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+    LogUtils.e(TAG, "Function does not return Boolean");
+    return false;
+  }
+
+  int callInteger(
+      List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+    LogUtils.e(TAG, "Function does not return Integer");
+    return 0;
+  }
+
+  @Nullable
+  CharSequence callString(
+      List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+    LogUtils.e(TAG, "Function does not return String");
+    return null;
+  }
+
+  static ParseTreeDirectFunction of(ParseTree.StringFunction function) {
+    return new ParseTreeDirectFunction(ParseTree.VARIABLE_STRING, ParseTree.VARIABLE_STRING) {
+      @Override
+      @Nullable
+      CharSequence callString(
+          List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+        return function.apply(params.get(0).resolveToString(delegate, logIndent));
+      }
+    };
+  }
+
+  static ParseTreeDirectFunction of(ParseTree.StringBiFunction function) {
+    return new ParseTreeDirectFunction(
+        ParseTree.VARIABLE_STRING, ParseTree.VARIABLE_STRING, ParseTree.VARIABLE_STRING) {
+      @Override
+      @Nullable
+      CharSequence callString(
+          List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+        return function.apply(
+            params.get(0).resolveToString(delegate, logIndent),
+            params.get(1).resolveToString(delegate, logIndent));
+      }
+    };
+  }
+
+  static ParseTreeDirectFunction of(ParseTree.StringTriFunction function) {
+    return new ParseTreeDirectFunction(
+        ParseTree.VARIABLE_STRING,
+        ParseTree.VARIABLE_STRING,
+        ParseTree.VARIABLE_STRING,
+        ParseTree.VARIABLE_STRING) {
+      @Override
+      @Nullable
+      CharSequence callString(
+          List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+        return function.apply(
+            params.get(0).resolveToString(delegate, logIndent),
+            params.get(1).resolveToString(delegate, logIndent),
+            params.get(2).resolveToString(delegate, logIndent));
+      }
+    };
+  }
+
+  static ParseTreeDirectFunction of(ParseTree.StringBiPredicate function) {
+    return new ParseTreeDirectFunction(
+        ParseTree.VARIABLE_BOOL, ParseTree.VARIABLE_STRING, ParseTree.VARIABLE_STRING) {
+      @Override
+      boolean callBoolean(
+          List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+        return function.test(
+            params.get(0).resolveToString(delegate, logIndent),
+            params.get(1).resolveToString(delegate, logIndent));
+      }
+    };
+  }
+
+  static ParseTreeDirectFunction of(ParseTree.NumberToIntegerFunction function) {
+    return new ParseTreeDirectFunction(ParseTree.VARIABLE_INTEGER, ParseTree.VARIABLE_NUMBER) {
+      @Override
+      int callInteger(
+          List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+        return function.apply(params.get(0).resolveToNumber(delegate, logIndent));
+      }
+    };
+  }
+
+  static ParseTreeDirectFunction of(ParseTree.IntegerToStringFunction function) {
+    return new ParseTreeDirectFunction(ParseTree.VARIABLE_STRING, ParseTree.VARIABLE_INTEGER) {
+      @Override
+      @Nullable
+      CharSequence callString(
+          List<ParseTreeNode> params, ParseTree.VariableDelegate delegate, String logIndent) {
+        return function.apply(params.get(0).resolveToInteger(delegate, logIndent));
+      }
+    };
+  }
+}
@@ -17,6 +17,7 @@
 package com.google.android.accessibility.utils.parsetree;
 
 import android.text.TextUtils;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -61,4 +62,11 @@ class ParseTreeFallbackNode extends ParseTreeNode {
     }
     return "";
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int[] children = writer.writeNodes(mChildren);
+    writer.beginRecord(ParseTreeSnapshot.NODE_FALLBACK);
+    writer.writeIndices(children);
+  }
 }
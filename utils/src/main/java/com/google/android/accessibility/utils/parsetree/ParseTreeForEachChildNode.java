@@ -17,6 +17,7 @@
 package com.google.android.accessibility.utils.parsetree;
 
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -40,6 +41,10 @@ class ParseTreeForEachChildNode extends ParseTreeNode {
     mFunction = function;
   }
 
+  ParseTreeNode getFunction() {
+    return mFunction;
+  }
+
   @Override
   public int getType() {
     return ParseTree.VARIABLE_ARRAY;
@@ -47,17 +52,31 @@ class ParseTreeForEachChildNode extends ParseTreeNode {
 
   @Override
   public List<CharSequence> resolveToArray(ParseTree.VariableDelegate delegate, String logIndent) {
+    List<CharSequence> result = new ArrayList<>();
+    appendToArray(delegate, logIndent, result);
+    return result;
+  }
+
+  @Override
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
     if (mFunction == null) {
       LogUtils.e(TAG, "Missing function node");
-      return new ArrayList<>();
+      return;
     }
 
-    List<CharSequence> result = new ArrayList<>();
-
     List<ParseTree.VariableDelegate> children = mChild.resolveToChildArray(delegate, logIndent);
-    for (ParseTree.VariableDelegate child : children) {
-      result.add(mFunction.resolveToString(child, logIndent));
+    for (int i = 0; i < children.size(); i++) {
+      result.add(mFunction.resolveToString(children.get(i), logIndent));
     }
-    return result;
+  }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    // The function may refer back to this node, so it is linked after all nodes are written.
+    int child = writer.writeNode(mChild);
+    writer.beginRecord(ParseTreeSnapshot.NODE_FOR_EACH_CHILD);
+    writer.writeInt(child);
+    writer.deferFunction(this);
   }
 }
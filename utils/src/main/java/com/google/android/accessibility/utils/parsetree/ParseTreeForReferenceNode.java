@@ -17,6 +17,7 @@
 package com.google.android.accessibility.utils.parsetree;
 
 import androidx.annotation.Nullable;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -118,6 +119,16 @@ class ParseTreeForReferenceNode extends ParseTreeNode {
     }
   }
 
+  @Override
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
+    ParseTree.VariableDelegate referenceDelegate =
+        mReference.resolveToReference(delegate, logIndent);
+    if (referenceDelegate != null) {
+      mFunction.appendToArray(referenceDelegate, logIndent, result);
+    }
+  }
+
   @Override
   public List<ParseTree.VariableDelegate> resolveToChildArray(
       ParseTree.VariableDelegate delegate, String logIndent) {
@@ -131,4 +142,13 @@ class ParseTreeForReferenceNode extends ParseTreeNode {
       return new ArrayList<>();
     }
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int reference = writer.writeNode(mReference);
+    int function = writer.writeNode(mFunction);
+    writer.beginRecord(ParseTreeSnapshot.NODE_FOR_REFERENCE);
+    writer.writeInt(reference);
+    writer.writeInt(function);
+  }
 }
@@ -16,23 +16,55 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import androidx.annotation.Nullable;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
-/** ParseTreeFunctionNode */
+/**
+ * Calls a function provided to {@link ParseTree#addFunction}. Functions registered through one of
+ * the typed function interfaces are called directly. Functions registered by name are called
+ * through reflection.
+ */
 class ParseTreeFunctionNode extends ParseTreeNode {
 
   private static final String TAG = "ParseTreeFunctionNode";
 
   @ParseTree.VariableType private final int mType;
-  private final Object mDelegate;
-  private final Method mFunction;
+  private final String mName;
+  @Nullable private final ParseTreeDirectFunction mDirectFunction;
+  @Nullable private final Object mDelegate;
+  @Nullable private final Method mFunction;
   private final List<ParseTreeNode> mParams = new ArrayList<>();
   private final int[] mParamTypes;
 
-  ParseTreeFunctionNode(Object delegate, Method function, List<ParseTreeNode> params) {
+  ParseTreeFunctionNode(String name, ParseTreeDirectFunction function, List<ParseTreeNode> params) {
+    mParamTypes = function.getParamTypes();
+    if (params.size() != mParamTypes.length) {
+      throw new IllegalStateException("Incorrect number of params for: " + name);
+    }
+    for (int i = 0; i < mParamTypes.length; i++) {
+      if (!params.get(i).canCoerceTo(mParamTypes[i])) {
+        throw new IllegalStateException(
+            "Cannot coerce parameter "
+                + i
+                + " to "
+                + ParseTree.variableTypeToString(mParamTypes[i]));
+      }
+    }
+
+    mType = function.getReturnType();
+    mName = name;
+    mDirectFunction = function;
+    mDelegate = null;
+    mFunction = null;
+    mParams.addAll(params);
+  }
+
+  ParseTreeFunctionNode(
+      String name, Object delegate, Method function, List<ParseTreeNode> params) {
     Class<?>[] paramTypes = function.getParameterTypes();
     if (params.size() != paramTypes.length) {
       throw new IllegalStateException("Incorrect number of params for: " + function);
@@ -48,6 +80,8 @@ class ParseTreeFunctionNode extends ParseTreeNode {
     }
 
     mType = getVariableType(function.getReturnType());
+    mName = name;
+    mDirectFunction = null;
     mDelegate = delegate;
     mFunction = function;
     // Make sure we can access the function, even if the visibility isn't public.
@@ -87,6 +121,14 @@ class ParseTreeFunctionNode extends ParseTreeNode {
       LogUtils.e(TAG, "Cannot coerce to Boolean");
       return false;
     }
+    if (mDirectFunction != null) {
+      try {
+        return mDirectFunction.callBoolean(mParams, delegate, logIndent);
+      } catch (RuntimeException e) {
+        LogUtils.e(TAG, e.toString());
+        return false;
+      }
+    }
     try {
       Boolean result = (Boolean) mFunction.invoke(mDelegate, getParams(delegate, logIndent));
       if (result == null) {
@@ -105,6 +147,14 @@ class ParseTreeFunctionNode extends ParseTreeNode {
       LogUtils.e(TAG, "Cannot coerce to Integer");
       return 0;
     }
+    if (mDirectFunction != null) {
+      try {
+        return mDirectFunction.callInteger(mParams, delegate, logIndent);
+      } catch (RuntimeException e) {
+        LogUtils.e(TAG, e.toString());
+        return 0;
+      }
+    }
     try {
       Integer result = (Integer) mFunction.invoke(mDelegate, getParams(delegate, logIndent));
       if (result == null) {
@@ -119,6 +169,14 @@ class ParseTreeFunctionNode extends ParseTreeNode {
 
   @Override
   public double resolveToNumber(ParseTree.VariableDelegate delegate, String logIndent) {
+    if (mDirectFunction != null) {
+      // Typed functions don't return Number, but Integer results can be coerced to Number.
+      if (mType == ParseTree.VARIABLE_INTEGER) {
+        return resolveToInteger(delegate, logIndent);
+      }
+      LogUtils.e(TAG, "Cannot coerce to a Number");
+      return 0;
+    }
     Object result;
     try {
       result = mFunction.invoke(mDelegate, getParams(delegate, logIndent));
@@ -141,6 +199,25 @@ class ParseTreeFunctionNode extends ParseTreeNode {
 
   @Override
   public CharSequence resolveToString(ParseTree.VariableDelegate delegate, String logIndent) {
+    if (mDirectFunction != null) {
+      switch (mType) {
+        case ParseTree.VARIABLE_STRING:
+          try {
+            CharSequence result = mDirectFunction.callString(mParams, delegate, logIndent);
+            return (result == null) ? "" : result;
+          } catch (RuntimeException e) {
+            LogUtils.e(TAG, e.toString());
+            return "";
+          }
+        case ParseTree.VARIABLE_BOOL:
+          return Boolean.toString(resolveToBoolean(delegate, logIndent));
+        case ParseTree.VARIABLE_INTEGER:
+          return Integer.toString(resolveToInteger(delegate, logIndent));
+        default:
+          LogUtils.e(TAG, "Cannot coerce to String");
+          return "";
+      }
+    }
     Object result;
     try {
       result = mFunction.invoke(mDelegate, getParams(delegate, logIndent));
@@ -161,7 +238,7 @@ class ParseTreeFunctionNode extends ParseTreeNode {
   @SuppressWarnings("unchecked")
   @Override
   public List<CharSequence> resolveToArray(ParseTree.VariableDelegate delegate, String logIndent) {
-    if (mType == ParseTree.VARIABLE_ARRAY) {
+    if (mType == ParseTree.VARIABLE_ARRAY && mFunction != null) {
       try {
         List<CharSequence> result =
             (List<CharSequence>) mFunction.invoke(mDelegate, getParams(delegate, logIndent));
@@ -222,4 +299,12 @@ class ParseTreeFunctionNode extends ParseTreeNode {
     }
     throw new IllegalStateException("Unsupported variable type: " + clazz);
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int[] params = writer.writeNodes(mParams);
+    writer.beginRecord(ParseTreeSnapshot.NODE_FUNCTION);
+    writer.writeString(mName);
+    writer.writeIndices(params);
+  }
 }
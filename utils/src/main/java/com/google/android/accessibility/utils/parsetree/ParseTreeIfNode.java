@@ -17,6 +17,7 @@
 package com.google.android.accessibility.utils.parsetree;
 
 import androidx.annotation.Nullable;
+import java.io.IOException;
 import java.util.List;
 
 class ParseTreeIfNode extends ParseTreeNode {
@@ -110,6 +111,26 @@ class ParseTreeIfNode extends ParseTreeNode {
     }
   }
 
+  @Override
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
+    if (mCondition.resolveToBoolean(delegate, logIndent)) {
+      mOnTrue.appendToArray(delegate, logIndent, result);
+    } else {
+      mOnFalse.appendToArray(delegate, logIndent, result);
+    }
+  }
+
+  @Override
+  void appendToJoin(
+      ParseTree.VariableDelegate delegate, String logIndent, ParseTreeJoinNode.Sink sink) {
+    if (mCondition.resolveToBoolean(delegate, logIndent)) {
+      mOnTrue.appendToJoin(delegate, logIndent, sink);
+    } else {
+      mOnFalse.appendToJoin(delegate, logIndent, sink);
+    }
+  }
+
   @Override
   public List<ParseTree.VariableDelegate> resolveToChildArray(
       ParseTree.VariableDelegate delegate, String logIndent) {
@@ -119,4 +140,16 @@ class ParseTreeIfNode extends ParseTreeNode {
       return mOnFalse.resolveToChildArray(delegate, logIndent);
     }
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    // Write the unwrapped branches, since the constructor wraps them again.
+    int condition = writer.writeNode(mCondition);
+    int onTrue = writer.writeNode(((ParseTreeCommentNode) mOnTrue).getChild());
+    int onFalse = writer.writeNode(((ParseTreeCommentNode) mOnFalse).getChild());
+    writer.beginRecord(ParseTreeSnapshot.NODE_IF);
+    writer.writeInt(condition);
+    writer.writeInt(onTrue);
+    writer.writeInt(onFalse);
+  }
 }
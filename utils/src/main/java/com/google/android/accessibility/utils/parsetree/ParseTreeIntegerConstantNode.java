@@ -16,6 +16,8 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import java.io.IOException;
+
 class ParseTreeIntegerConstantNode extends ParseTreeNode {
   private final int mValue;
   private final int mEnumType;
@@ -78,4 +80,11 @@ class ParseTreeIntegerConstantNode extends ParseTreeNode {
   public CharSequence resolveToString(ParseTree.VariableDelegate delegate, String logIndent) {
     return Integer.toString(mValue);
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    writer.beginRecord(ParseTreeSnapshot.NODE_INTEGER_CONSTANT);
+    writer.writeInt(mValue);
+    writer.writeInt(mEnumType);
+  }
 }
@@ -19,6 +19,7 @@ package com.google.android.accessibility.utils.parsetree;
 import android.text.SpannableStringBuilder;
 import android.text.TextUtils;
 import com.google.android.accessibility.utils.SpannableUtils;
+import java.io.IOException;
 import java.util.List;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -45,15 +46,89 @@ public class ParseTreeJoinNode extends ParseTreeNode {
 
   @Override
   public CharSequence resolveToString(ParseTree.VariableDelegate delegate, String logIndent) {
-    List<CharSequence> values = mChild.resolveToArray(delegate, logIndent);
-    return joinCharSequences(values, mSeparator, mPruneEmpty);
+    Sink sink = new Sink();
+    appendToJoin(delegate, logIndent, sink);
+    return sink.builder;
+  }
+
+  // Joins the elements straight into the sink, so that the joins nested in them also append to it
+  // and only the outermost join builds a string. The result is the same as joining the resolved
+  // elements with joinCharSequences().
+  @Override
+  void appendToJoin(ParseTree.VariableDelegate delegate, String logIndent, Sink sink) {
+    boolean first = true;
+    if (mChild instanceof ParseTreeArrayNode) {
+      List<ParseTreeNode> elements = ((ParseTreeArrayNode) mChild).getChildren();
+      for (int i = 0; i < elements.size(); i++) {
+        ParseTreeNode element = elements.get(i);
+        if (element.canCoerceTo(ParseTree.VARIABLE_STRING)) {
+          first = appendElement(element, delegate, logIndent, sink, first);
+        } else if (element.canCoerceTo(ParseTree.VARIABLE_ARRAY)) {
+          first = appendValues(element, delegate, logIndent, sink, first);
+        }
+      }
+    } else {
+      appendValues(mChild, delegate, logIndent, sink, first);
+    }
+  }
+
+  /** Appends a string element to the sink, and returns whether no element was kept yet. */
+  private boolean appendElement(
+      ParseTreeNode element,
+      ParseTree.VariableDelegate delegate,
+      String logIndent,
+      Sink sink,
+      boolean first) {
+    @Nullable CharSequence pendingSeparator = sink.pendingSeparator;
+    if (!first && mSeparator != null) {
+      if (mPruneEmpty) {
+        // Only appended if the element turns out not to be empty.
+        sink.pendingSeparator = mSeparator;
+      } else {
+        sink.appendSeparator(mSeparator);
+      }
+    }
+    int appendedCount = sink.appendedCount;
+    element.appendToJoin(delegate, logIndent, sink);
+    if (mPruneEmpty && sink.appendedCount == appendedCount) {
+      sink.pendingSeparator = pendingSeparator;
+      return first;
+    }
+    return false;
+  }
+
+  /** Appends the values of an array element to the sink, and returns whether none was kept yet. */
+  private boolean appendValues(
+      ParseTreeNode element,
+      ParseTree.VariableDelegate delegate,
+      String logIndent,
+      Sink sink,
+      boolean first) {
+    List<CharSequence> values = obtainScratchList();
+    try {
+      element.appendToArray(delegate, logIndent, values);
+      for (int i = 0; i < values.size(); i++) {
+        CharSequence value = values.get(i);
+        if (!mPruneEmpty || !TextUtils.isEmpty(value)) {
+          if (!first && mSeparator != null) {
+            sink.appendSeparator(mSeparator);
+          }
+          sink.append(value);
+          first = false;
+        }
+      }
+    } finally {
+      recycleScratchList(values);
+    }
+    return first;
   }
 
   public static CharSequence joinCharSequences(
       List<CharSequence> values, @Nullable CharSequence separator, boolean pruneEmpty) {
     SpannableStringBuilder builder = new SpannableStringBuilder();
     boolean first = true;
-    for (CharSequence value : values) {
+    for (int i = 0; i < values.size(); i++) {
+      CharSequence value = values.get(i);
       if (!pruneEmpty || !TextUtils.isEmpty(value)) {
         if (separator != null) {
           if (first) {
@@ -69,4 +144,41 @@ public class ParseTreeJoinNode extends ParseTreeNode {
     }
     return builder;
   }
+
+  /** The builder of the outermost join being resolved, which the joins nested in it append to. */
+  static final class Sink {
+    final SpannableStringBuilder builder = new SpannableStringBuilder();
+    // Separator of a pruning join, appended before the next text that is appended.
+    @Nullable CharSequence pendingSeparator;
+    // Number of non-empty texts appended, which tells whether an element was empty.
+    int appendedCount;
+
+    void append(@Nullable CharSequence text) {
+      if (TextUtils.isEmpty(text)) {
+        return;
+      }
+      if (pendingSeparator != null) {
+        CharSequence separator = pendingSeparator;
+        pendingSeparator = null;
+        appendSeparator(separator);
+      }
+      builder.append(text);
+      appendedCount++;
+    }
+
+    void appendSeparator(CharSequence separator) {
+      // We have to wrap each separator with a different span, because a single span object can
+      // only be used once in a CharSequence.
+      append(SpannableUtils.wrapWithIdentifierSpan(separator));
+    }
+  }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int child = writer.writeNode(mChild);
+    writer.beginRecord(ParseTreeSnapshot.NODE_JOIN);
+    writer.writeInt(child);
+    writer.writeText(mSeparator);
+    writer.writeBoolean(mPruneEmpty);
+  }
 }
@@ -16,6 +16,8 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import java.io.IOException;
+
 class ParseTreeLengthNode extends ParseTreeNode {
   private final ParseTreeNode mParam;
 
@@ -65,4 +67,11 @@ class ParseTreeLengthNode extends ParseTreeNode {
       return mParam.getArrayLength(delegate, logIndent);
     }
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int param = writer.writeNode(mParam);
+    writer.beginRecord(ParseTreeSnapshot.NODE_LENGTH);
+    writer.writeInt(param);
+  }
 }
@@ -18,6 +18,8 @@ package com.google.android.accessibility.utils.parsetree;
 
 import androidx.annotation.Nullable;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +27,16 @@ abstract class ParseTreeNode {
 
   private static final String TAG = "ParseTreeNode";
 
+  // Lists for holding intermediate arrays during evaluation. Evaluation can re-enter a node, for
+  // example through for_each_child, so the lists are pooled per thread rather than held by nodes.
+  private static final ThreadLocal<ArrayDeque<List<CharSequence>>> sScratchLists =
+      new ThreadLocal<ArrayDeque<List<CharSequence>>>() {
+        @Override
+        protected ArrayDeque<List<CharSequence>> initialValue() {
+          return new ArrayDeque<>();
+        }
+      };
+
   // Returns the type of value this node represents.
   @ParseTree.VariableType
   public abstract int getType();
@@ -78,6 +90,21 @@ abstract class ParseTreeNode {
     return new ArrayList<>();
   }
 
+  // Append the value of this node, as an array, to the end of result. Nodes that build arrays
+  // should override this, so that nested arrays are flattened without intermediate lists.
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
+    result.addAll(resolveToArray(delegate, logIndent));
+  }
+
+  // Append the value of this node, as a string, to a join in progress. Joins override this, and
+  // nodes that only pass a child's string through forward it, so that a join nested in another
+  // join writes into the outer join's builder instead of building a string of its own.
+  void appendToJoin(
+      ParseTree.VariableDelegate delegate, String logIndent, ParseTreeJoinNode.Sink sink) {
+    sink.append(resolveToString(delegate, logIndent));
+  }
+
   // Resolve the value of this node to a child array.
   public List<ParseTree.VariableDelegate> resolveToChildArray(
       ParseTree.VariableDelegate delegate, String logIndent) {
@@ -90,4 +117,22 @@ abstract class ParseTreeNode {
     LogUtils.e(TAG, "Cannot query array length of " + getClass());
     return 0;
   }
+
+  // Returns an empty list from the pool. It must be returned with recycleScratchList() once the
+  // caller no longer refers to it, or to any sub-list of it.
+  static List<CharSequence> obtainScratchList() {
+    List<CharSequence> list = sScratchLists.get().poll();
+    return (list != null) ? list : new ArrayList<>();
+  }
+
+  static void recycleScratchList(List<CharSequence> list) {
+    list.clear();
+    sScratchLists.get().push(list);
+  }
+
+  // Writes a record for this node. Nodes it references must be written first, by calling
+  // writer.writeNode(), before the record is started with writer.beginRecord().
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    throw new IOException("Cannot snapshot " + getClass());
+  }
 }
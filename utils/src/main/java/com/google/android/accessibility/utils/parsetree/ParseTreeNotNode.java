@@ -16,6 +16,8 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import java.io.IOException;
+
 class ParseTreeNotNode extends ParseTreeNode {
   private final ParseTreeNode mChild;
 
@@ -36,4 +38,11 @@ class ParseTreeNotNode extends ParseTreeNode {
   public boolean resolveToBoolean(ParseTree.VariableDelegate delegate, String logIndent) {
     return !mChild.resolveToBoolean(delegate, logIndent);
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int child = writer.writeNode(mChild);
+    writer.beginRecord(ParseTreeSnapshot.NODE_NOT);
+    writer.writeInt(child);
+  }
 }
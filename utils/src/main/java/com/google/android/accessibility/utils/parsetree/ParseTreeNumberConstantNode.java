@@ -16,6 +16,8 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import java.io.IOException;
+
 class ParseTreeNumberConstantNode extends ParseTreeNode {
   private final double mValue;
 
@@ -49,4 +51,10 @@ class ParseTreeNumberConstantNode extends ParseTreeNode {
   public CharSequence resolveToString(ParseTree.VariableDelegate delegate, String logIndent) {
     return Double.toString(mValue);
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    writer.beginRecord(ParseTreeSnapshot.NODE_NUMBER_CONSTANT);
+    writer.writeDouble(mValue);
+  }
 }
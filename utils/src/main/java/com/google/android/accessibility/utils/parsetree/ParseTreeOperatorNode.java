@@ -17,6 +17,7 @@
 package com.google.android.accessibility.utils.parsetree;
 
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
 
 class ParseTreeOperatorNode extends ParseTreeNode {
 
@@ -228,4 +229,14 @@ class ParseTreeOperatorNode extends ParseTreeNode {
     LogUtils.e(TAG, "Incompatible types in compare: %d, %d", ltype, rtype);
     return false;
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int lvalue = writer.writeNode(mLvalue);
+    int rvalue = writer.writeNode(mRvalue);
+    writer.beginRecord(ParseTreeSnapshot.NODE_OPERATOR);
+    writer.writeInt(mOperator);
+    writer.writeInt(lvalue);
+    writer.writeInt(rvalue);
+  }
 }
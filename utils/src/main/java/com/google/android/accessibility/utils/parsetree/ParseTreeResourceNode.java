@@ -24,6 +24,7 @@ import android.text.TextUtils;
 import androidx.annotation.IntDef;
 import androidx.annotation.VisibleForTesting;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
@@ -87,6 +88,19 @@ class ParseTreeResourceNode extends ParseTreeNode {
     }
   }
 
+  /** Creates a node from a resource ID that was resolved when a snapshot was written. */
+  ParseTreeResourceNode(Resources resources, @Type int type, int resourceId) {
+    if (type != TYPE_STRING && type != TYPE_PLURALS && type != TYPE_RESOURCE_ID) {
+      throw new IllegalArgumentException("Unknown resource type: " + type);
+    }
+    if (resourceId == 0) {
+      throw new IllegalStateException("Missing resource ID");
+    }
+    mResources = resources;
+    mType = type;
+    mResourceId = resourceId;
+  }
+
   void addParams(List<ParseTreeNode> params) {
     mParams.addAll(params);
   }
@@ -317,4 +331,13 @@ class ParseTreeResourceNode extends ParseTreeNode {
       }
     }
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int[] params = writer.writeNodes(mParams);
+    writer.beginRecord(ParseTreeSnapshot.NODE_RESOURCE);
+    writer.writeInt(mType);
+    writer.writeInt(mResourceId);
+    writer.writeIndices(params);
+  }
 }
@@ -0,0 +1,496 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.parsetree;
+
+import android.content.res.Resources;
+import android.text.Spanned;
+import android.util.Pair;
+import androidx.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes a built {@link ParseTree} node graph into a compact binary form, and rebuilds the node
+ * graph from that form without parsing JSON or tokenizing statements.
+ *
+ * <p>Nodes are written in post-order, so every record only references records that precede it.
+ * Nodes shared by several parents (named nodes, constants) are written once. The only back-edges in
+ * a built tree are the deferred functions of {@link ParseTreeForEachChildNode}, which are written
+ * as a fix-up table after all nodes.
+ *
+ * <p>Resource IDs and function names are stored as-is, so a snapshot is only valid for the APK that
+ * wrote it. Callers should include the APK version in the snapshot key.
+ */
+final class ParseTreeSnapshot {
+
+  private static final int MAGIC = 0x50545331; // "PTS1"
+
+  /** Increase whenever the record layout changes. */
+  private static final int FORMAT_VERSION = 1;
+
+  static final int NO_NODE = -1;
+
+  private static final int END_OF_NODES = 0;
+  static final int NODE_BOOLEAN_CONSTANT = 1;
+  static final int NODE_INTEGER_CONSTANT = 2;
+  static final int NODE_NUMBER_CONSTANT = 3;
+  static final int NODE_STRING_CONSTANT = 4;
+  static final int NODE_VARIABLE = 5;
+  static final int NODE_FUNCTION = 6;
+  static final int NODE_RESOURCE = 7;
+  static final int NODE_OPERATOR = 8;
+  static final int NODE_NOT = 9;
+  static final int NODE_LENGTH = 10;
+  static final int NODE_ARRAY = 11;
+  static final int NODE_JOIN = 12;
+  static final int NODE_FALLBACK = 13;
+  static final int NODE_IF = 14;
+  static final int NODE_SWITCH = 15;
+  static final int NODE_FOR_REFERENCE = 16;
+  static final int NODE_FOR_EACH_CHILD = 17;
+  static final int NODE_COMMENT = 18;
+
+  private static final int ARG_INTEGER = 0;
+  private static final int ARG_STRING = 1;
+
+  private ParseTreeSnapshot() {}
+
+  /**
+   * Writes the events of a built parse tree to {@code stream}.
+   *
+   * @param events The mapping from (event ID, output ID) to the root node of that output.
+   * @param key Identifies the configuration the tree was built with. It must match the key passed
+   *     to {@link #read} for the snapshot to be accepted.
+   */
+  static void write(
+      Map<Pair<Integer, Integer>, ParseTreeNode> events, OutputStream stream, String key)
+      throws IOException {
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeInt(FORMAT_VERSION);
+    out.writeUTF(key);
+
+    Writer writer = new Writer(out);
+    List<Pair<Integer, Integer>> eventKeys = new ArrayList<>(events.keySet());
+    int[] eventNodes = new int[eventKeys.size()];
+    for (int i = 0; i < eventKeys.size(); i++) {
+      eventNodes[i] = writer.writeNode(events.get(eventKeys.get(i)));
+    }
+    List<int[]> fixUps = writer.writeDeferredFunctions();
+    out.writeByte(END_OF_NODES);
+
+    out.writeInt(eventKeys.size());
+    for (int i = 0; i < eventKeys.size(); i++) {
+      out.writeInt(eventKeys.get(i).first);
+      out.writeInt(eventKeys.get(i).second);
+      out.writeInt(eventNodes[i]);
+    }
+
+    out.writeInt(fixUps.size());
+    for (int[] fixUp : fixUps) {
+      out.writeInt(fixUp[0]);
+      out.writeInt(fixUp[1]);
+    }
+    out.flush();
+  }
+
+  /**
+   * Reads a snapshot written by {@link #write}.
+   *
+   * @return The mapping from (event ID, output ID) to the root node of that output.
+   * @throws IOException If the snapshot is truncated, corrupt, was written with a different key, or
+   *     references functions or variables that are not declared.
+   */
+  static Map<Pair<Integer, Integer>, ParseTreeNode> read(
+      InputStream stream,
+      String key,
+      Resources resources,
+      Map<String, Pair<Object, Method>> functions,
+      Map<String, ParseTreeDirectFunction> directFunctions,
+      Map<String, ParseTree.VariableInfo> variables)
+      throws IOException {
+    DataInputStream in = new DataInputStream(stream);
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not a parse tree snapshot");
+    }
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported snapshot version: " + version);
+    }
+    String snapshotKey = in.readUTF();
+    if (!key.equals(snapshotKey)) {
+      throw new IOException("Snapshot key mismatch: " + snapshotKey);
+    }
+
+    Reader reader = new Reader(in, resources, functions, directFunctions, variables);
+    int tag;
+    while ((tag = in.readUnsignedByte()) != END_OF_NODES) {
+      reader.readNode(tag);
+    }
+
+    Map<Pair<Integer, Integer>, ParseTreeNode> events = new HashMap<>();
+    int eventCount = in.readInt();
+    for (int i = 0; i < eventCount; i++) {
+      int eventId = in.readInt();
+      int outputId = in.readInt();
+      events.put(Pair.create(eventId, outputId), reader.requireNode(in.readInt()));
+    }
+
+    int fixUpCount = in.readInt();
+    for (int i = 0; i < fixUpCount; i++) {
+      ParseTreeNode node = reader.requireNode(in.readInt());
+      ParseTreeNode function = reader.requireNode(in.readInt());
+      if (!(node instanceof ParseTreeForEachChildNode)) {
+        throw new IOException("Fix-up target is not a for_each_child node");
+      }
+      ((ParseTreeForEachChildNode) node).setFunction(function);
+    }
+    return events;
+  }
+
+  /** Writes node records. Used by {@link ParseTreeNode#writeSnapshot}. */
+  static final class Writer {
+    private final DataOutputStream out;
+    private final Map<ParseTreeNode, Integer> indices = new IdentityHashMap<>();
+    private final List<ParseTreeForEachChildNode> deferredNodes = new ArrayList<>();
+    private int nextIndex = 0;
+
+    private Writer(DataOutputStream out) {
+      this.out = out;
+    }
+
+    /**
+     * Writes {@code node}, if it hasn't been written yet, and returns its index. All nodes a node
+     * references must be written before the node starts its own record.
+     */
+    int writeNode(@Nullable ParseTreeNode node) throws IOException {
+      if (node == null) {
+        return NO_NODE;
+      }
+      Integer index = indices.get(node);
+      if (index != null) {
+        return index;
+      }
+      node.writeSnapshot(this);
+      index = nextIndex++;
+      indices.put(node, index);
+      return index;
+    }
+
+    int[] writeNodes(List<ParseTreeNode> nodes) throws IOException {
+      int[] result = new int[nodes.size()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = writeNode(nodes.get(i));
+      }
+      return result;
+    }
+
+    /** Registers a node whose function must be linked after all nodes are read. */
+    void deferFunction(ParseTreeForEachChildNode node) {
+      deferredNodes.add(node);
+    }
+
+    void beginRecord(int tag) throws IOException {
+      out.writeByte(tag);
+    }
+
+    void writeInt(int value) throws IOException {
+      out.writeInt(value);
+    }
+
+    void writeBoolean(boolean value) throws IOException {
+      out.writeBoolean(value);
+    }
+
+    void writeDouble(double value) throws IOException {
+      out.writeDouble(value);
+    }
+
+    void writeString(String value) throws IOException {
+      out.writeUTF(value);
+    }
+
+    void writeIndices(int[] values) throws IOException {
+      out.writeInt(values.length);
+      for (int value : values) {
+        out.writeInt(value);
+      }
+    }
+
+    /** Writes text. Spans can't be restored, so styled text is rejected. */
+    void writeText(@Nullable CharSequence value) throws IOException {
+      out.writeBoolean(value != null);
+      if (value == null) {
+        return;
+      }
+      if (value instanceof Spanned) {
+        Spanned spanned = (Spanned) value;
+        if (spanned.getSpans(0, spanned.length(), Object.class).length > 0) {
+          throw new IOException("Cannot snapshot styled text: " + value);
+        }
+      }
+      out.writeUTF(value.toString());
+    }
+
+    void writeArgs(Object[] args) throws IOException {
+      out.writeInt(args.length);
+      for (Object arg : args) {
+        if (arg instanceof Integer) {
+          out.writeByte(ARG_INTEGER);
+          out.writeInt((Integer) arg);
+        } else if (arg instanceof String) {
+          out.writeByte(ARG_STRING);
+          out.writeUTF((String) arg);
+        } else {
+          throw new IOException("Cannot snapshot comment argument: " + arg);
+        }
+      }
+    }
+
+    private List<int[]> writeDeferredFunctions() throws IOException {
+      List<int[]> fixUps = new ArrayList<>();
+      // Writing a function may defer more nodes, so the list can grow while iterating.
+      for (int i = 0; i < deferredNodes.size(); i++) {
+        ParseTreeForEachChildNode node = deferredNodes.get(i);
+        int function = writeNode(node.getFunction());
+        if (function == NO_NODE) {
+          throw new IOException("for_each_child node is missing its function");
+        }
+        fixUps.add(new int[] {indices.get(node), function});
+      }
+      return fixUps;
+    }
+  }
+
+  /** Rebuilds node records in the order they were written. */
+  private static final class Reader {
+    private final DataInputStream in;
+    private final Resources resources;
+    private final Map<String, Pair<Object, Method>> functions;
+    private final Map<String, ParseTreeDirectFunction> directFunctions;
+    private final Map<String, ParseTree.VariableInfo> variables;
+    private final List<ParseTreeNode> nodes = new ArrayList<>();
+
+    private Reader(
+        DataInputStream in,
+        Resources resources,
+        Map<String, Pair<Object, Method>> functions,
+        Map<String, ParseTreeDirectFunction> directFunctions,
+        Map<String, ParseTree.VariableInfo> variables) {
+      this.in = in;
+      this.resources = resources;
+      this.functions = functions;
+      this.directFunctions = directFunctions;
+      this.variables = variables;
+    }
+
+    @Nullable
+    private ParseTreeNode node(int index) throws IOException {
+      if (index == NO_NODE) {
+        return null;
+      }
+      return requireNode(index);
+    }
+
+    private ParseTreeNode requireNode(int index) throws IOException {
+      if (index < 0 || index >= nodes.size()) {
+        throw new IOException("Invalid node reference: " + index);
+      }
+      return nodes.get(index);
+    }
+
+    private List<ParseTreeNode> readNodeList() throws IOException {
+      int count = in.readInt();
+      List<ParseTreeNode> result = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        result.add(requireNode(in.readInt()));
+      }
+      return result;
+    }
+
+    @Nullable
+    private String readText() throws IOException {
+      return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private Object[] readArgs() throws IOException {
+      Object[] args = new Object[in.readInt()];
+      for (int i = 0; i < args.length; i++) {
+        int type = in.readUnsignedByte();
+        if (type == ARG_INTEGER) {
+          args[i] = in.readInt();
+        } else if (type == ARG_STRING) {
+          args[i] = in.readUTF();
+        } else {
+          throw new IOException("Unknown comment argument type: " + type);
+        }
+      }
+      return args;
+    }
+
+    private void readNode(int tag) throws IOException {
+      ParseTreeNode node;
+      switch (tag) {
+        case NODE_BOOLEAN_CONSTANT:
+          node = new ParseTreeBooleanConstantNode(in.readBoolean());
+          break;
+        case NODE_INTEGER_CONSTANT:
+          {
+            int value = in.readInt();
+            node = new ParseTreeIntegerConstantNode(value, in.readInt());
+            break;
+          }
+        case NODE_NUMBER_CONSTANT:
+          node = new ParseTreeNumberConstantNode(in.readDouble());
+          break;
+        case NODE_STRING_CONSTANT:
+          {
+            String value = readText();
+            if (value == null) {
+              throw new IOException("Missing string constant");
+            }
+            node = new ParseTreeStringConstantNode(value);
+            break;
+          }
+        case NODE_VARIABLE:
+          node = readVariableNode();
+          break;
+        case NODE_FUNCTION:
+          {
+            String name = in.readUTF();
+            ParseTreeDirectFunction directFunction = directFunctions.get(name);
+            if (directFunction != null) {
+              node = new ParseTreeFunctionNode(name, directFunction, readNodeList());
+              break;
+            }
+            Pair<Object, Method> function = functions.get(name);
+            if (function == null) {
+              throw new IOException("Unknown function: " + name);
+            }
+            node = new ParseTreeFunctionNode(name, function.first, function.second, readNodeList());
+            break;
+          }
+        case NODE_RESOURCE:
+          {
+            int type = in.readInt();
+            int resourceId = in.readInt();
+            ParseTreeResourceNode resourceNode =
+                new ParseTreeResourceNode(resources, type, resourceId);
+            resourceNode.addParams(readNodeList());
+            node = resourceNode;
+            break;
+          }
+        case NODE_OPERATOR:
+          {
+            int operator = in.readInt();
+            ParseTreeNode lvalue = requireNode(in.readInt());
+            node = new ParseTreeOperatorNode(operator, lvalue, requireNode(in.readInt()));
+            break;
+          }
+        case NODE_NOT:
+          node = new ParseTreeNotNode(requireNode(in.readInt()));
+          break;
+        case NODE_LENGTH:
+          node = new ParseTreeLengthNode(requireNode(in.readInt()));
+          break;
+        case NODE_ARRAY:
+          node = new ParseTreeArrayNode(readNodeList());
+          break;
+        case NODE_JOIN:
+          {
+            ParseTreeNode child = requireNode(in.readInt());
+            String separator = readText();
+            node = new ParseTreeJoinNode(child, separator, in.readBoolean());
+            break;
+          }
+        case NODE_FALLBACK:
+          node = new ParseTreeFallbackNode(readNodeList());
+          break;
+        case NODE_IF:
+          {
+            ParseTreeNode condition = requireNode(in.readInt());
+            ParseTreeNode onTrue = node(in.readInt());
+            node = new ParseTreeIfNode(condition, onTrue, node(in.readInt()));
+            break;
+          }
+        case NODE_SWITCH:
+          {
+            ParseTreeNode condition = requireNode(in.readInt());
+            int caseCount = in.readInt();
+            Map<Integer, ParseTreeNode> cases = new HashMap<>();
+            for (int i = 0; i < caseCount; i++) {
+              int value = in.readInt();
+              cases.put(value, requireNode(in.readInt()));
+            }
+            node = new ParseTreeSwitchNode(condition, cases, node(in.readInt()));
+            break;
+          }
+        case NODE_FOR_REFERENCE:
+          {
+            ParseTreeNode reference = requireNode(in.readInt());
+            node = new ParseTreeForReferenceNode(reference, requireNode(in.readInt()));
+            break;
+          }
+        case NODE_FOR_EACH_CHILD:
+          node = new ParseTreeForEachChildNode(requireNode(in.readInt()));
+          break;
+        case NODE_COMMENT:
+          {
+            ParseTreeNode child = node(in.readInt());
+            String format = in.readUTF();
+            Object[] args = readArgs();
+            node = new ParseTreeCommentNode(child, format, args, in.readBoolean());
+            break;
+          }
+        default:
+          throw new IOException("Unknown node type: " + tag);
+      }
+      nodes.add(node);
+    }
+
+    private ParseTreeNode readVariableNode() throws IOException {
+      String name = in.readUTF();
+      int type = in.readInt();
+      int id = in.readInt();
+      int enumType = in.readInt();
+
+      // Variables are declared by code, not by the snapshot, so make sure they still agree.
+      ParseTree.VariableInfo info = variables.get(name);
+      if (info == null
+          || info.variableType != type
+          || info.id != id
+          || (type == ParseTree.VARIABLE_ENUM && info.enumType != enumType)) {
+        throw new IOException("Variable declaration changed: " + name);
+      }
+
+      if (type == ParseTree.VARIABLE_ENUM) {
+        return new ParseTreeVariableNode(name, type, id, enumType);
+      } else {
+        return new ParseTreeVariableNode(name, type, id);
+      }
+    }
+  }
+}
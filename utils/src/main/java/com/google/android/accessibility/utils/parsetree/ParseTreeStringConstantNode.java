@@ -16,6 +16,8 @@
 
 package com.google.android.accessibility.utils.parsetree;
 
+import java.io.IOException;
+
 class ParseTreeStringConstantNode extends ParseTreeNode {
   private final CharSequence mValue;
 
@@ -42,4 +44,10 @@ class ParseTreeStringConstantNode extends ParseTreeNode {
   public CharSequence resolveToString(ParseTree.VariableDelegate delegate, String logIndent) {
     return mValue;
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    writer.beginRecord(ParseTreeSnapshot.NODE_STRING_CONSTANT);
+    writer.writeText(mValue);
+  }
 }
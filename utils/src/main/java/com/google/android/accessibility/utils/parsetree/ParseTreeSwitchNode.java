@@ -17,6 +17,7 @@
 package com.google.android.accessibility.utils.parsetree;
 
 import androidx.annotation.Nullable;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -116,4 +117,51 @@ class ParseTreeSwitchNode extends ParseTreeNode {
       return mDefault.resolveToArray(delegate, logIndent);
     }
   }
+
+  @Override
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
+    int value = mCondition.resolveToInteger(delegate, logIndent);
+    ParseTreeNode node = mCases.get(value);
+    if (node != null) {
+      node.appendToArray(delegate, logIndent, result);
+    } else {
+      mDefault.appendToArray(delegate, logIndent, result);
+    }
+  }
+
+  @Override
+  void appendToJoin(
+      ParseTree.VariableDelegate delegate, String logIndent, ParseTreeJoinNode.Sink sink) {
+    int value = mCondition.resolveToInteger(delegate, logIndent);
+    ParseTreeNode node = mCases.get(value);
+    if (node != null) {
+      node.appendToJoin(delegate, logIndent, sink);
+    } else {
+      mDefault.appendToJoin(delegate, logIndent, sink);
+    }
+  }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    int condition = writer.writeNode(mCondition);
+    int[] values = new int[mCases.size()];
+    int[] cases = new int[mCases.size()];
+    int i = 0;
+    for (Map.Entry<Integer, ParseTreeNode> entry : mCases.entrySet()) {
+      values[i] = entry.getKey();
+      cases[i] = writer.writeNode(entry.getValue());
+      i++;
+    }
+    // Write the unwrapped default, since the constructor wraps it again.
+    int defaultCase = writer.writeNode(((ParseTreeCommentNode) mDefault).getChild());
+    writer.beginRecord(ParseTreeSnapshot.NODE_SWITCH);
+    writer.writeInt(condition);
+    writer.writeInt(values.length);
+    for (i = 0; i < values.length; i++) {
+      writer.writeInt(values[i]);
+      writer.writeInt(cases[i]);
+    }
+    writer.writeInt(defaultCase);
+  }
 }
@@ -17,8 +17,10 @@
 package com.google.android.accessibility.utils.parsetree;
 
 import android.text.TextUtils;
+import android.util.Log;
 import androidx.annotation.Nullable;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -120,12 +122,14 @@ class ParseTreeVariableNode extends ParseTreeNode {
         return false;
     }
 
-    LogUtils.v(
-        TAG,
-        "%sParseTreeVariableNode.resolveToBoolean() name=%s value=%s",
-        logIndent,
-        mName,
-        value);
+    if (LogUtils.shouldLog(Log.VERBOSE)) {
+      LogUtils.v(
+          TAG,
+          "%sParseTreeVariableNode.resolveToBoolean() name=%s value=%s",
+          logIndent,
+          mName,
+          value);
+    }
     return value;
   }
 
@@ -135,23 +139,27 @@ class ParseTreeVariableNode extends ParseTreeNode {
       case ParseTree.VARIABLE_INTEGER:
         {
           int value = delegate.getInteger(mId);
-          LogUtils.v(
-              TAG,
-              "%sParseTreeVariableNode.resolveToInteger() name=%s value=%s",
-              logIndent,
-              mName,
-              value);
+          if (LogUtils.shouldLog(Log.VERBOSE)) {
+            LogUtils.v(
+                TAG,
+                "%sParseTreeVariableNode.resolveToInteger() name=%s value=%s",
+                logIndent,
+                mName,
+                value);
+          }
           return value;
         }
       case ParseTree.VARIABLE_ENUM:
         {
           int value = delegate.getEnum(mId);
-          LogUtils.v(
-              TAG,
-              "%sParseTreeVariableNode.resolveToInteger() name=%s value=%s",
-              logIndent,
-              mName,
-              value);
+          if (LogUtils.shouldLog(Log.VERBOSE)) {
+            LogUtils.v(
+                TAG,
+                "%sParseTreeVariableNode.resolveToInteger() name=%s value=%s",
+                logIndent,
+                mName,
+                value);
+          }
           return value;
         }
       case ParseTree.VARIABLE_NUMBER:
@@ -180,23 +188,27 @@ class ParseTreeVariableNode extends ParseTreeNode {
       case ParseTree.VARIABLE_INTEGER:
         {
           int value = delegate.getInteger(mId);
-          LogUtils.v(
-              TAG,
-              "%sParseTreeVariableNode.resolveToNumber() name=%s value=%s",
-              logIndent,
-              mName,
-              value);
+          if (LogUtils.shouldLog(Log.VERBOSE)) {
+            LogUtils.v(
+                TAG,
+                "%sParseTreeVariableNode.resolveToNumber() name=%s value=%s",
+                logIndent,
+                mName,
+                value);
+          }
           return value;
         }
       case ParseTree.VARIABLE_NUMBER:
         {
           double value = delegate.getNumber(mId);
-          LogUtils.v(
-              TAG,
-              "%sParseTreeVariableNode.resolveToNumber() name=%s value=%s",
-              logIndent,
-              mName,
-              value);
+          if (LogUtils.shouldLog(Log.VERBOSE)) {
+            LogUtils.v(
+                TAG,
+                "%sParseTreeVariableNode.resolveToNumber() name=%s value=%s",
+                logIndent,
+                mName,
+                value);
+          }
           return value;
         }
       case ParseTree.VARIABLE_BOOL:
@@ -228,12 +240,14 @@ class ParseTreeVariableNode extends ParseTreeNode {
           if (value == null) {
             value = "";
           }
-          LogUtils.v(
-              TAG,
-              "%sParseTreeVariableNode.resolveToString() name=%s value=%s",
-              logIndent,
-              mName,
-              value);
+          if (LogUtils.shouldLog(Log.VERBOSE)) {
+            LogUtils.v(
+                TAG,
+                "%sParseTreeVariableNode.resolveToString() name=%s value=%s",
+                logIndent,
+                mName,
+                value);
+          }
           return value;
         }
       case ParseTree.VARIABLE_BOOL:
@@ -270,6 +284,13 @@ class ParseTreeVariableNode extends ParseTreeNode {
   @Override
   public List<CharSequence> resolveToArray(ParseTree.VariableDelegate delegate, String logIndent) {
     List<CharSequence> result = new ArrayList<>();
+    appendToArray(delegate, logIndent, result);
+    return result;
+  }
+
+  @Override
+  void appendToArray(
+      ParseTree.VariableDelegate delegate, String logIndent, List<CharSequence> result) {
     if (mType == ParseTree.VARIABLE_ARRAY) {
       int length = delegate.getArrayLength(mId);
       for (int i = 0; i < length; i++) {
@@ -277,12 +298,14 @@ class ParseTreeVariableNode extends ParseTreeNode {
         if (value == null) {
           value = "";
         }
-        LogUtils.v(
-            TAG,
-            "%sParseTreeVariableNode.resolveToArray() name=%s value=%s",
-            logIndent,
-            mName,
-            value);
+        if (LogUtils.shouldLog(Log.VERBOSE)) {
+          LogUtils.v(
+              TAG,
+              "%sParseTreeVariableNode.resolveToArray() name=%s value=%s",
+              logIndent,
+              mName,
+              value);
+        }
         result.add(value);
       }
     } else {
@@ -292,7 +315,6 @@ class ParseTreeVariableNode extends ParseTreeNode {
           ParseTree.variableTypeToString(mType),
           mName);
     }
-    return result;
   }
 
   @Override
@@ -325,4 +347,13 @@ class ParseTreeVariableNode extends ParseTreeNode {
       return super.getArrayLength(delegate, logIndent);
     }
   }
+
+  @Override
+  void writeSnapshot(ParseTreeSnapshot.Writer writer) throws IOException {
+    writer.beginRecord(ParseTreeSnapshot.NODE_VARIABLE);
+    writer.writeString(mName);
+    writer.writeInt(mType);
+    writer.writeInt(mId);
+    writer.writeInt(mEnumType);
+  }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.traversal;
+
+import android.view.accessibility.AccessibilityEvent;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import com.google.android.accessibility.utils.FocusFinder;
+import com.google.android.accessibility.utils.PerWindowCache;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Keeps {@link DirectionalTraversalStrategy} instances alive across directional moves, so that
+ * each move does not walk the window and sort its focusables again. The focusables, their bounds
+ * and the edge indexes of a root are kept until its window changes or its content changes or
+ * scrolls, since any of those can move the focusables.
+ *
+ * <p>While the cache is disabled, a new strategy is built for every request.
+ */
+public class DirectionalTraversalCache extends PerWindowCache {
+
+  /** Number of roots whose strategy is kept, for example a window and a scrolled container. */
+  private static final int MAX_CACHED_ROOTS = 4;
+
+  private static @Nullable DirectionalTraversalCache instance;
+
+  /** Cached strategies by root node, least recently used first. */
+  private final LinkedHashMap<AccessibilityNodeInfoCompat, Entry> entries =
+      new LruMap<>(MAX_CACHED_ROOTS);
+
+  private int hitCount = 0;
+  private int buildCount = 0;
+
+  /** The cached strategy of a root, with what it was built for. */
+  private static final class Entry {
+    final DirectionalTraversalStrategy strategy;
+    final FocusFinder focusFinder;
+    final int windowId;
+
+    Entry(DirectionalTraversalStrategy strategy, FocusFinder focusFinder, int windowId) {
+      this.strategy = strategy;
+      this.focusFinder = focusFinder;
+      this.windowId = windowId;
+    }
+  }
+
+  public static synchronized DirectionalTraversalCache getInstance() {
+    if (instance == null) {
+      instance = new DirectionalTraversalCache();
+    }
+    return instance;
+  }
+
+  private DirectionalTraversalCache() {}
+
+  /** Returns the directional traversal of the root, reusing the cached strategy if any. */
+  public synchronized DirectionalTraversalStrategy getTraversal(
+      AccessibilityNodeInfoCompat root, FocusFinder focusFinder) {
+    if (!isEnabled() || root == null) {
+      return new DirectionalTraversalStrategy(root, focusFinder);
+    }
+
+    @Nullable Entry entry = entries.get(root);
+    if (entry != null && entry.focusFinder == focusFinder) {
+      hitCount++;
+      return entry.strategy;
+    }
+
+    buildCount++;
+    entry =
+        new Entry(
+            new DirectionalTraversalStrategy(root, focusFinder), focusFinder, root.getWindowId());
+    entries.put(AccessibilityNodeInfoCompat.obtain(root), entry);
+    return entry.strategy;
+  }
+
+  /** Discards all cached strategies. */
+  @Override
+  public synchronized void invalidate() {
+    entries.clear();
+  }
+
+  @Override
+  protected synchronized void onWindowContentChanged(AccessibilityEvent event) {
+    int windowId = event.getWindowId();
+    for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+      if (iterator.next().windowId == windowId) {
+        iterator.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DirectionalTraversalCache{roots="
+        + entries.size()
+        + ", hits="
+        + hitCount
+        + ", builds="
+        + buildCount
+        + "}";
+  }
+}
@@ -25,9 +25,11 @@ import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils;
 import com.google.android.accessibility.utils.BuildVersionUtils;
 import com.google.android.accessibility.utils.Filter;
 import com.google.android.accessibility.utils.FocusFinder;
+import com.google.android.accessibility.utils.FocusabilityCache;
 import com.google.android.accessibility.utils.WebInterfaceUtils;
+import com.google.android.accessibility.utils.WindowSnapshotCache;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -58,7 +60,23 @@ public class DirectionalTraversalStrategy implements TraversalStrategy {
   private final Set<AccessibilityNodeInfoCompat> mContainers = new HashSet<>();
 
   /** Cache of nodes that have speech for use by AccessibilityNodeInfoUtils. */
-  private final Map<AccessibilityNodeInfoCompat, Boolean> mSpeakingNodesCache = new HashMap<>();
+  private final Map<AccessibilityNodeInfoCompat, Boolean> mSpeakingNodesCache =
+      FocusabilityCache.getInstance().getSpeakingNodesCache();
+
+  /**
+   * The assumed on-screen bounds of {@link #mFocusables}, as left, top, right and bottom for each
+   * node in the same order. Built once, after the hierarchy is processed.
+   */
+  private int[] mFocusableBounds;
+
+  /**
+   * For each search direction, the indexes of {@link #mFocusables} sorted by the edge that decides
+   * whether a node is in the search half-plane. Built on first search in that direction.
+   */
+  private final @Nullable EdgeIndex[] mEdgeIndexes = new EdgeIndex[4];
+
+  /** Reused buffer for the indexes of the candidates in the search half-plane. */
+  private int[] mCandidates;
 
   public DirectionalTraversalStrategy(AccessibilityNodeInfoCompat root, FocusFinder focusFinder) {
     mRoot = AccessibilityNodeInfoCompat.obtain(root);
@@ -71,6 +89,8 @@ public class DirectionalTraversalStrategy implements TraversalStrategy {
     mRootRectPadded = new Rect(mRootRect);
     mRootRectPadded.inset(fudge, fudge);
 
+    // Captures the hierarchy once, so that the walk below reads children from the snapshot.
+    WindowSnapshotCache.getInstance().getSnapshot(mRoot);
     processNodes(mRoot, false /* forceRefresh */);
 
     // Before N, sometimes AccessibilityNodeInfo is not properly updated after transitions
@@ -80,6 +100,18 @@ public class DirectionalTraversalStrategy implements TraversalStrategy {
     if (mFocusables.isEmpty() && !BuildVersionUtils.isAtLeastN()) {
       processNodes(mRoot, true /* forceRefresh */);
     }
+
+    int focusableCount = mFocusables.size();
+    mFocusableBounds = new int[focusableCount * 4];
+    mCandidates = new int[focusableCount];
+    Rect rect = new Rect();
+    for (int i = 0; i < focusableCount; i++) {
+      getAssumedRectInScreen(mFocusables.get(i), rect);
+      mFocusableBounds[i * 4] = rect.left;
+      mFocusableBounds[i * 4 + 1] = rect.top;
+      mFocusableBounds[i * 4 + 2] = rect.right;
+      mFocusableBounds[i * 4 + 3] = rect.bottom;
+    }
   }
 
   /**
@@ -122,10 +154,18 @@ public class DirectionalTraversalStrategy implements TraversalStrategy {
       }
 
       boolean hasFocusableDescendants = false;
-      int childCount = rootNode.getChildCount();
-      for (int i = 0; i < childCount; ++i) {
-        AccessibilityNodeInfoCompat child = rootNode.getChild(i);
-        if (child != null) {
+      if (forceRefresh) {
+        // Refreshes live children, rather than the shared children of a snapshot.
+        int childCount = rootNode.getChildCount();
+        for (int i = 0; i < childCount; ++i) {
+          AccessibilityNodeInfoCompat child = rootNode.getChild(i);
+          if (child != null) {
+            hasFocusableDescendants |= processNodes(child, forceRefresh);
+          }
+        }
+      } else {
+        for (AccessibilityNodeInfoCompat child :
+            WindowSnapshotCache.getInstance().getChildren(rootNode)) {
           hasFocusableDescendants |= processNodes(child, forceRefresh);
         }
       }
@@ -176,14 +216,21 @@ public class DirectionalTraversalStrategy implements TraversalStrategy {
     }
 
     AccessibilityNodeInfoCompat closest = null;
-    for (AccessibilityNodeInfoCompat focusable : mFocusables) {
+    Rect otherRect = new Rect();
+    int candidateCount = findCandidatesInHalfPlane(direction, focusedRect, mCandidates);
+    for (int i = 0; i < candidateCount; i++) {
+      int index = mCandidates[i];
+      AccessibilityNodeInfoCompat focusable = mFocusables.get(index);
       // Skip the currently-focused view.
       if (focusable.equals(focused) || focusable.equals(mRoot)) {
         continue;
       }
 
-      Rect otherRect = new Rect();
-      getAssumedRectInScreen(focusable, otherRect);
+      otherRect.set(
+          mFocusableBounds[index * 4],
+          mFocusableBounds[index * 4 + 1],
+          mFocusableBounds[index * 4 + 2],
+          mFocusableBounds[index * 4 + 3]);
 
       if (isBetterCandidate(direction, focusedRect, otherRect, bestCandidateRect)) {
         bestCandidateRect.set(otherRect);
@@ -198,6 +245,121 @@ public class DirectionalTraversalStrategy implements TraversalStrategy {
     return null;
   }
 
+  /**
+   * Collects the indexes of the focusables that can be candidates in the direction from the source,
+   * which are the only ones that {@link #isBetterCandidate(int, Rect, Rect, Rect)} can accept. For
+   * example, going left, only nodes whose left edge is left of the source's left edge.
+   *
+   * @param candidates receives the indexes into {@link #mFocusables}, in the same order, so that
+   *     ties are broken as if all focusables were compared
+   * @return the number of candidates
+   */
+  private int findCandidatesInHalfPlane(int direction, Rect source, int[] candidates) {
+    EdgeIndex edgeIndex = getEdgeIndex(direction);
+    int start;
+    int end;
+    switch (direction) {
+      case TraversalStrategy.SEARCH_FOCUS_LEFT:
+        start = 0;
+        end = edgeIndex.firstIndexWithEdgeAtLeast(source.left);
+        break;
+      case TraversalStrategy.SEARCH_FOCUS_UP:
+        start = 0;
+        end = edgeIndex.firstIndexWithEdgeAtLeast(source.top);
+        break;
+      case TraversalStrategy.SEARCH_FOCUS_RIGHT:
+        start = edgeIndex.firstIndexWithEdgeAtLeast(source.right + 1);
+        end = edgeIndex.size();
+        break;
+      case TraversalStrategy.SEARCH_FOCUS_DOWN:
+        start = edgeIndex.firstIndexWithEdgeAtLeast(source.bottom + 1);
+        end = edgeIndex.size();
+        break;
+      default:
+        throw new IllegalArgumentException("direction must be a SearchDirection");
+    }
+
+    int count = end - start;
+    System.arraycopy(edgeIndex.focusableIndexes, start, candidates, 0, count);
+    Arrays.sort(candidates, 0, count);
+    return count;
+  }
+
+  private EdgeIndex getEdgeIndex(int direction) {
+    int slot = direction - TraversalStrategy.SEARCH_FOCUS_LEFT;
+    if (slot < 0 || slot >= mEdgeIndexes.length) {
+      throw new IllegalArgumentException("direction must be a SearchDirection");
+    }
+    if (mEdgeIndexes[slot] == null) {
+      int edgeOffset;
+      switch (direction) {
+        case TraversalStrategy.SEARCH_FOCUS_LEFT:
+          edgeOffset = 0;
+          break;
+        case TraversalStrategy.SEARCH_FOCUS_UP:
+          edgeOffset = 1;
+          break;
+        case TraversalStrategy.SEARCH_FOCUS_RIGHT:
+          edgeOffset = 2;
+          break;
+        default:
+          edgeOffset = 3;
+          break;
+      }
+      mEdgeIndexes[slot] = new EdgeIndex(mFocusableBounds, edgeOffset);
+    }
+    return mEdgeIndexes[slot];
+  }
+
+  /** Indexes of focusables sorted by one edge of their bounds, for range queries on that edge. */
+  private static final class EdgeIndex {
+    /** The edge coordinates, ascending. */
+    final int[] edges;
+
+    /** The index into the focusables of each edge. */
+    final int[] focusableIndexes;
+
+    /**
+     * @param bounds left, top, right and bottom of each focusable
+     * @param edgeOffset which edge to sort by, from 0 for left to 3 for bottom
+     */
+    EdgeIndex(int[] bounds, int edgeOffset) {
+      int count = bounds.length / 4;
+      // Pack each edge above its index, so that a primitive sort orders by edge, then by index.
+      long[] packed = new long[count];
+      for (int i = 0; i < count; i++) {
+        packed[i] = ((long) bounds[i * 4 + edgeOffset] << 32) | i;
+      }
+      Arrays.sort(packed);
+
+      edges = new int[count];
+      focusableIndexes = new int[count];
+      for (int i = 0; i < count; i++) {
+        edges[i] = (int) (packed[i] >> 32);
+        focusableIndexes[i] = (int) packed[i];
+      }
+    }
+
+    int size() {
+      return edges.length;
+    }
+
+    /** Returns the first position whose edge is at least the value, or {@link #size()}. */
+    int firstIndexWithEdgeAtLeast(int value) {
+      int low = 0;
+      int high = edges.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (edges[middle] < value) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+
   /**
    * Selects an item to focus when there is no current accessibility focus.
    *
@@ -224,7 +386,8 @@ public class DirectionalTraversalStrategy implements TraversalStrategy {
     }
 
     // 2. Just use the OrderedTraversalStrategy.
-    final OrderedTraversalStrategy orderedStrategy = new OrderedTraversalStrategy(mRoot);
+    final OrderedTraversalStrategy orderedStrategy =
+        OrderedTraversalCache.getInstance().getTraversal(mRoot);
 
     // Should not need to obtain() here; the inner code should do this for us.
     return TraversalStrategyUtils.searchFocus(
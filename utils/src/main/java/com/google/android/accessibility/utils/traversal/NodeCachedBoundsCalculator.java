@@ -19,9 +19,11 @@ package com.google.android.accessibility.utils.traversal;
 import android.graphics.Rect;
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
 import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils;
+import com.google.android.accessibility.utils.WindowSnapshotCache;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -87,36 +89,31 @@ public class NodeCachedBoundsCalculator {
       return bounds;
     }
 
-    int childCount = node.getChildCount();
+    List<AccessibilityNodeInfoCompat> children = WindowSnapshotCache.getInstance().getChildren(node);
     int minTop = Integer.MAX_VALUE;
     int minLeft = Integer.MAX_VALUE;
     int maxBottom = Integer.MIN_VALUE;
     int maxRight = Integer.MIN_VALUE;
-    AccessibilityNodeInfoCompat child = null;
     boolean hasChildBounds = false;
-    for (int i = 0; i < childCount; i++) {
-      try {
-        child = node.getChild(i);
-        Rect bounds = getBoundsInternal(child);
-        if (!bounds.equals(EMPTY_RECT)) {
-          hasChildBounds = true;
-          if (bounds.top < minTop) {
-            minTop = bounds.top;
-          }
-
-          if (bounds.left < minLeft) {
-            minLeft = bounds.left;
-          }
-
-          if (bounds.right > maxRight) {
-            maxRight = bounds.right;
-          }
-
-          if (bounds.bottom > maxBottom) {
-            maxBottom = bounds.bottom;
-          }
+    for (AccessibilityNodeInfoCompat child : children) {
+      Rect bounds = getBoundsInternal(child);
+      if (!bounds.equals(EMPTY_RECT)) {
+        hasChildBounds = true;
+        if (bounds.top < minTop) {
+          minTop = bounds.top;
+        }
+
+        if (bounds.left < minLeft) {
+          minLeft = bounds.left;
+        }
+
+        if (bounds.right > maxRight) {
+          maxRight = bounds.right;
+        }
+
+        if (bounds.bottom > maxBottom) {
+          maxBottom = bounds.bottom;
         }
-      } finally {
       }
     }
 
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.traversal;
+
+import android.view.accessibility.AccessibilityEvent;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import com.google.android.accessibility.utils.AccessibilityNodeInfoUtils;
+import com.google.android.accessibility.utils.PerWindowCache;
+import com.google.android.accessibility.utils.WebInterfaceUtils;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Keeps {@link OrderedTraversalStrategy} instances alive across navigation actions, so that each
+ * action does not traverse the whole window again. The traversal order and the speaking node cache
+ * of a root are kept until its window changes. Content changes and scrolls only build again the
+ * parts of the order that contain the changed nodes, when the next traversal is requested.
+ *
+ * <p>While the cache is disabled, a new strategy is built for every request.
+ */
+public class OrderedTraversalCache extends PerWindowCache {
+
+  private static final String TAG = "OrderedTraversalCache";
+
+  /** Number of roots whose order is kept, for example a window and a scrolled container in it. */
+  private static final int MAX_CACHED_ROOTS = 4;
+
+  /** Number of changed nodes beyond which the order is built again from the root. */
+  private static final int MAX_CHANGED_NODES = 16;
+
+  /** Number of ancestors searched for the part of the order that contains a changed node. */
+  private static final int MAX_ANCESTOR_DEPTH = 64;
+
+  private static @Nullable OrderedTraversalCache instance;
+
+  /** Cached orders by root node, least recently used first. */
+  private final LinkedHashMap<AccessibilityNodeInfoCompat, Entry> entries =
+      new LruMap<>(MAX_CACHED_ROOTS);
+
+  private int hitCount = 0;
+  private int refreshCount = 0;
+  private int buildCount = 0;
+
+  /** The cached order of a root, and the changes not yet applied to it. */
+  private static final class Entry {
+    final OrderedTraversalStrategy strategy;
+    final int windowId;
+    final Set<AccessibilityNodeInfoCompat> changedNodes = new LinkedHashSet<>();
+
+    Entry(OrderedTraversalStrategy strategy, int windowId) {
+      this.strategy = strategy;
+      this.windowId = windowId;
+    }
+  }
+
+  public static synchronized OrderedTraversalCache getInstance() {
+    if (instance == null) {
+      instance = new OrderedTraversalCache();
+    }
+    return instance;
+  }
+
+  private OrderedTraversalCache() {}
+
+  /** Returns the ordered traversal of the root, reusing and updating the cached order if any. */
+  public synchronized OrderedTraversalStrategy getTraversal(AccessibilityNodeInfoCompat root) {
+    if (!isEnabled() || root == null) {
+      return new OrderedTraversalStrategy(root);
+    }
+
+    @Nullable Entry entry = entries.get(root);
+    if (entry != null) {
+      if (applyChanges(entry)) {
+        hitCount++;
+        return entry.strategy;
+      }
+      entries.remove(root);
+    }
+
+    buildCount++;
+    entry =
+        new Entry(new OrderedTraversalStrategy(root, /* isCached= */ true), root.getWindowId());
+    entries.put(AccessibilityNodeInfoCompat.obtain(root), entry);
+    return entry.strategy;
+  }
+
+  /** Discards all cached orders. */
+  @Override
+  public synchronized void invalidate() {
+    entries.clear();
+  }
+
+  @Override
+  protected synchronized void onWindowContentChanged(AccessibilityEvent event) {
+    if (entries.isEmpty()) {
+      return;
+    }
+
+    int windowId = event.getWindowId();
+    @Nullable AccessibilityNodeInfoCompat source = null;
+    boolean sourceFetched = false;
+    for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+      Entry entry = iterator.next();
+      if (entry.windowId != windowId) {
+        continue;
+      }
+      if (!sourceFetched) {
+        source = AccessibilityNodeInfoUtils.toCompat(event.getSource());
+        sourceFetched = true;
+      }
+      if (source == null || entry.changedNodes.size() >= MAX_CHANGED_NODES) {
+        iterator.remove();
+      } else {
+        entry.changedNodes.add(source);
+      }
+    }
+  }
+
+  /**
+   * Applies the pending changes to the cached order. Returns {@code false} if the order must be
+   * built again.
+   */
+  private boolean applyChanges(Entry entry) {
+    for (AccessibilityNodeInfoCompat changedNode : entry.changedNodes) {
+      @Nullable AccessibilityNodeInfoCompat nodeInOrder = findNodeInOrder(entry, changedNode);
+      if (nodeInOrder == null) {
+        // The change is outside of the root, or inside web content which is not ordered.
+        continue;
+      }
+      if (!entry.strategy.refreshSubtree(nodeInOrder)) {
+        LogUtils.v(TAG, "Cannot refresh the order in part, building it again");
+        return false;
+      }
+      refreshCount++;
+    }
+    entry.changedNodes.clear();
+    return true;
+  }
+
+  /**
+   * Returns the node, or its closest ancestor, that is in the cached order, or null if the change
+   * does not affect the order. If no ordered ancestor is found within {@link #MAX_ANCESTOR_DEPTH},
+   * returns the changed node itself, which cannot be refreshed, so that the order is built again.
+   */
+  private static @Nullable AccessibilityNodeInfoCompat findNodeInOrder(
+      Entry entry, AccessibilityNodeInfoCompat changedNode) {
+    AccessibilityNodeInfoCompat node = changedNode;
+    for (int depth = 0; node != null && depth < MAX_ANCESTOR_DEPTH; depth++) {
+      if (entry.strategy.contains(node)) {
+        if (node != changedNode && WebInterfaceUtils.supportsWebActions(node)) {
+          // Descendants of web content are navigated by the browser.
+          return null;
+        }
+        return node;
+      }
+      node = node.getParent();
+    }
+    return (node == null) ? null : changedNode;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "OrderedTraversalCache{roots="
+        + entries.size()
+        + ", hits="
+        + hitCount
+        + ", refreshes="
+        + refreshCount
+        + ", builds="
+        + buildCount
+        + "}";
+  }
+}
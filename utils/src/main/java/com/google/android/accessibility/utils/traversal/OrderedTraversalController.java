@@ -20,6 +20,7 @@ import android.view.accessibility.AccessibilityNodeInfo;
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
 import com.google.android.accessibility.utils.TreeDebug;
 import com.google.android.accessibility.utils.WebInterfaceUtils;
+import com.google.android.accessibility.utils.WindowSnapshotCache;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -32,6 +33,13 @@ public class OrderedTraversalController {
   private @Nullable WorkingTree mTree;
   private Map<AccessibilityNodeInfoCompat, WorkingTree> mNodeTreeMap;
   private Map<AccessibilityNodeInfoCompat, Boolean> mSpeakNodesCache;
+  private boolean mIncludeChildrenOfNodesWithWebActions;
+
+  /**
+   * Whether any node moved because of traversal before/after, in which case subtrees cannot be
+   * refreshed separately.
+   */
+  private boolean mHasCustomTraversalOrder;
 
   public OrderedTraversalController() {
     mNodeTreeMap = new LinkedHashMap<>();
@@ -59,6 +67,9 @@ public class OrderedTraversalController {
       return;
     }
 
+    mIncludeChildrenOfNodesWithWebActions = includeChildrenOfNodesWithWebActions;
+    // Captures the hierarchy once, so that the walks below read children from the snapshot.
+    WindowSnapshotCache.getInstance().getSnapshot(compatRoot);
     NodeCachedBoundsCalculator boundsCalculator = new NodeCachedBoundsCalculator();
     boundsCalculator.setSpeakNodesCache(mSpeakNodesCache);
     mTree =
@@ -70,6 +81,68 @@ public class OrderedTraversalController {
     reorderTree();
   }
 
+  /** Returns whether the node is in the traversal order tree. */
+  public boolean contains(AccessibilityNodeInfoCompat node) {
+    return mNodeTreeMap.containsKey(node);
+  }
+
+  /**
+   * Builds again the part of the traversal order tree that contains a changed node, without
+   * traversing the rest of the hierarchy. The node is reordered among its siblings as well, since
+   * its bounds may have changed.
+   *
+   * @param node a node in the tree whose content or descendants changed
+   * @return {@code false} if the tree could not be refreshed in part, and should be built again
+   *     with {@link #initOrder(AccessibilityNodeInfoCompat, boolean)}
+   */
+  public boolean refreshSubtree(AccessibilityNodeInfoCompat node) {
+    WorkingTree changedTree = mNodeTreeMap.get(node);
+    if (mTree == null || changedTree == null || mHasCustomTraversalOrder) {
+      return false;
+    }
+
+    WorkingTree parent = changedTree.getParent();
+    WorkingTree subtree = (parent != null && parent.getParent() != null) ? parent : changedTree;
+    WorkingTree subtreeParent = subtree.getParent();
+    AccessibilityNodeInfoCompat subtreeNode = subtree.getNode();
+    if (subtreeParent == null || !subtreeNode.refresh()) {
+      return false;
+    }
+
+    removeFromTree(subtree);
+    if (mSpeakNodesCache != null) {
+      // Whether an ancestor is a speaking node may depend on the changed descendants.
+      WorkingTree ancestor = subtreeParent;
+      while (ancestor != null) {
+        mSpeakNodesCache.remove(ancestor.getNode());
+        ancestor = ancestor.getParent();
+      }
+    }
+
+    NodeCachedBoundsCalculator boundsCalculator = new NodeCachedBoundsCalculator();
+    boundsCalculator.setSpeakNodesCache(mSpeakNodesCache);
+    WorkingTree newSubtree =
+        createWorkingTree(
+            subtreeNode, subtreeParent, boundsCalculator, mIncludeChildrenOfNodesWithWebActions);
+    if (newSubtree == null) {
+      return false;
+    }
+    subtreeParent.swapChild(subtree, newSubtree);
+    return true;
+  }
+
+  /** Removes the nodes of a subtree from the node map and from the speaking node cache. */
+  private void removeFromTree(WorkingTree subtree) {
+    AccessibilityNodeInfoCompat node = subtree.getNode();
+    mNodeTreeMap.remove(node);
+    if (mSpeakNodesCache != null) {
+      mSpeakNodesCache.remove(node);
+    }
+    for (WorkingTree child : subtree.getChildren()) {
+      removeFromTree(child);
+    }
+  }
+
   /**
    * Creates tree that reproduces AccessibilityNodeInfoCompat tree hierarchy
    *
@@ -121,11 +194,13 @@ public class OrderedTraversalController {
       AccessibilityNodeInfoCompat node = subtree.getNode();
       AccessibilityNodeInfoCompat beforeNode = node.getTraversalBefore();
       if (beforeNode != null) {
+        mHasCustomTraversalOrder = true;
         WorkingTree targetTree = mNodeTreeMap.get(beforeNode);
         moveNodeBefore(subtree, targetTree);
       } else {
         AccessibilityNodeInfoCompat afterNode = node.getTraversalAfter();
         if (afterNode != null) {
+          mHasCustomTraversalOrder = true;
           WorkingTree targetTree = mNodeTreeMap.get(afterNode);
           moveNodeAfter(subtree, targetTree);
         }
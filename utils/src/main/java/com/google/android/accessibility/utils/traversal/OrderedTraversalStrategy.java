@@ -17,7 +17,8 @@
 package com.google.android.accessibility.utils.traversal;
 
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
-import java.util.HashMap;
+import com.google.android.accessibility.utils.FocusabilityCache;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.util.Map;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -32,19 +33,71 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 @SuppressWarnings("JavadocReference")
 public class OrderedTraversalStrategy implements TraversalStrategy {
 
+  private static final String TAG = "OrderedTraversalStrategy";
+
   private @Nullable AccessibilityNodeInfoCompat mRootNode;
-  private final OrderedTraversalController mController;
+  private OrderedTraversalController mController;
   private final Map<AccessibilityNodeInfoCompat, Boolean> mSpeakingNodesCache;
 
+  /**
+   * Whether the order is kept across searches by {@link OrderedTraversalCache}, and so may miss
+   * nodes that appeared without a content change event.
+   */
+  private final boolean mIsCached;
+
+  /** Whether the order was built again since the last change, after a search for a missing node. */
+  private boolean mRebuiltForMissingNode;
+
   public OrderedTraversalStrategy(AccessibilityNodeInfoCompat rootNode) {
+    this(rootNode, /* isCached= */ false);
+  }
+
+  OrderedTraversalStrategy(AccessibilityNodeInfoCompat rootNode, boolean isCached) {
     if (rootNode != null) {
       mRootNode = AccessibilityNodeInfoCompat.obtain(rootNode);
     }
 
-    mSpeakingNodesCache = new HashMap<>();
-    mController = new OrderedTraversalController();
-    mController.setSpeakNodesCache(mSpeakingNodesCache);
-    mController.initOrder(mRootNode, false);
+    mIsCached = isCached;
+    mSpeakingNodesCache = FocusabilityCache.getInstance().getSpeakingNodesCache();
+    mController = createController();
+  }
+
+  private OrderedTraversalController createController() {
+    OrderedTraversalController controller = new OrderedTraversalController();
+    controller.setSpeakNodesCache(mSpeakingNodesCache);
+    controller.initOrder(mRootNode, false);
+    return controller;
+  }
+
+  /**
+   * Updates the order after the content of a node changed. Returns {@code false} if the order
+   * could not be updated in part, in which case the strategy should be discarded.
+   */
+  boolean refreshSubtree(AccessibilityNodeInfoCompat changedNode) {
+    mRebuiltForMissingNode = false;
+    return mController.refreshSubtree(changedNode);
+  }
+
+  /** Returns whether the node is in the traversal order. */
+  boolean contains(AccessibilityNodeInfoCompat node) {
+    return mController.contains(node);
+  }
+
+  /**
+   * Builds the cached order again if the search starts from a node that is not in it. This happens
+   * at most once between changes, so that searches from nodes outside the root stay cheap.
+   */
+  private void rebuildIfMissing(AccessibilityNodeInfoCompat node) {
+    if (!mIsCached || mRebuiltForMissingNode || node == null || mController.contains(node)) {
+      return;
+    }
+    LogUtils.v(TAG, "Node is missing from the cached order, building it again");
+    mRebuiltForMissingNode = true;
+    if (mRootNode != null) {
+      // Nodes appeared without a content change event, so verdicts of the window may be stale.
+      FocusabilityCache.getInstance().invalidate(mRootNode.getWindowId());
+    }
+    mController = createController();
   }
 
   /** @deprecated Accessibility is discontinuing recycling. */
@@ -60,6 +113,7 @@ public class OrderedTraversalStrategy implements TraversalStrategy {
   @Override
   public @Nullable AccessibilityNodeInfoCompat findFocus(
       AccessibilityNodeInfoCompat startNode, @SearchDirection int direction) {
+    rebuildIfMissing(startNode);
     switch (direction) {
       case TraversalStrategy.SEARCH_FOCUS_FORWARD:
         return focusNext(startNode);
@@ -82,6 +136,7 @@ public class OrderedTraversalStrategy implements TraversalStrategy {
   @Override
   public @Nullable AccessibilityNodeInfoCompat focusInitial(
       AccessibilityNodeInfoCompat root, @SearchDirection int direction) {
+    rebuildIfMissing(root);
     if (direction == SEARCH_FOCUS_FORWARD) {
       return mController.findFirst(root);
     } else if (direction == SEARCH_FOCUS_BACKWARD) {
@@ -19,6 +19,7 @@ package com.google.android.accessibility.utils.traversal;
 import android.graphics.Rect;
 import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
 import com.google.android.accessibility.utils.WebInterfaceUtils;
+import com.google.android.accessibility.utils.WindowSnapshotCache;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -240,13 +241,7 @@ public class ReorderedChildrenIterator implements Iterator<AccessibilityNodeInfo
   }
 
   private void fillNodesFromParent() {
-    int count = mParent.getChildCount();
-    for (int i = 0; i < count; i++) {
-      AccessibilityNodeInfoCompat node = mParent.getChild(i);
-      if (node != null) {
-        mNodes.add(node);
-      }
-    }
+    mNodes.addAll(WindowSnapshotCache.getInstance().getChildren(mParent));
   }
 
   @Override
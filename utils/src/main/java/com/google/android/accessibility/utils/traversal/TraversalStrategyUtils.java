@@ -46,12 +46,12 @@ public class TraversalStrategyUtils {
     switch (direction) {
       case TraversalStrategy.SEARCH_FOCUS_BACKWARD:
       case TraversalStrategy.SEARCH_FOCUS_FORWARD:
-        return new OrderedTraversalStrategy(root);
+        return OrderedTraversalCache.getInstance().getTraversal(root);
       case TraversalStrategy.SEARCH_FOCUS_LEFT:
       case TraversalStrategy.SEARCH_FOCUS_RIGHT:
       case TraversalStrategy.SEARCH_FOCUS_UP:
       case TraversalStrategy.SEARCH_FOCUS_DOWN:
-        return new DirectionalTraversalStrategy(root, focusFinder);
+        return DirectionalTraversalCache.getInstance().getTraversal(root, focusFinder);
       default: // fall out
     }
 
@@ -54,6 +54,11 @@ public class WorkingTree {
     mChildren.add(node);
   }
 
+  /** Returns the children, in traversal order. The list must not be modified. */
+  public List<WorkingTree> getChildren() {
+    return mChildren;
+  }
+
   public boolean removeChild(WorkingTree child) {
     return mChildren.remove(child);
   }
@@ -0,0 +1,114 @@
+package com.google.android.libraries.accessibility.utils.bitmap;
+
+import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * A bounded pool of mutable {@link Bitmap}s, so that screen captures and crops can reuse pixel
+ * memory instead of allocating a new bitmap for every frame or node. A pooled bitmap is reused for
+ * any size that fits in its allocation, via {@link Bitmap#reconfigure(int, int, Bitmap.Config)}.
+ *
+ * <p>Bitmaps obtained from the pool belong to the caller until they are released back to it.
+ */
+public final class BitmapPool {
+
+  private final long maxBytes;
+  private final ArrayDeque<Bitmap> bitmaps = new ArrayDeque<>();
+  private long pooledBytes = 0;
+
+  /** @param maxBytes The most pixel memory that the pool holds while bitmaps are unused */
+  public BitmapPool(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a mutable bitmap of the given size and config. The pixels of a reused bitmap are not
+   * cleared, so the caller should overwrite all of them.
+   */
+  public Bitmap obtain(int width, int height, Bitmap.Config config) {
+    @Nullable Bitmap bitmap = takeFitting(width, height, config);
+    if (bitmap == null) {
+      return Bitmap.createBitmap(width, height, config);
+    }
+    if ((bitmap.getWidth() != width)
+        || (bitmap.getHeight() != height)
+        || (bitmap.getConfig() != config)) {
+      try {
+        bitmap.reconfigure(width, height, config);
+      } catch (IllegalArgumentException e) {
+        // The allocation was estimated too small for the config.
+        bitmap.recycle();
+        return Bitmap.createBitmap(width, height, config);
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * Returns a bitmap to the pool. The bitmap is recycled instead if it cannot be reused, or if the
+   * pool is full. The caller must not use the bitmap afterwards.
+   */
+  public void release(@Nullable Bitmap bitmap) {
+    if (bitmap == null || bitmap.isRecycled()) {
+      return;
+    }
+    synchronized (this) {
+      int bytes = bitmap.getAllocationByteCount();
+      if (bitmap.isMutable() && (pooledBytes + bytes <= maxBytes)) {
+        bitmaps.addLast(bitmap);
+        pooledBytes += bytes;
+        return;
+      }
+    }
+    bitmap.recycle();
+  }
+
+  /** Recycles all pooled bitmaps. */
+  public void clear() {
+    synchronized (this) {
+      for (Bitmap bitmap : bitmaps) {
+        bitmap.recycle();
+      }
+      bitmaps.clear();
+      pooledBytes = 0;
+    }
+  }
+
+  /** Removes and returns the smallest pooled bitmap whose allocation fits the size, or null. */
+  @Nullable
+  private synchronized Bitmap takeFitting(int width, int height, Bitmap.Config config) {
+    long neededBytes = (long) width * height * bytesPerPixel(config);
+    @Nullable Bitmap best = null;
+    for (Bitmap bitmap : bitmaps) {
+      int bytes = bitmap.getAllocationByteCount();
+      if (bytes >= neededBytes && (best == null || bytes < best.getAllocationByteCount())) {
+        best = bitmap;
+      }
+    }
+    if (best == null) {
+      return null;
+    }
+    for (Iterator<Bitmap> iterator = bitmaps.iterator(); iterator.hasNext(); ) {
+      if (iterator.next() == best) {
+        iterator.remove();
+        break;
+      }
+    }
+    pooledBytes -= best.getAllocationByteCount();
+    return best;
+  }
+
+  private static int bytesPerPixel(Bitmap.Config config) {
+    switch (config) {
+      case ALPHA_8:
+        return 1;
+      case RGB_565:
+      case ARGB_4444:
+        return 2;
+      default:
+        return 4;
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package com.google.android.libraries.accessibility.utils.bitmap;
+
+import android.os.Process;
+import androidx.annotation.Nullable;
+import com.google.android.libraries.accessibility.utils.log.LogUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small, bounded pool of background threads shared by screen capture conversion and OCR, instead
+ * of a new thread per frame or per request.
+ *
+ * <p>The queue is bounded. When it is full, the oldest waiting task is dropped in favor of the
+ * newest, since stale captures are worth less than fresh ones. Tasks can also be cancelled by tag,
+ * when their results are no longer wanted. A dropped or cancelled task is told through {@link
+ * Task#onDropped()}, so that it can still notify its listener.
+ */
+public final class BitmapProcessingExecutor {
+
+  private static final String TAG = "BitmapProcessingExecutor";
+
+  private static final int MAX_THREADS = 2;
+  private static final int MAX_WAITING_TASKS = 4;
+  private static final long IDLE_THREAD_TIMEOUT_MS = 30000;
+
+  @Nullable private static BitmapProcessingExecutor instance;
+
+  private final ThreadPoolExecutor executor;
+
+  /** Tasks which are running. Guarded by itself. */
+  private final List<Task> runningTasks = new ArrayList<>();
+
+  /** A unit of bitmap work, which can be cancelled by its tag. */
+  public abstract static class Task implements Runnable {
+    @Nullable private final Object tag;
+    private volatile boolean cancelled = false;
+
+    /** @param tag Identifies the tasks to cancel together, or null */
+    protected Task(@Nullable Object tag) {
+      this.tag = tag;
+    }
+
+    /** Returns whether the task was cancelled. Long tasks should check this between steps. */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    /**
+     * Called instead of {@link #run()}, on the thread that dropped the task, when the task is
+     * cancelled or dropped to make room for newer tasks before it started.
+     */
+    protected void onDropped() {}
+  }
+
+  public static synchronized BitmapProcessingExecutor getInstance() {
+    if (instance == null) {
+      instance = new BitmapProcessingExecutor();
+    }
+    return instance;
+  }
+
+  private BitmapProcessingExecutor() {
+    ThreadFactory threadFactory =
+        new ThreadFactory() {
+          private final AtomicInteger threadCount = new AtomicInteger(0);
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            return new Thread(
+                () -> {
+                  Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                  runnable.run();
+                },
+                "BitmapProcessing-" + threadCount.incrementAndGet());
+          }
+        };
+    RejectedExecutionHandler dropOldest =
+        (Runnable runnable, ThreadPoolExecutor pool) -> {
+          if (pool.isShutdown()) {
+            drop(runnable);
+            return;
+          }
+          @Nullable Runnable oldest = pool.getQueue().poll();
+          if (oldest != null) {
+            LogUtils.v(TAG, "Queue is full, dropping the oldest task.");
+            drop(oldest);
+          }
+          pool.execute(runnable);
+        };
+    executor =
+        new ThreadPoolExecutor(
+            MAX_THREADS,
+            MAX_THREADS,
+            IDLE_THREAD_TIMEOUT_MS,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_WAITING_TASKS),
+            threadFactory,
+            dropOldest);
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Runs the task in the background, dropping the oldest waiting task if the queue is full. */
+  public void execute(Task task) {
+    executor.execute(new TaskRunnable(task));
+  }
+
+  /**
+   * Cancels the waiting and running tasks with the tag. Waiting tasks are dropped immediately.
+   * Running tasks are marked, and stop at their next check of {@link Task#isCancelled()}.
+   */
+  public void cancel(Object tag) {
+    List<Task> cancelled = new ArrayList<>();
+    for (Runnable waiting : executor.getQueue().toArray(new Runnable[0])) {
+      @Nullable Task task = unwrap(waiting);
+      if (task != null && tag.equals(task.tag) && executor.getQueue().remove(waiting)) {
+        cancelled.add(task);
+      }
+    }
+    synchronized (runningTasks) {
+      for (Task task : runningTasks) {
+        if (tag.equals(task.tag)) {
+          task.cancelled = true;
+        }
+      }
+    }
+    for (Task task : cancelled) {
+      task.cancelled = true;
+      task.onDropped();
+    }
+  }
+
+  private static void drop(Runnable runnable) {
+    @Nullable Task task = unwrap(runnable);
+    if (task != null) {
+      task.cancelled = true;
+      task.onDropped();
+    }
+  }
+
+  /** Returns the task which the runnable wraps, or null. */
+  @Nullable
+  private static Task unwrap(Runnable runnable) {
+    if (runnable instanceof TaskRunnable) {
+      return ((TaskRunnable) runnable).task;
+    }
+    return null;
+  }
+
+  /** Runs a task, unless it was cancelled while waiting, and tracks it while it runs. */
+  private final class TaskRunnable implements Runnable {
+    private final Task task;
+
+    private TaskRunnable(Task task) {
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      if (task.isCancelled()) {
+        task.onDropped();
+        return;
+      }
+      synchronized (runningTasks) {
+        runningTasks.add(task);
+      }
+      try {
+        task.run();
+      } finally {
+        synchronized (runningTasks) {
+          runningTasks.remove(task);
+        }
+      }
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package com.google.android.libraries.accessibility.utils.bitmap;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Rect;
 import androidx.annotation.Nullable;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
@@ -37,6 +39,39 @@ public final class BitmapUtils {
         bitmap, bitmapRegion.left, bitmapRegion.top, bitmapRegion.width(), bitmapRegion.height());
   }
 
+  /**
+   * Return a cropped {@link Bitmap} given a certain {@link Rect} cropping region, drawn into a
+   * bitmap obtained from {@code pool}. Unlike {@link #cropBitmap(Bitmap, Rect)}, the result is
+   * always mutable, and should be released to the pool once the caller is done with it.
+   *
+   * @param bitmap The {@link Bitmap} to be cropped to the size of the {@code cropRegion}.
+   * @param cropRegion The {@link Rect} representing the desired crop area with respect to the
+   *     {@code bitmap}, fitted to the bitmap's area as in {@link #cropBitmap(Bitmap, Rect)}.
+   * @param pool The {@link BitmapPool} which provides the pixel memory of the result.
+   * @return A {@link Bitmap} from the pool containing the cropped image, or {@code null} if the
+   *     crop region does not intersect the bitmap's region.
+   */
+  @Nullable
+  public static Bitmap cropBitmap(Bitmap bitmap, Rect cropRegion, BitmapPool pool) {
+    Rect bitmapRegion = new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight());
+    if (cropRegion.isEmpty() || (!bitmapRegion.intersect(cropRegion))) {
+      return null;
+    }
+
+    Bitmap.Config config =
+        (bitmap.getConfig() == null) ? Bitmap.Config.ARGB_8888 : bitmap.getConfig();
+    Bitmap croppedBitmap = pool.obtain(bitmapRegion.width(), bitmapRegion.height(), config);
+    // A reused bitmap still holds the pixels of its previous use.
+    croppedBitmap.eraseColor(Color.TRANSPARENT);
+    new Canvas(croppedBitmap)
+        .drawBitmap(
+            bitmap,
+            bitmapRegion,
+            new Rect(0, 0, bitmapRegion.width(), bitmapRegion.height()),
+            /* paint= */ null);
+    return croppedBitmap;
+  }
+
   /**
    * Returns a cropped {@link Bitmap} for the specified, rectangular region of pixels from the
    * source bitmap.
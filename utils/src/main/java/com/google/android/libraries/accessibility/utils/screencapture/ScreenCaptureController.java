@@ -8,6 +8,7 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.PixelFormat;
+import android.graphics.Rect;
 import android.hardware.display.DisplayManager;
 import android.hardware.display.VirtualDisplay;
 import android.media.Image;
@@ -22,6 +23,8 @@ import android.util.DisplayMetrics;
 import android.view.WindowManager;
 import androidx.annotation.Nullable;
 import androidx.localbroadcastmanager.content.LocalBroadcastManager;
+import com.google.android.libraries.accessibility.utils.bitmap.BitmapPool;
+import com.google.android.libraries.accessibility.utils.bitmap.BitmapProcessingExecutor;
 import com.google.android.libraries.accessibility.utils.bitmap.BitmapUtils;
 import com.google.android.libraries.accessibility.utils.log.LogUtils;
 import java.nio.ByteBuffer;
@@ -38,6 +41,9 @@ public class ScreenCaptureController {
   private static final String VIRTUAL_DISPLAY_NAME =
       "com.google.android.libraries.accessibility.utils.screencapture.VIRTUAL_DISPLAY_SCREEN_CAPTURE";
 
+  /** Enough for one ARGB_8888 frame of a 4K display. */
+  private static final long MAX_POOLED_FRAME_BYTES = 3840L * 2160L * 4L;
+
   /** Context used for authorizing screen capture */
   private final Context context;
 
@@ -56,6 +62,12 @@ public class ScreenCaptureController {
   /** Used to track our ImageReader and ensure it isn't garbage collected */
   private ImageReader imageReader;
 
+  /**
+   * Holds the frame buffer copy between captures, so that each capture does not allocate a new
+   * full-screen bitmap before cropping it.
+   */
+  private final BitmapPool framePool = new BitmapPool(MAX_POOLED_FRAME_BYTES);
+
   /** Callback used to deauthorize capture if projection is stopped by the system */
   private final MediaProjection.Callback projectionCallback =
       new MediaProjection.Callback() {
@@ -176,6 +188,7 @@ public class ScreenCaptureController {
     }
 
     deauthorizeCapture();
+    framePool.clear();
   }
 
   /**
@@ -364,20 +377,30 @@ public class ScreenCaptureController {
       reader.setOnImageAvailableListener(null, null);
 
       // Copying the frame buffer from ImageReader to a Bitmap is expensive, so we push that work to
-      // another thread, and post the callback on the main thread when this operation finishes.
-      new Thread(
-              () -> {
-                boolean isFormatSupported = true;
-                Bitmap result = null;
-                try {
-                  result = getBitmapFromImageReader(reader);
-                } catch (UnsupportedOperationException e) {
-                  isFormatSupported = false;
+      // the shared bitmap worker pool, and post the callback on the main thread when this
+      // operation finishes.
+      BitmapProcessingExecutor.getInstance()
+          .execute(
+              new BitmapProcessingExecutor.Task(/* tag= */ ScreenCaptureController.this) {
+                @Override
+                public void run() {
+                  boolean isFormatSupported = true;
+                  Bitmap result = null;
+                  try {
+                    result = getBitmapFromImageReader(reader);
+                  } catch (UnsupportedOperationException e) {
+                    isFormatSupported = false;
+                  }
+
+                  deliverResult(result, isFormatSupported);
                 }
 
-                deliverResult(result, isFormatSupported);
-              })
-          .start();
+                @Override
+                protected void onDropped() {
+                  LogUtils.w(TAG, "Screen capture conversion was dropped.");
+                  handler.post(() -> deliverResult(null, true));
+                }
+              });
     }
 
     /**
@@ -392,26 +415,43 @@ public class ScreenCaptureController {
         return null;
       }
 
-      Image.Plane[] planes = frame.getPlanes();
-      if ((planes == null) || (planes.length < 1)) {
-        return null;
-      }
+      try {
+        Image.Plane[] planes = frame.getPlanes();
+        if ((planes == null) || (planes.length < 1)) {
+          return null;
+        }
 
-      // We only capture data from the first Plane of the Image, as the MediaProjection Surface uses
-      // only a single plane.
-      Plane imagePlane = planes[0];
-
-      // Create a bitmap with a format matching that expected from the ImageReader and copy the
-      // capture data.
-      Bitmap bitmap = Bitmap.createBitmap(imagePlane.getRowStride() / imagePlane.getPixelStride(),
-          frame.getHeight(), Bitmap.Config.ARGB_8888);
-      ByteBuffer buffer = planes[0].getBuffer();
-      bitmap.copyPixelsFromBuffer(buffer);
-      Bitmap croppedBitmap = BitmapUtils.cropBitmap(bitmap, frame.getCropRect());
-      bitmap.recycle();
-      frame.close();
-
-      return croppedBitmap;
+        // We only capture data from the first Plane of the Image, as the MediaProjection Surface
+        // uses only a single plane.
+        Plane imagePlane = planes[0];
+
+        // Obtain a bitmap with a format matching that expected from the ImageReader and copy the
+        // capture data. The pooled bitmap is fully overwritten by the copy.
+        Bitmap bitmap =
+            framePool.obtain(
+                imagePlane.getRowStride() / imagePlane.getPixelStride(),
+                frame.getHeight(),
+                Bitmap.Config.ARGB_8888);
+        ByteBuffer buffer = imagePlane.getBuffer();
+        bitmap.copyPixelsFromBuffer(buffer);
+
+        // The listener keeps the result, so it must not be the pooled bitmap even when there is no
+        // row padding to crop away.
+        Rect cropRect = frame.getCropRect();
+        Bitmap croppedBitmap;
+        if ((cropRect.left == 0)
+            && (cropRect.top == 0)
+            && (cropRect.width() == bitmap.getWidth())
+            && (cropRect.height() == bitmap.getHeight())) {
+          croppedBitmap = bitmap.copy(Bitmap.Config.ARGB_8888, /* isMutable= */ false);
+        } else {
+          croppedBitmap = BitmapUtils.cropBitmap(bitmap, cropRect);
+        }
+        framePool.release(bitmap);
+        return croppedBitmap;
+      } finally {
+        frame.close();
+      }
     }
 
     private void deliverResult(
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import androidx.core.view.accessibility.AccessibilityNodeInfoCompat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Counts the children fetched from live nodes, each of which is a binder call on a device, when
+ * swipes walk a window with and without {@link WindowSnapshotCache}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WindowSnapshotCacheTest {
+  private static final int WINDOW_ID = 7;
+  private static final int CHILDREN_PER_NODE = 4;
+  private static final int DEPTH = 4;
+  /** Nodes below the root: 4 + 16 + 64 + 256. */
+  private static final int DESCENDANT_COUNT = 340;
+  private static final int SWIPES = 5;
+
+  private final WindowSnapshotCache cache = WindowSnapshotCache.getInstance();
+  private final int[] fetches = new int[1];
+  private CountingNode root;
+
+  @Before
+  public void setUp() {
+    root = createTree(DEPTH);
+  }
+
+  @After
+  public void tearDown() {
+    cache.setEnabled(false);
+  }
+
+  @Test
+  public void swipes_withoutCache_fetchEveryChildEachTime() {
+    cache.setEnabled(false);
+
+    int[] fetchesPerSwipe = swipe(SWIPES);
+
+    int[] expected = new int[SWIPES];
+    Arrays.fill(expected, DESCENDANT_COUNT);
+    assertThat(fetchesPerSwipe).isEqualTo(expected);
+  }
+
+  @Test
+  public void swipes_withCache_fetchChildrenOncePerBurst() {
+    cache.setEnabled(true);
+
+    int[] fetchesPerSwipe = swipe(SWIPES);
+
+    assertThat(fetchesPerSwipe).isEqualTo(new int[] {DESCENDANT_COUNT, 0, 0, 0, 0});
+  }
+
+  @Test
+  public void swipes_afterWindowChange_fetchChildrenAgain() {
+    cache.setEnabled(true);
+    swipe(1);
+
+    cache.onAccessibilityEvent(
+        AccessibilityEvent.obtain(AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED),
+        /* eventId= */ null);
+
+    assertThat(swipe(2)).isEqualTo(new int[] {DESCENDANT_COUNT, 0});
+  }
+
+  @Test
+  public void swipes_afterContentChange_fetchOnlyChangedSubtree() {
+    cache.setEnabled(true);
+    swipe(1);
+    CountingNode parent = root.children.get(0);
+
+    cache.invalidate(WINDOW_ID, parent.children.get(2));
+
+    // The parent's children are fetched again, with everything below them: 4 + 16 + 64.
+    assertThat(swipe(2)).isEqualTo(new int[] {84, 0});
+  }
+
+  @Test
+  public void swipe_afterContentChange_readsNewChildren() {
+    cache.setEnabled(true);
+    swipe(1);
+    CountingNode parent = root.children.get(1);
+    CountingNode added = new CountingNode();
+    parent.children.set(3, added);
+
+    cache.invalidate(WINDOW_ID, parent.children.get(0));
+    cache.getSnapshot(root);
+    List<AccessibilityNodeInfoCompat> cached = new ArrayList<>();
+    walk(root, cached);
+
+    assertThat(cached).contains(added);
+    assertThat(swipe(1)).isEqualTo(new int[] {0});
+  }
+
+  @Test
+  public void swipes_afterChangeOfUncapturedNode_fetchChildrenAgain() {
+    cache.setEnabled(true);
+    swipe(1);
+
+    cache.invalidate(WINDOW_ID, new CountingNode());
+
+    assertThat(swipe(2)).isEqualTo(new int[] {DESCENDANT_COUNT, 0});
+  }
+
+  @Test
+  public void swipe_withCache_readsSameChildrenAsLiveNodes() {
+    cache.setEnabled(false);
+    List<AccessibilityNodeInfoCompat> live = new ArrayList<>();
+    walk(root, live);
+
+    cache.setEnabled(true);
+    cache.getSnapshot(root);
+    List<AccessibilityNodeInfoCompat> cached = new ArrayList<>();
+    walk(root, cached);
+
+    assertThat(cached).containsExactlyElementsIn(live).inOrder();
+  }
+
+  /** Returns the live children fetched by each swipe, including those fetched by a capture. */
+  private int[] swipe(int count) {
+    int[] result = new int[count];
+    for (int i = 0; i < count; i++) {
+      fetches[0] = 0;
+      // Like traversal, which captures the window before it walks it.
+      cache.getSnapshot(root);
+      walk(root, new ArrayList<>());
+      result[i] = fetches[0];
+    }
+    return result;
+  }
+
+  private static void walk(
+      AccessibilityNodeInfoCompat node, List<AccessibilityNodeInfoCompat> out) {
+    for (AccessibilityNodeInfoCompat child : WindowSnapshotCache.getInstance().getChildren(node)) {
+      out.add(child);
+      walk(child, out);
+    }
+  }
+
+  private CountingNode createTree(int depth) {
+    CountingNode node = new CountingNode();
+    if (depth > 0) {
+      for (int i = 0; i < CHILDREN_PER_NODE; i++) {
+        node.children.add(createTree(depth - 1));
+      }
+    }
+    return node;
+  }
+
+  /** A node whose children are counted as they are fetched. */
+  private class CountingNode extends AccessibilityNodeInfoCompat {
+    final List<CountingNode> children = new ArrayList<>();
+
+    @SuppressWarnings("deprecation")
+    CountingNode() {
+      super(AccessibilityNodeInfo.obtain());
+    }
+
+    @Override
+    public int getWindowId() {
+      return WINDOW_ID;
+    }
+
+    @Override
+    public int getChildCount() {
+      return children.size();
+    }
+
+    @Override
+    public AccessibilityNodeInfoCompat getChild(int index) {
+      fetches[0]++;
+      return children.get(index);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return this == other;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this);
+    }
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.output;
+
+import static android.os.Looper.getMainLooper;
+import static com.google.common.truth.Truth.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.os.Bundle;
+import android.os.Handler;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.TextToSpeech.Engine;
+import com.google.android.accessibility.utils.output.FailoverTextToSpeech.SpeechParam;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Follows utterances through {@link SpeechAudioCache}, from being spoken by the engine to being
+ * played from a cached clip, with fake tracks that record what they play.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SpeechAudioCacheTest {
+  private static final String TEXT = "Button";
+  private static final int SAMPLE_RATE = 16000;
+  private static final short[] SAMPLES = {1000, -1000, 20000, -20000};
+
+  private final List<FakeTrack> tracks = new ArrayList<>();
+  private final List<String> playbacks = new ArrayList<>();
+  private Context context;
+  private SpeechAudioCache cache;
+
+  @Before
+  public void setUp() {
+    context = RuntimeEnvironment.getApplication();
+    cache =
+        new SpeechAudioCache(
+            context,
+            new SpeechAudioCache.PlaybackListener() {
+              @Override
+              public void onPlaybackStarted(String utteranceId) {
+                playbacks.add("started " + utteranceId);
+              }
+
+              @Override
+              public void onPlaybackCompleted(String utteranceId, boolean success) {
+                playbacks.add("completed " + utteranceId + " " + success);
+              }
+            },
+            (attributes, format, bufferSizeInBytes) -> {
+              FakeTrack track = new FakeTrack(attributes);
+              tracks.add(track);
+              return track;
+            });
+    cache.setEnabled(true);
+  }
+
+  @After
+  public void tearDown() {
+    cache.setEnabled(false);
+  }
+
+  @Test
+  public void play_beforeUtteranceWasSpokenTwice_isMissed() {
+    Bundle params = createParams(AudioManager.STREAM_MUSIC);
+    String cacheKey = cache.getCacheKey(TEXT, Locale.US, params);
+    FakeTextToSpeech tts = new FakeTextToSpeech(context);
+
+    cache.onSpoken(cacheKey, TEXT, tts, params);
+
+    assertThat(tts.synthesisUtteranceId).isNull();
+    assertThat(cache.play(cacheKey, "utterance", AudioManager.STREAM_MUSIC, 1.0f)).isFalse();
+    assertThat(tracks).isEmpty();
+  }
+
+  @Test
+  public void play_afterSynthesis_playsClipSamples() {
+    String cacheKey = synthesize(AudioManager.STREAM_MUSIC);
+
+    boolean played = cache.play(cacheKey, "utterance", AudioManager.STREAM_MUSIC, 1.0f);
+
+    assertThat(played).isTrue();
+    assertThat(tracks).hasSize(1);
+    assertThat(tracks.get(0).playing).isTrue();
+    assertThat(tracks.get(0).volume).isEqualTo(1.0f);
+    assertThat(tracks.get(0).getWrittenSamples()).isEqualTo(SAMPLES);
+    assertThat(playbacks).containsExactly("started utterance");
+  }
+
+  @Test
+  public void play_playsOnStreamOfUtterance() {
+    String cacheKey = synthesize(AudioManager.STREAM_MUSIC);
+
+    cache.play(cacheKey, "utterance", AudioManager.STREAM_MUSIC, 1.0f);
+
+    assertThat(tracks).hasSize(1);
+    assertThat(tracks.get(0).attributes.getVolumeControlStream())
+        .isEqualTo(AudioManager.STREAM_MUSIC);
+    assertThat(tracks.get(0).attributes.getContentType())
+        .isEqualTo(AudioAttributes.CONTENT_TYPE_SPEECH);
+  }
+
+  @Test
+  public void play_onOtherStream_usesTrackOfThatStream() {
+    String cacheKey = synthesize(AudioManager.STREAM_MUSIC);
+
+    cache.play(cacheKey, "first", AudioManager.STREAM_MUSIC, 1.0f);
+    cache.play(cacheKey, "second", AudioManager.STREAM_ALARM, 1.0f);
+    cache.play(cacheKey, "third", AudioManager.STREAM_MUSIC, 1.0f);
+
+    assertThat(tracks).hasSize(2);
+    assertThat(tracks.get(0).attributes.getVolumeControlStream())
+        .isEqualTo(AudioManager.STREAM_MUSIC);
+    assertThat(tracks.get(1).attributes.getVolumeControlStream())
+        .isEqualTo(AudioManager.STREAM_ALARM);
+    assertThat(playbacks)
+        .containsExactly(
+            "started first",
+            "completed first false",
+            "started second",
+            "completed second false",
+            "started third")
+        .inOrder();
+  }
+
+  @Test
+  public void play_volumeWithinTrackRange_setsTrackVolume() {
+    String cacheKey = synthesize(AudioManager.STREAM_MUSIC);
+
+    cache.play(cacheKey, "utterance", AudioManager.STREAM_MUSIC, 0.5f);
+
+    assertThat(tracks.get(0).volume).isEqualTo(0.5f);
+    assertThat(tracks.get(0).getWrittenSamples()).isEqualTo(SAMPLES);
+  }
+
+  @Test
+  public void play_volumeAboveTrackMaximum_amplifiesSamples() {
+    String cacheKey = synthesize(AudioManager.STREAM_MUSIC);
+
+    cache.play(cacheKey, "utterance", AudioManager.STREAM_MUSIC, 2.0f);
+
+    assertThat(tracks.get(0).volume).isEqualTo(AudioTrack.getMaxVolume());
+    assertThat(tracks.get(0).getWrittenSamples())
+        .isEqualTo(new short[] {2000, -2000, Short.MAX_VALUE, Short.MIN_VALUE});
+  }
+
+  @Test
+  public void play_quieterAfterLouder_playsClipSamples() {
+    String cacheKey = synthesize(AudioManager.STREAM_MUSIC);
+
+    cache.play(cacheKey, "loud", AudioManager.STREAM_MUSIC, 2.0f);
+    cache.play(cacheKey, "quiet", AudioManager.STREAM_MUSIC, 1.0f);
+
+    assertThat(tracks.get(0).getWrittenSamples()).isEqualTo(SAMPLES);
+  }
+
+  /** Speaks the text until it is synthesized, and returns its cache key. */
+  private String synthesize(int stream) {
+    Bundle params = createParams(stream);
+    String cacheKey = cache.getCacheKey(TEXT, Locale.US, params);
+    assertThat(cacheKey).isNotNull();
+    FakeTextToSpeech tts = new FakeTextToSpeech(context);
+    cache.onSpoken(cacheKey, TEXT, tts, params);
+    cache.onSpoken(cacheKey, TEXT, tts, params);
+    assertThat(tts.synthesisUtteranceId).isNotNull();
+    cache.onSynthesisCompleted(tts.synthesisUtteranceId, /* success= */ true);
+    // Runs the creation of the track, which is posted to the main thread.
+    shadowOf(getMainLooper()).idle();
+    return cacheKey;
+  }
+
+  private static Bundle createParams(int stream) {
+    Bundle params = new Bundle();
+    params.putInt(SpeechParam.PITCH, 100);
+    params.putInt(SpeechParam.RATE, 100);
+    params.putInt(Engine.KEY_PARAM_STREAM, stream);
+    params.putFloat(SpeechParam.VOLUME, 1.0f);
+    return params;
+  }
+
+  /** An engine which synthesizes the same mono 16-bit samples for any text. */
+  private static final class FakeTextToSpeech extends TextToSpeech {
+    String synthesisUtteranceId;
+
+    FakeTextToSpeech(Context context) {
+      super(context, /* listener= */ null);
+    }
+
+    @Override
+    public int synthesizeToFile(CharSequence text, Bundle params, File file, String utteranceId) {
+      ByteBuffer wav = ByteBuffer.allocate(44 + 2 * SAMPLES.length).order(ByteOrder.LITTLE_ENDIAN);
+      wav.putInt(0x46464952).putInt(36 + 2 * SAMPLES.length).putInt(0x45564157); // RIFF, WAVE
+      wav.putInt(0x20746d66).putInt(16); // "fmt "
+      wav.putShort((short) 1).putShort((short) 1).putInt(SAMPLE_RATE).putInt(2 * SAMPLE_RATE);
+      wav.putShort((short) 2).putShort((short) 16);
+      wav.putInt(0x61746164).putInt(2 * SAMPLES.length); // "data"
+      for (short sample : SAMPLES) {
+        wav.putShort(sample);
+      }
+      try (FileOutputStream output = new FileOutputStream(file)) {
+        output.write(wav.array());
+      } catch (IOException e) {
+        return ERROR;
+      }
+      synthesisUtteranceId = utteranceId;
+      return SUCCESS;
+    }
+  }
+
+  /** A track which records the audio written to it, instead of playing it. */
+  private static final class FakeTrack extends AudioTrack {
+    final AudioAttributes attributes;
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    float volume = -1;
+    boolean playing = false;
+
+    FakeTrack(AudioAttributes attributes) {
+      super(
+          AudioManager.STREAM_MUSIC,
+          SAMPLE_RATE,
+          AudioFormat.CHANNEL_OUT_MONO,
+          AudioFormat.ENCODING_PCM_16BIT,
+          /* bufferSizeInBytes= */ 1024,
+          AudioTrack.MODE_STREAM);
+      this.attributes = attributes;
+    }
+
+    short[] getWrittenSamples() {
+      ByteBuffer buffer = ByteBuffer.wrap(written.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+      short[] samples = new short[buffer.remaining() / 2];
+      buffer.asShortBuffer().get(samples);
+      return samples;
+    }
+
+    @Override
+    public int write(byte[] audioData, int offsetInBytes, int sizeInBytes, int writeMode) {
+      written.write(audioData, offsetInBytes, sizeInBytes);
+      return sizeInBytes;
+    }
+
+    @Override
+    public int setVolume(float gain) {
+      volume = gain;
+      return SUCCESS;
+    }
+
+    @Override
+    public int setNotificationMarkerPosition(int markerInFrames) {
+      return SUCCESS;
+    }
+
+    @Override
+    public int setPositionNotificationPeriod(int periodInFrames) {
+      return SUCCESS;
+    }
+
+    @Override
+    public void setPlaybackPositionUpdateListener(
+        OnPlaybackPositionUpdateListener listener, Handler handler) {}
+
+    @Override
+    public boolean getTimestamp(AudioTimestamp timestamp) {
+      return false;
+    }
+
+    @Override
+    public void play() {
+      playing = true;
+    }
+
+    @Override
+    public void pause() {
+      playing = false;
+    }
+
+    @Override
+    public void flush() {
+      written.reset();
+    }
+
+    @Override
+    public void release() {}
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.parsetree;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Compares functions called through reflection with functions registered through the typed
+ * interfaces of {@link ParseTree}, on the same tree.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ParseTreeFunctionTest {
+  private static final int EVENT = 1;
+  private static final int OUTPUT_TEXT = 1;
+  private static final int OUTPUT_COUNT = 2;
+  private static final int VARIABLE_NAME = 1;
+  private static final int VARIABLE_ROLE = 2;
+  private static final int VARIABLE_VALUE = 3;
+
+  private final Delegate delegate = new Delegate();
+
+  @Test
+  public void directFunctions_returnFunctionResults() throws JSONException {
+    ParseTree direct = createTree(/* direct= */ true);
+
+    assertThat(direct.parseEventToString(EVENT, OUTPUT_TEXT, delegate).toString())
+        .isEqualTo("Send, Button");
+    assertThat(direct.parseEventToInteger(EVENT, OUTPUT_COUNT, 0, delegate)).isEqualTo(42);
+  }
+
+  @Test
+  public void directAndReflectiveFunctions_returnSameOutputs() throws JSONException {
+    ParseTree reflective = createTree(/* direct= */ false);
+    ParseTree direct = createTree(/* direct= */ true);
+
+    assertThat(direct.parseEventToString(EVENT, OUTPUT_TEXT, delegate).toString())
+        .isEqualTo(reflective.parseEventToString(EVENT, OUTPUT_TEXT, delegate).toString());
+    assertThat(direct.parseEventToInteger(EVENT, OUTPUT_COUNT, 0, delegate))
+        .isEqualTo(reflective.parseEventToInteger(EVENT, OUTPUT_COUNT, 0, delegate));
+  }
+
+  private static ParseTree createTree(boolean direct) throws JSONException {
+    ParseTree tree =
+        new ParseTree(
+            RuntimeEnvironment.getApplication().getResources(),
+            RuntimeEnvironment.getApplication().getPackageName());
+    tree.addEvent("Event", EVENT);
+    tree.addStringOutput("text", OUTPUT_TEXT);
+    tree.addIntegerOutput("count", OUTPUT_COUNT);
+    tree.addStringVariable("name", VARIABLE_NAME);
+    tree.addStringVariable("role", VARIABLE_ROLE);
+    tree.addNumberVariable("value", VARIABLE_VALUE);
+
+    Functions functions = new Functions();
+    if (direct) {
+      tree.addFunction("joinWithComma", functions::joinWithComma);
+      tree.addFunction("roundToInt", functions::roundToInt);
+    } else {
+      tree.addFunction("joinWithComma", functions);
+      tree.addFunction("roundToInt", functions);
+    }
+
+    JSONObject event = new JSONObject();
+    event.put("text", "joinWithComma($name, $role)");
+    event.put("count", "roundToInt($value)");
+    JSONObject events = new JSONObject();
+    events.put("Event", event);
+    JSONObject definition = new JSONObject();
+    definition.put("events", events);
+    tree.mergeTree(definition);
+    tree.build();
+    return tree;
+  }
+
+  /** Functions with the signatures that reflection supports, like those of the compositor. */
+  private static final class Functions {
+    @Nullable
+    CharSequence joinWithComma(@Nullable CharSequence text1, @Nullable CharSequence text2) {
+      return text1 + ", " + text2;
+    }
+
+    int roundToInt(double value) {
+      return (int) Math.round(value);
+    }
+  }
+
+  private static final class Delegate implements ParseTree.VariableDelegate {
+    @Override
+    public boolean getBoolean(int variableId) {
+      return false;
+    }
+
+    @Override
+    public int getInteger(int variableId) {
+      return 0;
+    }
+
+    @Override
+    public double getNumber(int variableId) {
+      return (variableId == VARIABLE_VALUE) ? 41.6 : 0;
+    }
+
+    @Override
+    @Nullable
+    public CharSequence getString(int variableId) {
+      switch (variableId) {
+        case VARIABLE_NAME:
+          return "Send";
+        case VARIABLE_ROLE:
+          return "Button";
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public int getEnum(int variableId) {
+      return 0;
+    }
+
+    @Override
+    @Nullable
+    public ParseTree.VariableDelegate getReference(int variableId) {
+      return null;
+    }
+
+    @Override
+    public int getArrayLength(int variableId) {
+      return 0;
+    }
+
+    @Override
+    @Nullable
+    public CharSequence getArrayStringElement(int variableId, int index) {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public ParseTree.VariableDelegate getArrayChildElement(int variableId, int index) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.accessibility.utils.parsetree;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Checks that joins nested in joins give the same text as joining their resolved strings, and that
+ * they append to the builder of the outermost join rather than building strings of their own.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ParseTreeJoinTest {
+  private static final int EVENT = 1;
+  private static final int OUTPUT_TEXT = 1;
+  private static final int OUTPUT_UNPRUNED = 2;
+  private static final int VARIABLE_NAME = 1;
+  private static final int VARIABLE_ROLE = 2;
+  private static final int VARIABLE_HINT = 3;
+  private static final int VARIABLE_EMPTY = 4;
+  private static final int VARIABLE_CHECKED = 5;
+  private static final int VARIABLE_STATE = 6;
+
+  private final Delegate delegate = new Delegate();
+  private ParseTree tree;
+
+  @Before
+  public void setUp() throws JSONException {
+    tree = createTree();
+  }
+
+  @Test
+  public void nestedJoins_pruneEmptyElementsAndTheirSeparators() {
+    delegate.checked = true;
+    assertThat(tree.parseEventToString(EVENT, OUTPUT_TEXT, delegate).toString())
+        .isEqualTo("Send Button, checked, Double tap");
+
+    delegate.checked = false;
+    assertThat(tree.parseEventToString(EVENT, OUTPUT_TEXT, delegate).toString())
+        .isEqualTo("Send Button, Double tap");
+  }
+
+  @Test
+  public void nestedJoins_withoutPruning_keepEmptyElements() {
+    assertThat(tree.parseEventToString(EVENT, OUTPUT_UNPRUNED, delegate).toString())
+        .isEqualTo("/Send-/-");
+  }
+
+  @Test
+  public void nestedJoins_appendToOutermostJoinBuilder() {
+    SinkRecordingNode outerElement = new SinkRecordingNode("Send");
+    SinkRecordingNode innerElement = new SinkRecordingNode("checked");
+    // Like the compositor's descriptions, the inner join is reached through a condition.
+    ParseTreeNode innerJoin =
+        new ParseTreeJoinNode(
+            new ParseTreeArrayNode(
+                Arrays.asList(innerElement, new ParseTreeStringConstantNode("Double tap"))),
+            ", ",
+            /* pruneEmpty= */ true);
+    ParseTreeNode condition =
+        new ParseTreeIfNode(
+            new ParseTreeBooleanConstantNode(true), innerJoin, /* onFalse= */ null);
+    ParseTreeJoinNode outerJoin =
+        new ParseTreeJoinNode(
+            new ParseTreeArrayNode(Arrays.asList(outerElement, condition)),
+            " ",
+            /* pruneEmpty= */ true);
+
+    CharSequence text = outerJoin.resolveToString(delegate, /* logIndent= */ "");
+
+    assertThat(text.toString()).isEqualTo("Send checked, Double tap");
+    assertThat(outerElement.sinks).hasSize(1);
+    assertThat(innerElement.sinks).containsExactly(outerElement.sinks.get(0));
+    assertThat(text).isSameInstanceAs(outerElement.sinks.get(0).builder);
+  }
+
+  private static ParseTree createTree() throws JSONException {
+    ParseTree tree =
+        new ParseTree(
+            RuntimeEnvironment.getApplication().getResources(),
+            RuntimeEnvironment.getApplication().getPackageName());
+    tree.addEvent("Event", EVENT);
+    tree.addStringOutput("text", OUTPUT_TEXT);
+    tree.addStringOutput("unpruned", OUTPUT_UNPRUNED);
+    tree.addStringVariable("name", VARIABLE_NAME);
+    tree.addStringVariable("role", VARIABLE_ROLE);
+    tree.addStringVariable("hint", VARIABLE_HINT);
+    tree.addStringVariable("empty", VARIABLE_EMPTY);
+    tree.addBooleanVariable("checked", VARIABLE_CHECKED);
+    tree.addStringVariable("state", VARIABLE_STATE);
+
+    // Like the compositor's descriptions: a pruning join of joins, conditions and variables.
+    JSONObject state = new JSONObject();
+    state.put("if", "$checked");
+    state.put("then", "$state");
+    JSONObject text =
+        join(
+            new JSONArray()
+                .put(join(new JSONArray().put("$name").put("$role"), " ", true))
+                .put(join(new JSONArray().put("$empty").put(state), ", ", true))
+                .put("$empty")
+                .put(join(new JSONArray().put("$hint").put("$empty"), ", ", true)),
+            ", ",
+            /* pruneEmpty= */ true);
+
+    JSONObject unpruned =
+        join(
+            new JSONArray()
+                .put("$empty")
+                .put(join(new JSONArray().put("$name").put("$empty"), "-", false))
+                .put(join(new JSONArray().put("$empty").put("$empty"), "-", false)),
+            "/",
+            /* pruneEmpty= */ false);
+
+    JSONObject event = new JSONObject();
+    event.put("text", text);
+    event.put("unpruned", unpruned);
+    JSONObject events = new JSONObject();
+    events.put("Event", event);
+    JSONObject definition = new JSONObject();
+    definition.put("events", events);
+    tree.mergeTree(definition);
+    tree.build();
+    return tree;
+  }
+
+  private static JSONObject join(JSONArray values, String separator, boolean pruneEmpty)
+      throws JSONException {
+    JSONObject join = new JSONObject();
+    join.put("join", values);
+    join.put("separator", separator);
+    join.put("prune_empty", pruneEmpty);
+    return join;
+  }
+
+  private static final class Delegate implements ParseTree.VariableDelegate {
+    boolean checked;
+
+    @Override
+    public boolean getBoolean(int variableId) {
+      return (variableId == VARIABLE_CHECKED) && checked;
+    }
+
+    @Override
+    public int getInteger(int variableId) {
+      return 0;
+    }
+
+    @Override
+    public double getNumber(int variableId) {
+      return 0;
+    }
+
+    @Override
+    @Nullable
+    public CharSequence getString(int variableId) {
+      switch (variableId) {
+        case VARIABLE_NAME:
+          return "Send";
+        case VARIABLE_ROLE:
+          return "Button";
+        case VARIABLE_HINT:
+          return "Double tap";
+        case VARIABLE_STATE:
+          return "checked";
+        case VARIABLE_EMPTY:
+          return "";
+        default:
+          return null;
+      }
+    }
+
+    @Override
+    public int getEnum(int variableId) {
+      return 0;
+    }
+
+    @Override
+    @Nullable
+    public ParseTree.VariableDelegate getReference(int variableId) {
+      return null;
+    }
+
+    @Override
+    public int getArrayLength(int variableId) {
+      return 0;
+    }
+
+    @Override
+    @Nullable
+    public CharSequence getArrayStringElement(int variableId, int index) {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public ParseTree.VariableDelegate getArrayChildElement(int variableId, int index) {
+      return null;
+    }
+  }
+
+  /** A string node that records the sinks of the joins it is appended to. */
+  private static final class SinkRecordingNode extends ParseTreeNode {
+    final List<ParseTreeJoinNode.Sink> sinks = new ArrayList<>();
+    private final String text;
+
+    SinkRecordingNode(String text) {
+      this.text = text;
+    }
+
+    @Override
+    public int getType() {
+      return ParseTree.VARIABLE_STRING;
+    }
+
+    @Override
+    public CharSequence resolveToString(ParseTree.VariableDelegate delegate, String logIndent) {
+      return text;
+    }
+
+    @Override
+    void appendToJoin(
+        ParseTree.VariableDelegate delegate, String logIndent, ParseTreeJoinNode.Sink sink) {
+      sinks.add(sink);
+      super.appendToJoin(delegate, logIndent, sink);
+    }
+  }
+}